@@ -1,11 +1,12 @@
 package org.icij.datashare;
 
 import com.google.inject.Injector;
-import org.icij.datashare.batch.BatchSearchRepository;
+import org.icij.datashare.batch.RefreshableBatchSearchRepository;
 import org.icij.datashare.db.JooqBatchSearchRepository;
+import org.icij.datashare.extract.RedisReliableBlockingQueue;
 import org.icij.datashare.mode.CommonMode;
 import org.icij.datashare.tasks.BatchSearchRunner;
-import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.BulkIndexer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,8 +33,8 @@ public class BatchSearchApp {
     public static BatchSearchApp create(Properties properties) {
         Injector injector = createInjector(CommonMode.create(properties));
         return new BatchSearchApp(
-                new BatchSearchRunner(injector.getInstance(Indexer.class),
-                        injector.getInstance(BatchSearchRepository.class),
+                new BatchSearchRunner(injector.getInstance(BulkIndexer.class),
+                        injector.getInstance(RefreshableBatchSearchRepository.class),
                         injector.getInstance(PropertiesProvider.class), nullUser()),
                 injector.getInstance(BlockingQueue.class));
     }
@@ -50,8 +51,19 @@ public class BatchSearchApp {
         while (! POISON.equals(batchId)) {
             try {
                 batchId = batchSearchQueue.poll(60, TimeUnit.SECONDS);
-                if (batchId != null && !POISON.equals(batchId)) {
-                    batchSearchRunner.run(batchId);
+                if (batchId != null) {
+                    // the poison is acked too, or it would be requeued when its lease expires
+                    try {
+                        if (POISON.equals(batchId)) {
+                            logger.info("poison received, exiting");
+                        } else if (isRedelivered(batchId)) {
+                            batchSearchRunner.resume(batchId);
+                        } else {
+                            batchSearchRunner.run(batchId);
+                        }
+                    } finally {
+                        ack(batchId);
+                    }
                 }
             } catch (JooqBatchSearchRepository.BatchNotFoundException notFound) {
                logger.warn("batch was not executed : {}", notFound.toString());
@@ -63,6 +75,17 @@ public class BatchSearchApp {
         }
     }
 
+    private boolean isRedelivered(String batchId) {
+        return batchSearchQueue instanceof RedisReliableBlockingQueue &&
+                ((RedisReliableBlockingQueue) batchSearchQueue).isRedelivered(batchId);
+    }
+
+    private void ack(String batchId) {
+        if (batchSearchQueue instanceof RedisReliableBlockingQueue) {
+            ((RedisReliableBlockingQueue) batchSearchQueue).ack(batchId);
+        }
+    }
+
     private void close() throws IOException {
         batchSearchRunner.close();
         if (batchSearchQueue instanceof Closeable) {
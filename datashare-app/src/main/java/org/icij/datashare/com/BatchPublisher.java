@@ -0,0 +1,13 @@
+package org.icij.datashare.com;
+
+import java.util.List;
+
+/**
+ * Publisher that can send several messages in one round trip to the bus.
+ */
+public interface BatchPublisher extends Publisher {
+    /**
+     * publishes the messages in order, as {@link #publish(Channel, Message)} would do one by one
+     */
+    void publish(Channel channel, List<Message> messages);
+}
@@ -9,6 +9,7 @@ import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.exceptions.JedisConnectionException;
 import redis.clients.jedis.exceptions.JedisException;
 
@@ -16,6 +17,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -24,9 +26,9 @@ import java.util.function.Consumer;
 import static java.util.Arrays.stream;
 import static org.icij.datashare.com.Message.Type.SHUTDOWN;
 
-public class RedisDataBus implements Publisher, DataBus, Closeable {
+public class RedisDataBus implements Publisher, BatchPublisher, DataBus, Closeable {
     private static Logger logger = LoggerFactory.getLogger(RedisDataBus.class);
-    private final JedisPool redis;
+    protected final JedisPool redis;
     private final Map<Consumer<Message>, JedisListener> subscribers = new ConcurrentHashMap<>();
 
     @Inject
@@ -71,6 +73,15 @@ public class RedisDataBus implements Publisher, DataBus, Closeable {
         }
     }
 
+    @Override
+    public void publish(Channel channel, List<Message> messages) {
+        try (Jedis jedis = redis.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            messages.forEach(message -> pipeline.publish(channel.name(), message.toJson()));
+            pipeline.sync();
+        }
+    }
+
     @Override
     public void close() {
         this.redis.close();
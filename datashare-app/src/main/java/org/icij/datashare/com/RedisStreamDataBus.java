@@ -0,0 +1,228 @@
+package org.icij.datashare.com;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Inject;
+import org.icij.datashare.PropertiesProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.StreamEntry;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.StreamPendingEntry;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonMap;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
+
+/**
+ * Data bus that sends the work messages (EXTRACT_NLP) to a Redis stream instead of a pub/sub channel.
+ *
+ * Stream entries are kept until they are read and acknowledged by a consumer group: they are not lost
+ * when no consumer is listening, and the entries of a consumer that died can be claimed by another one.
+ * The other messages (INIT_MONITORING, SHUTDOWN...) are still broadcast with pub/sub.
+ *
+ * The entries acknowledged by all the groups are deleted from the stream when a consumer acks its messages.
+ *
+ * Needs redis >= 5.0
+ */
+public class RedisStreamDataBus extends RedisDataBus {
+    private static final Logger logger = LoggerFactory.getLogger(RedisStreamDataBus.class);
+    static final String MESSAGE_FIELD = "message";
+    static final int TRIM_COUNT = 1000;
+    // deletes the entries older than the first entry still needed by a group: its first pending entry
+    // or, if it has none, its last delivered entry. Nothing is deleted if the stream has no group yet.
+    private static final String TRIM_SCRIPT =
+            "local function before(a, b) " +
+            "  local ams, aseq = string.match(a, '(%d+)-(%d+)') " +
+            "  local bms, bseq = string.match(b, '(%d+)-(%d+)') " +
+            "  if tonumber(ams) ~= tonumber(bms) then return tonumber(ams) < tonumber(bms) end " +
+            "  return tonumber(aseq) < tonumber(bseq) " +
+            "end " +
+            "if redis.call('exists', KEYS[1]) == 0 then return 0 end " +
+            "redis.replicate_commands() " +
+            "local bound = nil " +
+            "for _, group in ipairs(redis.call('xinfo', 'groups', KEYS[1])) do " +
+            "  local name, first = nil, nil " +
+            "  for i = 1, #group, 2 do " +
+            "    if group[i] == 'name' then name = group[i + 1] elseif group[i] == 'last-delivered-id' then first = group[i + 1] end " +
+            "  end " +
+            "  local pending = redis.call('xpending', KEYS[1], name) " +
+            "  if pending[1] > 0 then first = pending[2] end " +
+            "  if bound == nil or before(first, bound) then bound = first end " +
+            "end " +
+            "if bound == nil then return 0 end " +
+            "local ids = {} " +
+            "for _, entry in ipairs(redis.call('xrange', KEYS[1], '-', bound, 'COUNT', ARGV[1])) do " +
+            "  if before(entry[1], bound) then table.insert(ids, entry[1]) end " +
+            "end " +
+            "if #ids == 0 then return 0 end " +
+            "return redis.call('xdel', KEYS[1], unpack(ids))";
+
+    @Inject
+    public RedisStreamDataBus(PropertiesProvider propertiesProvider) {
+        super(propertiesProvider);
+    }
+
+    @Override
+    public void publish(Channel channel, Message message) {
+        if (message.type != EXTRACT_NLP) {
+            super.publish(channel, message);
+            return;
+        }
+        try (Jedis jedis = redis.getResource()) {
+            jedis.xadd(streamName(channel), StreamEntryID.NEW_ENTRY, singletonMap(MESSAGE_FIELD, message.toJson()));
+        }
+    }
+
+    @Override
+    public void publish(Channel channel, List<Message> messages) {
+        try (Jedis jedis = redis.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (Message message : messages) {
+                if (message.type == EXTRACT_NLP) {
+                    pipeline.xadd(streamName(channel), StreamEntryID.NEW_ENTRY, singletonMap(MESSAGE_FIELD, message.toJson()));
+                } else {
+                    pipeline.publish(channel.name(), message.toJson());
+                }
+            }
+            pipeline.sync();
+        }
+    }
+
+    /**
+     * creates the consumer group (and the stream) if it does not exist. The group starts
+     * at the beginning of the stream so that the messages published before are delivered.
+     */
+    public void createGroup(Channel channel, String group) {
+        try (Jedis jedis = redis.getResource()) {
+            jedis.xgroupCreate(streamName(channel), group, new StreamEntryID(), true);
+            logger.info("created consumer group {} for {}", group, streamName(channel));
+        } catch (JedisDataException ex) {
+            if (ex.getMessage() == null || !ex.getMessage().startsWith("BUSYGROUP")) {
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * reads at most count new messages for the consumer of the group. The messages read are pending
+     * until they are acknowledged with {@link #ack(Channel, String, List)}.
+     * @param blockMillis max time to wait for new messages
+     */
+    public List<StreamMessage> read(Channel channel, String group, String consumer, int count, long blockMillis) {
+        try (Jedis jedis = redis.getResource()) {
+            List<Map.Entry<String, List<StreamEntry>>> streams = jedis.xreadGroup(group, consumer, count, blockMillis, false,
+                    new AbstractMap.SimpleImmutableEntry<>(streamName(channel), StreamEntryID.UNRECEIVED_ENTRY));
+            if (streams == null || streams.isEmpty()) {
+                return emptyList();
+            }
+            return toMessages(streams.get(0).getValue());
+        }
+    }
+
+    public long ack(Channel channel, String group, List<String> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        try (Jedis jedis = redis.getResource()) {
+            long acked = jedis.xack(streamName(channel), group, ids.stream().map(StreamEntryID::new).toArray(StreamEntryID[]::new));
+            trim(jedis, channel);
+            return acked;
+        }
+    }
+
+    /**
+     * @return the number of entries of the stream, read or not
+     */
+    public long length(Channel channel) {
+        try (Jedis jedis = redis.getResource()) {
+            return jedis.xlen(streamName(channel));
+        }
+    }
+
+    private void trim(Jedis jedis, Channel channel) {
+        Object deleted = jedis.eval(TRIM_SCRIPT, singletonList(streamName(channel)), singletonList(String.valueOf(TRIM_COUNT)));
+        logger.debug("deleted {} acknowledged entries from {}", deleted, streamName(channel));
+    }
+
+    /**
+     * @return the first count messages delivered to the consumers of the group and not acknowledged yet
+     */
+    public List<StreamPendingEntry> pending(Channel channel, String group, int count) {
+        return pending(channel, group, null, count);
+    }
+
+    /**
+     * @param start the first id of the page of pending messages, null for the first page
+     */
+    public List<StreamPendingEntry> pending(Channel channel, String group, StreamEntryID start, int count) {
+        try (Jedis jedis = redis.getResource()) {
+            return jedis.xpending(streamName(channel), group, start, null, count, null);
+        }
+    }
+
+    /**
+     * transfers pending messages to the consumer, if they have not been delivered for at least minIdleMillis.
+     * @return the claimed messages
+     */
+    public List<StreamMessage> claim(Channel channel, String group, String consumer, long minIdleMillis, List<String> ids) {
+        if (ids.isEmpty()) {
+            return emptyList();
+        }
+        try (Jedis jedis = redis.getResource()) {
+            return toMessages(jedis.xclaim(streamName(channel), group, consumer, minIdleMillis, 0, 0, false,
+                    ids.stream().map(StreamEntryID::new).toArray(StreamEntryID[]::new)));
+        }
+    }
+
+    public boolean deleteStream(Channel channel) {
+        try (Jedis jedis = redis.getResource()) {
+            return jedis.del(streamName(channel)) > 0;
+        }
+    }
+
+    static String streamName(Channel channel) {
+        return "ds:stream:" + channel.name();
+    }
+
+    private List<StreamMessage> toMessages(List<StreamEntry> entries) {
+        List<StreamMessage> messages = new ArrayList<>();
+        for (StreamEntry entry : entries) {
+            // entries deleted from the stream are still pending with null fields
+            String json = entry == null || entry.getFields() == null ? null : entry.getFields().get(MESSAGE_FIELD);
+            if (json == null) {
+                continue;
+            }
+            try {
+                messages.add(new StreamMessage(entry.getID().toString(), new Message(new ObjectMapper().readValue(json, HashMap.class))));
+            } catch (IOException e) {
+                logger.error("cannot deserialize json message " + json, e);
+            }
+        }
+        return messages;
+    }
+
+    public static class StreamMessage {
+        public final String id;
+        public final Message message;
+
+        StreamMessage(String id, Message message) {
+            this.id = id;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return id + ":" + message;
+        }
+    }
+}
@@ -13,7 +13,7 @@ import org.redisson.command.CommandSyncService;
 import java.io.Closeable;
 
 public class RedisBlockingQueue extends RedissonBlockingQueue<String> implements Closeable {
-    private final RedissonClient redissonClient;
+    protected final RedissonClient redissonClient;
 
     @Inject
     public RedisBlockingQueue(PropertiesProvider propertiesProvider) {
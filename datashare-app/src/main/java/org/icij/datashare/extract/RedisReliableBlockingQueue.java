@@ -0,0 +1,176 @@
+package org.icij.datashare.extract;
+
+import com.google.inject.Inject;
+import org.icij.datashare.PropertiesProvider;
+import org.icij.extract.redis.RedissonClientFactory;
+import org.icij.task.Options;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Long.parseLong;
+import static org.icij.datashare.cli.DatashareCliOptions.BATCH_QUEUE_LEASE;
+
+/**
+ * Redis queue that can be shared by several consumers on different nodes.
+ *
+ * A polled element is atomically moved to a processing sorted set, scored with
+ * its lease expiration time (from the redis server time, so that the clocks of the nodes don't matter). While the consumer is working on it, its lease is
+ * renewed by a heartbeat. The consumer must call ack(element) when it is done.
+ *
+ * Elements whose lease has expired (i.e. their consumer has crashed) are put back
+ * at the head of the queue by the next consumer that polls or heartbeats. They are
+ * flagged as redelivered until they are acked.
+ */
+public class RedisReliableBlockingQueue extends RedisBlockingQueue {
+    static final long POLL_INTERVAL_MS = 500;
+    // the lease deadlines are computed with the redis clock, shared by the consumers of all the nodes
+    // (replicate_commands allows the writes after TIME for redis < 5)
+    private static final String NOW =
+            "redis.replicate_commands() " +
+            "local time = redis.call('time') " +
+            "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000) ";
+    private static final String POLL_SCRIPT = NOW +
+            "local element = redis.call('lpop', KEYS[1]) " +
+            "if element then redis.call('zadd', KEYS[2], now + tonumber(ARGV[1]), element) end " +
+            "return element";
+    private static final String REQUEUE_SCRIPT = NOW +
+            "local elements = redis.call('zrangebyscore', KEYS[2], '-inf', now) " +
+            "for _, element in ipairs(elements) do " +
+            "  redis.call('zrem', KEYS[2], element) " +
+            "  redis.call('lpush', KEYS[1], element) " +
+            "  redis.call('sadd', KEYS[3], element) " +
+            "end " +
+            "return #elements";
+    private static final String HEARTBEAT_SCRIPT = NOW +
+            "if redis.call('zscore', KEYS[1], ARGV[2]) then " +
+            "  redis.call('zadd', KEYS[1], now + tonumber(ARGV[1]), ARGV[2]) return 1 " +
+            "end " +
+            "return 0";
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final String processingName;
+    private final String redeliveredName;
+    private final long leaseMs;
+    private final Set<String> leasedElements = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor();
+
+    @Inject
+    public RedisReliableBlockingQueue(PropertiesProvider propertiesProvider) {
+        this(new RedissonClientFactory().withOptions(Options.from(propertiesProvider.getProperties())).create(), "ds:batchsearch:queue",
+                parseLong(propertiesProvider.get(BATCH_QUEUE_LEASE).orElse("60")) * 1000);
+    }
+
+    public RedisReliableBlockingQueue(RedissonClient redissonClient, String queueName, long leaseMs) {
+        super(redissonClient, queueName);
+        this.processingName = queueName + ":processing";
+        this.redeliveredName = queueName + ":redelivered";
+        this.leaseMs = leaseMs;
+        long heartbeatPeriod = Math.max(1, leaseMs / 3);
+        heartbeat.scheduleAtFixedRate(this::heartbeat, heartbeatPeriod, heartbeatPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String poll() {
+        requeueExpired();
+        String element = script().eval(RScript.Mode.READ_WRITE, POLL_SCRIPT, RScript.ReturnType.VALUE,
+                Arrays.asList(getName(), processingName), String.valueOf(leaseMs));
+        if (element != null) {
+            leasedElements.add(element);
+        }
+        return element;
+    }
+
+    @Override
+    public String poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        String element = poll();
+        while (element == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(Math.min(POLL_INTERVAL_MS, Math.max(1, deadline - System.currentTimeMillis())));
+            element = poll();
+        }
+        return element;
+    }
+
+    @Override
+    public String take() throws InterruptedException {
+        String element = poll();
+        while (element == null) {
+            Thread.sleep(POLL_INTERVAL_MS);
+            element = poll();
+        }
+        return element;
+    }
+
+    /**
+     * releases the lease of an element that has been processed
+     */
+    public boolean ack(String element) {
+        leasedElements.remove(element);
+        redissonClient.getSet(redeliveredName, StringCodec.INSTANCE).remove(element);
+        return redissonClient.getScoredSortedSet(processingName, StringCodec.INSTANCE).remove(element);
+    }
+
+    /**
+     * @return true if the element has been requeued because the lease of a previous consumer expired
+     */
+    public boolean isRedelivered(String element) {
+        return redissonClient.getSet(redeliveredName, StringCodec.INSTANCE).contains(element);
+    }
+
+    public int processingSize() {
+        return redissonClient.getScoredSortedSet(processingName, StringCodec.INSTANCE).size();
+    }
+
+    int requeueExpired() {
+        Long nbRequeued = script().eval(RScript.Mode.READ_WRITE, REQUEUE_SCRIPT, RScript.ReturnType.INTEGER,
+                Arrays.asList(getName(), processingName, redeliveredName));
+        if (nbRequeued != null && nbRequeued > 0) {
+            logger.warn("requeued {} element(s) with expired lease in {}", nbRequeued, getName());
+        }
+        return nbRequeued == null ? 0 : nbRequeued.intValue();
+    }
+
+    private void heartbeat() {
+        try {
+            String lease = String.valueOf(leaseMs);
+            for (String element : leasedElements) {
+                Long renewed = script().eval(RScript.Mode.READ_WRITE, HEARTBEAT_SCRIPT, RScript.ReturnType.INTEGER,
+                        Arrays.asList(processingName), lease, element);
+                if (renewed == null || renewed == 0) {
+                    logger.warn("lease for {} has been lost", element);
+                    leasedElements.remove(element);
+                }
+            }
+            requeueExpired();
+        } catch (RuntimeException ex) {
+            logger.error("error during heartbeat of " + getName(), ex);
+        }
+    }
+
+    private RScript script() {
+        return redissonClient.getScript(StringCodec.INSTANCE);
+    }
+
+    @Override
+    public boolean delete() {
+        redissonClient.getScoredSortedSet(processingName, StringCodec.INSTANCE).delete();
+        redissonClient.getSet(redeliveredName, StringCodec.INSTANCE).delete();
+        return super.delete();
+    }
+
+    @Override
+    public void close() {
+        heartbeat.shutdownNow();
+        super.close();
+    }
+}
@@ -1,6 +1,8 @@
 package org.icij.datashare.mode;
 
 import org.icij.datashare.batch.BatchSearchRepository;
+import org.icij.datashare.batch.RefreshableBatchSearchRepository;
+import org.icij.datashare.db.JooqBatchSearchRepository;
 import org.icij.datashare.db.RepositoryFactoryImpl;
 import org.icij.datashare.user.ApiKeyRepository;
 
@@ -16,7 +18,9 @@ public class CliMode extends CommonMode {
         super.configure();
 
         RepositoryFactoryImpl repositoryFactory = new RepositoryFactoryImpl(propertiesProvider);
-        bind(BatchSearchRepository.class).toInstance(repositoryFactory.createBatchSearchRepository());
+        JooqBatchSearchRepository batchSearchRepository = repositoryFactory.createBatchSearchRepository();
+        bind(BatchSearchRepository.class).toInstance(batchSearchRepository);
+        bind(RefreshableBatchSearchRepository.class).toInstance(batchSearchRepository);
         bind(ApiKeyRepository.class).toInstance(repositoryFactory.createApiKeyRepository());
         repositoryFactory.initDatabase();
     }
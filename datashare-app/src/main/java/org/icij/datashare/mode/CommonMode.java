@@ -14,22 +14,29 @@ import org.elasticsearch.client.RestHighLevelClient;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.Repository;
 import org.icij.datashare.batch.BatchSearchRepository;
+import org.icij.datashare.batch.RefreshableBatchSearchRepository;
 import org.icij.datashare.cli.Mode;
 import org.icij.datashare.com.DataBus;
 import org.icij.datashare.com.MemoryDataBus;
 import org.icij.datashare.com.Publisher;
 import org.icij.datashare.com.RedisDataBus;
+import org.icij.datashare.com.RedisStreamDataBus;
+import org.icij.datashare.db.JooqBatchSearchRepository;
 import org.icij.datashare.db.RepositoryFactoryImpl;
 import org.icij.datashare.extension.ExtensionLoader;
 import org.icij.datashare.extension.PipelineRegistry;
 import org.icij.datashare.extract.RedisUserDocumentQueue;
 import org.icij.datashare.extract.RedisUserReportMap;
 import org.icij.datashare.nlp.EmailPipeline;
+import org.icij.datashare.nlp.NlpCache;
 import org.icij.datashare.nlp.OptimaizeLanguageGuesser;
+import org.icij.datashare.nlp.RedisNlpCache;
 import org.icij.datashare.tasks.DocumentCollectionFactory;
 import org.icij.datashare.tasks.MemoryDocumentCollectionFactory;
 import org.icij.datashare.tasks.TaskFactory;
 import org.icij.datashare.tasks.TaskManager;
+import org.icij.datashare.tasks.TaskRepository;
+import org.icij.datashare.text.indexing.BulkIndexer;
 import org.icij.datashare.text.indexing.Indexer;
 import org.icij.datashare.text.indexing.LanguageGuesser;
 import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
@@ -52,6 +59,7 @@ import java.util.function.Consumer;
 import static com.fasterxml.jackson.databind.DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT;
 import static java.util.Optional.ofNullable;
 import static org.icij.datashare.PluginService.PLUGINS_BASE_URL;
+import static org.icij.datashare.cli.DatashareCliOptions.NLP_CACHE_MAX_SIZE_OPT;
 import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.createESClient;
 
 public class CommonMode extends AbstractModule {
@@ -94,7 +102,9 @@ public class CommonMode extends AbstractModule {
 
         RestHighLevelClient esClient = createESClient(propertiesProvider);
         bind(RestHighLevelClient.class).toInstance(esClient);
-        bind(Indexer.class).to(ElasticsearchIndexer.class).asEagerSingleton();
+        bind(ElasticsearchIndexer.class).asEagerSingleton();
+        bind(Indexer.class).to(ElasticsearchIndexer.class);
+        bind(BulkIndexer.class).to(ElasticsearchIndexer.class);
         bind(TaskManager.class).toInstance(new TaskManager(propertiesProvider));
         install(new FactoryModuleBuilder().build(TaskFactory.class));
 
@@ -109,11 +119,18 @@ public class CommonMode extends AbstractModule {
         DataBus dataBus;
         if ("memory".equals(propertiesProvider.getProperties().get("busType"))) {
             dataBus = new MemoryDataBus();
+        } else if ("redisStream".equals(propertiesProvider.getProperties().get("busType"))) {
+            dataBus = new RedisStreamDataBus(propertiesProvider);
         } else {
             dataBus = new RedisDataBus(propertiesProvider);
         }
         bind(DataBus.class).toInstance(dataBus);
         bind(Publisher.class).toInstance(dataBus);
+        if (Integer.parseInt(propertiesProvider.get(NLP_CACHE_MAX_SIZE_OPT).orElse("0")) > 0) {
+            bind(NlpCache.class).to(RedisNlpCache.class).asEagerSingleton();
+        } else {
+            bind(NlpCache.class).toInstance(NlpCache.DISABLED);
+        }
 
         PipelineRegistry pipelineRegistry = new PipelineRegistry(propertiesProvider);
         pipelineRegistry.register(EmailPipeline.class);
@@ -140,7 +157,10 @@ public class CommonMode extends AbstractModule {
         RepositoryFactoryImpl repositoryFactory = new RepositoryFactoryImpl(propertiesProvider);
         bind(Repository.class).toInstance(repositoryFactory.createRepository());
         bind(ApiKeyRepository.class).toInstance(repositoryFactory.createApiKeyRepository());
-        bind(BatchSearchRepository.class).toInstance(repositoryFactory.createBatchSearchRepository());
+        JooqBatchSearchRepository batchSearchRepository = repositoryFactory.createBatchSearchRepository();
+        bind(BatchSearchRepository.class).toInstance(batchSearchRepository);
+        bind(RefreshableBatchSearchRepository.class).toInstance(batchSearchRepository);
+        bind(TaskRepository.class).toInstance(repositoryFactory.createTaskRepository());
         repositoryFactory.initDatabase();
     }
 
@@ -2,6 +2,7 @@ package org.icij.datashare.mode;
 
 import net.codestory.http.routes.Routes;
 import org.icij.datashare.session.LocalUserFilter;
+import org.icij.datashare.tasks.TaskRegistry;
 import org.icij.datashare.web.*;
 
 import java.util.Map;
@@ -18,6 +19,8 @@ public class LocalMode extends CommonMode {
         bind(StatusResource.class).asEagerSingleton();
 
         configurePersistence();
+        // only the web server nodes resume the unfinished tasks and share them with the heartbeat
+        bind(TaskRegistry.class).asEagerSingleton();
     }
 
     @Override
@@ -4,6 +4,7 @@ import net.codestory.http.filters.Filter;
 import net.codestory.http.routes.Routes;
 import net.codestory.http.security.SessionIdStore;
 import org.icij.datashare.session.*;
+import org.icij.datashare.tasks.TaskRegistry;
 import org.icij.datashare.web.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +36,8 @@ public class ServerMode extends CommonMode {
         bind(Filter.class).to(authFilterClass);
         bind(StatusResource.class).asEagerSingleton();
         configurePersistence();
+        // only the web server nodes resume the unfinished tasks and share them with the heartbeat
+        bind(TaskRegistry.class).asEagerSingleton();
     }
 
     @Override
@@ -11,6 +11,7 @@ import org.icij.datashare.text.nlp.NlpStage;
 
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -37,6 +38,13 @@ import static org.icij.datashare.text.nlp.Pipeline.Type.EMAIL;
  * These fields are supposed to contain email addresses that we want to
  * save as named entities.
  *
+ * Running the regexp over the whole content is very slow on large texts with long runs of
+ * characters allowed in addresses (the regexp is tried from each of their positions). So the
+ * content is first scanned for the '@' that can separate a local part from a domain, and the regexp
+ * is only run in a window around them, bounded by the max lengths of a local part (64) and of
+ * a domain (255) from RFC 5321. When a match could go on past the window (longer addresses), the
+ * regexp is run again on the whole run of address characters, so that the emails found are the
+ * ones that the regexp finds in the whole content.
  */
 public class EmailPipeline extends AbstractPipeline {
     private static final String DEFAULT_METADATA_FIELD_PREFIX = "tika_metadata_";
@@ -50,6 +58,10 @@ public class EmailPipeline extends AbstractPipeline {
             "(?:[\\x01-\\x08\\x0b\\x0c\\x0e-\\x1f\\x21-\\x5a\\x53-\\x7f]|" +
             "\\\\[\\x01-\\x09\\x0b\\x0c\\x0e-\\x7f])+)\\])");
 
+    static final int MAX_LOCAL_PART_LENGTH = 64;
+    static final int MAX_DOMAIN_LENGTH = 255;
+    private static final String LOCAL_PART_CHARS = "abcdefghijklmnopqrstuvwxyz0123456789!#$%&'*+/=?^_`{|}~-\"";
+
     private final Set<String> parsedEmailHeaders = unmodifiableSet(new HashSet<>(asList(
             tika("Dc-Title"),
             tika("Dc-Creator"),
@@ -84,18 +96,14 @@ public class EmailPipeline extends AbstractPipeline {
     @Override
     public List<NamedEntity> process(Document doc) {
         Annotations annotations = new Annotations(doc.getId(), getType(), doc.getLanguage());
-        Matcher matcher = pattern.matcher(doc.getContent());
-        while (matcher.find()) {
-            String email = matcher.group(0);
-            int start = matcher.start();
-            annotations.add(NlpStage.NER, start, start + email.length(), NamedEntity.Category.EMAIL);
+        for (MatchResult email : findEmails(doc.getContent())) {
+            annotations.add(NlpStage.NER, email.start(), email.end(), NamedEntity.Category.EMAIL);
         }
         List<NamedEntity> neList = allFrom(doc.getContent(), annotations);
         if ("message/rfc822".equals(doc.getContentType())) {
             String metadataString = parsedEmailHeaders.stream().map(key -> doc.getMetadata().getOrDefault(key, "").toString()).collect(joining(" "));
-            Matcher metaMatcher = pattern.matcher(metadataString);
-            while (metaMatcher.find()) {
-                neList.add(NamedEntity.create(NamedEntity.Category.EMAIL, metaMatcher.group(0), -1,
+            for (MatchResult email : findEmails(metadataString)) {
+                neList.add(NamedEntity.create(NamedEntity.Category.EMAIL, email.group(), -1,
                                             doc.getId(), doc.getRootDocument(), EMAIL,
                                             doc.getLanguage()));
             }
@@ -103,6 +111,97 @@ public class EmailPipeline extends AbstractPipeline {
         return neList;
     }
 
+    /**
+     * @return the emails matched by the pattern, looking only around the '@' candidates
+     */
+    List<MatchResult> findEmails(String content) {
+        List<MatchResult> emails = new ArrayList<>();
+        Matcher matcher = pattern.matcher(content);
+        int lastEnd = 0;
+        int at = content.indexOf('@');
+        while (at >= 0) {
+            if (isSeparatorCandidate(content, at)) {
+                int from = Math.max(lastEnd, at - MAX_LOCAL_PART_LENGTH);
+                int to = Math.min(content.length(), at + 1 + MAX_DOMAIN_LENGTH);
+                matcher.region(from, to);
+                // a match starting after the '@' will be found with the window of its own '@'
+                boolean found = matcher.find() && matcher.start() <= at;
+                if (!found && runEnd(content, to) > to) {
+                    // the domain may be longer than the window
+                    found = lookingAt(matcher, from, at, runEnd(content, to));
+                }
+                if (found) {
+                    int start = runStart(content, matcher.start(), lastEnd);
+                    int end = runEnd(content, matcher.end());
+                    if (start < from || end > matcher.regionEnd()) {
+                        // the address may go on past the window
+                        matcher.region(start, end);
+                        matcher.find();
+                    }
+                    emails.add(matcher.toMatchResult());
+                    lastEnd = matcher.end();
+                }
+            }
+            at = content.indexOf('@', Math.max(lastEnd, at + 1));
+        }
+        return emails;
+    }
+
+    /**
+     * finds a match starting between from and at, without trying the positions after the '@'
+     */
+    private static boolean lookingAt(Matcher matcher, int from, int at, int to) {
+        for (int start = from; start <= at; start++) {
+            matcher.region(start, to);
+            if (matcher.lookingAt()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the start of the dot separated local part characters before index (not before lastEnd)
+     */
+    private static int runStart(String content, int index, int lastEnd) {
+        int start = index;
+        while (start > lastEnd) {
+            char previous = content.charAt(start - 1);
+            if (LOCAL_PART_CHARS.indexOf(previous) >= 0) {
+                start--;
+            } else if (previous == '.' && start - 1 > lastEnd && LOCAL_PART_CHARS.indexOf(content.charAt(start - 2)) >= 0) {
+                start--;
+            } else {
+                break;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * @return the end of the domain characters from index
+     */
+    private static int runEnd(String content, int index) {
+        int end = index;
+        while (end < content.length() && isDomainChar(content.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean isDomainChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '.' || c == '-';
+    }
+
+    private static boolean isSeparatorCandidate(String content, int at) {
+        if (at == 0 || at + 1 >= content.length()) {
+            return false;
+        }
+        char next = content.charAt(at + 1);
+        return LOCAL_PART_CHARS.indexOf(content.charAt(at - 1)) >= 0 &&
+                ((next >= 'a' && next <= 'z') || (next >= '0' && next <= '9') || next == '[');
+    }
+
     public static String tikaRawHeader(String s) {
         return tika(RAW_HEADER_FIELD_PREFIX + s);
     }
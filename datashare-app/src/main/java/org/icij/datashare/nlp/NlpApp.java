@@ -8,74 +8,150 @@ import com.google.inject.assistedinject.FactoryModuleBuilder;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.com.DataBus;
 import org.icij.datashare.com.Message;
+import org.icij.datashare.com.RedisStreamDataBus;
 import org.icij.datashare.com.ShutdownMessage;
 import org.icij.datashare.monitoring.Monitorable;
-import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.Language;
+import org.icij.datashare.text.indexing.BulkIndexer;
 import org.icij.datashare.text.nlp.AbstractPipeline;
 import org.icij.datashare.text.nlp.Pipeline;
+import org.icij.datashare.text.nlp.corenlp.CorenlpPipeline;
 import org.icij.datashare.user.User;
 import org.icij.datashare.user.UserTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
 
+import static java.lang.Boolean.parseBoolean;
 import static java.lang.Integer.parseInt;
+import static java.lang.Long.parseLong;
+import static java.lang.String.valueOf;
 import static java.lang.Integer.toHexString;
 import static java.util.Optional.ofNullable;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Stream.generate;
+import static org.icij.datashare.cli.DatashareCliOptions.NLP_BATCH_MAX_WAIT_OPT;
+import static org.icij.datashare.cli.DatashareCliOptions.NLP_BATCH_SIZE_OPT;
+import static org.icij.datashare.cli.DatashareCliOptions.NLP_CHUNK_OVERLAP_OPT;
+import static org.icij.datashare.cli.DatashareCliOptions.NLP_CHUNK_SIZE_OPT;
+import static org.icij.datashare.cli.DatashareCliOptions.NLP_LANGUAGE_ROUTING_OPT;
+import static org.icij.datashare.cli.DatashareCliOptions.NLP_MAX_PARALLELISM_OPT;
 import static org.icij.datashare.cli.DatashareCliOptions.NLP_PARALLELISM_OPT;
+import static org.icij.datashare.cli.DatashareCliOptions.NLP_STREAM_CLAIM_IDLE_OPT;
+import static org.icij.datashare.cli.DatashareCliOptions.NLP_STREAM_PREFETCH_OPT;
 
 public class NlpApp implements Runnable, Monitorable, UserTask {
     private static final long DEFAULT_TIMEOUT_MILLIS = 30 * 60 * 1000;
+    static final int DEFAULT_STREAM_PREFETCH = 100;
+    static final long DEFAULT_STREAM_CLAIM_IDLE_SECONDS = 300;
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final Pipeline pipeline;
-    private final Indexer indexer;
+    private final BulkIndexer indexer;
     private final long shutdownTimeoutMillis;
     private final boolean cleanShutdown;
     private final BlockingQueue<Message> queue;
     private final int parallelism;
+    private final int maxParallelism;
+    private final int batchSize;
+    private final long batchMaxWaitMillis;
+    private final NlpChunkProcessor chunkProcessor;
+    private final NlpCache nlpCache;
     private final NlpForwarder forwarder;
+    private final NlpStreamReader streamReader;
+    private final boolean languageRouting;
     private final User user;
+    private final String projectName;
     private ExecutorService threadPool = null;
+    private ExecutorService routerExecutor = null;
+    private Future<Integer> router = null;
+    private NlpConsumerScaler scaler = null;
+    private ScheduledExecutorService scalerExecutor = null;
 
     @AssistedInject
-    public NlpApp(final DataBus dataBus, final Indexer indexer, final PropertiesProvider propertiesProvider, @Assisted final Pipeline pipeline, @Assisted final User user) {
-        this(dataBus, indexer, pipeline, propertiesProvider.getProperties(), () -> {}, 0, false, user);
+    public NlpApp(final DataBus dataBus, final BulkIndexer indexer, final NlpCache nlpCache, final PropertiesProvider propertiesProvider,
+                  @Assisted final Pipeline pipeline, @Assisted final User user) {
+        this(dataBus, indexer, nlpCache, pipeline, propertiesProvider.getProperties(), () -> {}, 0, false, user);
     }
 
     @AssistedInject
-    public NlpApp(final DataBus dataBus, final Indexer indexer, @Assisted final Pipeline pipeline, @Assisted final Properties properties,
-                  @Assisted final User user, @Assisted final Runnable subscribeCb) {
-        this(dataBus, indexer, pipeline, properties, subscribeCb, 0, false, user);
+    public NlpApp(final DataBus dataBus, final BulkIndexer indexer, final NlpCache nlpCache, @Assisted final Pipeline pipeline,
+                  @Assisted final Properties properties, @Assisted final User user, @Assisted final Runnable subscribeCb) {
+        this(dataBus, indexer, nlpCache, pipeline, properties, subscribeCb, 0, false, user);
     }
 
-    NlpApp(final DataBus dataBus, final Indexer indexer, final Pipeline pipeline, final Properties properties,
+    NlpApp(final DataBus dataBus, final BulkIndexer indexer, final NlpCache nlpCache, final Pipeline pipeline, final Properties properties,
            Runnable subscribedCb, long shutdownTimeoutMillis, boolean cleanShutdown, User user) {
         this.pipeline = pipeline;
         this.indexer = indexer;
+        this.nlpCache = nlpCache;
         this.shutdownTimeoutMillis = shutdownTimeoutMillis == 0 ? DEFAULT_TIMEOUT_MILLIS : shutdownTimeoutMillis;
         this.cleanShutdown = cleanShutdown;
-        this.queue = new LinkedBlockingQueue<>();
         this.user = user;
+        this.projectName = properties.getProperty("defaultProject", "local-datashare");
 
         parallelism = parseInt(ofNullable(properties.getProperty(NLP_PARALLELISM_OPT)).orElse("1"));
-        forwarder = new NlpForwarder(dataBus, queue, subscribedCb);
+        batchSize = parseInt(ofNullable(properties.getProperty(NLP_BATCH_SIZE_OPT)).orElse(valueOf(NlpConsumer.DEFAULT_BATCH_SIZE)));
+        batchMaxWaitMillis = parseLong(ofNullable(properties.getProperty(NLP_BATCH_MAX_WAIT_OPT)).orElse(valueOf(NlpConsumer.DEFAULT_BATCH_MAX_WAIT_MILLIS)));
+        languageRouting = parseBoolean(properties.getProperty(NLP_LANGUAGE_ROUTING_OPT, "false")) && parallelism > 1;
+        // the language router manages its consumers, so there is no autoscaling with it
+        maxParallelism = languageRouting ? parallelism :
+                Math.max(parallelism, parseInt(ofNullable(properties.getProperty(NLP_MAX_PARALLELISM_OPT)).orElse("0")));
+        chunkProcessor = new NlpChunkProcessor(pipeline, parallelism,
+                parseInt(ofNullable(properties.getProperty(NLP_CHUNK_SIZE_OPT)).orElse(valueOf(NlpChunkProcessor.DEFAULT_CHUNK_SIZE))),
+                parseInt(ofNullable(properties.getProperty(NLP_CHUNK_OVERLAP_OPT)).orElse(valueOf(NlpChunkProcessor.DEFAULT_CHUNK_OVERLAP))));
+        if (dataBus instanceof RedisStreamDataBus) {
+            // the queue must have room for the shutdown messages of the consumers
+            int prefetch = parseInt(ofNullable(properties.getProperty(NLP_STREAM_PREFETCH_OPT)).orElse(valueOf(DEFAULT_STREAM_PREFETCH)));
+            long claimIdleSeconds = parseLong(ofNullable(properties.getProperty(NLP_STREAM_CLAIM_IDLE_OPT)).orElse(valueOf(DEFAULT_STREAM_CLAIM_IDLE_SECONDS)));
+            this.queue = isAutoscaling() ? new LinkedBlockingDeque<>(Math.max(prefetch, maxParallelism)) : new LinkedBlockingQueue<>(Math.max(prefetch, parallelism));
+            forwarder = new NlpForwarder(dataBus, queue, subscribedCb);
+            streamReader = new NlpStreamReader((RedisStreamDataBus) dataBus, queue, pipeline.getType().name(),
+                    consumerName(pipeline), claimIdleSeconds * 1000, forwarder::messageForwarded);
+        } else {
+            this.queue = isAutoscaling() ? new LinkedBlockingDeque<>() : new LinkedBlockingQueue<>();
+            forwarder = new NlpForwarder(dataBus, queue, subscribedCb);
+            streamReader = null;
+        }
     }
 
     public void run() {
         try {
-            logger.info("running NlpApp for {} pipeline with {} thread(s)", pipeline.getType(), parallelism);
-            this.threadPool = Executors.newFixedThreadPool(parallelism,
+            logger.info("running NlpApp for {} pipeline with {} thread(s) and batches of {} document(s){}", pipeline.getType(),
+                    isAutoscaling() ? parallelism + " to " + maxParallelism : parallelism, batchSize, languageRouting ? " routed by language" : "");
+            warmUpModels();
+            this.threadPool = Executors.newFixedThreadPool(maxParallelism,
                     new ThreadFactoryBuilder().setNameFormat(pipeline.getType().name() + "-%d").build());
-            generate(() -> new NlpConsumer(pipeline, indexer, queue)).limit(parallelism).forEach(l -> threadPool.submit(l));
-            forwarder.call();
+            if (streamReader == null) {
+                startConsumers(messages -> {}, messages -> {});
+                forwarder.call();
+            } else {
+                startConsumers(streamReader::ack, streamReader::release);
+                ExecutorService readerExecutor = Executors.newSingleThreadExecutor(
+                        new ThreadFactoryBuilder().setNameFormat(pipeline.getType().name() + "-stream-reader").build());
+                Future<Integer> reader = readerExecutor.submit(streamReader);
+                forwarder.call();
+                logger.info("forwarder exited waiting for stream reader to drain the stream");
+                streamReader.drain();
+                readerExecutor.shutdown();
+                reader.get();
+            }
             logger.info("forwarder exited waiting for consumer(s) to finish");
             shutdown();
         } catch (Throwable throwable) {
@@ -84,10 +160,52 @@ public class NlpApp implements Runnable, Monitorable, UserTask {
         logger.info("exiting run");
     }
 
-    private void shutdown() throws InterruptedException {
-        waitForQueueToBeEmpty();
-        threadPool.shutdown();
-        generate(() -> queue.offer(new ShutdownMessage())).limit(parallelism).collect(toList()); // trying to clean exit
+    private void startConsumers(Consumer<List<Message>> acknowledger, Consumer<List<Message>> releaser) {
+        if (languageRouting) {
+            // the bound of the queue (prefetched stream messages) is kept for the messages routed to the languages
+            NlpLanguageRouter languageRouter = new NlpLanguageRouter(queue, threadPool,
+                    languageQueue -> newConsumer(languageQueue, acknowledger, releaser),
+                    parallelism, queue.remainingCapacity(), NlpLanguageRouter.DEFAULT_REBALANCE_MILLIS);
+            routerExecutor = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat(pipeline.getType().name() + "-language-router").build());
+            router = routerExecutor.submit(languageRouter);
+        } else if (isAutoscaling()) {
+            scaler = new NlpConsumerScaler((BlockingDeque<Message>) queue, threadPool,
+                    () -> newConsumer(queue, messages -> {
+                        scaler.documentsProcessed(messages);
+                        acknowledger.accept(messages);
+                    }, releaser), parallelism, maxParallelism, NlpConsumerScaler.DEFAULT_INTERVAL_MILLIS);
+            scaler.start();
+            scalerExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat(pipeline.getType().name() + "-scaler").build());
+            scalerExecutor.scheduleAtFixedRate(scaler, NlpConsumerScaler.DEFAULT_INTERVAL_MILLIS, NlpConsumerScaler.DEFAULT_INTERVAL_MILLIS, MILLISECONDS);
+        } else {
+            generate(() -> newConsumer(queue, acknowledger, releaser)).limit(parallelism).forEach(l -> threadPool.submit(l));
+        }
+    }
+
+    private NlpConsumer newConsumer(BlockingQueue<Message> consumerQueue, Consumer<List<Message>> acknowledger, Consumer<List<Message>> releaser) {
+        return NlpConsumer.builder(pipeline, indexer, consumerQueue).withChunkProcessor(chunkProcessor).withCache(nlpCache).
+                withBatch(batchSize, batchMaxWaitMillis).withAcknowledger(acknowledger).withReleaser(releaser).build();
+    }
+
+    private void shutdown() throws InterruptedException, ExecutionException {
+        if (router != null) {
+            queue.put(new ShutdownMessage()); // the router sends the shutdown messages to the consumers when all the messages are taken
+            router.get();
+            routerExecutor.shutdown();
+            threadPool.shutdown();
+        } else {
+            waitForQueueToBeEmpty();
+            int nbConsumers = parallelism;
+            if (scalerExecutor != null) {
+                scalerExecutor.shutdown();
+                scalerExecutor.awaitTermination(shutdownTimeoutMillis, MILLISECONDS);
+                nbConsumers = scaler.getConsumers();
+            }
+            threadPool.shutdown();
+            generate(() -> queue.offer(new ShutdownMessage())).limit(nbConsumers).collect(toList()); // trying to clean exit
+        }
         boolean threadPoolExited = false;
         while (!(threadPoolExited = threadPool.awaitTermination(shutdownTimeoutMillis, MILLISECONDS))) {
             if (cleanShutdown) {
@@ -105,6 +223,11 @@ public class NlpApp implements Runnable, Monitorable, UserTask {
                 break;
             }
         }
+        chunkProcessor.close();
+    }
+
+    private boolean isAutoscaling() {
+        return maxParallelism > parallelism;
     }
 
     private void waitForQueueToBeEmpty() throws InterruptedException {
@@ -115,6 +238,28 @@ public class NlpApp implements Runnable, Monitorable, UserTask {
         }
     }
 
+    private void warmUpModels() {
+        if (pipeline instanceof CorenlpPipeline) {
+            try {
+                List<Language> languages = indexer.getLanguages(projectName);
+                int nbLanguages = ((CorenlpPipeline) pipeline).warmUp(languages);
+                logger.info("loaded models of {} language(s) among {} of project {}", nbLanguages, languages, projectName);
+            } catch (IOException | RuntimeException | InterruptedException e) {
+                logger.warn("cannot warm up models for project {}", projectName, e);
+            }
+        }
+    }
+
+    private static String consumerName(Pipeline pipeline) {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "unknown";
+        }
+        return pipeline.getType().name() + "-" + host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
     @Override
     public double getProgressRate() {
         return forwarder.getProgressRate();
@@ -132,9 +277,9 @@ public class NlpApp implements Runnable, Monitorable, UserTask {
 
     public static class NlpModule extends AbstractModule {
         private final Class<? extends AbstractPipeline> pipelineClass;
-        private final Class<? extends Indexer> indexerClass;
+        private final Class<? extends BulkIndexer> indexerClass;
 
-        NlpModule(Class<? extends AbstractPipeline> pipelineClass, Class<? extends Indexer> indexerClass) {
+        NlpModule(Class<? extends AbstractPipeline> pipelineClass, Class<? extends BulkIndexer> indexerClass) {
             this.pipelineClass = pipelineClass;
             this.indexerClass = indexerClass;
         }
@@ -143,7 +288,7 @@ public class NlpApp implements Runnable, Monitorable, UserTask {
         public void configure() {
             bind(PropertiesProvider.class).toInstance(new PropertiesProvider());
             bind(AbstractPipeline.class).to(pipelineClass).asEagerSingleton();
-            bind(Indexer.class).to(indexerClass).asEagerSingleton();
+            bind(BulkIndexer.class).to(indexerClass).asEagerSingleton();
             install(new FactoryModuleBuilder().build(NlpAppFactory.class));
         }
         interface NlpAppFactory {
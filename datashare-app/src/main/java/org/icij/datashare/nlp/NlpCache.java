@@ -0,0 +1,49 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.nlp.Pipeline;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Cache of the named entities found by a pipeline in a document content,
+ * so that the same content indexed in several projects (or extracted again) is not processed twice.
+ */
+public interface NlpCache {
+    NlpCache DISABLED = new NlpCache() {
+        @Override
+        public Optional<List<NamedEntity>> get(Pipeline pipeline, Document doc, String chunking) { return Optional.empty();}
+        @Override
+        public void put(Pipeline pipeline, Document doc, String chunking, List<NamedEntity> namedEntities) {}
+        @Override
+        public Stats getStats() { return new Stats(0, 0, 0);}
+    };
+
+    /**
+     * @param chunking how the document is split by the {@link NlpChunkProcessor}
+     * @return the named entities of the document found in the cache, with its id and root document
+     */
+    Optional<List<NamedEntity>> get(Pipeline pipeline, Document doc, String chunking);
+
+    void put(Pipeline pipeline, Document doc, String chunking, List<NamedEntity> namedEntities);
+
+    Stats getStats();
+
+    class Stats {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+
+        public Stats(long hits, long misses, long evictions) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        public double getHitRate() {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.DocumentBuilder;
+import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.nlp.Pipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static java.util.stream.Collectors.toList;
+import static org.icij.datashare.text.DocumentBuilder.createDoc;
+
+/**
+ * Processes the large documents by chunks, in parallel, so that one big document
+ * does not keep a single NLP thread busy while the others are idle.
+ *
+ * The content is split at sentence boundaries (end of sentence punctuation followed by
+ * whitespace, or an empty line) into chunks of about chunkSize chars. Each chunk "owns" a range
+ * of the content, and is extended by about overlap chars of context on each side. The named entities
+ * of a chunk are kept only if they start in its owned range, and their offsets are shifted to the
+ * document offsets, so that the merged entities are the ones of a single pass processing.
+ *
+ * The chunks are processed on a fork join pool bounded by the NLP parallelism.
+ */
+public class NlpChunkProcessor implements Closeable {
+    static final int DEFAULT_CHUNK_SIZE = 1_000_000;
+    static final int DEFAULT_CHUNK_OVERLAP = 1_000;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Pipeline pipeline;
+    private final int chunkSize;
+    private final int overlap;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param chunkSize documents up to chunkSize chars are processed in one pass. 0 disables the chunking.
+     */
+    public NlpChunkProcessor(Pipeline pipeline, int parallelism, int chunkSize, int overlap) {
+        this.pipeline = pipeline;
+        this.chunkSize = chunkSize;
+        this.overlap = Math.max(0, overlap);
+        this.pool = chunkSize > 0 ? new ForkJoinPool(Math.max(1, parallelism)) : null;
+    }
+
+    static NlpChunkProcessor singlePass(Pipeline pipeline) {
+        return new NlpChunkProcessor(pipeline, 1, 0, 0);
+    }
+
+    public List<NamedEntity> process(Document doc) throws InterruptedException {
+        String content = doc.getContent();
+        if (isSinglePass(content)) {
+            return pipeline.process(doc);
+        }
+        List<Chunk> chunks = split(content, chunkSize, overlap);
+        logger.info("processing document {} of {} chars with {} chunks", doc.getId(), content.length(), chunks.size());
+        List<Callable<List<NamedEntity>>> tasks = chunks.stream()
+                .map(chunk -> (Callable<List<NamedEntity>>) () -> process(doc, chunk)).collect(toList());
+
+        Set<NamedEntity> namedEntities = new LinkedHashSet<>();
+        for (Future<List<NamedEntity>> chunkEntities : pool.invokeAll(tasks)) {
+            try {
+                namedEntities.addAll(chunkEntities.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof InterruptedException) {
+                    throw (InterruptedException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException("cannot process chunk of document " + doc.getId(), e.getCause());
+            }
+        }
+        return namedEntities.stream().sorted(Comparator.comparingLong(NamedEntity::getOffset)).collect(toList());
+    }
+
+    /**
+     * @return how the document is split, as the named entities found near the chunk boundaries depend on it :
+     * "0" if it is processed in one pass, "chunkSize/overlap" otherwise
+     */
+    public String chunking(Document doc) {
+        return isSinglePass(doc.getContent()) ? "0" : chunkSize + "/" + overlap;
+    }
+
+    private boolean isSinglePass(String content) {
+        return pool == null || content == null || content.length() <= chunkSize;
+    }
+
+    private List<NamedEntity> process(Document doc, Chunk chunk) throws InterruptedException {
+        DocumentBuilder chunkBuilder = createDoc(doc.getId()).with(doc.getContent().substring(chunk.start, chunk.end))
+                .with(doc.getLanguage()).withRootId(doc.getRootDocument());
+        if (chunk.start == 0) {
+            // entities found in the metadata (like email headers) have no offset, they are only looked up once
+            chunkBuilder.ofMimeType(doc.getContentType());
+            if (doc.getMetadata() != null) {
+                chunkBuilder.with(doc.getMetadata());
+            }
+        }
+        List<NamedEntity> namedEntities = new ArrayList<>();
+        for (NamedEntity ne : pipeline.process(chunkBuilder.build())) {
+            if (ne.getOffset() < 0) {
+                namedEntities.add(ne);
+                continue;
+            }
+            int offset = chunk.start + (int) ne.getOffset();
+            if (offset >= chunk.ownedStart && offset < chunk.ownedEnd) {
+                namedEntities.add(NamedEntity.create(ne.getCategory(), ne.getMention(), offset,
+                        doc.getId(), doc.getRootDocument(), ne.getExtractor(), ne.getExtractorLanguage()));
+            }
+        }
+        return namedEntities;
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    static List<Chunk> split(String content, int chunkSize, int overlap) {
+        List<Chunk> chunks = new ArrayList<>();
+        int length = content.length();
+        int ownedStart = 0;
+        while (ownedStart < length) {
+            int ownedEnd = length;
+            if (length - ownedStart > chunkSize) {
+                ownedEnd = sentenceStartBefore(content, ownedStart + chunkSize, ownedStart + chunkSize / 2);
+            }
+            int start = ownedStart == 0 ? 0 : sentenceStartBefore(content, Math.max(0, ownedStart - overlap), Math.max(0, ownedStart - 2 * overlap));
+            int end = ownedEnd == length ? length : sentenceStartAfter(content, Math.min(length, ownedEnd + overlap), Math.min(length, ownedEnd + 2 * overlap));
+            chunks.add(new Chunk(start, end, ownedStart, ownedEnd));
+            ownedStart = ownedEnd;
+        }
+        return chunks;
+    }
+
+    /**
+     * @return the last sentence start in [lowerBound, pos] or pos if there are none (i.e. the content is cut)
+     */
+    static int sentenceStartBefore(String content, int pos, int lowerBound) {
+        for (int i = pos; i >= lowerBound; i--) {
+            if (isSentenceStart(content, i)) {
+                return i;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * @return the first sentence start in [pos, upperBound] or pos if there are none (i.e. the content is cut)
+     */
+    static int sentenceStartAfter(String content, int pos, int upperBound) {
+        for (int i = pos; i <= upperBound; i++) {
+            if (isSentenceStart(content, i)) {
+                return i;
+            }
+        }
+        return pos;
+    }
+
+    static boolean isSentenceStart(String content, int i) {
+        if (i <= 0 || i >= content.length()) {
+            return true;
+        }
+        if (Character.isWhitespace(content.charAt(i)) || !Character.isWhitespace(content.charAt(i - 1))) {
+            return false;
+        }
+        int nbNewLines = 0;
+        int j = i - 1;
+        for (; j >= 0 && Character.isWhitespace(content.charAt(j)); j--) {
+            if (content.charAt(j) == '\n' && ++nbNewLines == 2) {
+                return true;
+            }
+        }
+        return j >= 0 && ".!?".indexOf(content.charAt(j)) >= 0;
+    }
+
+    static class Chunk {
+        final int start;
+        final int end;
+        final int ownedStart;
+        final int ownedEnd;
+
+        Chunk(int start, int end, int ownedStart, int ownedEnd) {
+            this.start = start;
+            this.end = end;
+            this.ownedStart = ownedStart;
+            this.ownedEnd = ownedEnd;
+        }
+
+        @Override
+        public String toString() {
+            return "Chunk[" + start + "-" + end + " owns " + ownedStart + "-" + ownedEnd + "]";
+        }
+    }
+}
@@ -3,31 +3,84 @@ package org.icij.datashare.nlp;
 import com.google.inject.Inject;
 import org.icij.datashare.com.Message;
 import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
 import org.icij.datashare.text.NamedEntity;
-import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.BulkIndexer;
 import org.icij.datashare.text.nlp.DatashareListener;
 import org.icij.datashare.text.nlp.Pipeline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+import static java.lang.System.currentTimeMillis;
+import static java.util.Arrays.stream;
+import static java.util.Collections.newSetFromMap;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Stream.concat;
 import static org.icij.datashare.com.Message.Field.*;
 
+/**
+ * Consumes the EXTRACT_NLP messages by batches of at most batchSize messages.
+ * A batch is processed as soon as it is full, or when batchMaxWaitMillis have elapsed
+ * since its first message, so that latency stays bounded when there are few documents to process.
+ *
+ * The documents of a batch are fetched with one multi get request (with only the fields
+ * needed by the pipelines) and their named entities are written with one bulk request.
+ * The messages whose documents have been processed are then passed to the acknowledger, the other ones
+ * (error while processing the document, or named entities not written) are passed to the releaser: an error
+ * on one document does not release the other documents of its batch.
+ * Large documents are processed by chunks in parallel (see {@link NlpChunkProcessor}), and the
+ * named entities of contents already processed are taken from the {@link NlpCache}.
+ */
 public class NlpConsumer implements DatashareListener {
-    private final Indexer indexer;
+    static final String[] NLP_SOURCE_FIELDS = {"content", "language", "rootDocument", "contentType", "path"};
+    static final int DEFAULT_BATCH_SIZE = 1;
+    static final long DEFAULT_BATCH_MAX_WAIT_MILLIS = 500;
+    private final BulkIndexer indexer;
     private final BlockingQueue<Message> messageQueue;
     private final Pipeline nlpPipeline;
+    private final NlpChunkProcessor chunkProcessor;
+    private final NlpCache nlpCache;
+    private final int batchSize;
+    private final long batchMaxWaitMillis;
+    private final Consumer<List<Message>> acknowledger;
+    private final Consumer<List<Message>> releaser;
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     @Inject
-    public NlpConsumer(Pipeline pipeline, Indexer indexer, BlockingQueue<Message> messageQueue) {
-        this.indexer = indexer;
-        this.messageQueue = messageQueue;
-        this.nlpPipeline = pipeline;
+    public NlpConsumer(Pipeline pipeline, BulkIndexer indexer, BlockingQueue<Message> messageQueue) {
+        this(builder(pipeline, indexer, messageQueue));
+    }
+
+    private NlpConsumer(Builder builder) {
+        this.indexer = builder.indexer;
+        this.messageQueue = builder.messageQueue;
+        this.nlpPipeline = builder.pipeline;
+        this.chunkProcessor = builder.chunkProcessor == null ? NlpChunkProcessor.singlePass(builder.pipeline) : builder.chunkProcessor;
+        this.nlpCache = builder.nlpCache;
+        this.batchSize = Math.max(1, builder.batchSize);
+        this.batchMaxWaitMillis = builder.batchMaxWaitMillis;
+        this.acknowledger = builder.acknowledger;
+        this.releaser = builder.releaser;
+    }
+
+    static Builder builder(Pipeline pipeline, BulkIndexer indexer, BlockingQueue<Message> messageQueue) {
+        return new Builder(pipeline, indexer, messageQueue);
     }
 
     @Override
@@ -35,13 +88,15 @@ public class NlpConsumer implements DatashareListener {
         boolean exitAsked = false;
         int nbMessages = 0;
         while (! exitAsked) {
+            List<Message> batch = new ArrayList<>();
             try {
                 Message message = messageQueue.poll(30, TimeUnit.SECONDS);
-                if (message != null) {
+                boolean received = message != null;
+                long batchDeadline = currentTimeMillis() + batchMaxWaitMillis;
+                while (message != null) {
                     switch (message.type) {
                         case EXTRACT_NLP:
-                            findNamedEntities(message.content.get(INDEX_NAME), message.content.get(DOC_ID), message.content.get(R_ID));
-                            nbMessages++;
+                            batch.add(message);
                             break;
                         case SHUTDOWN:
                             exitAsked = true;
@@ -49,6 +104,25 @@ public class NlpConsumer implements DatashareListener {
                         default:
                             logger.info("ignore {}", message);
                     }
+                    if (exitAsked || batch.size() >= batchSize) {
+                        break;
+                    }
+                    message = messageQueue.poll(batchDeadline - currentTimeMillis(), TimeUnit.MILLISECONDS);
+                }
+                if (!batch.isEmpty()) {
+                    List<Message> processed = findNamedEntities(batch);
+                    if (!processed.isEmpty()) {
+                        acknowledger.accept(processed);
+                    }
+                    if (processed.size() < batch.size()) {
+                        Set<Message> processedMessages = newSetFromMap(new IdentityHashMap<>());
+                        processedMessages.addAll(processed);
+                        releaser.accept(batch.stream().filter(m -> !processedMessages.contains(m)).collect(toList()));
+                    }
+                    nbMessages += batch.size();
+                    batch.clear();
+                }
+                if (received) {
                     synchronized (messageQueue) {
                         if (messageQueue.isEmpty()) {
                             logger.debug("queue is empty notifying messageQueue {}", messageQueue.hashCode());
@@ -58,28 +132,165 @@ public class NlpConsumer implements DatashareListener {
                 }
             } catch (Throwable e) {
                 logger.warn("error in consumer main loop", e);
+                if (!batch.isEmpty()) {
+                    releaser.accept(batch);
+                }
             }
         }
         logger.info("exiting main loop");
         return nbMessages;
     }
 
-    void findNamedEntities(final String projectName, final String id, final String routing) throws InterruptedException {
+    boolean findNamedEntities(final String projectName, final String id, final String routing) throws InterruptedException {
+        return findNamedEntities(projectName, singletonList(id), singletonList(routing)).isEmpty();
+    }
+
+    /**
+     * @return the messages that have been processed
+     */
+    private List<Message> findNamedEntities(List<Message> messages) throws InterruptedException {
+        List<Message> processed = new ArrayList<>();
+        Map<String, List<Message>> messagesByProject = messages.stream().collect(groupingBy(m -> m.content.get(INDEX_NAME), LinkedHashMap::new, toList()));
+        for (Map.Entry<String, List<Message>> projectMessages : messagesByProject.entrySet()) {
+            Set<String> failedIds = findNamedEntities(projectMessages.getKey(),
+                    projectMessages.getValue().stream().map(m -> m.content.get(DOC_ID)).collect(toList()),
+                    projectMessages.getValue().stream().map(m -> m.content.get(R_ID)).collect(toList()));
+            processed.addAll(projectMessages.getValue().stream().filter(m -> !failedIds.contains(m.content.get(DOC_ID))).collect(toList()));
+        }
+        return processed;
+    }
+
+    /**
+     * an error on a document does not prevent the other documents of the batch to be processed.
+     * @return the ids of the documents whose named entities could not be extracted or written
+     * (documents not found are not in error)
+     */
+    Set<String> findNamedEntities(final String projectName, final List<String> ids, final List<String> routings) throws InterruptedException {
+        List<Document> docs;
         try {
-            Document doc = indexer.get(projectName, id, routing);
-            if (doc != null) {
-                logger.info("extracting {} entities for document {}", nlpPipeline.getType(), doc.getId());
-                if (nlpPipeline.initialize(doc.getLanguage())) {
-                    List<NamedEntity> namedEntities = nlpPipeline.process(doc);
-                    indexer.bulkAdd(projectName, nlpPipeline.getType(), namedEntities, doc);
-                    logger.info("added {} named entities to document {}", namedEntities.size(), doc.getId());
-                    nlpPipeline.terminate(doc.getLanguage());
+            docs = indexer.get(projectName, ids, routings, sourceFields());
+        } catch (IOException | RuntimeException e) {
+            logger.error("cannot get docs " + ids, e);
+            return new HashSet<>(ids);
+        }
+        if (docs.size() < ids.size()) {
+            logger.warn("{} document(s) not found in index {} among {}", ids.size() - docs.size(), projectName, ids);
+        }
+        Set<String> failedIds = new HashSet<>();
+        Map<Document, List<NamedEntity>> namedEntities = new LinkedHashMap<>();
+        for (Document doc : docs) {
+            try {
+                findNamedEntities(doc).ifPresent(docNamedEntities -> namedEntities.put(doc, docNamedEntities));
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                logger.error("cannot extract entities of doc " + doc.getId(), e);
+                failedIds.add(doc.getId());
+            }
+        }
+        if (!namedEntities.isEmpty()) {
+            List<String> writtenIds = namedEntities.keySet().stream().map(Document::getId).collect(toList());
+            try {
+                if (indexer.bulkAdd(projectName, nlpPipeline.getType(), namedEntities)) {
+                    logger.info("added {} named entities to {} document(s)",
+                            namedEntities.values().stream().mapToInt(List::size).sum(), namedEntities.size());
+                } else {
+                    logger.error("cannot add named entities of docs {}", writtenIds);
+                    failedIds.addAll(writtenIds);
                 }
-            } else {
-                logger.warn("no document found in index with id " + id);
+            } catch (IOException | RuntimeException e) {
+                logger.error("cannot add named entities of docs " + writtenIds, e);
+                failedIds.addAll(writtenIds);
             }
-        } catch (IOException e) {
-            logger.error("cannot extract entities of doc " + id, e);
+        }
+        return failedIds;
+    }
+
+    /**
+     * @return the named entities of the document, empty if the pipeline cannot be initialized for its language
+     */
+    private Optional<List<NamedEntity>> findNamedEntities(Document doc) throws InterruptedException {
+        String chunking = chunkProcessor.chunking(doc);
+        Optional<List<NamedEntity>> cached = nlpCache.get(nlpPipeline, doc, chunking);
+        if (cached.isPresent()) {
+            logger.info("found {} {} entities for document {} in cache", cached.get().size(), nlpPipeline.getType(), doc.getId());
+            return cached;
+        }
+        logger.info("extracting {} entities for document {}", nlpPipeline.getType(), doc.getId());
+        Language language = doc.getLanguage();
+        if (!nlpPipeline.initialize(language)) {
+            return Optional.empty();
+        }
+        try {
+            List<NamedEntity> docNamedEntities = chunkProcessor.process(doc);
+            nlpCache.put(nlpPipeline, doc, chunking, docNamedEntities);
+            return Optional.of(docNamedEntities);
+        } finally {
+            nlpPipeline.terminate(language); // releases the models
+        }
+    }
+
+    private String[] sourceFields() {
+        if (nlpPipeline.getType() == Pipeline.Type.EMAIL) {
+            return concat(stream(NLP_SOURCE_FIELDS), Stream.of("metadata")).toArray(String[]::new); // for email headers
+        }
+        return NLP_SOURCE_FIELDS;
+    }
+
+    static class Builder {
+        private final Pipeline pipeline;
+        private final BulkIndexer indexer;
+        private final BlockingQueue<Message> messageQueue;
+        private NlpChunkProcessor chunkProcessor;
+        private NlpCache nlpCache = NlpCache.DISABLED;
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        private long batchMaxWaitMillis = DEFAULT_BATCH_MAX_WAIT_MILLIS;
+        private Consumer<List<Message>> acknowledger = messages -> {};
+        private Consumer<List<Message>> releaser = messages -> {};
+
+        private Builder(Pipeline pipeline, BulkIndexer indexer, BlockingQueue<Message> messageQueue) {
+            this.pipeline = pipeline;
+            this.indexer = indexer;
+            this.messageQueue = messageQueue;
+        }
+
+        Builder withChunkProcessor(NlpChunkProcessor chunkProcessor) {
+            this.chunkProcessor = chunkProcessor;
+            return this;
+        }
+
+        Builder withCache(NlpCache nlpCache) {
+            this.nlpCache = nlpCache;
+            return this;
+        }
+
+        /**
+         * @param batchMaxWaitMillis max time to wait for the messages of an incomplete batch
+         */
+        Builder withBatch(int batchSize, long batchMaxWaitMillis) {
+            this.batchSize = batchSize;
+            this.batchMaxWaitMillis = batchMaxWaitMillis;
+            return this;
+        }
+
+        /**
+         * @param acknowledger receives the messages whose documents have been processed
+         */
+        Builder withAcknowledger(Consumer<List<Message>> acknowledger) {
+            this.acknowledger = acknowledger;
+            return this;
+        }
+
+        /**
+         * @param releaser receives the messages whose documents could not be processed
+         */
+        Builder withReleaser(Consumer<List<Message>> releaser) {
+            this.releaser = releaser;
+            return this;
+        }
+
+        NlpConsumer build() {
+            return new NlpConsumer(this);
         }
     }
 }
@@ -0,0 +1,127 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.com.Message;
+import org.icij.datashare.com.ShutdownMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Grows and shrinks the number of consumers of the NLP queue between min and max consumers.
+ *
+ * At each run (scheduled every intervalMillis):
+ * - if the free heap is under {@link #MIN_FREE_HEAP} of the max heap, a consumer is retired
+ * (model-heavy pipelines use a lot of memory per document)
+ * - else if the queue is empty, an idle consumer is retired
+ * - else if the queue cannot be processed in one interval by the current consumers (estimated with the
+ * mean processing time of the documents since the previous run) and the free heap is over
+ * {@link #SCALE_UP_FREE_HEAP} of the max heap, a consumer is started.
+ *
+ * The consumers are started in the executor (that should have max consumers threads) and retired with
+ * a shutdown message put in front of the queue. The processed documents are counted with
+ * {@link #documentsProcessed(List)} that must be called by the consumers when they acknowledge messages.
+ */
+class NlpConsumerScaler implements Runnable {
+    static final long DEFAULT_INTERVAL_MILLIS = 5000;
+    static final double MIN_FREE_HEAP = 0.1;
+    static final double SCALE_UP_FREE_HEAP = 0.25;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final BlockingDeque<Message> queue;
+    private final ExecutorService executor;
+    private final Supplier<NlpConsumer> consumerFactory;
+    private final int minConsumers;
+    private final int maxConsumers;
+    private final long intervalMillis;
+    private final DoubleSupplier freeHeapRatio;
+    private final AtomicInteger consumers = new AtomicInteger(0);
+    private final AtomicLong processed = new AtomicLong(0);
+    private long lastRunNanos = System.nanoTime();
+
+    NlpConsumerScaler(BlockingDeque<Message> queue, ExecutorService executor, Supplier<NlpConsumer> consumerFactory,
+                      int minConsumers, int maxConsumers, long intervalMillis) {
+        this(queue, executor, consumerFactory, minConsumers, maxConsumers, intervalMillis, NlpConsumerScaler::freeHeapRatio);
+    }
+
+    NlpConsumerScaler(BlockingDeque<Message> queue, ExecutorService executor, Supplier<NlpConsumer> consumerFactory,
+                      int minConsumers, int maxConsumers, long intervalMillis, DoubleSupplier freeHeapRatio) {
+        this.queue = queue;
+        this.executor = executor;
+        this.consumerFactory = consumerFactory;
+        this.minConsumers = Math.max(1, minConsumers);
+        this.maxConsumers = Math.max(this.minConsumers, maxConsumers);
+        this.intervalMillis = intervalMillis;
+        this.freeHeapRatio = freeHeapRatio;
+    }
+
+    /**
+     * starts the min number of consumers
+     */
+    void start() {
+        for (int i = 0; i < minConsumers; i++) {
+            startConsumer();
+        }
+    }
+
+    @Override
+    public void run() {
+        long now = System.nanoTime();
+        long elapsedMillis = Math.max(1, (now - lastRunNanos) / 1_000_000);
+        lastRunNanos = now;
+        long nbProcessed = processed.getAndSet(0);
+        int nbConsumers = consumers.get();
+        int backlog = queue.size();
+        double freeHeap = freeHeapRatio.getAsDouble();
+
+        if (freeHeap < MIN_FREE_HEAP && nbConsumers > minConsumers) {
+            logger.info("free heap is {}%, retiring one of {} consumers", (int) (freeHeap * 100), nbConsumers);
+            retireConsumer();
+        } else if (backlog == 0 && nbConsumers > minConsumers) {
+            logger.info("queue is empty, retiring one of {} consumers", nbConsumers);
+            retireConsumer();
+        } else if (backlog > 0 && nbConsumers < maxConsumers && freeHeap > SCALE_UP_FREE_HEAP &&
+                drainMillis(backlog, nbProcessed, elapsedMillis) > intervalMillis) {
+            logger.info("{} document(s) in queue processed in {}ms per document and consumer, starting consumer {}/{}",
+                    backlog, nbProcessed == 0 ? ">" + elapsedMillis : nbConsumers * elapsedMillis / nbProcessed, nbConsumers + 1, maxConsumers);
+            startConsumer();
+        }
+    }
+
+    void documentsProcessed(List<Message> messages) {
+        processed.addAndGet(messages.size());
+    }
+
+    int getConsumers() {
+        return consumers.get();
+    }
+
+    /**
+     * @return the estimated time to process the backlog with the current consumers, as fast as they
+     * processed the documents during the elapsed time (the max value if no document has been processed)
+     */
+    static long drainMillis(int backlog, long nbProcessed, long elapsedMillis) {
+        return nbProcessed == 0 ? Long.MAX_VALUE : backlog * elapsedMillis / nbProcessed;
+    }
+
+    private void startConsumer() {
+        consumers.incrementAndGet();
+        executor.submit(consumerFactory.get());
+    }
+
+    private void retireConsumer() {
+        if (queue.offerFirst(new ShutdownMessage())) {
+            consumers.decrementAndGet();
+        }
+    }
+
+    private static double freeHeapRatio() {
+        Runtime runtime = Runtime.getRuntime();
+        return (double) (runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory()) / runtime.maxMemory();
+    }
+}
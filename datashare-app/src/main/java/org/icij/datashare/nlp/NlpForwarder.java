@@ -50,6 +50,13 @@ public class NlpForwarder implements DatashareListener,Monitorable {
         }
     }
 
+    /**
+     * counts a message forwarded to the queue by another reader (i.e. from a stream)
+     */
+    void messageForwarded() {
+        processed.incrementAndGet();
+    }
+
     public double getProgressRate() {
         return totalToProcess.get() == 0 ? -1 : (double)(processed.get() - messageQueue.size()) / totalToProcess.get();
     }
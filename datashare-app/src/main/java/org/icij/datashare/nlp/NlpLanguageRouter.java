@@ -0,0 +1,206 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.com.Message;
+import org.icij.datashare.com.ShutdownMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.function.Function;
+
+import static java.lang.System.currentTimeMillis;
+import static java.util.Collections.emptyMap;
+import static java.util.Comparator.comparing;
+import static java.util.Map.Entry.comparingByValue;
+import static java.util.Optional.ofNullable;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
+import static org.icij.datashare.com.Message.Type.SHUTDOWN;
+
+/**
+ * Routes the EXTRACT_NLP messages of the NLP queue to a queue per document language (sent in the
+ * VALUE field of the messages), each one consumed by consumers dedicated to this language. So the
+ * consumers don't switch between models.
+ *
+ * The consumers are shared between the languages proportionally to their backlog. When the shares
+ * change, consumers of the languages that have too many are retired (with a shutdown message put in
+ * front of their queue) and consumers of the other languages are started in the executor. With a
+ * fixed thread pool of nbConsumers threads, the new consumers start when the retired ones exit.
+ * The consumers are not moved when the shares are only one consumer away from the current ones.
+ *
+ * The router is the only reader of the NLP queue and the only writer of the language queues.
+ * It exits on a shutdown message, after it has sent shutdown messages at the end of the language
+ * queues for all the consumers.
+ */
+class NlpLanguageRouter implements Callable<Integer> {
+    static final String UNKNOWN_LANGUAGE = "UNKNOWN";
+    static final long DEFAULT_REBALANCE_MILLIS = 1000;
+    private static final long FULL_WAIT_MILLIS = 10;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final BlockingQueue<Message> messageQueue;
+    private final ExecutorService executor;
+    private final Function<BlockingQueue<Message>, NlpConsumer> consumerFactory;
+    private final int nbConsumers;
+    private final int maxBacklog;
+    private final long rebalanceMillis;
+    private final Map<String, LinkedBlockingDeque<Message>> queues = new LinkedHashMap<>();
+    private final Map<String, Integer> consumers = new HashMap<>();
+    private long lastRebalance = 0;
+
+    NlpLanguageRouter(BlockingQueue<Message> messageQueue, ExecutorService executor, Function<BlockingQueue<Message>, NlpConsumer> consumerFactory,
+                      int nbConsumers, int maxBacklog, long rebalanceMillis) {
+        this.messageQueue = messageQueue;
+        this.executor = executor;
+        this.consumerFactory = consumerFactory;
+        this.nbConsumers = nbConsumers;
+        this.maxBacklog = maxBacklog;
+        this.rebalanceMillis = rebalanceMillis;
+    }
+
+    @Override
+    public Integer call() throws InterruptedException {
+        int nbMessages = 0;
+        while (true) {
+            if (getBacklog() < maxBacklog) {
+                Message message = messageQueue.poll(rebalanceMillis, MILLISECONDS);
+                if (message != null && message.type == SHUTDOWN) {
+                    break;
+                }
+                if (message != null && message.type == EXTRACT_NLP) {
+                    nbMessages++;
+                    if (route(message) == 1) {
+                        rebalance(); // first message for a language without consumer
+                    }
+                } else if (message != null) {
+                    logger.info("ignore {}", message);
+                }
+            } else {
+                Thread.sleep(FULL_WAIT_MILLIS);
+            }
+            if (currentTimeMillis() - lastRebalance >= rebalanceMillis) {
+                rebalance();
+            }
+        }
+        while (getBacklog() > 0) { // the languages without consumer are processed before exiting
+            rebalance();
+            Thread.sleep(FULL_WAIT_MILLIS);
+        }
+        consumers.forEach((language, nb) -> {
+            for (int i = 0; i < nb; i++) {
+                queues.get(language).offer(new ShutdownMessage());
+            }
+        });
+        logger.info("routed {} message(s) to the consumers of {}", nbMessages, queues.keySet());
+        return nbMessages;
+    }
+
+    /**
+     * @return the number of messages in the language queue with no consumer, 0 if the language has consumers
+     */
+    private int route(Message message) {
+        String language = ofNullable(message.content.get(Message.Field.VALUE)).orElse(UNKNOWN_LANGUAGE);
+        LinkedBlockingDeque<Message> queue = queues.computeIfAbsent(language, l -> new LinkedBlockingDeque<>());
+        queue.offer(message);
+        return consumers.getOrDefault(language, 0) == 0 ? queue.size() : 0;
+    }
+
+    private void rebalance() {
+        lastRebalance = currentTimeMillis();
+        Map<String, Integer> backlogs = new LinkedHashMap<>();
+        queues.forEach((language, queue) -> backlogs.put(language, backlog(queue)));
+        Map<String, Integer> shares = shares(backlogs, nbConsumers);
+        if (shares.isEmpty() || isBalanced(shares)) {
+            return; // the consumers keep their language
+        }
+        for (Map.Entry<String, LinkedBlockingDeque<Message>> language : queues.entrySet()) {
+            int current = consumers.getOrDefault(language.getKey(), 0);
+            int share = shares.getOrDefault(language.getKey(), 0);
+            for (int i = share; i < current; i++) {
+                language.getValue().offerFirst(new ShutdownMessage());
+            }
+            if (share < current) {
+                consumers.put(language.getKey(), share);
+            }
+        }
+        for (Map.Entry<String, Integer> share : shares.entrySet()) {
+            int current = consumers.getOrDefault(share.getKey(), 0);
+            for (int i = current; i < share.getValue(); i++) {
+                executor.submit(consumerFactory.apply(queues.get(share.getKey())));
+            }
+            if (current < share.getValue()) {
+                logger.info("{} consumer(s) for language {} with {} document(s) to process", share.getValue(), share.getKey(), backlogs.get(share.getKey()));
+                consumers.put(share.getKey(), share.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return true if all the languages to process have consumers, at most one away from their share
+     * (so that the consumers don't move between languages for small changes of the backlogs)
+     */
+    private boolean isBalanced(Map<String, Integer> shares) {
+        return shares.entrySet().stream().allMatch(share -> {
+            int current = consumers.getOrDefault(share.getKey(), 0);
+            return current > 0 && Math.abs(share.getValue() - current) <= 1;
+        });
+    }
+
+    int getBacklog() {
+        return queues.values().stream().mapToInt(NlpLanguageRouter::backlog).sum();
+    }
+
+    /**
+     * @return the number of messages to process in the queue, without the shutdown messages of the retired consumers
+     */
+    private static int backlog(LinkedBlockingDeque<Message> queue) {
+        int retired = 0;
+        for (Message message : queue) {
+            if (message.type != SHUTDOWN) {
+                break;
+            }
+            retired++;
+        }
+        return Math.max(0, queue.size() - retired);
+    }
+
+    /**
+     * shares the consumers between the languages proportionally to their backlog, with at least one
+     * consumer for each language to process (the languages with the largest backlogs first if there
+     * are more languages than consumers). The remainders go to the languages with the largest ones.
+     *
+     * @return the number of consumers by language, empty if there is nothing to process
+     */
+    static Map<String, Integer> shares(Map<String, Integer> backlogs, int nbConsumers) {
+        List<Map.Entry<String, Integer>> toProcess = new ArrayList<>();
+        backlogs.entrySet().stream().filter(e -> e.getValue() > 0).sorted(comparingByValue((a, b) -> b - a)).forEach(toProcess::add);
+        if (toProcess.isEmpty()) {
+            return emptyMap();
+        }
+        Map<String, Integer> shares = new LinkedHashMap<>();
+        if (toProcess.size() >= nbConsumers) {
+            toProcess.stream().limit(nbConsumers).forEach(e -> shares.put(e.getKey(), 1));
+            return shares;
+        }
+        int remaining = nbConsumers - toProcess.size();
+        long total = toProcess.stream().mapToLong(Map.Entry::getValue).sum();
+        Map<String, Double> remainders = new HashMap<>();
+        int allocated = 0;
+        for (Map.Entry<String, Integer> language : toProcess) {
+            double exact = (double) remaining * language.getValue() / total;
+            shares.put(language.getKey(), 1 + (int) exact);
+            remainders.put(language.getKey(), exact - (int) exact);
+            allocated += (int) exact;
+        }
+        toProcess.stream().map(Map.Entry::getKey).sorted(comparing(remainders::get).reversed())
+                .limit(remaining - allocated).forEach(language -> shares.put(language, shares.get(language) + 1));
+        return shares;
+    }
+}
@@ -0,0 +1,178 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.com.Channel;
+import org.icij.datashare.com.Message;
+import org.icij.datashare.com.RedisStreamDataBus;
+import org.icij.datashare.com.RedisStreamDataBus.StreamMessage;
+import org.icij.datashare.text.nlp.DatashareListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.StreamPendingEntry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+
+import static java.lang.System.currentTimeMillis;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.synchronizedMap;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Reads the EXTRACT_NLP messages of the NLP stream for a consumer group, and puts them
+ * into the local message queue of the NLP consumers. There is one group by pipeline, so every
+ * pipeline receives all the messages, and the NlpApp of the same pipeline share the work.
+ *
+ * The local queue is bounded: messages are read from redis only when there is room for them.
+ * A message stays pending in redis until the consumer acknowledges it (i.e. its named entities are
+ * written). The messages that a consumer failed to process are released: they stay pending in redis.
+ * Pending messages that have not been acknowledged for claimIdleMillis (their consumer died
+ * or failed to process them) are claimed. After MAX_DELIVERIES they are acknowledged and dropped.
+ */
+public class NlpStreamReader implements DatashareListener {
+    static final long BLOCK_MILLIS = 500;
+    static final int CLAIM_BATCH_SIZE = 100;
+    static final int MAX_DELIVERIES = 5;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final RedisStreamDataBus dataBus;
+    private final BlockingQueue<Message> messageQueue;
+    private final String group;
+    private final String consumer;
+    private final long claimIdleMillis;
+    private final Runnable forwardedCallback;
+    private final Map<Message, String> inFlight = synchronizedMap(new IdentityHashMap<>());
+    private volatile boolean drainAsked = false;
+
+    NlpStreamReader(RedisStreamDataBus dataBus, BlockingQueue<Message> messageQueue, String group, String consumer,
+                    long claimIdleMillis, Runnable forwardedCallback) {
+        this.dataBus = dataBus;
+        this.messageQueue = messageQueue;
+        this.group = group;
+        this.consumer = consumer;
+        this.claimIdleMillis = claimIdleMillis;
+        this.forwardedCallback = forwardedCallback;
+    }
+
+    @Override
+    public Integer call() throws InterruptedException {
+        dataBus.createGroup(Channel.NLP, group);
+        logger.info("reading {} stream with consumer {} of group {}", Channel.NLP, consumer, group);
+        int nbMessages = 0;
+        long nextClaim = currentTimeMillis() + claimIdleMillis;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                List<StreamMessage> messages = emptyList();
+                if (currentTimeMillis() >= nextClaim) {
+                    messages = claimIdleMessages();
+                    nextClaim = currentTimeMillis() + Math.max(1, claimIdleMillis / 2);
+                }
+                if (messages.isEmpty()) {
+                    int count = messageQueue.remainingCapacity();
+                    if (count == 0) {
+                        Thread.sleep(BLOCK_MILLIS);
+                        continue;
+                    }
+                    messages = dataBus.read(Channel.NLP, group, consumer, count, BLOCK_MILLIS);
+                }
+                if (messages.isEmpty() && drainAsked) {
+                    break;
+                }
+                for (StreamMessage streamMessage : messages) {
+                    inFlight.put(streamMessage.message, streamMessage.id);
+                    messageQueue.put(streamMessage.message);
+                    forwardedCallback.run();
+                    nbMessages++;
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                logger.error("error reading stream", e);
+                Thread.sleep(BLOCK_MILLIS);
+            }
+        }
+        logger.info("exiting stream reader after {} message(s)", nbMessages);
+        return nbMessages;
+    }
+
+    /**
+     * stops the reader when there is no new message left in the stream
+     */
+    void drain() {
+        drainAsked = true;
+    }
+
+    /**
+     * acknowledges messages that have been processed
+     */
+    void ack(Collection<Message> messages) {
+        List<String> ids = new ArrayList<>();
+        for (Message message : messages) {
+            String id = inFlight.remove(message);
+            if (id != null) {
+                ids.add(id);
+            }
+        }
+        try {
+            dataBus.ack(Channel.NLP, group, ids);
+        } catch (RuntimeException e) {
+            logger.error("cannot ack messages " + ids + ", they will be processed again", e);
+        }
+    }
+
+    /**
+     * forgets messages that could not be processed, so that they are claimed again when they are idle
+     */
+    void release(Collection<Message> messages) {
+        List<String> ids = new ArrayList<>();
+        for (Message message : messages) {
+            String id = inFlight.remove(message);
+            if (id != null) {
+                ids.add(id);
+            }
+        }
+        if (!ids.isEmpty()) {
+            logger.warn("messages {} have not been processed, they will be claimed again", ids);
+        }
+    }
+
+    int inFlightSize() {
+        return inFlight.size();
+    }
+
+    List<StreamMessage> claimIdleMessages() {
+        Set<String> inFlightIds;
+        synchronized (inFlight) {
+            inFlightIds = new HashSet<>(inFlight.values());
+        }
+        List<StreamPendingEntry> idleEntries = new ArrayList<>();
+        StreamEntryID start = null;
+        List<StreamPendingEntry> page;
+        do {
+            page = dataBus.pending(Channel.NLP, group, start, CLAIM_BATCH_SIZE);
+            page.stream().filter(p -> p.getIdleTime() >= claimIdleMillis && !inFlightIds.contains(p.getID().toString()))
+                    .limit(CLAIM_BATCH_SIZE - idleEntries.size()).forEach(idleEntries::add);
+            if (!page.isEmpty()) {
+                StreamEntryID last = page.get(page.size() - 1).getID();
+                start = new StreamEntryID(last.getTime(), last.getSequence() + 1);
+            }
+        } while (page.size() == CLAIM_BATCH_SIZE && idleEntries.size() < CLAIM_BATCH_SIZE);
+        List<String> poisonIds = idleEntries.stream().filter(p -> p.getDeliveredTimes() >= MAX_DELIVERIES)
+                .map(p -> p.getID().toString()).collect(toList());
+        if (!poisonIds.isEmpty()) {
+            logger.error("dropping messages {} delivered {} times without being processed", poisonIds, MAX_DELIVERIES);
+            dataBus.ack(Channel.NLP, group, poisonIds);
+        }
+        List<StreamMessage> claimed = dataBus.claim(Channel.NLP, group, consumer, claimIdleMillis, idleEntries.stream()
+                .filter(p -> p.getDeliveredTimes() < MAX_DELIVERIES).map(p -> p.getID().toString()).collect(toList()));
+        if (!claimed.isEmpty()) {
+            logger.warn("claimed {} idle message(s) of group {}", claimed.size(), group);
+        }
+        return claimed;
+    }
+}
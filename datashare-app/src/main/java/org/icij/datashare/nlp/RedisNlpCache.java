@@ -0,0 +1,173 @@
+package org.icij.datashare.nlp;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.inject.Inject;
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Hasher;
+import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.nlp.Pipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.lang.Long.parseLong;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Optional.ofNullable;
+import static java.util.stream.Collectors.toList;
+import static org.icij.datashare.cli.DatashareCliOptions.NLP_CACHE_MAX_SIZE_OPT;
+import static org.icij.datashare.json.JsonObjectMapper.MAPPER;
+
+/**
+ * NLP cache in redis, shared by the NLP processes of all the projects.
+ *
+ * The named entities are stored as spans (category, offset, mention) in a hash, with a key made of
+ * the SHA-256 of the content, the pipeline type, the pipeline version (the version of its jar that
+ * embeds the versions of its models), its stages, the language and the chunking of the document (its
+ * chunk size and overlap if it is processed by chunks). The EMAIL pipeline is not cached
+ * as it also looks for addresses in the metadata of the emails.
+ *
+ * When the size of the spans (in UTF-8 bytes, as counted by redis) is over the max size, the least recently used entries are evicted.
+ * The hits, misses and evictions are counted in redis, for all the processes.
+ */
+public class RedisNlpCache implements NlpCache, Closeable {
+    static final String CACHE_KEY = "ds:nlp:cache";
+    static final String LRU_KEY = "ds:nlp:cache:lru";
+    static final String SIZE_KEY = "ds:nlp:cache:size";
+    static final String STATS_KEY = "ds:nlp:cache:stats";
+    // sets the entry, updates the total size and evicts the least recently used entries over the max size
+    private static final String PUT_SCRIPT =
+            "local size = redis.call('INCRBY', KEYS[3], string.len(ARGV[2]) - redis.call('HSTRLEN', KEYS[1], ARGV[1]))\n" +
+            "redis.call('HSET', KEYS[1], ARGV[1], ARGV[2])\n" +
+            "redis.call('ZADD', KEYS[2], ARGV[3], ARGV[1])\n" +
+            "local evicted = 0\n" +
+            "while size > tonumber(ARGV[4]) do\n" +
+            "  local oldest = redis.call('ZRANGE', KEYS[2], 0, 0)[1]\n" +
+            "  if oldest == nil or oldest == ARGV[1] then break end\n" +
+            "  size = redis.call('INCRBY', KEYS[3], -redis.call('HSTRLEN', KEYS[1], oldest))\n" +
+            "  redis.call('HDEL', KEYS[1], oldest)\n" +
+            "  redis.call('ZREM', KEYS[2], oldest)\n" +
+            "  evicted = evicted + 1\n" +
+            "end\n" +
+            "if evicted > 0 then redis.call('HINCRBY', KEYS[4], 'evictions', evicted) end\n" +
+            "return evicted";
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final JedisPool redis;
+    private final long maxSizeBytes;
+
+    @Inject
+    public RedisNlpCache(PropertiesProvider propertiesProvider) {
+        this(new JedisPool(new JedisPoolConfig(), propertiesProvider.get("messageBusAddress").orElse("redis")),
+                parseLong(propertiesProvider.get(NLP_CACHE_MAX_SIZE_OPT).orElse("0")) * 1024 * 1024);
+    }
+
+    RedisNlpCache(JedisPool redis, long maxSizeBytes) {
+        this.redis = redis;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    @Override
+    public Optional<List<NamedEntity>> get(Pipeline pipeline, Document doc, String chunking) {
+        if (!isCached(pipeline, doc)) {
+            return Optional.empty();
+        }
+        String key = key(pipeline, doc, chunking);
+        try (Jedis jedis = redis.getResource()) {
+            String spans = jedis.hget(CACHE_KEY, key);
+            if (spans == null) {
+                jedis.hincrBy(STATS_KEY, "misses", 1);
+                return Optional.empty();
+            }
+            jedis.zadd(LRU_KEY, System.currentTimeMillis(), key);
+            jedis.hincrBy(STATS_KEY, "hits", 1);
+            return Optional.of(MAPPER.readValue(spans, new TypeReference<List<Span>>() {}).stream()
+                    .map(span -> NamedEntity.create(span.category, span.mention, span.offset,
+                            doc.getId(), doc.getRootDocument(), pipeline.getType(), doc.getLanguage()))
+                    .collect(toList()));
+        } catch (JedisException | IOException e) {
+            logger.warn("cannot get named entities of {} from cache", doc.getId(), e);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void put(Pipeline pipeline, Document doc, String chunking, List<NamedEntity> namedEntities) {
+        if (!isCached(pipeline, doc)) {
+            return;
+        }
+        try (Jedis jedis = redis.getResource()) {
+            String spans = MAPPER.writeValueAsString(namedEntities.stream().map(Span::new).collect(toList()));
+            if (spans.getBytes(UTF_8).length > maxSizeBytes) {
+                return;
+            }
+            Object evicted = jedis.eval(PUT_SCRIPT, asList(CACHE_KEY, LRU_KEY, SIZE_KEY, STATS_KEY),
+                    asList(key(pipeline, doc, chunking), spans, String.valueOf(System.currentTimeMillis()), String.valueOf(maxSizeBytes)));
+            logger.debug("cached {} named entities of {} ({} entries evicted)", namedEntities.size(), doc.getId(), evicted);
+        } catch (JedisException | IOException e) {
+            logger.warn("cannot put named entities of {} in cache", doc.getId(), e);
+        }
+    }
+
+    @Override
+    public Stats getStats() {
+        try (Jedis jedis = redis.getResource()) {
+            Map<String, String> stats = jedis.hgetAll(STATS_KEY);
+            return new Stats(parseLong(stats.getOrDefault("hits", "0")), parseLong(stats.getOrDefault("misses", "0")),
+                    parseLong(stats.getOrDefault("evictions", "0")));
+        } catch (JedisException e) {
+            logger.warn("cannot get cache stats", e);
+            return new Stats(0, 0, 0);
+        }
+    }
+
+    long getSize() {
+        try (Jedis jedis = redis.getResource()) {
+            return parseLong(ofNullable(jedis.get(SIZE_KEY)).orElse("0"));
+        }
+    }
+
+    void clear() {
+        try (Jedis jedis = redis.getResource()) {
+            jedis.del(CACHE_KEY, LRU_KEY, SIZE_KEY, STATS_KEY);
+        }
+    }
+
+    @Override
+    public void close() {
+        redis.close();
+    }
+
+    private boolean isCached(Pipeline pipeline, Document doc) {
+        return pipeline.getType() != Pipeline.Type.EMAIL && doc.getContent() != null;
+    }
+
+    static String key(Pipeline pipeline, Document doc, String chunking) {
+        String version = ofNullable(pipeline.getClass().getPackage()).map(Package::getImplementationVersion).orElse("dev");
+        return String.join(":", Hasher.SHA_256.hash(doc.getContent()), pipeline.getType().name(), version,
+                String.valueOf(pipeline.getStages()), String.valueOf(doc.getLanguage()), chunking);
+    }
+
+    static class Span {
+        public NamedEntity.Category category;
+        public int offset;
+        public String mention;
+
+        Span() {}
+
+        Span(NamedEntity namedEntity) {
+            this.category = namedEntity.getCategory();
+            this.offset = (int) namedEntity.getOffset();
+            this.mention = namedEntity.getMention();
+        }
+    }
+}
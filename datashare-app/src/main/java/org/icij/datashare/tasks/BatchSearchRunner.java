@@ -1,7 +1,9 @@
 package org.icij.datashare.tasks;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.ElasticsearchStatusException;
 import org.elasticsearch.client.ResponseException;
 import org.icij.datashare.Entity;
@@ -9,11 +11,13 @@ import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.batch.BatchSearch;
 import org.icij.datashare.batch.BatchSearchRecord.State;
 
-import org.icij.datashare.batch.BatchSearchRepository;
+import org.icij.datashare.batch.RefreshableBatchSearchRepository;
 import org.icij.datashare.batch.SearchException;
 import org.icij.datashare.monitoring.Monitorable;
 import org.icij.datashare.text.Document;
+import org.icij.datashare.text.indexing.BulkIndexer;
 import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.BatchSearchPercolator;
 import org.icij.datashare.time.DatashareTime;
 import org.icij.datashare.user.User;
 import org.icij.datashare.user.UserTask;
@@ -21,18 +25,28 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeoutException;
 
-import static java.lang.Integer.min;
+import static java.lang.Boolean.parseBoolean;
 import static java.lang.Integer.parseInt;
+import static java.lang.String.format;
 import static java.util.Arrays.stream;
+import static java.util.Collections.singletonMap;
 import static java.util.stream.Collectors.toList;
 import static org.icij.datashare.cli.DatashareCliOptions.*;
+import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.DEFAULT_INDEX_TYPE;
+import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.INDEX_TYPE_PROP;
 
 public class BatchSearchRunner implements Callable<Integer>, Monitorable, UserTask {
     private Logger logger = LoggerFactory.getLogger(getClass());
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
 
     /**
      * max scroll size will get n results at each scroll
@@ -42,21 +56,37 @@ public class BatchSearchRunner implements Callable<Integer>, Monitorable, UserTa
      * max scroll size should be < 32768 / 9 (3640)
      */
     static final int MAX_SCROLL_SIZE = 3500;
-    static final int MAX_BATCH_RESULT_SIZE = 60000;
+    static final int MAX_BATCH_RESULT_SIZE = BatchSearchPercolator.MAX_BATCH_RESULT_SIZE;
+    static final int MAX_SEARCH_REJECTIONS = 10;
+    static final int MAX_COUNTS_PER_REQUEST = 100;
+    static final int DEFAULT_WATERMARK_MARGIN_SECONDS = 3600;
+    static final String BATCH_SEARCHES_FIELD = "batchSearches";
+    private static final String ADD_BATCH_SEARCH_SCRIPT =
+            "if (ctx._source." + BATCH_SEARCHES_FIELD + " == null) ctx._source." + BATCH_SEARCHES_FIELD + " = [];" +
+            "if (ctx._source." + BATCH_SEARCHES_FIELD + ".contains(params.uuid)) { ctx.op = 'noop'; }" +
+            "else { ctx._source." + BATCH_SEARCHES_FIELD + ".add(params.uuid); }";
+    private static final String REMOVE_BATCH_SEARCH_SCRIPT =
+            "if (ctx._source." + BATCH_SEARCHES_FIELD + " == null || !ctx._source." + BATCH_SEARCHES_FIELD + ".contains(params.uuid)) { ctx.op = 'noop'; }" +
+            "else { ctx._source." + BATCH_SEARCHES_FIELD + ".remove(ctx._source." + BATCH_SEARCHES_FIELD + ".indexOf(params.uuid)); }";
+    static final int MAX_UPDATE_ATTEMPTS = 5;
 
-    private final Indexer indexer;
+    private final BulkIndexer indexer;
     private final PropertiesProvider propertiesProvider;
     private final User user;
-    private final BatchSearchRepository repository;
+    private final RefreshableBatchSearchRepository repository;
+    private final BatchSearchThrottle throttle;
+    private final boolean indexResults;
     private int totalNbBatches = 0;
     private int totalProcessed = 0;
 
     @Inject
-    public BatchSearchRunner(Indexer indexer, BatchSearchRepository repository, PropertiesProvider propertiesProvider, @Assisted User user) {
+    public BatchSearchRunner(BulkIndexer indexer, RefreshableBatchSearchRepository repository, PropertiesProvider propertiesProvider, @Assisted User user) {
         this.indexer = indexer;
         this.repository = repository;
         this.propertiesProvider = propertiesProvider;
         this.user = user;
+        this.throttle = new BatchSearchThrottle(indexer, propertiesProvider, MAX_SCROLL_SIZE);
+        this.indexResults = parseBoolean(propertiesProvider.get(BATCH_SEARCH_INDEX_RESULTS).orElse("false"));
     }
 
     @Override
@@ -78,36 +108,87 @@ public class BatchSearchRunner implements Callable<Integer>, Monitorable, UserTa
         return batchSearch.state == State.QUEUED ? run(batchSearch): 0;
     }
 
+    /**
+     * runs a batch search that could have been interrupted
+     * (i.e. the batch search process running it has been stopped).
+     * The results saved by the interrupted run are removed before running it again from the beginning.
+     */
+    public int resume(String batchSearchId) {
+        BatchSearch batchSearch = repository.get(batchSearchId);
+        if (batchSearch.state == State.RUNNING) {
+            logger.warn("batch search {} has been interrupted, removing its results and running it again", batchSearchId);
+            repository.resetResults(batchSearchId);
+            return run(repository.get(batchSearchId));
+        }
+        return batchSearch.state == State.QUEUED ? run(batchSearch): 0;
+    }
+
     int run(BatchSearch batchSearch) {
         int numberOfResults = 0;
-        int throttleMs = parseInt(propertiesProvider.get(BATCH_SEARCH_THROTTLE).orElse("0"));
         int maxTimeSeconds = parseInt(propertiesProvider.get(BATCH_SEARCH_MAX_TIME).orElse("100000"));
-        int scrollSize = min(parseInt(propertiesProvider.get(SCROLL_SIZE).orElse("1000")), MAX_SCROLL_SIZE);
+        Date runDate = DatashareTime.getInstance().now();
+        Date watermark = repository.getWatermark(batchSearch.uuid);
 
-        logger.info("running {} queries for batch search {} on project {} with throttle {}ms and scroll size of {}",
-                batchSearch.queries.size(), batchSearch.uuid, batchSearch.project, throttleMs, scrollSize);
+        logger.info("running {} queries for batch search {} on project {} with {} (adaptive={}){}",
+                batchSearch.queries.size(), batchSearch.uuid, batchSearch.project, throttle, throttle.isAdaptive(),
+                watermark == null ? "" : " for documents extracted after " + watermark.toInstant());
         repository.setState(batchSearch.uuid, State.RUNNING);
         String query = null;
+        List<String> warnings = new ArrayList<>();
         try {
-            for (String s : batchSearch.queries.keySet()) {
+            Map<String, Long> estimatedResults = new LinkedHashMap<>();
+            List<String> queries = new ArrayList<>(batchSearch.queries.keySet());
+            for (int i = 0; i < queries.size(); i += MAX_COUNTS_PER_REQUEST) {
+                List<String> countedQueries = queries.subList(i, Math.min(i + MAX_COUNTS_PER_REQUEST, queries.size()));
+                List<Long> counts;
+                try {
+                    counts = indexer.count(countedQueries.stream().map(q -> searcher(batchSearch, q, watermark)).collect(toList()));
+                } catch (IOException | ElasticsearchException countsEx) {
+                    logger.warn("cannot count the results of {} queries of batch search {}, counting them one by one",
+                            countedQueries.size(), batchSearch.uuid, countsEx);
+                    counts = new ArrayList<>();
+                    for (String s : countedQueries) {
+                        query = s;
+                        counts.add(count(batchSearch, query, watermark));
+                    }
+                }
+                for (int j = 0; j < countedQueries.size(); j++) {
+                    estimatedResults.put(countedQueries.get(j), counts.get(j));
+                }
+            }
+            if (indexResults) {
+                putBatchSearchesMapping(batchSearch);
+                if (watermark == null) {
+                    // the previous results (interrupted or failed run) have been removed from the repository
+                    removeBatchSearchFromDocuments(indexer, batchSearch.project.getId(), batchSearch.uuid);
+                }
+            }
+            List<String> plannedQueries = plan(batchSearch, estimatedResults, warnings);
+            repository.setWarnings(batchSearch.uuid, warnings);
+            for (String s : plannedQueries) {
                 query = s;
-                Indexer.Searcher searcher = indexer.search(batchSearch.project.getId(), Document.class).
-                        with(query, batchSearch.fuzziness, batchSearch.phraseMatches).
-                        withFieldValues("contentType", batchSearch.fileTypes.toArray(new String[]{})).
-                        withPrefixQuery("dirname", batchSearch.paths.toArray(new String[]{})).
-                        withoutSource("content").limit(scrollSize);
-                List<? extends Entity> docsToProcess = searcher.scroll().collect(toList());
+                Indexer.Searcher searcher = searcher(batchSearch, query, watermark).
+                        withoutSource("content").limit(throttle.getScrollSize());
+                List<? extends Entity> docsToProcess = scroll(searcher);
 
                 long beforeScrollLoop = DatashareTime.getInstance().currentTimeMillis();
-                while (docsToProcess.size() != 0 && numberOfResults < MAX_BATCH_RESULT_SIZE - MAX_SCROLL_SIZE) {
+                while (docsToProcess.size() != 0 && batchSearch.nbResults + numberOfResults < MAX_BATCH_RESULT_SIZE - MAX_SCROLL_SIZE) {
                     repository.saveResults(batchSearch.uuid, query, (List<Document>) docsToProcess);
+                    if (indexResults) {
+                        addBatchSearchToDocuments(batchSearch, docsToProcess);
+                    }
                     if (DatashareTime.getInstance().currentTimeMillis() - beforeScrollLoop < maxTimeSeconds*1000) {
-                        DatashareTime.getInstance().sleep(throttleMs);
+                        throttle.pause();
                     } else {
                         throw new TimeoutException("Batch timed out after " + maxTimeSeconds + "s");
                     }
                     numberOfResults += docsToProcess.size();
-                    docsToProcess = searcher.scroll().collect(toList());
+                    docsToProcess = scroll(searcher);
+                }
+                if (docsToProcess.size() != 0) {
+                    warnings.add(format("results of query \"%s\" have been truncated: the batch search has reached the max of %d results",
+                            query, MAX_BATCH_RESULT_SIZE));
+                    repository.setWarnings(batchSearch.uuid, warnings);
                 }
             }
         } catch (ElasticsearchStatusException esEx) {
@@ -120,11 +201,135 @@ public class BatchSearchRunner implements Callable<Integer>, Monitorable, UserTa
             repository.setState(batchSearch.uuid, new SearchException(query, ex));
             return numberOfResults;
         }
+        // documents extracted before the run can be indexed after its scroll: the margin makes the next refresh
+        // search them again, the results already saved are ignored by the repository
+        int watermarkMarginSeconds = parseInt(propertiesProvider.get(BATCH_SEARCH_WATERMARK_MARGIN).orElse(String.valueOf(DEFAULT_WATERMARK_MARGIN_SECONDS)));
+        repository.setWatermark(batchSearch.uuid, new Date(runDate.getTime() - watermarkMarginSeconds * 1000L));
         repository.setState(batchSearch.uuid, State.SUCCESS);
         logger.info("done batch search {} with success", batchSearch.uuid);
         return numberOfResults;
     }
 
+    /**
+     * orders the queries by their estimated number of results so that cheap queries are done first.
+     * Queries without results are removed. The queries whose results will be capped are added to the warnings.
+     */
+    List<String> plan(BatchSearch batchSearch, Map<String, Long> estimatedResults, List<String> warnings) {
+        List<String> zeroHitQueries = estimatedResults.entrySet().stream().filter(e -> e.getValue() == 0).map(Map.Entry::getKey).collect(toList());
+        if (!zeroHitQueries.isEmpty()) {
+            logger.info("skipping {} queries without results for batch search {}", zeroHitQueries.size(), batchSearch.uuid);
+        }
+        List<String> plannedQueries = estimatedResults.entrySet().stream().filter(e -> e.getValue() > 0).
+                sorted(Map.Entry.comparingByValue()).map(Map.Entry::getKey).collect(toList());
+        long totalEstimatedResults = 0;
+        for (String query : plannedQueries) {
+            totalEstimatedResults += estimatedResults.get(query);
+            String warning = null;
+            if (estimatedResults.get(query) > MAX_BATCH_RESULT_SIZE) {
+                warning = format("query \"%s\" has %d results, more than the max of %d results",
+                        query, estimatedResults.get(query), MAX_BATCH_RESULT_SIZE);
+            } else if (totalEstimatedResults > MAX_BATCH_RESULT_SIZE) {
+                warning = format("query \"%s\" will be truncated: the batch search has more than %d results",
+                        query, MAX_BATCH_RESULT_SIZE);
+            }
+            if (warning != null) {
+                logger.warn("batch search {}: {}", batchSearch.uuid, warning);
+                warnings.add(warning);
+            }
+        }
+        logger.info("batch search {} has {} estimated results for {} queries", batchSearch.uuid, totalEstimatedResults, plannedQueries.size());
+        return plannedQueries;
+    }
+
+    private long count(BatchSearch batchSearch, String query, Date watermark) throws IOException {
+        Indexer.Searcher searcher = searcher(batchSearch, query, watermark).limit(0);
+        searcher.execute();
+        return searcher.totalHits();
+    }
+
+    private void putBatchSearchesMapping(BatchSearch batchSearch) throws IOException {
+        String indexType = propertiesProvider.get(INDEX_TYPE_PROP).orElse(DEFAULT_INDEX_TYPE);
+        indexer.executeRaw("PUT", batchSearch.project.getId() + "/_mapping/" + indexType,
+                JSON_MAPPER.writeValueAsString(singletonMap("properties",
+                        singletonMap(BATCH_SEARCHES_FIELD, singletonMap("type", "keyword")))));
+    }
+
+    /**
+     * adds the batch search uuid to the batchSearches field of the documents so that
+     * they can be filtered by batch search with a term query on that field.
+     */
+    private void addBatchSearchToDocuments(BatchSearch batchSearch, List<? extends Entity> documents) throws IOException {
+        updateByQuery(indexer, batchSearch.project.getId(),
+                singletonMap("terms", singletonMap("_id", documents.stream().map(Entity::getId).collect(toList()))),
+                ADD_BATCH_SEARCH_SCRIPT, batchSearch.uuid);
+    }
+
+    /**
+     * removes the batch search uuid from the batchSearches field of the documents of the index
+     */
+    public static void removeBatchSearchFromDocuments(Indexer indexer, String indexName, String batchSearchUuid) throws IOException {
+        updateByQuery(indexer, indexName, singletonMap("term", singletonMap(BATCH_SEARCHES_FIELD, batchSearchUuid)),
+                REMOVE_BATCH_SEARCH_SCRIPT, batchSearchUuid);
+    }
+
+    /**
+     * the documents updated concurrently (by the NLP pipelines for example) are skipped by update by query
+     * and counted in its version conflicts. The update is done again for them, the scripts being idempotent.
+     */
+    private static void updateByQuery(Indexer indexer, String indexName, Map<String, Object> query, String source, String batchSearchUuid) throws IOException {
+        Map<String, Object> updateByQuery = new HashMap<>();
+        updateByQuery.put("query", query);
+        Map<String, Object> script = new HashMap<>();
+        script.put("lang", "painless");
+        script.put("source", source);
+        script.put("params", singletonMap("uuid", batchSearchUuid));
+        updateByQuery.put("script", script);
+        String body = JSON_MAPPER.writeValueAsString(updateByQuery);
+        for (int attempt = 1; ; attempt++) {
+            String response = indexer.executeRaw("POST", indexName + "/_update_by_query?conflicts=proceed", body);
+            long versionConflicts = response == null ? 0 : JSON_MAPPER.readTree(response).path("version_conflicts").asLong(0);
+            if (versionConflicts == 0) {
+                return;
+            }
+            if (attempt == MAX_UPDATE_ATTEMPTS) {
+                throw new IOException(format("cannot update batch search %s on %d documents of %s after %d attempts (version conflicts)",
+                        batchSearchUuid, versionConflicts, indexName, attempt));
+            }
+            LoggerFactory.getLogger(BatchSearchRunner.class).info("{} version conflicts when updating batch search {} on {}, retrying",
+                    versionConflicts, batchSearchUuid, indexName);
+        }
+    }
+
+    private Indexer.Searcher searcher(BatchSearch batchSearch, String query, Date watermark) {
+        BulkIndexer.FilterSearcher searcher = indexer.search(batchSearch.project.getId(), Document.class);
+        return (watermark == null ? searcher : searcher.extractedAfter(watermark)).
+                with(query, batchSearch.fuzziness, batchSearch.phraseMatches).
+                withFieldValues("contentType", batchSearch.fileTypes.toArray(new String[]{})).
+                withPrefixQuery("dirname", batchSearch.paths.toArray(new String[]{}));
+    }
+
+    private List<? extends Entity> scroll(Indexer.Searcher searcher) throws IOException {
+        int nbRejections = 0;
+        while (true) {
+            long beforeScroll = DatashareTime.getInstance().currentTimeMillis();
+            try {
+                List<? extends Entity> docs = searcher.scroll().collect(toList());
+                throttle.pageDone(DatashareTime.getInstance().currentTimeMillis() - beforeScroll);
+                return docs;
+            } catch (ElasticsearchStatusException esEx) {
+                if (++nbRejections > MAX_SEARCH_REJECTIONS || !throttle.searchRejected(esEx)) {
+                    throw esEx;
+                }
+                logger.warn("search rejected by elasticsearch ({}/{}), retrying with {}", nbRejections, MAX_SEARCH_REJECTIONS, throttle);
+                throttle.pause();
+            }
+        }
+    }
+
+    public BatchSearchThrottle getThrottle() {
+        return throttle;
+    }
+
     @Override
     public double getProgressRate() {
         return totalProcessed == 0 && totalNbBatches == 0 ? 0 : (double) totalProcessed/totalNbBatches;
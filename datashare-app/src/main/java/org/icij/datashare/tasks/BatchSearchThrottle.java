@@ -0,0 +1,177 @@
+package org.icij.datashare.tasks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.rest.RestStatus;
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.time.DatashareTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.lang.Boolean.parseBoolean;
+import static java.lang.Integer.max;
+import static java.lang.Integer.min;
+import static java.lang.Integer.parseInt;
+import static org.icij.datashare.cli.DatashareCliOptions.*;
+
+/**
+ * Throttle used between the scroll pages of a batch search.
+ *
+ * When adaptive mode is off (default) it always waits for the configured
+ * batchSearchThrottleMilliseconds and uses the configured scrollSize.
+ *
+ * When adaptive mode is on, it behaves like an AIMD controller:
+ * the delay is doubled and the scroll size is halved when a page is slower than
+ * the latency target, when elasticsearch rejects a search (429/es_rejected_execution_exception)
+ * or when the search thread pool queue is above its limit. When pages are faster than
+ * half the latency target, the delay is decreased and the scroll size is increased by small steps.
+ *
+ * The scroll size can only be changed between two queries because an elasticsearch
+ * scroll keeps the size of its first request.
+ */
+public class BatchSearchThrottle {
+    static final String SEARCH_THREAD_POOL_URL = "_cat/thread_pool/search?format=json&h=queue,rejected";
+    static final int THREAD_POOL_CHECK_PAGES = 10;
+    static final int MIN_SCROLL_SIZE = 10;
+    static final int THROTTLE_STEP_MS = 50;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Indexer indexer;
+    private final boolean adaptive;
+    private final int minThrottleMs;
+    private final int maxThrottleMs;
+    private final int maxScrollSize;
+    private final int latencyTargetMs;
+    private final int maxSearchQueue;
+
+    private volatile int throttleMs;
+    private volatile int scrollSize;
+    private volatile long lastLatencyMs;
+    private int pagesSinceThreadPoolCheck = 0;
+    private long lastRejectedCount = -1;
+
+    BatchSearchThrottle(Indexer indexer, PropertiesProvider propertiesProvider, int maxScrollSize) {
+        this.indexer = indexer;
+        this.adaptive = parseBoolean(propertiesProvider.get(BATCH_SEARCH_ADAPTIVE_THROTTLE).orElse("false"));
+        this.minThrottleMs = parseInt(propertiesProvider.get(BATCH_SEARCH_THROTTLE).orElse("0"));
+        this.maxThrottleMs = max(minThrottleMs, parseInt(propertiesProvider.get(BATCH_SEARCH_MAX_THROTTLE).orElse("10000")));
+        this.latencyTargetMs = parseInt(propertiesProvider.get(BATCH_SEARCH_LATENCY_TARGET).orElse("1000"));
+        this.maxSearchQueue = parseInt(propertiesProvider.get(BATCH_SEARCH_MAX_SEARCH_QUEUE).orElse("100"));
+        this.maxScrollSize = maxScrollSize;
+        this.throttleMs = minThrottleMs;
+        this.scrollSize = min(parseInt(propertiesProvider.get(SCROLL_SIZE).orElse("1000")), maxScrollSize);
+    }
+
+    /**
+     * to be called after each scroll page with the time elasticsearch took to return it
+     */
+    void pageDone(long latencyMs) {
+        lastLatencyMs = latencyMs;
+        if (!adaptive) {
+            return;
+        }
+        if (latencyMs > latencyTargetMs || isSearchThreadPoolOverloaded()) {
+            slowDown();
+        } else if (latencyMs < latencyTargetMs / 2) {
+            speedUp();
+        }
+    }
+
+    /**
+     * to be called when elasticsearch rejected a search
+     * @return true if the search should be retried after pause()
+     */
+    boolean searchRejected(ElasticsearchStatusException esEx) {
+        if (!adaptive || !isRejection(esEx)) {
+            return false;
+        }
+        slowDown();
+        return true;
+    }
+
+    void pause() {
+        DatashareTime.getInstance().sleep(throttleMs);
+    }
+
+    public boolean isAdaptive() { return adaptive; }
+    public int getThrottleMs() { return throttleMs; }
+    public int getScrollSize() { return scrollSize; }
+
+    /**
+     * @return the current number of scroll pages requested per second
+     */
+    public double getRate() {
+        return 1000.0 / max(1, (int)lastLatencyMs + throttleMs);
+    }
+
+    /**
+     * @return the current delay, scroll size, page latency and rate, for the task API
+     */
+    public Map<String, Object> getState() {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("adaptive", adaptive);
+        state.put("throttleMs", throttleMs);
+        state.put("scrollSize", scrollSize);
+        state.put("latencyMs", lastLatencyMs);
+        state.put("rate", getRate());
+        return state;
+    }
+
+    static boolean isRejection(ElasticsearchStatusException esEx) {
+        return esEx.status() == RestStatus.TOO_MANY_REQUESTS ||
+                String.valueOf(esEx.getMessage()).contains("es_rejected_execution_exception");
+    }
+
+    private void slowDown() {
+        throttleMs = min(maxThrottleMs, max(THROTTLE_STEP_MS, throttleMs * 2));
+        scrollSize = max(MIN_SCROLL_SIZE, scrollSize / 2);
+        logger.info("slowing down batch search: {}", this);
+    }
+
+    private void speedUp() {
+        int previousThrottle = throttleMs;
+        int previousScrollSize = scrollSize;
+        throttleMs = max(minThrottleMs, throttleMs - THROTTLE_STEP_MS);
+        scrollSize = min(maxScrollSize, scrollSize + max(1, maxScrollSize / 10));
+        if (previousThrottle != throttleMs || previousScrollSize != scrollSize) {
+            logger.debug("speeding up batch search: {}", this);
+        }
+    }
+
+    private boolean isSearchThreadPoolOverloaded() {
+        if (++pagesSinceThreadPoolCheck < THREAD_POOL_CHECK_PAGES) {
+            return false;
+        }
+        pagesSinceThreadPoolCheck = 0;
+        try {
+            String response = indexer.executeRaw("GET", SEARCH_THREAD_POOL_URL, null);
+            if (response == null) {
+                return false;
+            }
+            long queue = 0;
+            long rejected = 0;
+            for (JsonNode node : new ObjectMapper().readTree(response)) {
+                queue += node.path("queue").asLong();
+                rejected += node.path("rejected").asLong();
+            }
+            boolean newRejections = lastRejectedCount >= 0 && rejected > lastRejectedCount;
+            lastRejectedCount = rejected;
+            return queue > maxSearchQueue || newRejections;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("cannot read elasticsearch search thread pool", e);
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "throttle=" + throttleMs + "ms scrollSize=" + scrollSize + " latency=" + lastLatencyMs + "ms rate=" +
+                String.format("%.2f", getRate()) + " pages/s";
+    }
+}
@@ -41,6 +41,7 @@ public class IndexTask extends PipelineTask implements Monitorable{
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final DocumentQueueDrainer drainer;
     private final DocumentConsumer consumer;
+    private final ElasticsearchSpewer spewer;
     private final Publisher publisher;
     private long totalToProcess;
     private final Integer parallelism;
@@ -52,6 +53,7 @@ public class IndexTask extends PipelineTask implements Monitorable{
         PropertiesProvider propertiesProvider = new PropertiesProvider(properties);
         parallelism = propertiesProvider.get("parallelism").map(Integer::parseInt).orElse(Runtime.getRuntime().availableProcessors());
         this.publisher = publisher;
+        this.spewer = spewer;
         String indexName = propertiesProvider.get("defaultProject").orElse("local-datashare");
         spewer.withIndex(indexName); // TODO: remove this
         spewer.createIndex();
@@ -91,6 +93,7 @@ public class IndexTask extends PipelineTask implements Monitorable{
         } catch (InterruptedException iex) {
             logger.info("Got InterruptedException while waiting for the consumer shutdown.");
         }
+        spewer.percolatePending();
         publisher.publish(Channel.NLP, new ShutdownMessage());
 
         if (consumer.getReporter() != null) consumer.getReporter().close();
@@ -4,10 +4,12 @@ import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import org.icij.datashare.Entity;
 import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.com.BatchPublisher;
 import org.icij.datashare.com.Channel;
 import org.icij.datashare.com.Message;
 import org.icij.datashare.com.Publisher;
 import org.icij.datashare.com.ShutdownMessage;
+import org.icij.datashare.monitoring.Monitorable;
 import org.icij.datashare.text.Document;
 import org.icij.datashare.text.indexing.Indexer;
 import org.icij.datashare.text.nlp.Pipeline;
@@ -17,20 +19,37 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 
+import static java.lang.Integer.parseInt;
 import static java.lang.String.valueOf;
 import static java.util.stream.Collectors.toList;
+import static org.icij.datashare.cli.DatashareCliOptions.SCROLL_SIZE;
 
-public class ResumeNlpTask implements Callable<Long>, UserTask {
+/**
+ * Sends the EXTRACT_NLP messages for the documents of the project that have not been processed by the pipelines.
+ *
+ * The documents are scrolled in parallel with scrollSlices slices, fetching only their root document and language.
+ * Each slice sends the number of its documents (INIT_MONITORING) and then the messages of each scroll page
+ * in one batch (if the publisher is a {@link BatchPublisher}), so that the consumers start while the other
+ * pages are scrolled.
+ */
+public class ResumeNlpTask implements Callable<Long>, Monitorable, UserTask {
     Logger logger = LoggerFactory.getLogger(getClass());
     private final Set<Pipeline.Type> nlpPipelines;
     private final User user;
+    private final int scrollSize;
+    private final int scrollSlices;
     private String projectName;
     private final Publisher publisher;
     private final Indexer indexer;
+    private final AtomicLong totalHits = new AtomicLong(0);
+    private final AtomicLong published = new AtomicLong(0);
 
     @Inject
     public ResumeNlpTask(final Publisher publisher, final Indexer indexer, final PropertiesProvider propertiesProvider,
@@ -40,30 +59,63 @@ public class ResumeNlpTask implements Callable<Long>, UserTask {
         this.nlpPipelines = nlpPipelines;
         this.user = user;
         this.projectName = propertiesProvider.get("defaultProject").orElse("local-datashare");
+        this.scrollSize = parseInt(propertiesProvider.get(SCROLL_SIZE).orElse("1000"));
+        this.scrollSlices = parseInt(propertiesProvider.get("scrollSlices").orElse("1"));
     }
 
     @Override
     public Long call() throws IOException {
-        logger.info("resuming NLP name finding for index {} and {}", projectName, nlpPipelines);
-        Indexer.Searcher searcher = indexer.search(projectName, Document.class).withSource("rootDocument").without(nlpPipelines.toArray(new Pipeline.Type[] {}));
-        List<? extends Entity> docsToProcess = searcher.scroll().collect(toList());
-        long totalHits = searcher.totalHits();
-        this.publisher.publish(Channel.NLP, new Message(Message.Type.INIT_MONITORING).add(Message.Field.VALUE, valueOf(totalHits)));
+        logger.info("resuming NLP name finding for index {} and {} with {} slice(s) of scroll size {}", projectName, nlpPipelines, scrollSlices, scrollSize);
+        long nbMessages;
+        try {
+            nbMessages = IntStream.range(0, scrollSlices).parallel().mapToLong(this::slicedScroll).sum();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        logger.info("sent {} message for {} files without {} pipeline tags", Message.Type.EXTRACT_NLP, nbMessages, nlpPipelines);
 
-        do {
-            docsToProcess.forEach(doc -> this.publisher.publish(Channel.NLP,
-                    new Message(Message.Type.EXTRACT_NLP)
-                            .add(Message.Field.INDEX_NAME, projectName)
-                            .add(Message.Field.DOC_ID, doc.getId())
-                            .add(Message.Field.R_ID, ((Document) doc).getRootDocument())));
-            docsToProcess = searcher.scroll().collect(toList());
-        } while (docsToProcess.size() != 0);
-        logger.info("sent {} message for {} files without {} pipeline tags", Message.Type.EXTRACT_NLP, totalHits, nlpPipelines);
-
-        searcher.clearScroll();
         this.publisher.publish(Channel.NLP, new ShutdownMessage());
 
-        return totalHits;
+        return nbMessages;
+    }
+
+    private long slicedScroll(int sliceNum) {
+        Indexer.Searcher searcher = indexer.search(projectName, Document.class).withSource("rootDocument", "language")
+                .without(nlpPipelines.toArray(new Pipeline.Type[] {})).limit(scrollSize);
+        try {
+            List<? extends Entity> docsToProcess = searcher.scroll(sliceNum, scrollSlices).collect(toList());
+            totalHits.addAndGet(searcher.totalHits());
+            this.publisher.publish(Channel.NLP, new Message(Message.Type.INIT_MONITORING).add(Message.Field.VALUE, valueOf(searcher.totalHits())));
+            long nbMessages = 0;
+            while (docsToProcess.size() != 0) {
+                publish(docsToProcess.stream().map(doc -> new Message(Message.Type.EXTRACT_NLP)
+                        .add(Message.Field.INDEX_NAME, projectName)
+                        .add(Message.Field.DOC_ID, doc.getId())
+                        .add(Message.Field.R_ID, ((Document) doc).getRootDocument())
+                        .add(Message.Field.VALUE, valueOf(((Document) doc).getLanguage()))).collect(toList()));
+                nbMessages += docsToProcess.size();
+                published.addAndGet(docsToProcess.size());
+                docsToProcess = searcher.scroll(sliceNum, scrollSlices).collect(toList());
+            }
+            searcher.clearScroll();
+            return nbMessages;
+        } catch (IOException e) {
+            logger.error("error in slice {}", sliceNum, e);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void publish(List<Message> messages) {
+        if (publisher instanceof BatchPublisher) {
+            ((BatchPublisher) publisher).publish(Channel.NLP, messages);
+        } else {
+            messages.forEach(message -> publisher.publish(Channel.NLP, message));
+        }
+    }
+
+    @Override
+    public double getProgressRate() {
+        return totalHits.get() == 0 ? -1 : (double) published.get() / totalHits.get();
     }
 
     @Override
@@ -0,0 +1,29 @@
+package org.icij.datashare.tasks;
+
+import org.icij.datashare.nlp.NlpApp;
+
+/**
+ * Scheduling classes of the tasks. Each class has its own thread budget in the {@link TaskManager}
+ * so that long tasks cannot take the slots of the short ones.
+ *
+ * - INTERACTIVE: short tasks a user is waiting for (api keys, scan of the index report)
+ * - BATCH: tasks processing a set of documents then exiting (scan, index, batch searches...)
+ * - BACKGROUND: long running listeners (NLP apps waiting for documents)
+ */
+public enum TaskClass {
+    INTERACTIVE, BATCH, BACKGROUND;
+
+    static TaskClass of(Object task) {
+        if (task instanceof TaskManager.MonitorableFutureTask) {
+            return ((TaskManager.MonitorableFutureTask<?>) task).getTaskClass();
+        }
+        if (task instanceof GenApiKeyTask || task instanceof GetApiKeyTask || task instanceof DelApiKeyTask ||
+                task instanceof ScanIndexTask) {
+            return INTERACTIVE;
+        }
+        if (task instanceof NlpApp) {
+            return BACKGROUND;
+        }
+        return BATCH;
+    }
+}
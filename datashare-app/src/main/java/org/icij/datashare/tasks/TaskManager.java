@@ -8,31 +8,72 @@ import org.icij.datashare.user.UserTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.*;
+import java.util.function.IntSupplier;
 
-import static java.lang.Integer.valueOf;
+import static java.lang.Integer.parseInt;
 import static java.util.concurrent.Executors.newFixedThreadPool;
 import static java.util.stream.Collectors.toList;
+import static org.icij.datashare.cli.DatashareCliOptions.TASK_CLASS_PARALLELISM_OPT;
+import static org.icij.datashare.cli.DatashareCliOptions.TASK_PROGRESS_INTERVAL_OPT;
+import static org.icij.datashare.cli.DatashareCliOptions.TASK_USER_QUOTA_OPT;
 
+/**
+ * Runs the tasks with a thread budget by {@link TaskClass}. When all the threads of its class are
+ * busy, a task is queued until a task of the same class is done.
+ *
+ * With a user quota, a user cannot run more than quota BATCH and BACKGROUND tasks at the same time.
+ * Among the queued tasks of a class, the tasks of the users with the fewest running BATCH and BACKGROUND
+ * tasks are started first (in the order they were started for the same user). The INTERACTIVE tasks
+ * are not counted: they are short and not limited by the quota.
+ */
 public class TaskManager {
     private Logger logger = LoggerFactory.getLogger(getClass());
     private final ExecutorService executor;
     private final ConcurrentMap<String, MonitorableFutureTask> tasks = new ConcurrentHashMap<>();
+    private final Map<TaskClass, Integer> budgets = new EnumMap<>(TaskClass.class);
+    private final int userQuota;
+    private final long progressIntervalMillis;
+    private final Map<TaskClass, LinkedList<MonitorableFutureTask<?>>> queues = new EnumMap<>(TaskClass.class);
+    private final Map<TaskClass, Integer> running = new EnumMap<>(TaskClass.class);
+    // running BATCH and BACKGROUND tasks by user
+    private final Map<String, Integer> runningByUser = new HashMap<>();
+    private volatile boolean interrupted = false;
 
     @Inject
     public TaskManager(final PropertiesProvider provider) {
         Optional<String> parallelism = provider.get("parallelism");
-        executor = parallelism.map(s -> newFixedThreadPool(valueOf(s))).
-                   orElseGet( () -> newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
+        int defaultBudget = parallelism.map(Integer::valueOf).orElseGet(() -> Runtime.getRuntime().availableProcessors());
+        for (TaskClass taskClass : TaskClass.values()) {
+            budgets.put(taskClass, defaultBudget);
+            queues.put(taskClass, new LinkedList<>());
+            running.put(taskClass, 0);
+        }
+        provider.get(TASK_CLASS_PARALLELISM_OPT).ifPresent(classParallelism -> {
+            for (String classBudget : classParallelism.split(",")) {
+                String[] nameAndBudget = classBudget.trim().split(":");
+                budgets.put(TaskClass.valueOf(nameAndBudget[0].trim().toUpperCase()), Math.max(1, parseInt(nameAndBudget[1].trim())));
+            }
+        });
+        userQuota = provider.get(TASK_USER_QUOTA_OPT).map(Integer::valueOf).orElse(0);
+        progressIntervalMillis = provider.get(TASK_PROGRESS_INTERVAL_OPT).map(Long::valueOf).orElse(MonitorableFutureTask.DEFAULT_PROGRESS_INTERVAL_MILLIS);
+        executor = newFixedThreadPool(budgets.values().stream().mapToInt(Integer::intValue).sum());
+        logger.info("task budgets {} with user quota {}", budgets, userQuota);
     }
 
     public MonitorableFutureTask<Void> startTask(final Runnable task) {
         MonitorableFutureTask<Void> futureTask = new MonitorableFutureTask<>(task, null);
-        executor.submit(futureTask);
         tasks.put(futureTask.toString(), futureTask);
+        schedule(futureTask);
         return futureTask;
     }
 
@@ -42,23 +83,23 @@ public class TaskManager {
                 callback.run();
             }
         };
-        executor.submit(futureTask);
         tasks.put(futureTask.toString(), futureTask);
+        schedule(futureTask);
         return futureTask;
     }
     public <V> MonitorableFutureTask<V> startTask(final Callable<V> task, final Runnable callback) {
         MonitorableFutureTask<V> futureTask = new MonitorableFutureTask<V>(task) {
             @Override protected void done() { callback.run();}
         };
-        executor.submit(futureTask);
         tasks.put(futureTask.toString(), futureTask);
+        schedule(futureTask);
         return futureTask;
     }
 
     public <V> MonitorableFutureTask<V> startTask(final Callable<V> task) {
         MonitorableFutureTask<V> futureTask = new MonitorableFutureTask<>(task);
-        executor.submit(futureTask);
         tasks.put(futureTask.toString(), futureTask);
+        schedule(futureTask);
         return futureTask;
     }
 
@@ -67,12 +108,40 @@ public class TaskManager {
     }
 
     public List<Runnable> shutdownNow() {
-        return executor.shutdownNow();
+        interrupted = true;
+        List<Runnable> notStarted = new ArrayList<>();
+        synchronized (this) {
+            queues.values().forEach(queue -> {
+                notStarted.addAll(queue);
+                queue.clear();
+            });
+        }
+        notStarted.addAll(executor.shutdownNow());
+        return notStarted;
     }
 
+    /**
+     * waits for the queued tasks to be started before shutting down the executor
+     */
     public void shutdownAndAwaitTermination(int timeout, TimeUnit timeUnit) throws InterruptedException {
+        long remainingNanos = timeUnit.toNanos(timeout);
+        synchronized (this) {
+            while (queues.values().stream().anyMatch(queue -> !queue.isEmpty()) && remainingNanos > 0) {
+                long start = System.nanoTime();
+                TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+                remainingNanos -= System.nanoTime() - start;
+            }
+        }
         executor.shutdown();
-        executor.awaitTermination(timeout, timeUnit);
+        executor.awaitTermination(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return true if the running tasks have been interrupted by {@link #shutdownNow()}: the tasks
+     * that swallow the interruption then return as if they were done
+     */
+    public boolean isInterrupted() {
+        return interrupted;
     }
 
     public Collection<MonitorableFutureTask> getTasks() {
@@ -93,13 +162,116 @@ public class TaskManager {
         return getTasks().stream().filter(FutureTask::isDone).map(t -> tasks.remove(t.toString())).collect(toList());
     }
 
+    public long getProgressIntervalMillis() {
+        return progressIntervalMillis;
+    }
+
     public boolean stopTask(String taskName) {
         logger.info("cancelling task {}", taskName);
         return getTask(taskName).cancel(true);
     }
 
+    private synchronized void schedule(MonitorableFutureTask<?> task) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("task manager is shut down, cannot start " + task);
+        }
+        task.queuePosition = () -> getQueuePosition(task);
+        task.progressIntervalMillis = progressIntervalMillis;
+        queues.get(task.getTaskClass()).add(task);
+        dispatch();
+        if (task.getQueuePosition() > 0) {
+            logger.info("queued {} task {} at position {}", task.getTaskClass(), task, task.getQueuePosition());
+        }
+    }
+
+    private synchronized void dispatch() {
+        for (TaskClass taskClass : TaskClass.values()) {
+            MonitorableFutureTask<?> next;
+            while (running.get(taskClass) < budgets.get(taskClass) && (next = pollNext(taskClass)) != null) {
+                if (next.isDone()) {
+                    continue; // cancelled while queued
+                }
+                MonitorableFutureTask<?> task = next;
+                running.merge(taskClass, 1, Integer::sum);
+                if (taskClass != TaskClass.INTERACTIVE) {
+                    runningByUser.merge(userKey(task), 1, Integer::sum);
+                }
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        finished(task);
+                    }
+                });
+            }
+        }
+    }
+
+    private synchronized void finished(MonitorableFutureTask<?> task) {
+        running.merge(task.getTaskClass(), -1, Integer::sum);
+        if (task.getTaskClass() != TaskClass.INTERACTIVE) {
+            runningByUser.computeIfPresent(userKey(task), (user, nb) -> nb > 1 ? nb - 1 : null);
+        }
+        dispatch();
+        notifyAll();
+    }
+
+    /**
+     * @return the first queued task of the user with the fewest running tasks that is under quota, or null
+     */
+    private MonitorableFutureTask<?> pollNext(TaskClass taskClass) {
+        MonitorableFutureTask<?> next = null;
+        int nextUserRunning = Integer.MAX_VALUE;
+        for (MonitorableFutureTask<?> task : queues.get(taskClass)) {
+            if (task.isDone()) {
+                next = task;
+                break;
+            }
+            int userRunning = runningByUser.getOrDefault(userKey(task), 0);
+            if (userRunning < nextUserRunning && (taskClass == TaskClass.INTERACTIVE || userQuota <= 0 || userRunning < userQuota)) {
+                next = task;
+                nextUserRunning = userRunning;
+            }
+        }
+        if (next != null) {
+            queues.get(taskClass).remove(next);
+        }
+        return next;
+    }
+
+    /**
+     * @return the position (from 1) of the task in the queue of its class, 0 if it is not queued
+     */
+    synchronized int getQueuePosition(MonitorableFutureTask<?> task) {
+        int position = 0;
+        Iterator<MonitorableFutureTask<?>> queued = queues.get(task.getTaskClass()).iterator();
+        while (queued.hasNext()) {
+            MonitorableFutureTask<?> next = queued.next();
+            if (!next.isDone()) {
+                position++;
+            }
+            if (next == task) {
+                return next.isDone() ? 0 : position;
+            }
+        }
+        return 0;
+    }
+
+    private static String userKey(MonitorableFutureTask<?> task) {
+        User user = task.getUser();
+        return user == null ? "" : user.id;
+    }
+
+    /**
+     * Task with its progress sampled at most every progress interval, whatever the number of clients
+     * asking for it (the progress of some tasks needs a round trip to the document queue).
+     */
     public static class MonitorableFutureTask<V> extends FutureTask<V> implements Monitorable, UserTask {
+        static final long DEFAULT_PROGRESS_INTERVAL_MILLIS = 1000;
         private final Object runnableOrCallable;
+        private volatile IntSupplier queuePosition = () -> 0;
+        private volatile long progressIntervalMillis = DEFAULT_PROGRESS_INTERVAL_MILLIS;
+        private volatile ProgressSample progress;
         public MonitorableFutureTask(Callable<V> callable) {
             super(callable);
             runnableOrCallable = callable;
@@ -119,7 +291,51 @@ public class TaskManager {
 
         @Override
         public double getProgressRate() {
-            return getMonitorable(runnableOrCallable).getProgressRate();
+            return sampleProgress().rate;
+        }
+
+        /**
+         * @return the progress rate per second between the last two samples (0 if the progress is unknown)
+         */
+        public double getThroughput() {
+            return sampleProgress().throughput;
+        }
+
+        private ProgressSample sampleProgress() {
+            long now = System.currentTimeMillis();
+            ProgressSample last = progress;
+            if (last != null && now - last.timestamp < progressIntervalMillis) {
+                return last;
+            }
+            synchronized (this) {
+                last = progress;
+                if (last != null && now - last.timestamp < progressIntervalMillis) {
+                    return last;
+                }
+                double rate = getMonitorable(runnableOrCallable).getProgressRate();
+                double throughput = last == null || last.rate < 0 || rate < 0 ? 0 :
+                        Math.max(0, rate - last.rate) * 1000 / Math.max(1, now - last.timestamp);
+                progress = new ProgressSample(rate, throughput, now);
+                return progress;
+            }
+        }
+
+        /**
+         * @return the callable or runnable of the task if it is an instance of the given class
+         */
+        public <T> Optional<T> getTask(Class<T> taskClass) {
+            return taskClass.isInstance(runnableOrCallable) ? Optional.of(taskClass.cast(runnableOrCallable)) : Optional.empty();
+        }
+
+        public TaskClass getTaskClass() {
+            return TaskClass.of(runnableOrCallable);
+        }
+
+        /**
+         * @return the position (from 1) of the task in the queue of its class, 0 if it is started
+         */
+        public int getQueuePosition() {
+            return queuePosition.getAsInt();
         }
 
         @Override
@@ -132,5 +348,17 @@ public class TaskManager {
             }
             return User.local();
         }
+
+        private static class ProgressSample {
+            private final double rate;
+            private final double throughput;
+            private final long timestamp;
+
+            private ProgressSample(double rate, double throughput, long timestamp) {
+                this.rate = rate;
+                this.throughput = throughput;
+                this.timestamp = timestamp;
+            }
+        }
     }
 }
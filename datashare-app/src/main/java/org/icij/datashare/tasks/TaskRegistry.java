@@ -0,0 +1,307 @@
+package org.icij.datashare.tasks;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.extension.PipelineRegistry;
+import org.icij.datashare.nlp.NlpApp;
+import org.icij.datashare.text.nlp.Pipeline;
+import org.icij.datashare.time.DatashareTime;
+import org.icij.datashare.user.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.Collections.singleton;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.icij.datashare.PropertiesProvider.QUEUE_NAME_OPTION;
+import static org.icij.datashare.cli.DatashareCliOptions.NLP_PIPELINES_OPT;
+import static org.icij.datashare.cli.DatashareCliOptions.NODE_ID_OPT;
+import static org.icij.datashare.cli.DatashareCliOptions.RESUME_OPT;
+import static org.icij.datashare.cli.DatashareCliOptions.TASK_HEARTBEAT_INTERVAL_OPT;
+
+/**
+ * Starts the index and NLP tasks in the {@link TaskManager} and saves them with their properties
+ * in the {@link TaskRepository}, so that they survive a restart : the document queues are kept
+ * in redis, but nobody would drain them anymore.
+ *
+ * The repository is shared by the datashare nodes. Each task belongs to the node (nodeId option,
+ * the pid@host of the process by default) that runs it, and the node updates the heartbeat and
+ * progress of its tasks every heartbeat interval.
+ * At each heartbeat, the node :
+ * - stops its tasks that have been stopped from another node (they are not RUNNING anymore)
+ * - claims and starts again in resume mode the RUNNING tasks of the nodes without heartbeat
+ * for {@link #STALE_HEARTBEATS} intervals (the index task drains what is left in its queue,
+ * the NLP task is started with a {@link ResumeNlpTask} for its pipeline, once the NLP task listens).
+ *
+ * The first heartbeat runs as soon as the registry is created, so that the tasks that were running
+ * on this node when datashare has been stopped are resumed. So it is only bound in the web server modes
+ * (LOCAL, SERVER): the CLI, NER and batch processes use their own tasks without registry.
+ *
+ * The NLP tasks run in the background pool, so a resumed NLP task can wait for a while before it listens.
+ * Until it does, the definition of the task it resumes is kept (with its heartbeat) and the
+ * {@link ResumeNlpTask} is not started: the documents published before would be lost.
+ *
+ * The state of a task is saved when it is done. A task interrupted by a shutdown stays
+ * RUNNING, only the tasks stopped with {@link #stopTask(String)} are CANCELLED.
+ */
+@Singleton
+public class TaskRegistry {
+    static final long DEFAULT_HEARTBEAT_INTERVAL_MILLIS = 10000;
+    static final int STALE_HEARTBEATS = 3;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final TaskManager taskManager;
+    private final TaskFactory taskFactory;
+    private final PipelineRegistry pipelineRegistry;
+    private final TaskRepository repository;
+    private final String nodeId;
+    private final long heartbeatIntervalMillis;
+    private final Set<String> localTasks = ConcurrentHashMap.newKeySet();
+    // id of the resumed NLP definition -> id of the NLP task resuming it, that does not listen yet
+    private final Map<String, String> pendingNlpResumes = new ConcurrentHashMap<>();
+
+    @Inject
+    public TaskRegistry(final PropertiesProvider propertiesProvider, final TaskManager taskManager, final TaskFactory taskFactory,
+                        final PipelineRegistry pipelineRegistry, final TaskRepository repository) {
+        this.taskManager = taskManager;
+        this.taskFactory = taskFactory;
+        this.pipelineRegistry = pipelineRegistry;
+        this.repository = repository;
+        this.nodeId = propertiesProvider.get(NODE_ID_OPT).orElseGet(TaskRegistry::processName);
+        this.heartbeatIntervalMillis = propertiesProvider.get(TASK_HEARTBEAT_INTERVAL_OPT).map(Long::valueOf).orElse(DEFAULT_HEARTBEAT_INTERVAL_MILLIS);
+        logger.info("task registry for node {} with heartbeat every {}ms", nodeId, heartbeatIntervalMillis);
+        if (heartbeatIntervalMillis > 0) {
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "task-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::heartbeat, 0, heartbeatIntervalMillis, MILLISECONDS);
+        }
+    }
+
+    public TaskManager.MonitorableFutureTask<Long> startIndexTask(User user, String queueName, Properties properties) {
+        IndexTask indexTask = taskFactory.createIndexTask(user, queueName, properties);
+        Properties saved = new Properties();
+        saved.putAll(properties);
+        saved.setProperty(QUEUE_NAME_OPTION, queueName);
+        localTasks.add(indexTask.toString());
+        repository.save(new TaskDefinition(indexTask.toString(), TaskDefinition.Type.INDEX, user, saved, nodeId));
+        return taskManager.startTask(indexTask, () -> taskDone(indexTask.toString()));
+    }
+
+    public TaskManager.MonitorableFutureTask<Void> startNlpTask(User user, Pipeline pipeline, Properties properties, Runnable subscribedCb) {
+        NlpApp nlpApp = taskFactory.createNlpTask(user, pipeline, properties, subscribedCb);
+        Properties saved = new Properties();
+        saved.putAll(properties);
+        saved.setProperty(NLP_PIPELINES_OPT, pipeline.getType().name());
+        localTasks.add(nlpApp.toString());
+        repository.save(new TaskDefinition(nlpApp.toString(), TaskDefinition.Type.NLP, user, saved, nodeId));
+        return taskManager.startTask(nlpApp, () -> taskDone(nlpApp.toString()));
+    }
+
+    /**
+     * stops a task of this node, or asks the node of the task to stop it at its next heartbeat
+     * @return true if the task has been stopped or if it will be stopped by its node
+     */
+    public boolean stopTask(String taskId) {
+        TaskManager.MonitorableFutureTask<?> task = taskManager.getTask(taskId);
+        if (task != null) {
+            if (!task.isDone()) {
+                repository.setState(taskId, TaskDefinition.State.CANCELLED);
+            }
+            return taskManager.stopTask(taskId);
+        }
+        TaskDefinition remoteTask = repository.get(taskId);
+        return remoteTask != null && remoteTask.state == TaskDefinition.State.RUNNING &&
+                repository.setState(taskId, TaskDefinition.State.CANCELLED);
+    }
+
+    /**
+     * @return the task with the given id if it is not a task of this node, null otherwise
+     */
+    public TaskDefinition getRemoteTask(String taskId) {
+        TaskDefinition task = repository.get(taskId);
+        return task == null || taskManager.getTask(taskId) != null ? null : task;
+    }
+
+    /**
+     * @return the RUNNING tasks of the user on the other nodes
+     */
+    public List<TaskDefinition> getRemoteTasks(User user) {
+        return repository.get(user).stream().
+                filter(t -> t.state == TaskDefinition.State.RUNNING && taskManager.getTask(t.id) == null).
+                collect(toList());
+    }
+
+    /**
+     * removes the done tasks from the task manager and their definitions from the repository
+     * @return the removed tasks
+     */
+    public List<TaskManager.MonitorableFutureTask> cleanDoneTasks() {
+        List<TaskManager.MonitorableFutureTask> doneTasks = taskManager.cleanDoneTasks();
+        doneTasks.forEach(task -> repository.delete(task.toString()));
+        return doneTasks;
+    }
+
+    /**
+     * removes from the repository the definitions of the user that are not RUNNING anymore : the tasks
+     * done, stopped or in error on the other nodes, and the tasks that could not be resumed
+     * @return the removed definitions
+     */
+    public List<TaskDefinition> cleanFinishedTasks(User user) {
+        List<TaskDefinition> finishedTasks = repository.get(user).stream().
+                filter(t -> t.state != TaskDefinition.State.RUNNING && taskManager.getTask(t.id) == null).
+                collect(toList());
+        finishedTasks.forEach(task -> repository.delete(task.id));
+        return finishedTasks;
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    void heartbeat() {
+        try {
+            for (String taskId : localTasks) {
+                TaskManager.MonitorableFutureTask<?> task = taskManager.getTask(taskId);
+                // a done task is removed when its final state is saved
+                if (task == null) {
+                    localTasks.remove(taskId);
+                } else if (!task.isDone() && !repository.heartbeat(taskId, nodeId, task.getProgressRate())) {
+                    logger.info("task {} has been stopped or taken by another node, stopping it", taskId);
+                    localTasks.remove(taskId);
+                    taskManager.stopTask(taskId);
+                }
+            }
+            // the definitions waiting for their NLP task to listen must not be claimed by another node
+            pendingNlpResumes.keySet().forEach(resumedId -> repository.heartbeat(resumedId, nodeId, 0));
+            resumeUnfinishedTasks();
+        } catch (RuntimeException e) {
+            logger.error("error during task heartbeat", e);
+        }
+    }
+
+    /**
+     * claims the RUNNING tasks of this node that are not running anymore, and the tasks of the
+     * nodes without heartbeat, then starts them again. They are saved with a new id,
+     * and the previous definitions are removed (for NLP tasks, when the new task listens).
+     *
+     * @return the restarted tasks
+     */
+    synchronized List<TaskManager.MonitorableFutureTask<?>> resumeUnfinishedTasks() {
+        List<TaskManager.MonitorableFutureTask<?>> resumed = new ArrayList<>();
+        Date staleBefore = new Date(DatashareTime.getInstance().currentTimeMillis() - STALE_HEARTBEATS * heartbeatIntervalMillis);
+        for (TaskDefinition task : repository.getUnfinished()) {
+            if (localTasks.contains(task.id) || pendingNlpResumes.containsKey(task.id) || !repository.claim(task.id, nodeId, staleBefore)) {
+                continue;
+            }
+            Properties properties = task.getProperties();
+            properties.setProperty(RESUME_OPT, "true");
+            try {
+                switch (task.type) {
+                    case INDEX:
+                        resumed.add(startIndexTask(task.user, properties.getProperty(QUEUE_NAME_OPTION), properties));
+                        break;
+                    case NLP:
+                        Pipeline.Type pipelineType = Pipeline.Type.parse(properties.getProperty(NLP_PIPELINES_OPT));
+                        Pipeline pipeline = pipelineRegistry.get(pipelineType);
+                        pendingNlpResumes.put(task.id, "");
+                        TaskManager.MonitorableFutureTask<Void> nlpTask = startNlpTask(task.user, pipeline, properties, () -> nlpTaskListens(task));
+                        pendingNlpResumes.replace(task.id, "", nlpTask.toString());
+                        if (nlpTask.isDone() && pendingNlpResumes.remove(task.id) != null) {
+                            repository.delete(task.id); // done before its id was known by taskDone
+                        }
+                        resumed.add(nlpTask);
+                        logger.info("resumed {}, waiting for NlpApp {} to listen", task, pipelineType);
+                        continue;
+                }
+                logger.info("resumed {}", task);
+            } catch (RuntimeException e) {
+                logger.error("cannot resume {}", task, e);
+                pendingNlpResumes.remove(task.id);
+                repository.setState(task.id, TaskDefinition.State.ERROR);
+                continue;
+            }
+            repository.delete(task.id);
+        }
+        return resumed;
+    }
+
+    /**
+     * starts the {@link ResumeNlpTask} of a resumed NLP task, now that its NlpApp listens
+     * to the documents published, and removes the definition of the task it resumes
+     */
+    private void nlpTaskListens(TaskDefinition task) {
+        if (pendingNlpResumes.remove(task.id) == null) {
+            return;
+        }
+        Pipeline.Type pipelineType = Pipeline.Type.parse(task.getProperties().getProperty(NLP_PIPELINES_OPT));
+        try {
+            logger.info("NlpApp {} is listening, resuming the NLP of the documents of {}", pipelineType, task);
+            taskManager.startTask(taskFactory.createResumeNlpTask(task.user, singleton(pipelineType)));
+            repository.delete(task.id);
+        } catch (RuntimeException e) {
+            logger.error("cannot resume the NLP of the documents of {}", task, e);
+        }
+    }
+
+    /**
+     * saves the final state of the task before removing it from the local tasks: until then, the
+     * heartbeat must not take it for an unfinished task of this node and start it again
+     */
+    private void taskDone(String taskId) {
+        try {
+            saveFinalState(taskId);
+            // a resumed NLP task done before listening (stopped or in error): its own definition replaces the resumed one
+            pendingNlpResumes.entrySet().stream().filter(e -> e.getValue().equals(taskId)).map(Map.Entry::getKey).
+                    collect(toList()).forEach(resumedId -> {
+                        pendingNlpResumes.remove(resumedId);
+                        repository.delete(resumedId);
+                    });
+        } finally {
+            localTasks.remove(taskId);
+        }
+    }
+
+    private void saveFinalState(String taskId) {
+        TaskManager.MonitorableFutureTask<?> task = taskManager.getTask(taskId);
+        if (task == null || task.isCancelled()) {
+            return;
+        }
+        if (taskManager.isInterrupted()) {
+            logger.info("task {} interrupted by shutdown, it stays unfinished", taskId);
+            return;
+        }
+        try {
+            task.get();
+            repository.setState(taskId, TaskDefinition.State.DONE);
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof InterruptedException)) {
+                repository.setState(taskId, TaskDefinition.State.ERROR);
+            }
+        } catch (InterruptedException e) {
+            logger.info("task {} interrupted, it stays unfinished", taskId);
+        }
+    }
+
+    /**
+     * @return the pid@host name of this JVM, so that two datashare processes on the same host are
+     * different nodes (the tasks of one process are not claimed as its own by the other)
+     */
+    private static String processName() {
+        return ManagementFactory.getRuntimeMXBean().getName();
+    }
+}
@@ -11,11 +11,16 @@ import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.batch.BatchSearch;
 import org.icij.datashare.batch.BatchSearchRepository;
 import org.icij.datashare.batch.BatchSearchRecord;
+import org.icij.datashare.batch.RefreshableBatchSearchRepository;
 import org.icij.datashare.batch.SearchResult;
 import org.icij.datashare.db.JooqBatchSearchRepository;
 import org.icij.datashare.session.DatashareUser;
+import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.BatchSearchPercolator;
 import org.icij.datashare.text.Project;
 import org.icij.datashare.user.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.LinkedHashSet;
@@ -31,19 +36,27 @@ import static java.lang.String.format;
 import static java.util.Arrays.stream;
 import static net.codestory.http.payload.Payload.*;
 import static org.icij.datashare.CollectionUtils.asSet;
+import static org.icij.datashare.cli.DatashareCliOptions.BATCH_SEARCH_INDEX_RESULTS;
+import static org.icij.datashare.tasks.BatchSearchRunner.removeBatchSearchFromDocuments;
 import static org.icij.datashare.text.Project.project;
 
 @Singleton
 @Prefix("/api/batch")
 public class BatchSearchResource {
-    private final BatchSearchRepository batchSearchRepository;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final RefreshableBatchSearchRepository batchSearchRepository;
     private final BlockingQueue<String> batchSearchQueue;
+    private final BatchSearchPercolator percolator;
+    private final Indexer indexer;
     private final PropertiesProvider propertiesProvider;
 
     @Inject
-    public BatchSearchResource(final BatchSearchRepository batchSearchRepository, BlockingQueue batchSearchQueue, PropertiesProvider propertiesProvider) {
+    public BatchSearchResource(final RefreshableBatchSearchRepository batchSearchRepository, BlockingQueue batchSearchQueue,
+                               BatchSearchPercolator percolator, Indexer indexer, PropertiesProvider propertiesProvider) {
         this.batchSearchRepository = batchSearchRepository;
         this.batchSearchQueue = batchSearchQueue;
+        this.percolator = percolator;
+        this.indexer = indexer;
         this.propertiesProvider = propertiesProvider;
     }
 
@@ -122,6 +135,22 @@ public class BatchSearchResource {
         return new Payload(queries);
     }
 
+    /**
+     * Retrieve the warnings of the batch search with the given id, for instance when the number
+     * of results of a query has been capped by the max number of results of a batch search
+     *
+     * @param batchId
+     * @return 200 and the list of warnings
+     *
+     * Example :
+     * $(curl localhost:8080/api/batch/search/b7bee2d8-5ede-4c56-8b69-987629742146/warnings )
+     */
+    @Get("/search/:batchid/warnings")
+    public List<String> getBatchWarnings(String batchId, Context context) {
+        batchSearchRepository.get((User) context.currentUser(), batchId);
+        return batchSearchRepository.getWarnings(batchId);
+    }
+
     /**
      * preflight request
      *
@@ -147,6 +176,9 @@ public class BatchSearchResource {
      * Delete batch search with the given id and its results.
      *
      * Returns 204 (No Content) if rows have been removed and 404 if nothing has been done (i.e. not found).
+     * The standing queries of a standing batch search are removed, and with batchSearchIndexResults the batch
+     * search id is removed from the documents it matched. Errors while removing them are logged and do not
+     * prevent the deletion.
      *
      * @return 204 or 404
      *
@@ -155,8 +187,26 @@ public class BatchSearchResource {
      *
      */
     @Delete("/search/:batchid")
-    public Payload deleteBatch(String batchId, Context context) {
-        return batchSearchRepository.delete((User) context.currentUser(), batchId) ? new Payload(204): notFound();
+    public Payload deleteBatch(String batchId, Context context) throws IOException {
+        Optional<BatchSearch> batchSearch = getOwnedBatchSearch(batchId, (User) context.currentUser());
+        if (!batchSearch.isPresent()) {
+            return notFound();
+        }
+        try {
+            if (percolator.isRegistered(batchId)) {
+                percolator.unregister(batchId);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("cannot remove the standing queries of batch search " + batchId, e);
+        }
+        if (parseBoolean(propertiesProvider.get(BATCH_SEARCH_INDEX_RESULTS).orElse("false"))) {
+            try {
+                removeBatchSearchFromDocuments(indexer, batchSearch.get().project.getId(), batchId);
+            } catch (IOException e) {
+                logger.warn("cannot remove batch search " + batchId + " from the documents of " + batchSearch.get().project, e);
+            }
+        }
+        return batchSearchRepository.delete((User) context.currentUser(), batchId) ? new Payload(204) : notFound();
     }
 
     /**
@@ -176,6 +226,69 @@ public class BatchSearchResource {
         return batchSearchRepository.publish((User) context.currentUser(), batchId, data.asBoolean("published")) ? ok(): notFound();
     }
 
+    /**
+     * Run again the batch search with the given id on the documents extracted after its last successful run.
+     * The new results are appended to the previous ones.
+     *
+     * Returns 200 and 404 if there is no batch id, or if the batch is already queued or running.
+     * If the user issuing the request is not the same as the batch owner in database, it will do nothing (thus returning 404)
+     *
+     * @return 200 or 404
+     *
+     * Example :
+     * $(curl -i -XPOST localhost:8080/api/batch/search/f74432db-9ae8-401d-977c-5c44a124f2c8/refresh)
+     */
+    @Post("/search/:batchid/refresh")
+    public Payload refreshBatch(String batchId, Context context) throws InterruptedException {
+        if (batchSearchRepository.refresh((User) context.currentUser(), batchId)) {
+            batchSearchQueue.put(batchId);
+            return ok();
+        }
+        return notFound();
+    }
+
+    /**
+     * Register the batch search with the given id as a standing batch search. Its queries
+     * are then evaluated on each new document at indexing time, and the matching documents are
+     * appended to its results.
+     *
+     * Returns 200 and 404 if there is no batch id
+     * If the user issuing the request is not the same as the batch owner in database, it will do nothing (thus returning 404)
+     *
+     * @return 200 or 404
+     *
+     * Example :
+     * $(curl -i -XPOST localhost:8080/api/batch/search/f74432db-9ae8-401d-977c-5c44a124f2c8/standing)
+     */
+    @Post("/search/:batchid/standing")
+    public Payload registerStandingBatch(String batchId, Context context) throws IOException {
+        Optional<BatchSearch> batchSearch = getOwnedBatchSearch(batchId, (User) context.currentUser());
+        if (batchSearch.isPresent()) {
+            percolator.register(batchSearch.get());
+            return ok();
+        }
+        return notFound();
+    }
+
+    /**
+     * Stop evaluating the batch search with the given id at indexing time.
+     *
+     * Returns 204 and 404 if there is no batch id or if it is not a standing batch search
+     * If the user issuing the request is not the same as the batch owner in database, it will do nothing (thus returning 404)
+     *
+     * @return 204 or 404
+     *
+     * Example :
+     * $(curl -i -XDELETE localhost:8080/api/batch/search/f74432db-9ae8-401d-977c-5c44a124f2c8/standing)
+     */
+    @Delete("/search/:batchid/standing")
+    public Payload unregisterStandingBatch(String batchId, Context context) throws IOException {
+        if (getOwnedBatchSearch(batchId, (User) context.currentUser()).isPresent() && percolator.unregister(batchId)) {
+            return new Payload(204);
+        }
+        return notFound();
+    }
+
     /**
      * Creates a new batch search. This is a multipart form with 8 fields :
      * name, description, csvFile, published, fileTypes, paths, fuzziness, phrase_matches
@@ -327,6 +440,15 @@ public class BatchSearchResource {
         return asSet(stream(csv.split("\r?\n")).filter(q -> q.length() >= 2).toArray(String[]::new));
     }
 
+    private Optional<BatchSearch> getOwnedBatchSearch(String batchId, User user) {
+        try {
+            BatchSearch batchSearch = batchSearchRepository.get(batchId);
+            return user.equals(batchSearch.user) ? Optional.of(batchSearch) : Optional.empty();
+        } catch (JooqBatchSearchRepository.BatchNotFoundException notFound) {
+            return Optional.empty();
+        }
+    }
+
     private List<SearchResult> getResultsOrThrowUnauthorized(String batchId, User user, BatchSearchRepository.WebQuery webQuery) {
         try {
             return batchSearchRepository.getResults(user, batchId, webQuery);
@@ -9,10 +9,11 @@ import net.codestory.http.annotations.Put;
 import net.codestory.http.payload.Payload;
 import org.icij.datashare.Entity;
 import org.icij.datashare.text.NamedEntity;
-import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.BulkIndexer;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 import static java.util.stream.Collectors.toList;
 import static net.codestory.http.errors.NotFoundException.notFoundIfNull;
@@ -21,10 +22,10 @@ import static net.codestory.http.payload.Payload.ok;
 @Singleton
 @Prefix("/api")
 public class NamedEntityResource {
-    private final Indexer indexer;
+    private final BulkIndexer indexer;
 
     @Inject
-    public NamedEntityResource(final Indexer indexer) {
+    public NamedEntityResource(final BulkIndexer indexer) {
         this.indexer = indexer;
     }
 
@@ -43,6 +44,22 @@ public class NamedEntityResource {
         return notFoundIfNull(indexer.get(project, id, documentId));
     }
 
+    /**
+     * Returns the number of visible mentions of named entities by category for the given document.
+     * Aggregated named entities count for all their mentions.
+     *
+     * @param project
+     * @param documentId
+     * @return 200 and the mention count by category
+     *
+     * Example :
+     * $(curl localhost:8080/api/apigen-datashare/namedEntities/count/bd2ef02d39043cc5cd8c5050e81f6e73c608cafde339c9b7ed68b2919482e8dc7da92e33aea9cafec2419c97375f684f)
+     */
+    @Get("/:project/namedEntities/count/:documentId")
+    public Map<NamedEntity.Category, Long> countMentions(final String project, final String documentId) throws IOException {
+        return indexer.countMentions(project, documentId);
+    }
+
     /**
      * preflight request for hide
      * @param mentionNorm
@@ -1,33 +1,63 @@
 package org.icij.datashare.web;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import net.codestory.http.Context;
 import net.codestory.http.annotations.Get;
 import net.codestory.http.annotations.Post;
 import net.codestory.http.annotations.Prefix;
+import net.codestory.http.payload.Payload;
+import net.codestory.http.payload.StreamingOutput;
+import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.extension.PipelineRegistry;
 import org.icij.datashare.text.DocumentBuilder;
 import org.icij.datashare.text.Language;
 import org.icij.datashare.text.NamedEntity;
 import org.icij.datashare.text.indexing.LanguageGuesser;
 import org.icij.datashare.text.nlp.Pipeline;
+import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static java.lang.Integer.parseInt;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.emptyList;
+import static java.util.Optional.ofNullable;
+import static org.icij.datashare.cli.DatashareCliOptions.NLP_PARALLELISM_OPT;
+import static org.icij.datashare.json.JsonObjectMapper.MAPPER;
 
 @Singleton
 @Prefix("/api/ner")
 public class NerResource {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
     private final PipelineRegistry pipelineRegistry;
     private final LanguageGuesser languageGuesser;
+    private final int parallelism;
+    private final ExecutorService executor;
 
     @Inject
-    public NerResource(final PipelineRegistry pipelineRegistry, final LanguageGuesser languageGuesser) {
+    public NerResource(final PipelineRegistry pipelineRegistry, final LanguageGuesser languageGuesser, final PropertiesProvider propertiesProvider) {
         this.pipelineRegistry = pipelineRegistry;
         this.languageGuesser = languageGuesser;
+        this.parallelism = parseInt(propertiesProvider.get(NLP_PARALLELISM_OPT).orElse("1"));
+        this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder().setNameFormat("ner-%d").setDaemon(true).build());
     }
 
     /**
@@ -58,8 +88,199 @@ public class NerResource {
         Pipeline p = pipelineRegistry.get(Pipeline.Type.parse(pipeline));
         Language language = languageGuesser.guess(text);
         if (p.initialize(language)) {
-            return p.process(DocumentBuilder.createDoc("inline").with(text).with(language).build());
+            try {
+                return p.process(DocumentBuilder.createDoc("inline").with(text).with(language).build());
+            } finally {
+                p.terminate(language);
+            }
         }
         return emptyList();
     }
+
+    /**
+     * Finds the names of a stream of texts sent in the HTTP body as NDJSON: one JSON object per line
+     * with a "text", and optionally an "id" (the line number by default) and a "language" (guessed by default).
+     *
+     * The texts are processed in parallel by nlpParallelism threads shared by the requests, the models of
+     * a language being initialized once per request. The results are streamed back as NDJSON as soon as
+     * they are ready (so not in the order of the texts), with the id, language and named entities of each
+     * text, or the error if it could not be processed.
+     *
+     * @param pipeline to use
+     * @return NDJSON stream of results
+     *
+     * Example :
+     * $(curl -XPOST http://dsenv:8080/api/ner/findNames/CORENLP/stream --data-binary $'{"id": "1", "text": "Please find attached the tax clearance of John Doe."}\n{"id": "2", "text": "Jane Doe is in Paris."}')
+     */
+    @Post("/findNames/:pipeline/stream")
+    public Payload getAnnotationsStream(final String pipeline, Context context) throws IOException {
+        Pipeline p = pipelineRegistry.get(Pipeline.Type.parse(pipeline));
+        BufferedReader texts = new BufferedReader(new InputStreamReader(context.request().inputStream(), UTF_8));
+        NerResults results = new NerResults(p, texts);
+        return new Payload("application/x-ndjson", (StreamingOutput) output -> {
+            try {
+                while (results.hasNext()) {
+                    output.write(MAPPER.writeValueAsBytes(results.next()));
+                    output.write('\n');
+                    output.flush();
+                }
+            } finally {
+                results.close();
+            }
+        });
+    }
+
+    /**
+     * Results of the texts of a request, with at most 2 * nlpParallelism texts being processed.
+     * Iterated by the thread writing the response.
+     */
+    private class NerResults implements Iterator<NerResult> {
+        private final Pipeline pipeline;
+        private final BufferedReader texts;
+        private final ExecutorCompletionService<NerResult> completionService = new ExecutorCompletionService<>(executor);
+        private final Map<Language, CompletableFuture<Boolean>> initializedLanguages = new ConcurrentHashMap<>();
+        private int nbLines = 0;
+        private int inFlight = 0;
+        private boolean endOfTexts = false;
+        private boolean released = false;
+
+        NerResults(Pipeline pipeline, BufferedReader texts) {
+            this.pipeline = pipeline;
+            this.texts = texts;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (!endOfTexts && inFlight < 2 * parallelism) {
+                    String line = texts.readLine();
+                    if (line == null) {
+                        endOfTexts = true;
+                    } else if (!line.trim().isEmpty()) {
+                        String lineNumber = String.valueOf(++nbLines);
+                        completionService.submit(() -> findNames(line, lineNumber));
+                        inFlight++;
+                    }
+                }
+                if (inFlight == 0) {
+                    release();
+                    return false;
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public NerResult next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                Future<NerResult> result = completionService.take();
+                inFlight--;
+                return result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        private NerResult findNames(String line, String lineNumber) {
+            try {
+                NerText nerText = MAPPER.readValue(line, NerText.class);
+                String id = ofNullable(nerText.id).orElse(lineNumber);
+                Language language = nerText.language == null ? languageGuesser.guess(nerText.text) : Language.parse(nerText.language);
+                if (!initialize(language)) {
+                    return new NerResult(id, language, emptyList(), null);
+                }
+                return new NerResult(id, language, pipeline.process(DocumentBuilder.createDoc(id).with(nerText.text).with(language).build()), null);
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                logger.warn("cannot find names of text line {}", lineNumber, e);
+                return new NerResult(lineNumber, null, emptyList(), String.valueOf(e.getMessage()));
+            }
+        }
+
+        /**
+         * initializes the language once for the request : the first text of a language initializes it
+         * while the following ones wait for its initialization, without locking the other languages
+         */
+        private boolean initialize(Language language) throws InterruptedException, ExecutionException {
+            CompletableFuture<Boolean> initialization = new CompletableFuture<>();
+            CompletableFuture<Boolean> previous = initializedLanguages.putIfAbsent(language, initialization);
+            if (previous != null) {
+                return previous.get();
+            }
+            try {
+                initialization.complete(pipeline.initialize(language));
+            } catch (InterruptedException e) {
+                initialization.complete(false);
+                throw e;
+            } catch (RuntimeException e) {
+                initialization.completeExceptionally(e);
+            }
+            return initialization.get();
+        }
+
+        /**
+         * waits for the texts being processed (if the client has closed the connection) and releases the models of the request
+         */
+        void close() {
+            try {
+                while (inFlight > 0) {
+                    completionService.take();
+                    inFlight--;
+                }
+                release();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void release() throws InterruptedException {
+            if (released) {
+                return;
+            }
+            released = true;
+            for (Map.Entry<Language, CompletableFuture<Boolean>> language : initializedLanguages.entrySet()) {
+                if (language.getValue().handle((initialized, e) -> e == null && initialized).getNow(false)) {
+                    pipeline.terminate(language.getKey());
+                }
+            }
+            try {
+                texts.close();
+            } catch (IOException e) {
+                logger.warn("cannot close request body", e);
+            }
+        }
+    }
+
+    static class NerText {
+        public String id;
+        public String text;
+        public String language;
+    }
+
+    static class NerResult {
+        public final String id;
+        public final Language language;
+        public final List<NamedEntity> namedEntities;
+        public final String error;
+
+        NerResult(String id, Language language, List<NamedEntity> namedEntities, String error) {
+            this.id = id;
+            this.language = language;
+            this.namedEntities = namedEntities;
+            this.error = error;
+        }
+    }
 }
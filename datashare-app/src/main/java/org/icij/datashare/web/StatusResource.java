@@ -9,8 +9,10 @@ import net.codestory.http.payload.Payload;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.Repository;
 import org.icij.datashare.com.DataBus;
+import org.icij.datashare.nlp.NlpCache;
 import org.icij.datashare.openmetrics.StatusMapper;
 import org.icij.datashare.tasks.DocumentCollectionFactory;
+import org.icij.datashare.text.nlp.corenlp.models.CoreNlpModelPool;
 import org.icij.datashare.text.indexing.Indexer;
 import org.icij.extract.queue.DocumentQueue;
 import org.slf4j.Logger;
@@ -24,19 +26,23 @@ public class StatusResource {
     private final Repository repository;
     private final Indexer indexer;
     private final DataBus dataBus;
+    private final NlpCache nlpCache;
     private DocumentQueue queue;
 
     @Inject
-    public StatusResource(PropertiesProvider propertiesProvider, Repository repository, Indexer indexer, DataBus dataBus, DocumentCollectionFactory documentCollectionFactory) {
+    public StatusResource(PropertiesProvider propertiesProvider, Repository repository, Indexer indexer, DataBus dataBus,
+                          NlpCache nlpCache, DocumentCollectionFactory documentCollectionFactory) {
         this.propertiesProvider = propertiesProvider;
         this.repository = repository;
         this.indexer = indexer;
         this.dataBus = dataBus;
+        this.nlpCache = nlpCache;
         this.queue = documentCollectionFactory.createQueue(propertiesProvider, propertiesProvider.get(PropertiesProvider.QUEUE_NAME_OPTION).orElse("extract:queue"));
     }
 
     /**
-     * Retrieve the status of databus connection, database connection, shared queues and index.
+     * Retrieve the status of databus connection, database connection, shared queues and index,
+     * the counts of NLP models loads, hits and evictions, and the counts of NLP cache hits, misses and evictions.
      * Adding "format=openmetrics" parameter to the url will return the status witn openmetrics format.
      *
      * @return the status of datashare elements
@@ -56,7 +62,11 @@ public class StatusResource {
         } catch (RuntimeException ex){
             logger.error("Queue Health Error : ",ex);
         }
-        Status status = new Status(repository.getHealth(), indexer.getHealth(), dataBus.getHealth(), queueStatus, queueSize);
+        CoreNlpModelPool modelPool = CoreNlpModelPool.getInstance();
+        NlpCache.Stats cacheStats = nlpCache.getStats();
+        Status status = new Status(repository.getHealth(), indexer.getHealth(), dataBus.getHealth(), queueStatus, queueSize,
+                modelPool.getLoads(), modelPool.getHits(), modelPool.getEvictions(),
+                cacheStats.hits, cacheStats.misses, cacheStats.evictions);
         if ("openmetrics".equals(context.request().query().get("format"))) {
             return new Payload("text/plain;version=0.0.4",
                     new StatusMapper("datashare", status, propertiesProvider.get("platform").orElse(null)).toString());
@@ -71,13 +81,26 @@ public class StatusResource {
         public final boolean databus;
         public final boolean document_queue_status;
         public final int document_queue_size;
+        public final long nlp_model_loads;
+        public final long nlp_model_hits;
+        public final long nlp_model_evictions;
+        public final long nlp_cache_hits;
+        public final long nlp_cache_misses;
+        public final long nlp_cache_evictions;
 
-        Status(boolean database, boolean index, boolean databus, boolean queue, int queueSize) {
+        Status(boolean database, boolean index, boolean databus, boolean queue, int queueSize,
+               long modelLoads, long modelHits, long modelEvictions, long cacheHits, long cacheMisses, long cacheEvictions) {
             this.database = database;
             this.index = index;
             this.databus = databus;
             this.document_queue_status = queue;
             this.document_queue_size = queueSize;
+            this.nlp_model_loads = modelLoads;
+            this.nlp_model_hits = modelHits;
+            this.nlp_model_evictions = modelEvictions;
+            this.nlp_cache_hits = cacheHits;
+            this.nlp_cache_misses = cacheMisses;
+            this.nlp_cache_evictions = cacheEvictions;
         }
     }
 }
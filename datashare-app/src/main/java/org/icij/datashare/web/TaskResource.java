@@ -12,9 +12,12 @@ import net.codestory.http.payload.Payload;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.extension.PipelineRegistry;
 import org.icij.datashare.extract.OptionsWrapper;
-import org.icij.datashare.tasks.IndexTask;
+import org.icij.datashare.tasks.BatchSearchRunner;
+import org.icij.datashare.tasks.BatchSearchThrottle;
+import org.icij.datashare.tasks.TaskDefinition;
 import org.icij.datashare.tasks.TaskFactory;
 import org.icij.datashare.tasks.TaskManager;
+import org.icij.datashare.tasks.TaskRegistry;
 import org.icij.datashare.text.nlp.Pipeline;
 import org.icij.datashare.user.User;
 import org.slf4j.Logger;
@@ -23,17 +26,25 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.nio.file.Path;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.StreamSupport;
 
 import static java.lang.Boolean.parseBoolean;
 import static java.nio.file.Paths.get;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterators.spliteratorUnknownSize;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
@@ -42,27 +53,40 @@ import static net.codestory.http.payload.Payload.ok;
 import static org.apache.commons.lang3.SystemUtils.IS_OS_WINDOWS;
 import static org.icij.datashare.PropertiesProvider.MAP_NAME_OPTION;
 import static org.icij.datashare.PropertiesProvider.QUEUE_NAME_OPTION;
+import static org.icij.datashare.cli.DatashareCliOptions.TASK_PROGRESS_MAX_STREAMS_OPT;
+import static org.icij.datashare.cli.DatashareCliOptions.TASK_PROGRESS_STREAM_DURATION_OPT;
 import static org.icij.datashare.text.nlp.AbstractModels.syncModels;
 
 @Singleton
 @Prefix("/api/task")
 public class TaskResource {
+    static final long DEFAULT_STREAM_DURATION_MILLIS = 300000;
+    static final int DEFAULT_MAX_STREAMS = 20;
     private Logger logger = LoggerFactory.getLogger(getClass());
     private TaskFactory taskFactory;
     private TaskManager taskManager;
+    private final TaskRegistry taskRegistry;
     private final PropertiesProvider propertiesProvider;
     private final PipelineRegistry pipelineRegistry;
+    private final long streamDurationMillis;
+    private final int maxStreams;
+    private final Set<TaskUpdates> streams = ConcurrentHashMap.newKeySet();
+    private final Map<User, RemoteTasks> remoteTasks = new ConcurrentHashMap<>();
 
     @Inject
-    public TaskResource(final TaskFactory taskFactory, final TaskManager taskManager, final PropertiesProvider propertiesProvider, final PipelineRegistry pipelineRegistry) {
+    public TaskResource(final TaskFactory taskFactory, final TaskManager taskManager, final TaskRegistry taskRegistry,
+                        final PropertiesProvider propertiesProvider, final PipelineRegistry pipelineRegistry) {
         this.taskFactory = taskFactory;
         this.taskManager = taskManager;
+        this.taskRegistry = taskRegistry;
         this.propertiesProvider = propertiesProvider;
         this.pipelineRegistry = pipelineRegistry;
+        this.streamDurationMillis = propertiesProvider.get(TASK_PROGRESS_STREAM_DURATION_OPT).map(Long::valueOf).orElse(DEFAULT_STREAM_DURATION_MILLIS);
+        this.maxStreams = propertiesProvider.get(TASK_PROGRESS_MAX_STREAMS_OPT).map(Integer::valueOf).orElse(DEFAULT_MAX_STREAMS);
     }
 
     /**
-     * gets all the user tasks
+     * gets all the user tasks, with the running tasks of the user on the other nodes
      *
      * @return 200 and the list of tasks
      *
@@ -71,7 +95,29 @@ public class TaskResource {
      */
     @Get("/all")
     public List<TaskResponse> tasks(Context context) {
-        return taskManager.getTasks().stream().filter(t -> context.currentUser().equals(t.getUser())).map(TaskResponse::new).collect(toList());
+        return userTasks((User) context.currentUser());
+    }
+
+    /**
+     * streams the user tasks as server sent events: the list of tasks is sent when a task
+     * is started or done, or when its progress changes
+     *
+     * Each stream holds an HTTP thread, so the stream is closed after taskProgressStreamDurationMillis
+     * (the browser EventSource opens a new one), and at most taskProgressMaxStreams streams are open.
+     *
+     * @return 200 and the event stream of the task lists, or 503 if there are too many streams
+     *
+     * Example :
+     * $(curl -N localhost:8080/api/task/progress)
+     */
+    @Get("/progress")
+    public Payload tasksProgress(Context context) {
+        TaskUpdates updates = openStream((User) context.currentUser());
+        if (updates == null) {
+            logger.warn("{} task progress streams are already open", maxStreams);
+            return new Payload(503);
+        }
+        return new Payload("text/event-stream", StreamSupport.stream(spliteratorUnknownSize(updates, NONNULL), false));
     }
 
     /**
@@ -86,8 +132,11 @@ public class TaskResource {
     @Get("/:name")
     public TaskResponse getTask(String id) {
         TaskManager.MonitorableFutureTask task = taskManager.getTask(id);
-        TaskResponse response = task == null ? null:new TaskResponse(task);
-        return notFoundIfNull(response);
+        if (task == null) {
+            TaskDefinition remoteTask = taskRegistry.getRemoteTask(id);
+            return notFoundIfNull(remoteTask == null ? null : new TaskResponse(remoteTask));
+        }
+        return new TaskResponse(task);
     }
 
 
@@ -102,9 +151,8 @@ public class TaskResource {
      */
     @Post("/batchUpdate/index")
     public TaskResponse indexQueue(final OptionsWrapper optionsWrapper, Context context) {
-        IndexTask indexTask = taskFactory.createIndexTask((User) context.currentUser(),
-                propertiesProvider.get(QUEUE_NAME_OPTION).orElse("extract:queue"), optionsWrapper.asProperties());
-        return new TaskResponse(taskManager.startTask(indexTask));
+        return new TaskResponse(taskRegistry.startIndexTask((User) context.currentUser(),
+                propertiesProvider.get(QUEUE_NAME_OPTION).orElse("extract:queue"), optionsWrapper.asProperties()));
     }
 
     /**
@@ -140,7 +188,7 @@ public class TaskResource {
             taskFactory.createScanIndexTask(user, reportName).call();
             properties.put(MAP_NAME_OPTION, reportName);
         }
-        return asList(scanResponse, new TaskResponse(taskManager.startTask(taskFactory.createIndexTask(user, propertiesProvider.get(QUEUE_NAME_OPTION).orElse("extract:queue"), properties))));
+        return asList(scanResponse, new TaskResponse(taskRegistry.startIndexTask(user, propertiesProvider.get(QUEUE_NAME_OPTION).orElse("extract:queue"), properties)));
     }
 
     /**
@@ -162,7 +210,7 @@ public class TaskResource {
     }
 
     /**
-     * Cleans all DONE tasks.
+     * Cleans all DONE tasks, and the definitions of the user tasks that are not running anymore on the other nodes.
      *
      * @return 200 and the list of removed tasks
      *
@@ -170,8 +218,10 @@ public class TaskResource {
      * $(curl -XPOST -d '{}' http://dsenv:8080/api/task/clean/
      */
     @Post("/clean")
-    public List<TaskResponse> cleanDoneTasks() {
-        return taskManager.cleanDoneTasks().stream().map(TaskResponse::new).collect(toList());
+    public List<TaskResponse> cleanDoneTasks(Context context) {
+        List<TaskResponse> cleaned = taskRegistry.cleanDoneTasks().stream().map(TaskResponse::new).collect(toList());
+        taskRegistry.cleanFinishedTasks((User) context.currentUser()).forEach(t -> cleaned.add(new TaskResponse(t)));
+        return cleaned;
     }
 
     /**
@@ -188,14 +238,18 @@ public class TaskResource {
     }
 
     /**
-     * Cancels the task with the given name. It answers 200 with the cancellation status `true|false`
+     * Cancels the task with the given name. It answers 200 with the cancellation status `true|false`.
+     * If the task is running on another node, it is stopped by this node at its next heartbeat.
      *
      * @param taskId
      * @return
      */
     @Put("/stop/:taskId:")
     public boolean stopTask(final String taskId) {
-        return taskManager.stopTask(notFoundIfNull(taskManager.getTask(taskId)).toString());
+        if (taskManager.getTask(taskId) == null) {
+            notFoundIfNull(taskRegistry.getRemoteTask(taskId));
+        }
+        return taskRegistry.stopTask(taskId);
     }
 
     @net.codestory.http.annotations.Options("/stop/:taskName:")
@@ -214,10 +268,12 @@ public class TaskResource {
      */
     @Put("/stopAll")
     public Map<String, Boolean> stopAllTasks(final Context context) {
-        return taskManager.getTasks().stream().
+        Map<String, Boolean> stopped = taskManager.getTasks().stream().
                 filter(t -> context.currentUser().equals(t.getUser())).
                 filter(t -> !t.isDone()).collect(
-                        toMap(TaskManager.MonitorableFutureTask::toString, t -> taskManager.stopTask(t.toString())));
+                        toMap(TaskManager.MonitorableFutureTask::toString, t -> taskRegistry.stopTask(t.toString())));
+        taskRegistry.getRemoteTasks((User) context.currentUser()).forEach(t -> stopped.put(t.id, taskRegistry.stopTask(t.id)));
+        return stopped;
     }
 
     @net.codestory.http.annotations.Options("/stopAll")
@@ -261,9 +317,33 @@ public class TaskResource {
         return singletonList(new TaskResponse(nlpTask));
     }
 
+    private List<TaskResponse> userTasks(User user) {
+        return userTasks(user, taskRegistry.getRemoteTasks(user));
+    }
+
+    private List<TaskResponse> userTasks(User user, List<TaskDefinition> remoteTasks) {
+        List<TaskResponse> tasks = taskManager.getTasks().stream().filter(t -> user.equals(t.getUser())).map(TaskResponse::new).collect(toList());
+        remoteTasks.forEach(t -> tasks.add(new TaskResponse(t)));
+        return tasks;
+    }
+
+    /**
+     * @return the remote tasks of the user, read from the repository at most every taskProgressIntervalMillis
+     * for all the streams of the user
+     */
+    List<TaskDefinition> remoteTasks(User user) {
+        long now = System.currentTimeMillis();
+        RemoteTasks cached = remoteTasks.get(user);
+        if (cached == null || cached.isStale(now)) {
+            cached = new RemoteTasks(taskRegistry.getRemoteTasks(user), now);
+            remoteTasks.put(user, cached);
+        }
+        return cached.tasks;
+    }
+
     private TaskManager.MonitorableFutureTask<Void> createNlpApp(Context context, Properties mergedProps, Pipeline pipeline) {
         CountDownLatch latch = new CountDownLatch(1);
-        TaskManager.MonitorableFutureTask<Void> task = taskManager.startTask(taskFactory.createNlpTask((User) context.currentUser(), pipeline, mergedProps, latch::countDown));
+        TaskManager.MonitorableFutureTask<Void> task = taskRegistry.startNlpTask((User) context.currentUser(), pipeline, mergedProps, latch::countDown);
         if (parseBoolean(mergedProps.getProperty("waitForNlpApp", "true"))) {
             try {
                 logger.info("waiting for NlpApp {} to listen...", pipeline);
@@ -278,13 +358,18 @@ public class TaskResource {
 
     @JsonInclude(JsonInclude.Include.NON_NULL)
     static class TaskResponse {
-        enum State {RUNNING, ERROR, DONE, CANCELLED}
+        enum State {QUEUED, RUNNING, ERROR, DONE, CANCELLED}
         private final String name;
         private final State state;
         private final double progress;
+        private final Double throughput;
+        private final Integer queuePosition;
+        private final String node;
+        private final Map<String, Object> throttle;
 
         TaskResponse(TaskManager.MonitorableFutureTask task) {
             this.name = task.toString();
+            this.node = null;
             State state;
             if (task.isDone()) {
                 try {
@@ -297,10 +382,124 @@ public class TaskResource {
                 }
                 progress = 1;
                 this.state = task.isCancelled() ? State.CANCELLED : state;
+                this.throughput = null;
+                this.queuePosition = null;
+                this.throttle = null;
             } else {
-                this.state = State.RUNNING;
-                progress = task.getProgressRate();
+                int position = task.getQueuePosition();
+                this.state = position > 0 ? State.QUEUED : State.RUNNING;
+                this.queuePosition = position > 0 ? position : null;
+                progress = position > 0 ? 0 : task.getProgressRate();
+                throughput = position > 0 ? null : task.getThroughput();
+                throttle = position > 0 ? null : ((Optional<BatchSearchRunner>) task.getTask(BatchSearchRunner.class)).
+                        map(BatchSearchRunner::getThrottle).map(BatchSearchThrottle::getState).orElse(null);
+            }
+        }
+
+        TaskResponse(TaskDefinition task) {
+            this.name = task.id;
+            this.node = task.nodeId;
+            this.state = State.valueOf(task.state.name());
+            this.progress = task.state == TaskDefinition.State.RUNNING ? task.progress : 1;
+            this.throughput = null;
+            this.queuePosition = null;
+            this.throttle = null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            TaskResponse that = (TaskResponse) o;
+            return Double.compare(that.progress, progress) == 0 && Objects.equals(name, that.name) && state == that.state &&
+                    Objects.equals(throughput, that.throughput) && Objects.equals(queuePosition, that.queuePosition) &&
+                    Objects.equals(throttle, that.throttle) &&
+                    Objects.equals(node, that.node);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, state, progress, throughput, queuePosition, node, throttle);
+        }
+    }
+
+    /**
+     * @return the updates of a new stream, or null if the max number of streams are open. The streams
+     * that are not read anymore (closed connections) are not counted once their duration is over.
+     */
+    synchronized TaskUpdates openStream(User user) {
+        streams.removeIf(TaskUpdates::isOver);
+        long now = System.currentTimeMillis();
+        remoteTasks.values().removeIf(cached -> cached.isStale(now));
+        if (streams.size() >= maxStreams) {
+            return null;
+        }
+        TaskUpdates updates = new TaskUpdates(user);
+        streams.add(updates);
+        return updates;
+    }
+
+    /**
+     * Updates of the tasks of a user, sent when the progress or state of a task changes. The progress
+     * of the tasks is read at most every taskProgressIntervalMillis for all the streams and requests.
+     * The list is sent again every HEARTBEAT_INTERVALS intervals if it didn't change, so that the
+     * closed connections are detected. The updates end after taskProgressStreamDurationMillis.
+     */
+    class TaskUpdates implements Iterator<List<TaskResponse>> {
+        static final int HEARTBEAT_INTERVALS = 15;
+        private final User user;
+        private final long endMillis;
+        private List<TaskResponse> last = null;
+        private int unchanged = 0;
+
+        TaskUpdates(User user) {
+            this.user = user;
+            this.endMillis = System.currentTimeMillis() + streamDurationMillis;
+        }
+
+        boolean isOver() {
+            return System.currentTimeMillis() >= endMillis;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (Thread.currentThread().isInterrupted() || isOver()) {
+                streams.remove(this);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public List<TaskResponse> next() {
+            while (true) {
+                List<TaskResponse> tasks = userTasks(user, remoteTasks(user));
+                if (!tasks.equals(last) || ++unchanged >= HEARTBEAT_INTERVALS || isOver()) {
+                    last = tasks;
+                    unchanged = 0;
+                    return tasks;
+                }
+                try {
+                    Thread.sleep(Math.min(taskManager.getProgressIntervalMillis(), Math.max(1, endMillis - System.currentTimeMillis())));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return tasks;
+                }
             }
         }
     }
+
+    private class RemoteTasks {
+        private final List<TaskDefinition> tasks;
+        private final long readMillis;
+
+        RemoteTasks(List<TaskDefinition> tasks, long readMillis) {
+            this.tasks = tasks;
+            this.readMillis = readMillis;
+        }
+
+        boolean isStale(long nowMillis) {
+            return nowMillis - readMillis >= taskManager.getProgressIntervalMillis();
+        }
+    }
 }
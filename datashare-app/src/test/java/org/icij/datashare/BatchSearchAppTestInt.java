@@ -2,6 +2,9 @@ package org.icij.datashare;
 
 import org.icij.datashare.db.JooqBatchSearchRepository;
 import org.icij.datashare.extract.RedisBlockingQueue;
+import org.icij.datashare.extract.RedisReliableBlockingQueue;
+import org.icij.extract.redis.RedissonClientFactory;
+import org.icij.task.Options;
 import org.icij.datashare.tasks.BatchSearchRunner;
 import org.junit.Before;
 import org.junit.Test;
@@ -64,6 +67,23 @@ public class BatchSearchAppTestInt {
         verify(batchSearchRunner, never()).run(BatchSearchApp.POISON);
     }
 
+    @Test
+    public void test_main_loop_acks_the_poison() {
+        RedisReliableBlockingQueue reliableQueue = new RedisReliableBlockingQueue(new RedissonClientFactory().withOptions(
+                Options.from(new PropertiesProvider().getProperties())).create(), "test:batchsearch:queue", 60000);
+        try {
+            reliableQueue.add(BatchSearchApp.POISON);
+
+            new BatchSearchApp(batchSearchRunner, reliableQueue).run();
+
+            assertThat(reliableQueue.processingSize()).isEqualTo(0);
+            assertThat(reliableQueue.isRedelivered(BatchSearchApp.POISON)).isFalse();
+        } finally {
+            reliableQueue.delete();
+            reliableQueue.close();
+        }
+    }
+
     @Test
     public void test_main_loop_unknown_batch_id() {
         when(batchSearchRunner.run("test")).thenThrow(new JooqBatchSearchRepository.BatchNotFoundException("test JooqBatchSearch"));
@@ -0,0 +1,113 @@
+package org.icij.datashare.com;
+
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.com.RedisStreamDataBus.StreamMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.com.Message.Field.DOC_ID;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
+
+public class RedisStreamDataBusTest {
+    RedisStreamDataBus dataBus = new RedisStreamDataBus(new PropertiesProvider());
+
+    @Test
+    public void test_messages_published_before_group_creation_are_read() {
+        Message message = new Message(EXTRACT_NLP).add(DOC_ID, "doc_id");
+        dataBus.publish(Channel.TEST, message);
+        dataBus.createGroup(Channel.TEST, "group");
+
+        List<StreamMessage> messages = dataBus.read(Channel.TEST, "group", "consumer", 10, 0);
+
+        assertThat(messages).hasSize(1);
+        assertThat(messages.get(0).message).isEqualTo(message);
+        assertThat(dataBus.read(Channel.TEST, "group", "consumer", 10, 0)).isEmpty();
+    }
+
+    @Test
+    public void test_batch_of_messages_is_read_in_order() {
+        dataBus.createGroup(Channel.TEST, "group");
+        dataBus.publish(Channel.TEST, asList(new Message(EXTRACT_NLP).add(DOC_ID, "doc1"), new Message(EXTRACT_NLP).add(DOC_ID, "doc2")));
+
+        List<StreamMessage> messages = dataBus.read(Channel.TEST, "group", "consumer", 10, 0);
+
+        assertThat(messages).hasSize(2);
+        assertThat(messages.get(0).message.content.get(DOC_ID)).isEqualTo("doc1");
+        assertThat(messages.get(1).message.content.get(DOC_ID)).isEqualTo("doc2");
+    }
+
+    @Test
+    public void test_create_group_twice() {
+        dataBus.createGroup(Channel.TEST, "group");
+        dataBus.createGroup(Channel.TEST, "group");
+    }
+
+    @Test
+    public void test_each_group_reads_all_messages() {
+        dataBus.createGroup(Channel.TEST, "group1");
+        dataBus.createGroup(Channel.TEST, "group2");
+        dataBus.publish(Channel.TEST, new Message(EXTRACT_NLP).add(DOC_ID, "doc_id"));
+
+        assertThat(dataBus.read(Channel.TEST, "group1", "consumer", 10, 0)).hasSize(1);
+        assertThat(dataBus.read(Channel.TEST, "group2", "consumer", 10, 0)).hasSize(1);
+    }
+
+    @Test
+    public void test_read_message_is_pending_until_ack() {
+        dataBus.createGroup(Channel.TEST, "group");
+        dataBus.publish(Channel.TEST, new Message(EXTRACT_NLP).add(DOC_ID, "doc_id"));
+        StreamMessage streamMessage = dataBus.read(Channel.TEST, "group", "consumer", 10, 0).get(0);
+
+        assertThat(dataBus.pending(Channel.TEST, "group", 10)).hasSize(1);
+        assertThat(dataBus.ack(Channel.TEST, "group", singletonList(streamMessage.id))).isEqualTo(1);
+        assertThat(dataBus.pending(Channel.TEST, "group", 10)).isEmpty();
+    }
+
+    @Test
+    public void test_ack_deletes_the_entries_acknowledged_by_all_groups() {
+        dataBus.createGroup(Channel.TEST, "group1");
+        dataBus.createGroup(Channel.TEST, "group2");
+        dataBus.publish(Channel.TEST, asList(new Message(EXTRACT_NLP).add(DOC_ID, "doc1"), new Message(EXTRACT_NLP).add(DOC_ID, "doc2")));
+        List<StreamMessage> messages1 = dataBus.read(Channel.TEST, "group1", "consumer", 10, 0);
+
+        dataBus.ack(Channel.TEST, "group1", asList(messages1.get(0).id, messages1.get(1).id));
+        assertThat(dataBus.length(Channel.TEST)).isEqualTo(2);
+
+        List<StreamMessage> messages2 = dataBus.read(Channel.TEST, "group2", "consumer", 10, 0);
+        dataBus.ack(Channel.TEST, "group2", singletonList(messages2.get(0).id));
+        assertThat(dataBus.length(Channel.TEST)).isEqualTo(1);
+        assertThat(dataBus.claim(Channel.TEST, "group2", "other", 0, singletonList(messages2.get(1).id))).hasSize(1);
+    }
+
+    @Test
+    public void test_claim_pending_message_of_other_consumer() throws Exception {
+        dataBus.createGroup(Channel.TEST, "group");
+        dataBus.publish(Channel.TEST, new Message(EXTRACT_NLP).add(DOC_ID, "doc_id"));
+        StreamMessage streamMessage = dataBus.read(Channel.TEST, "group", "dead", 10, 0).get(0);
+        Thread.sleep(20);
+
+        assertThat(dataBus.claim(Channel.TEST, "group", "consumer", 60000, singletonList(streamMessage.id))).isEmpty();
+        List<StreamMessage> claimed = dataBus.claim(Channel.TEST, "group", "consumer", 10, singletonList(streamMessage.id));
+
+        assertThat(claimed).hasSize(1);
+        assertThat(claimed.get(0).message.content.get(DOC_ID)).isEqualTo("doc_id");
+        assertThat(dataBus.pending(Channel.TEST, "group", 10).get(0).getConsumerName()).isEqualTo("consumer");
+    }
+
+    @Before
+    public void setUp() {
+        dataBus.deleteStream(Channel.TEST);
+    }
+
+    @After
+    public void tearDown() {
+        dataBus.deleteStream(Channel.TEST);
+        dataBus.close();
+    }
+}
@@ -0,0 +1,93 @@
+package org.icij.datashare.extract;
+
+import org.icij.datashare.PropertiesProvider;
+import org.icij.extract.redis.RedissonClientFactory;
+import org.icij.task.Options;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class RedisReliableBlockingQueueTest {
+    RedisReliableBlockingQueue queue = createQueue(60000);
+    RedisReliableBlockingQueue otherQueue;
+
+    @Test
+    public void test_offer_poll() {
+        assertThat(queue.offer("test")).isTrue();
+        assertThat(queue.poll()).isEqualTo("test");
+        assertThat(queue.poll()).isNull();
+    }
+
+    @Test
+    public void test_poll_is_fifo() {
+        queue.offer("first");
+        queue.offer("second");
+
+        assertThat(queue.poll()).isEqualTo("first");
+        assertThat(queue.poll()).isEqualTo("second");
+    }
+
+    @Test
+    public void test_poll_with_timeout() throws Exception {
+        assertThat(queue.poll(100, TimeUnit.MILLISECONDS)).isNull();
+
+        queue.offer("test");
+        assertThat(queue.poll(100, TimeUnit.MILLISECONDS)).isEqualTo("test");
+    }
+
+    @Test
+    public void test_polled_element_is_processing_until_ack() {
+        queue.offer("test");
+
+        assertThat(queue.poll()).isEqualTo("test");
+        assertThat(queue.processingSize()).isEqualTo(1);
+        assertThat(queue.isRedelivered("test")).isFalse();
+
+        assertThat(queue.ack("test")).isTrue();
+        assertThat(queue.processingSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_expired_lease_is_requeued() throws Exception {
+        otherQueue = createQueue(10);
+        otherQueue.offer("test");
+        assertThat(otherQueue.poll()).isEqualTo("test");
+        otherQueue.close();
+        Thread.sleep(20);
+
+        assertThat(queue.poll()).isEqualTo("test");
+        assertThat(queue.isRedelivered("test")).isTrue();
+        assertThat(queue.processingSize()).isEqualTo(1);
+
+        queue.ack("test");
+        assertThat(queue.isRedelivered("test")).isFalse();
+    }
+
+    @Test
+    public void test_heartbeat_renews_lease() throws Exception {
+        otherQueue = createQueue(300);
+        otherQueue.offer("test");
+        assertThat(otherQueue.poll()).isEqualTo("test");
+        Thread.sleep(600);
+
+        assertThat(queue.poll()).isNull();
+        assertThat(otherQueue.ack("test")).isTrue();
+    }
+
+    private static RedisReliableBlockingQueue createQueue(long leaseMs) {
+        return new RedisReliableBlockingQueue(new RedissonClientFactory().withOptions(
+                Options.from(new PropertiesProvider().getProperties())).create(), "test:reliable:queue", leaseMs);
+    }
+
+    @After
+    public void tearDown() {
+        queue.delete();
+        queue.close();
+        if (otherQueue != null) {
+            otherQueue.close();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.PropertiesProvider;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.ToIntFunction;
+import java.util.regex.Matcher;
+
+/**
+ * Throughput of the email scanner compared to the pattern run over the whole content,
+ * for typical texts and for adversarial ones (long runs of chars allowed in local parts,
+ * with or without '@').
+ *
+ * It is not run with the tests:
+ *
+ * mvn -pl datashare-app test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=org.icij.datashare.nlp.EmailPipelineBenchmark
+ */
+public class EmailPipelineBenchmark {
+    private static final int CONTENT_SIZE = 200_000;
+    private static final int ADVERSARIAL_CONTENT_SIZE = 20_000; // the pattern is quadratic on these inputs
+    private static final int ITERATIONS = 5;
+
+    public static void main(String[] args) {
+        EmailPipeline pipeline = new EmailPipeline(new PropertiesProvider());
+        Random random = new Random(42);
+        Map<String, String> inputs = new LinkedHashMap<>();
+        inputs.put("typical", typical(random));
+        inputs.put("base64 without @", repeat(random, "abcdefghijklmnopqrstuvwxyz0123456789+/", ADVERSARIAL_CONTENT_SIZE));
+        inputs.put("local part chars with @", repeat(random, "abcdefghij.-_@", ADVERSARIAL_CONTENT_SIZE));
+        inputs.put("only @", repeat(random, "@", ADVERSARIAL_CONTENT_SIZE));
+
+        for (Map.Entry<String, String> input : inputs.entrySet()) {
+            System.out.printf("%-25s pattern %10.0f chars/s  scanner %12.0f chars/s%n", input.getKey(),
+                    throughput(input.getValue(), content -> countAll(pipeline.pattern.matcher(content))),
+                    throughput(input.getValue(), content -> pipeline.findEmails(content).size()));
+        }
+    }
+
+    private static double throughput(String content, ToIntFunction<String> finder) {
+        finder.applyAsInt(content); // warm up
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            finder.applyAsInt(content);
+        }
+        return (double) content.length() * ITERATIONS * 1e9 / Math.max(1, System.nanoTime() - start);
+    }
+
+    private static int countAll(Matcher matcher) {
+        int nbEmails = 0;
+        while (matcher.find()) {
+            nbEmails++;
+        }
+        return nbEmails;
+    }
+
+    private static String typical(Random random) {
+        StringBuilder content = new StringBuilder();
+        String[] words = {"the", "report", "was", "sent", "to", "by", "offshore", "company", "account", "Panama", "in", "2016"};
+        while (content.length() < CONTENT_SIZE) {
+            if (random.nextInt(200) == 0) {
+                content.append("john.doe").append(random.nextInt(100)).append("@example.com");
+            } else {
+                content.append(words[random.nextInt(words.length)]);
+            }
+            content.append(random.nextInt(15) == 0 ? ".\n" : " ");
+        }
+        return content.toString();
+    }
+
+    private static String repeat(Random random, String alphabet, int size) {
+        StringBuilder content = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            content.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return content.toString();
+    }
+}
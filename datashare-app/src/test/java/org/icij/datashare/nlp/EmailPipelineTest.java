@@ -11,8 +11,12 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Random;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
 
 import static org.fest.assertions.Assertions.assertThat;
 import static org.icij.datashare.nlp.EmailPipeline.*;
@@ -76,6 +80,79 @@ public class EmailPipelineTest {
         assertThat(annotations).hasSize(10);
     }
 
+    @Test
+    public void test_scanner_finds_the_emails_of_the_pattern() throws IOException {
+        Random random = new Random(1234);
+        String alphabet = "abcz019.-_+!\"@[]:\\ \tA";
+        List<String> corpus = new ArrayList<>();
+        corpus.add(new String(Files.readAllBytes(Paths.get(getClass().getResource("/email.eml").getPath()))));
+        corpus.add("\"quoted@local\"@domain.com a@b@c.com x@[127.0.0.1] y@[tag:value] foo.bar@baz..com .dot@start.com");
+        for (int i = 0; i < 500; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int j = 0; j < 50; j++) { // lines are shorter than the max lengths of local part and domain
+                for (int k = random.nextInt(60); k > 0; k--) {
+                    content.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+                content.append('\n');
+            }
+            corpus.add(content.toString());
+        }
+
+        for (String content : corpus) {
+            assertThat(toString(pipeline.findEmails(content))).isEqualTo(toString(findAll(pipeline.pattern.matcher(content))));
+        }
+    }
+
+    @Test(timeout = 2000)
+    public void test_scanner_on_long_runs_of_local_part_chars() {
+        StringBuilder run = new StringBuilder();
+        for (int i = 0; i < 1_000_000; i++) {
+            run.append((char) ('a' + i % 26));
+        }
+
+        List<MatchResult> emails = pipeline.findEmails(run + "@b! " + run + "@domain.com");
+
+        assertThat(emails).hasSize(1);
+        assertThat(emails.get(0).group()).isEqualTo(run + "@domain.com");
+    }
+
+    @Test
+    public void test_scanner_finds_the_emails_of_the_pattern_longer_than_the_window() {
+        Random random = new Random(1234);
+        String alphabet = "abcz019.-_+!\"@[]:\\ \tA";
+        for (int i = 0; i < 200; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int k = random.nextInt(2000); k > 0; k--) {
+                content.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            content.append(i % 2 == 0 ? repeat("b", MAX_LOCAL_PART_LENGTH * 2) + "@domain.com" : " a@" + repeat("b", MAX_DOMAIN_LENGTH * 2) + ".com");
+
+            assertThat(toString(pipeline.findEmails(content.toString()))).isEqualTo(toString(findAll(pipeline.pattern.matcher(content))));
+        }
+    }
+
+    private static List<MatchResult> findAll(Matcher matcher) {
+        List<MatchResult> results = new ArrayList<>();
+        while (matcher.find()) {
+            results.add(matcher.toMatchResult());
+        }
+        return results;
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+
+    private static List<String> toString(List<MatchResult> results) {
+        List<String> strings = new ArrayList<>();
+        results.forEach(r -> strings.add(r.start() + ":" + r.group()));
+        return strings;
+    }
+
     @Test
     public void test_adds_document_headers_parsing_for_email() {
         Document doc = createDoc("docid").with("hello@world.com").ofMimeType("message/rfc822").with(new HashMap<String, Object>() {{
@@ -4,13 +4,14 @@ import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.com.*;
 import org.icij.datashare.text.Language;
 import org.icij.datashare.text.NamedEntity;
-import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.BulkIndexer;
 import org.icij.datashare.text.nlp.AbstractPipeline;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.stubbing.Answer;
 
@@ -25,6 +26,7 @@ import java.util.stream.IntStream;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
 import static org.fest.assertions.Assertions.assertThat;
 import static org.icij.datashare.cli.DatashareCliOptions.NLP_PARALLELISM_OPT;
 import static org.icij.datashare.com.Message.Field.*;
@@ -34,6 +36,8 @@ import static org.icij.datashare.text.DocumentBuilder.createDoc;
 import static org.icij.datashare.text.nlp.Pipeline.Type.OPENNLP;
 import static org.icij.datashare.user.User.local;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyMap;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -44,11 +48,12 @@ public class NlpAppTest {
     public static Collection<Object[]> dataBuses() {
         return asList(new Object[][]{
                 {new MemoryDataBus()},
-                {new RedisDataBus(new PropertiesProvider())}
+                {new RedisDataBus(new PropertiesProvider())},
+                {new RedisStreamDataBus(new PropertiesProvider())}
         });
     }
     @Mock private AbstractPipeline pipeline;
-    @Mock private Indexer indexer;
+    @Mock private BulkIndexer indexer;
     private DataBus dataBus;
     private final ExecutorService executor = Executors.newFixedThreadPool(3);
 
@@ -126,7 +131,7 @@ public class NlpAppTest {
             if (nlpProcessDelayMillis > 0) Thread.sleep(nlpProcessDelayMillis);
             return emptyList();
         });
-        NlpApp nlpApp = new NlpApp(dataBus, indexer, pipeline, properties, latch::countDown, 1, true, local());
+        NlpApp nlpApp = new NlpApp(dataBus, indexer, NlpCache.DISABLED, pipeline, properties, latch::countDown, 1, true, local());
         executor.execute(nlpApp);
         latch.await(2, SECONDS);
         return nlpApp;
@@ -140,10 +145,15 @@ public class NlpAppTest {
     @Before
     public void setUp() throws Exception {
         initMocks(this);
-        when(indexer.get(anyString(), anyString(), anyString())).thenReturn(createDoc("name").build());
+        when(indexer.get(anyString(), anyList(), anyList(), Matchers.<String>anyVararg())).thenAnswer(invocation ->
+                ((List<String>) invocation.getArguments()[1]).stream().map(id -> createDoc(id).build()).collect(toList()));
         when(pipeline.getType()).thenReturn(OPENNLP);
         when(pipeline.initialize(any(Language.class))).thenReturn(true);
         when(pipeline.process(any())).thenReturn(emptyList());
+        when(indexer.bulkAdd(anyString(), any(), anyMap())).thenReturn(true);
+        if (dataBus instanceof RedisStreamDataBus) {
+            ((RedisStreamDataBus) dataBus).deleteStream(Channel.NLP);
+        }
     }
 
     @After
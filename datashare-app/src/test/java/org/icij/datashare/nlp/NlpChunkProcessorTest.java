@@ -0,0 +1,119 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.nlp.AbstractPipeline;
+import org.icij.datashare.text.nlp.Pipeline;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.joining;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.text.DocumentBuilder.createDoc;
+import static org.icij.datashare.text.Language.ENGLISH;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class NlpChunkProcessorTest {
+    private static final Pattern PERSON = Pattern.compile("[A-Z][a-z]+( [A-Z][a-z]+)*");
+    private final AbstractPipeline pipeline = mock(AbstractPipeline.class);
+    private NlpChunkProcessor processor;
+
+    @Test
+    public void test_small_document_is_processed_in_one_pass() throws Exception {
+        processor = new NlpChunkProcessor(pipeline, 2, 100, 10);
+        Document doc = createDoc("id").with("Jane Doe met John Smith.").build();
+
+        processor.process(doc);
+
+        verify(pipeline).process(doc);
+    }
+
+    @Test
+    public void test_chunking_of_small_and_large_documents() {
+        processor = new NlpChunkProcessor(pipeline, 2, 100, 10);
+
+        assertThat(processor.chunking(createDoc("id").with("Jane Doe met John Smith.").build())).isEqualTo("0");
+        assertThat(processor.chunking(createDoc("id").with(String.join("", Collections.nCopies(20, "John Smith."))).build())).isEqualTo("100/10");
+        assertThat(NlpChunkProcessor.singlePass(pipeline).chunking(createDoc("id").with(String.join("", Collections.nCopies(20, "John Smith."))).build())).isEqualTo("0");
+    }
+
+    @Test
+    public void test_chunked_named_entities_are_the_single_pass_ones() throws Exception {
+        when(pipeline.process(any())).thenAnswer(invocation -> findPersons((Document) invocation.getArguments()[0]));
+        String content = IntStream.range(0, 50).mapToObj(i -> "Sentence " + i + " is about John Smith and Jane Doe.").collect(joining(" "));
+        Document doc = createDoc("id").with(content).with(ENGLISH).withRootId("root").build();
+        processor = new NlpChunkProcessor(pipeline, 4, 200, 50);
+
+        List<NamedEntity> chunked = processor.process(doc);
+
+        assertThat(chunked).isEqualTo(findPersons(doc));
+        assertThat(chunked.get(1).getRootDocument()).isEqualTo("root");
+        verify(pipeline, atLeast(8)).process(any());
+    }
+
+    @Test
+    public void test_entities_without_offset_are_looked_up_once() throws Exception {
+        when(pipeline.process(any())).thenAnswer(invocation -> {
+            Document chunk = (Document) invocation.getArguments()[0];
+            List<NamedEntity> namedEntities = findPersons(chunk);
+            if (chunk.getMetadata() != null && chunk.getMetadata().containsKey("from")) {
+                namedEntities.add(NamedEntity.create(NamedEntity.Category.EMAIL, "foo@bar.com", -1, chunk.getId(), chunk.getRootDocument(), Pipeline.Type.EMAIL, ENGLISH));
+            }
+            return namedEntities;
+        });
+        String content = IntStream.range(0, 20).mapToObj(i -> "Hello Jane.").collect(joining(" "));
+        Document doc = createDoc("id").with(content).with(new HashMap<String, Object>() {{ put("from", "foo@bar.com");}}).build();
+        processor = new NlpChunkProcessor(pipeline, 2, 50, 10);
+
+        assertThat(processor.process(doc).stream().filter(ne -> ne.getOffset() < 0).count()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_split_at_sentence_boundaries() {
+        String content = "First sentence. Second sentence! Third sentence?\n\nFourth sentence";
+
+        List<NlpChunkProcessor.Chunk> chunks = NlpChunkProcessor.split(content, 20, 20);
+
+        assertThat(chunks).hasSize(4);
+        assertThat(content.substring(chunks.get(1).ownedStart, chunks.get(1).ownedEnd)).isEqualTo("Second sentence! ");
+        assertThat(chunks.get(0).end).isEqualTo(content.indexOf("Fourth"));
+        assertThat(chunks.get(3).start).isEqualTo(content.indexOf("Second"));
+        assertThat(chunks.get(3).ownedEnd).isEqualTo(content.length());
+    }
+
+    @Test
+    public void test_split_cuts_content_without_sentences() {
+        String content = IntStream.range(0, 100).mapToObj(i -> "x").collect(joining());
+
+        List<NlpChunkProcessor.Chunk> chunks = NlpChunkProcessor.split(content, 30, 5);
+
+        assertThat(chunks).hasSize(4);
+        assertThat(chunks.get(1).ownedStart).isEqualTo(30);
+        assertThat(chunks.get(1).start).isEqualTo(25);
+        assertThat(chunks.get(1).end).isEqualTo(65);
+    }
+
+    private static List<NamedEntity> findPersons(Document doc) {
+        List<NamedEntity> namedEntities = new ArrayList<>();
+        Matcher matcher = PERSON.matcher(doc.getContent());
+        while (matcher.find()) {
+            namedEntities.add(NamedEntity.create(NamedEntity.Category.PERSON, matcher.group(), matcher.start(),
+                    doc.getId(), doc.getRootDocument(), Pipeline.Type.CORENLP, ENGLISH));
+        }
+        return namedEntities;
+    }
+
+    @After
+    public void tearDown() {
+        processor.close();
+    }
+}
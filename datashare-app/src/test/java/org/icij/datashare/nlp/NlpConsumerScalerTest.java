@@ -0,0 +1,117 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.com.Message;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.stream.IntStream;
+
+import static java.util.Collections.nCopies;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
+import static org.icij.datashare.com.Message.Type.SHUTDOWN;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class NlpConsumerScalerTest {
+    private final BlockingDeque<Message> queue = new LinkedBlockingDeque<>();
+    private final ExecutorService executor = mock(ExecutorService.class);
+    private double freeHeap = 0.5;
+    private final NlpConsumerScaler scaler = new NlpConsumerScaler(queue, executor, () -> mock(NlpConsumer.class), 2, 4, 1000, () -> freeHeap);
+
+    @Test
+    public void test_start_min_consumers() {
+        scaler.start();
+
+        assertThat(scaler.getConsumers()).isEqualTo(2);
+        verify(executor, times(2)).submit(any(NlpConsumer.class));
+    }
+
+    @Test
+    public void test_start_consumer_when_queue_is_not_processed_in_one_interval() {
+        scaler.start();
+        fillQueue(10);
+
+        scaler.run();
+
+        assertThat(scaler.getConsumers()).isEqualTo(3);
+        verify(executor, times(3)).submit(any(NlpConsumer.class));
+    }
+
+    @Test
+    public void test_consumers_are_not_over_max() {
+        scaler.start();
+        fillQueue(10);
+
+        IntStream.range(0, 5).forEach(i -> scaler.run());
+
+        assertThat(scaler.getConsumers()).isEqualTo(4);
+    }
+
+    @Test
+    public void test_no_consumer_started_when_queue_is_processed_in_one_interval() {
+        scaler.start();
+        fillQueue(1);
+        scaler.documentsProcessed(nCopies(1000, extractNlp()));
+
+        scaler.run();
+
+        assertThat(scaler.getConsumers()).isEqualTo(2);
+    }
+
+    @Test
+    public void test_no_consumer_started_when_free_heap_is_low() {
+        scaler.start();
+        fillQueue(10);
+        freeHeap = 0.2;
+
+        scaler.run();
+
+        assertThat(scaler.getConsumers()).isEqualTo(2);
+    }
+
+    @Test
+    public void test_retire_consumer_when_free_heap_is_very_low() {
+        scaler.start();
+        fillQueue(10);
+        scaler.run();
+        freeHeap = 0.05;
+
+        scaler.run();
+
+        assertThat(scaler.getConsumers()).isEqualTo(2);
+        assertThat(queue.peekFirst().type).isEqualTo(SHUTDOWN);
+    }
+
+    @Test
+    public void test_retire_idle_consumer_down_to_min() {
+        scaler.start();
+        fillQueue(10);
+        scaler.run();
+        queue.clear();
+
+        scaler.run();
+        queue.clear();
+        scaler.run();
+
+        assertThat(scaler.getConsumers()).isEqualTo(2);
+    }
+
+    @Test
+    public void test_drain_millis() {
+        assertThat(NlpConsumerScaler.drainMillis(100, 50, 1000)).isEqualTo(2000);
+        assertThat(NlpConsumerScaler.drainMillis(100, 0, 1000)).isEqualTo(Long.MAX_VALUE);
+    }
+
+    private void fillQueue(int nbMessages) {
+        IntStream.range(0, nbMessages).forEach(i -> queue.offer(extractNlp()));
+    }
+
+    private static Message extractNlp() {
+        return new Message(EXTRACT_NLP);
+    }
+}
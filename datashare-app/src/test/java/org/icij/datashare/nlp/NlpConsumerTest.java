@@ -1,23 +1,47 @@
 package org.icij.datashare.nlp;
 
+import org.icij.datashare.com.Message;
+import org.icij.datashare.com.ShutdownMessage;
 import org.icij.datashare.text.Document;
 import org.icij.datashare.text.Language;
-import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.indexing.BulkIndexer;
 import org.icij.datashare.text.nlp.AbstractPipeline;
+import org.icij.datashare.text.nlp.Pipeline;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.com.Message.Field.*;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
 import static org.icij.datashare.text.DocumentBuilder.createDoc;
 import static org.icij.datashare.text.Language.ENGLISH;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyMap;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 public class NlpConsumerTest {
-    @Mock private Indexer indexer;
+    @Mock private BulkIndexer indexer;
     @Mock private AbstractPipeline pipeline;
     private NlpConsumer nlpListener;
 
@@ -38,7 +62,7 @@ public class NlpConsumerTest {
     @Test
     public void test_on_message_do_not_processNLP__when_init_fails() throws Exception {
         when(pipeline.initialize(any())).thenReturn(false);
-        when(indexer.get(anyString(), anyString(), anyString())).thenReturn(createDoc("content").build());
+        when(indexer.get(anyString(), anyList(), anyList(), Matchers.<String>anyVararg())).thenReturn(singletonList(createDoc("content").build()));
 
         nlpListener.findNamedEntities("projectName","id", "routing");
         verify(pipeline, never()).process(any());
@@ -49,11 +73,147 @@ public class NlpConsumerTest {
         when(pipeline.initialize(any())).thenReturn(true);
         Document doc = createDoc("content").build();
         when(pipeline.process(doc)).thenReturn(emptyList());
-        when(indexer.get("projectName", doc.getId(), "routing")).thenReturn(doc);
+        when(indexer.get(eq("projectName"), eq(singletonList(doc.getId())), eq(singletonList("routing")), Matchers.<String>anyVararg())).thenReturn(singletonList(doc));
 
         nlpListener.findNamedEntities("projectName", doc.getId(), "routing");
 
         verify(pipeline).initialize(ENGLISH);
         verify(pipeline).process(doc);
     }
+
+    @Test
+    public void test_documents_are_fetched_without_metadata() throws Exception {
+        nlpListener.findNamedEntities("projectName", "id", "routing");
+
+        verify(indexer).get("projectName", singletonList("id"), singletonList("routing"), NlpConsumer.NLP_SOURCE_FIELDS);
+    }
+
+    @Test(timeout = 5000)
+    public void test_consumer_fetches_and_writes_a_batch_of_documents_at_once() throws Exception {
+        when(pipeline.initialize(any())).thenReturn(true);
+        Document doc1 = createDoc("doc1").build();
+        Document doc2 = createDoc("doc2").build();
+        when(indexer.get(eq("prj"), eq(asList("doc1", "doc2")), eq(asList("root1", "root2")), Matchers.<String>anyVararg())).thenReturn(asList(doc1, doc2));
+        when(pipeline.process(any())).thenReturn(emptyList());
+        BlockingQueue<Message> queue = new LinkedBlockingQueue<>(asList(extractNlp("prj", "doc1", "root1"), extractNlp("prj", "doc2", "root2"), new ShutdownMessage()));
+
+        assertThat(NlpConsumer.builder(pipeline, indexer, queue).withBatch(2, 1000).build().call()).isEqualTo(2);
+
+        verify(indexer).get(eq("prj"), eq(asList("doc1", "doc2")), eq(asList("root1", "root2")), Matchers.<String>anyVararg());
+        verify(indexer).bulkAdd("prj", null, new LinkedHashMap<Document, List<NamedEntity>>() {{
+            put(doc1, emptyList());
+            put(doc2, emptyList());
+        }});
+    }
+
+    @Test(timeout = 5000)
+    public void test_consumer_processes_an_incomplete_batch_after_max_wait() throws Exception {
+        when(pipeline.initialize(any())).thenReturn(true);
+        when(indexer.get(anyString(), anyList(), anyList(), Matchers.<String>anyVararg())).thenReturn(singletonList(createDoc("doc1").build()));
+        BlockingQueue<Message> queue = new LinkedBlockingQueue<>(singletonList(extractNlp("prj", "doc1", "root1")));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        Future<Integer> nbMessages = executor.submit(NlpConsumer.builder(pipeline, indexer, queue).withBatch(10, 100).build());
+
+        verify(indexer, timeout(2000)).bulkAdd(eq("prj"), any(), anyMap());
+        queue.put(new ShutdownMessage());
+        assertThat(nbMessages.get(2, SECONDS)).isEqualTo(1);
+        executor.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void test_consumer_acknowledges_messages_only_when_named_entities_are_written() throws Exception {
+        when(pipeline.initialize(any())).thenReturn(true);
+        when(pipeline.process(any())).thenReturn(emptyList());
+        when(indexer.get(eq("prj1"), anyList(), anyList(), Matchers.<String>anyVararg())).thenReturn(singletonList(createDoc("doc1").build()));
+        when(indexer.get(eq("prj2"), anyList(), anyList(), Matchers.<String>anyVararg())).thenReturn(singletonList(createDoc("doc2").build()));
+        when(indexer.bulkAdd(eq("prj1"), any(), anyMap())).thenReturn(true);
+        when(indexer.bulkAdd(eq("prj2"), any(), anyMap())).thenReturn(false);
+        Message message1 = extractNlp("prj1", "doc1", "root1");
+        Message message2 = extractNlp("prj2", "doc2", "root2");
+        BlockingQueue<Message> queue = new LinkedBlockingQueue<>(asList(message1, message2, new ShutdownMessage()));
+        List<Message> acknowledged = new ArrayList<>();
+        List<Message> released = new ArrayList<>();
+
+        NlpConsumer.builder(pipeline, indexer, queue).withBatch(2, 1000).
+                withAcknowledger(acknowledged::addAll).withReleaser(released::addAll).build().call();
+
+        assertThat(acknowledged).containsExactly(message1);
+        assertThat(released).containsExactly(message2);
+    }
+
+    @Test
+    public void test_consumer_releases_messages_of_a_batch_in_error() throws Exception {
+        when(indexer.get(anyString(), anyList(), anyList(), Matchers.<String>anyVararg())).thenThrow(new IllegalStateException("boom"));
+        Message message = extractNlp("prj", "doc1", "root1");
+        BlockingQueue<Message> queue = new LinkedBlockingQueue<>(asList(message, new ShutdownMessage()));
+        List<Message> acknowledged = new ArrayList<>();
+        List<Message> released = new ArrayList<>();
+
+        NlpConsumer.builder(pipeline, indexer, queue).withBatch(1, 1000).
+                withAcknowledger(acknowledged::addAll).withReleaser(released::addAll).build().call();
+
+        assertThat(acknowledged).isEmpty();
+        assertThat(released).containsExactly(message);
+    }
+
+    @Test
+    public void test_consumer_releases_only_the_message_of_a_document_in_error() throws Exception {
+        when(pipeline.initialize(any())).thenReturn(true);
+        Document doc1 = createDoc("doc1").build();
+        Document doc2 = createDoc("doc2").build();
+        when(pipeline.process(doc1)).thenThrow(new IllegalStateException("boom"));
+        when(pipeline.process(doc2)).thenReturn(emptyList());
+        when(indexer.get(eq("prj"), anyList(), anyList(), Matchers.<String>anyVararg())).thenReturn(asList(doc1, doc2));
+        when(indexer.bulkAdd(eq("prj"), any(), anyMap())).thenReturn(true);
+        Message message1 = extractNlp("prj", "doc1", "root1");
+        Message message2 = extractNlp("prj", "doc2", "root2");
+        BlockingQueue<Message> queue = new LinkedBlockingQueue<>(asList(message1, message2, new ShutdownMessage()));
+        List<Message> acknowledged = new ArrayList<>();
+        List<Message> released = new ArrayList<>();
+
+        NlpConsumer.builder(pipeline, indexer, queue).withBatch(2, 1000).
+                withAcknowledger(acknowledged::addAll).withReleaser(released::addAll).build().call();
+
+        verify(indexer).bulkAdd("prj", null, new LinkedHashMap<Document, List<NamedEntity>>() {{ put(doc2, emptyList());}});
+        assertThat(acknowledged).containsExactly(message2);
+        assertThat(released).containsExactly(message1);
+    }
+
+    @Test
+    public void test_named_entities_found_in_cache_are_not_extracted_again() throws Exception {
+        Document doc = createDoc("doc1").build();
+        List<NamedEntity> cached = singletonList(NamedEntity.create(NamedEntity.Category.PERSON, "John Smith", 0,
+                doc.getId(), doc.getRootDocument(), Pipeline.Type.CORENLP, ENGLISH));
+        NlpCache nlpCache = mock(NlpCache.class);
+        when(nlpCache.get(pipeline, doc, "0")).thenReturn(Optional.of(cached));
+        when(indexer.get(anyString(), anyList(), anyList(), Matchers.<String>anyVararg())).thenReturn(singletonList(doc));
+        when(indexer.bulkAdd(anyString(), any(), anyMap())).thenReturn(true);
+
+        NlpConsumer.builder(pipeline, indexer, null).withCache(nlpCache).build()
+                .findNamedEntities("prj", "doc1", "root1");
+
+        verify(pipeline, never()).initialize(any(Language.class));
+        verify(pipeline, never()).process(any());
+        verify(indexer).bulkAdd("prj", null, new LinkedHashMap<Document, List<NamedEntity>>() {{ put(doc, cached);}});
+    }
+
+    @Test
+    public void test_extracted_named_entities_are_put_in_cache() throws Exception {
+        when(pipeline.initialize(any())).thenReturn(true);
+        Document doc = createDoc("doc1").build();
+        when(pipeline.process(doc)).thenReturn(emptyList());
+        NlpCache nlpCache = mock(NlpCache.class);
+        when(nlpCache.get(pipeline, doc, "0")).thenReturn(Optional.empty());
+        when(indexer.get(anyString(), anyList(), anyList(), Matchers.<String>anyVararg())).thenReturn(singletonList(doc));
+
+        NlpConsumer.builder(pipeline, indexer, null).withCache(nlpCache).build()
+                .findNamedEntities("prj", "doc1", "root1");
+
+        verify(nlpCache).put(pipeline, doc, "0", emptyList());
+    }
+
+    private Message extractNlp(String project, String docId, String rootId) {
+        return new Message(EXTRACT_NLP).add(INDEX_NAME, project).add(DOC_ID, docId).add(R_ID, rootId);
+    }
 }
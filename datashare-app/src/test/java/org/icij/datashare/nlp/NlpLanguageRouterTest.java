@@ -0,0 +1,111 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.com.Message;
+import org.icij.datashare.com.ShutdownMessage;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
+import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.indexing.BulkIndexer;
+import org.icij.datashare.text.nlp.AbstractPipeline;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.MapAssert.entry;
+import static org.icij.datashare.com.Message.Field.*;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
+import static org.icij.datashare.text.DocumentBuilder.createDoc;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class NlpLanguageRouterTest {
+    @Mock private BulkIndexer indexer;
+    @Mock private AbstractPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+    }
+
+    @Test(timeout = 10000)
+    public void test_consumers_process_batches_of_one_language() throws Exception {
+        when(pipeline.initialize(any())).thenReturn(true);
+        when(pipeline.process(any())).thenReturn(emptyList());
+        when(indexer.get(anyString(), anyList(), anyList(), Matchers.<String>anyVararg())).thenAnswer(invocation ->
+                ((List<String>) invocation.getArguments()[1]).stream().map(id -> createDoc(id).with(language(id)).build()).collect(toList()));
+        ConcurrentLinkedQueue<Set<Language>> batchLanguages = new ConcurrentLinkedQueue<>();
+        when(indexer.bulkAdd(anyString(), any(), anyMap())).thenAnswer(invocation -> {
+            batchLanguages.add(((Map<Document, List<NamedEntity>>) invocation.getArguments()[2]).keySet().stream().map(Document::getLanguage).collect(toSet()));
+            return true;
+        });
+        BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+        for (int i = 0; i < 40; i++) {
+            String id = (i % 2 == 0 ? "en" : "fr") + i;
+            queue.add(new Message(EXTRACT_NLP).add(INDEX_NAME, "prj").add(DOC_ID, id).add(R_ID, id).add(VALUE, language(id).name()));
+        }
+        queue.add(new ShutdownMessage());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        int nbMessages = new NlpLanguageRouter(queue, executor, languageQueue -> NlpConsumer.builder(pipeline, indexer, languageQueue).withBatch(5, 100).build(),
+                2, Integer.MAX_VALUE, 50).call();
+        executor.shutdown();
+
+        assertThat(executor.awaitTermination(5, SECONDS)).isTrue();
+        assertThat(nbMessages).isEqualTo(40);
+        assertThat(batchLanguages.stream().mapToInt(Set::size).max().getAsInt()).isEqualTo(1);
+        assertThat(batchLanguages.stream().flatMap(Set::stream).collect(toSet())).containsOnly(Language.ENGLISH, Language.FRENCH);
+    }
+
+    @Test
+    public void test_shares_are_proportional_to_backlogs() {
+        Map<String, Integer> backlogs = new HashMap<String, Integer>() {{
+            put("ENGLISH", 60);
+            put("FRENCH", 30);
+            put("SPANISH", 10);
+            put("GERMAN", 0);
+        }};
+
+        assertThat(NlpLanguageRouter.shares(backlogs, 8)).hasSize(3)
+                .includes(entry("ENGLISH", 4), entry("FRENCH", 3), entry("SPANISH", 1));
+    }
+
+    @Test
+    public void test_shares_with_more_languages_than_consumers() {
+        Map<String, Integer> backlogs = new HashMap<String, Integer>() {{
+            put("ENGLISH", 60);
+            put("FRENCH", 30);
+            put("SPANISH", 10);
+        }};
+
+        assertThat(NlpLanguageRouter.shares(backlogs, 2)).hasSize(2).includes(entry("ENGLISH", 1), entry("FRENCH", 1));
+    }
+
+    @Test
+    public void test_shares_without_backlog() {
+        assertThat(NlpLanguageRouter.shares(new HashMap<String, Integer>() {{ put("ENGLISH", 0);}}, 4)).isEmpty();
+    }
+
+    private static Language language(String id) {
+        return id.startsWith("en") ? Language.ENGLISH : Language.FRENCH;
+    }
+}
@@ -0,0 +1,157 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.com.Channel;
+import org.icij.datashare.com.Message;
+import org.icij.datashare.com.RedisStreamDataBus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.IntStream;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.com.Message.Field.*;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
+
+public class NlpStreamReaderTest {
+    private final RedisStreamDataBus dataBus = new RedisStreamDataBus(new PropertiesProvider());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final BlockingQueue<Message> queue = new LinkedBlockingQueue<>(10);
+
+    @Test(timeout = 5000)
+    public void test_read_messages_published_before_start_and_drain() throws Exception {
+        publish(2);
+        NlpStreamReader reader = new NlpStreamReader(dataBus, queue, "group", "consumer", 60000, () -> {});
+
+        Future<Integer> nbMessages = executor.submit(reader);
+        reader.drain();
+
+        assertThat(nbMessages.get()).isEqualTo(2);
+        assertThat(queue).hasSize(2);
+        assertThat(reader.inFlightSize()).isEqualTo(2);
+    }
+
+    @Test(timeout = 5000)
+    public void test_read_no_more_messages_than_queue_capacity() throws Exception {
+        publish(3);
+        BlockingQueue<Message> smallQueue = new LinkedBlockingQueue<>(2);
+        NlpStreamReader reader = new NlpStreamReader(dataBus, smallQueue, "group", "consumer", 60000, () -> {});
+
+        executor.submit(reader);
+        Thread.sleep(500);
+
+        assertThat(smallQueue).hasSize(2);
+        assertThat(dataBus.pending(Channel.NLP, "group", 10)).hasSize(2);
+        reader.ack(takeAll(smallQueue, 2));
+        reader.drain();
+        executor.shutdown();
+        executor.awaitTermination(2, SECONDS);
+
+        assertThat(takeAll(smallQueue, 1).get(0).content.get(DOC_ID)).isEqualTo("doc2");
+    }
+
+    @Test(timeout = 5000)
+    public void test_acked_messages_are_not_pending() throws Exception {
+        publish(2);
+        NlpStreamReader reader = new NlpStreamReader(dataBus, queue, "group", "consumer", 60000, () -> {});
+        Future<Integer> nbMessages = executor.submit(reader);
+        reader.drain();
+        nbMessages.get();
+
+        reader.ack(takeAll(queue, 2));
+
+        assertThat(reader.inFlightSize()).isEqualTo(0);
+        assertThat(dataBus.pending(Channel.NLP, "group", 10)).isEmpty();
+    }
+
+    @Test(timeout = 5000)
+    public void test_released_messages_are_claimed_again() throws Exception {
+        publish(1);
+        NlpStreamReader reader = new NlpStreamReader(dataBus, queue, "group", "consumer", 10, () -> {});
+        Future<Integer> nbMessages = executor.submit(reader);
+        reader.drain();
+        nbMessages.get();
+        List<Message> messages = takeAll(queue, 1);
+        Thread.sleep(20);
+        assertThat(reader.claimIdleMessages()).isEmpty();
+
+        reader.release(messages);
+
+        assertThat(reader.inFlightSize()).isEqualTo(0);
+        assertThat(reader.claimIdleMessages()).hasSize(1);
+    }
+
+    @Test
+    public void test_claim_idle_messages_after_the_first_page_of_pending_messages() throws Exception {
+        publish(NlpStreamReader.CLAIM_BATCH_SIZE + 1);
+        dataBus.createGroup(Channel.NLP, "group");
+        dataBus.read(Channel.NLP, "group", "dead", NlpStreamReader.CLAIM_BATCH_SIZE + 1, 0);
+        NlpStreamReader reader = new NlpStreamReader(dataBus, queue, "group", "consumer", 500, () -> {});
+        Thread.sleep(600);
+
+        assertThat(reader.claimIdleMessages()).hasSize(NlpStreamReader.CLAIM_BATCH_SIZE);
+        assertThat(reader.claimIdleMessages()).hasSize(1);
+    }
+
+    @Test
+    public void test_claim_idle_messages_of_dead_consumer() throws Exception {
+        publish(1);
+        dataBus.createGroup(Channel.NLP, "group");
+        dataBus.read(Channel.NLP, "group", "dead", 10, 0);
+        NlpStreamReader reader = new NlpStreamReader(dataBus, queue, "group", "consumer", 10, () -> {});
+        Thread.sleep(20);
+
+        assertThat(reader.claimIdleMessages()).hasSize(1);
+        assertThat(dataBus.pending(Channel.NLP, "group", 10).get(0).getConsumerName()).isEqualTo("consumer");
+    }
+
+    @Test
+    public void test_messages_delivered_too_many_times_are_dropped() throws Exception {
+        publish(1);
+        dataBus.createGroup(Channel.NLP, "group");
+        dataBus.read(Channel.NLP, "group", "dead", 10, 0);
+        NlpStreamReader reader = new NlpStreamReader(dataBus, queue, "group", "consumer", 1, () -> {});
+        for (int i = 1; i < NlpStreamReader.MAX_DELIVERIES; i++) {
+            Thread.sleep(5);
+            assertThat(reader.claimIdleMessages()).hasSize(1);
+        }
+        Thread.sleep(5);
+
+        assertThat(reader.claimIdleMessages()).isEmpty();
+        assertThat(dataBus.pending(Channel.NLP, "group", 10)).isEmpty();
+    }
+
+    private void publish(int nbMessages) {
+        IntStream.range(0, nbMessages).forEach(i -> dataBus.publish(Channel.NLP,
+                new Message(EXTRACT_NLP).add(INDEX_NAME, "prj").add(DOC_ID, "doc" + i).add(R_ID, "root" + i)));
+    }
+
+    private List<Message> takeAll(BlockingQueue<Message> queue, int nbMessages) throws InterruptedException {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < nbMessages; i++) {
+            messages.add(queue.take());
+        }
+        return messages;
+    }
+
+    @Before
+    public void setUp() {
+        dataBus.deleteStream(Channel.NLP);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        dataBus.deleteStream(Channel.NLP);
+        dataBus.close();
+    }
+}
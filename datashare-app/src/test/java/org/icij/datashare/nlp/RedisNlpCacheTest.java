@@ -0,0 +1,110 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.nlp.AbstractPipeline;
+import org.icij.datashare.text.nlp.Pipeline;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Collections.singletonList;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.text.DocumentBuilder.createDoc;
+import static org.icij.datashare.text.Language.ENGLISH;
+import static org.icij.datashare.text.Language.FRENCH;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RedisNlpCacheTest {
+    private final AbstractPipeline pipeline = mock(AbstractPipeline.class);
+    private final RedisNlpCache cache = new RedisNlpCache(new JedisPool(new JedisPoolConfig(), "redis"), 200);
+
+    @Before
+    public void setUp() {
+        when(pipeline.getType()).thenReturn(Pipeline.Type.CORENLP);
+        cache.clear();
+    }
+
+    @Test
+    public void test_get_named_entities_with_the_ids_of_another_document_with_same_content() {
+        Document doc = createDoc("doc1").with("John Smith").with(ENGLISH).build();
+        cache.put(pipeline, doc, "0", singletonList(NamedEntity.create(NamedEntity.Category.PERSON, "John Smith", 0,
+                doc.getId(), doc.getRootDocument(), Pipeline.Type.CORENLP, ENGLISH)));
+
+        List<NamedEntity> namedEntities = cache.get(pipeline, createDoc("doc2").with("John Smith").with(ENGLISH).withRootId("root2").build(), "0").get();
+
+        assertThat(namedEntities).hasSize(1);
+        assertThat(namedEntities.get(0).getMention()).isEqualTo("John Smith");
+        assertThat(namedEntities.get(0).getOffset()).isEqualTo(0);
+        assertThat(namedEntities.get(0).getDocumentId()).isEqualTo("doc2");
+        assertThat(namedEntities.get(0).getRootDocument()).isEqualTo("root2");
+        assertThat(cache.getStats().hits).isEqualTo(1);
+    }
+
+    @Test
+    public void test_get_miss_for_another_language() {
+        Document doc = createDoc("doc").with("John Smith").with(ENGLISH).build();
+        cache.put(pipeline, doc, "0", singletonList(NamedEntity.create(NamedEntity.Category.PERSON, "John Smith", 0,
+                doc.getId(), doc.getRootDocument(), Pipeline.Type.CORENLP, ENGLISH)));
+
+        assertThat(cache.get(pipeline, createDoc("doc").with("John Smith").with(FRENCH).build(), "0").isPresent()).isFalse();
+        assertThat(cache.getStats().misses).isEqualTo(1);
+    }
+
+    @Test
+    public void test_get_miss_for_another_chunking() {
+        Document doc = createDoc("doc").with("John Smith").with(ENGLISH).build();
+        cache.put(pipeline, doc, "100/10", singletonList(NamedEntity.create(NamedEntity.Category.PERSON, "John Smith", 0,
+                doc.getId(), doc.getRootDocument(), Pipeline.Type.CORENLP, ENGLISH)));
+
+        assertThat(cache.get(pipeline, doc, "200/10").isPresent()).isFalse();
+        assertThat(cache.get(pipeline, doc, "100/10").isPresent()).isTrue();
+    }
+
+    @Test
+    public void test_put_does_not_cache_entries_over_max_size_in_utf8_bytes() {
+        String mention = String.join("", Collections.nCopies(100, "é"));
+        Document doc = createDoc("doc").with(mention).with(FRENCH).build();
+        cache.put(pipeline, doc, "0", singletonList(NamedEntity.create(NamedEntity.Category.PERSON, mention, 0,
+                doc.getId(), doc.getRootDocument(), Pipeline.Type.CORENLP, FRENCH)));
+
+        assertThat(cache.getSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_put_evicts_least_recently_used_entries_over_max_size() {
+        for (int i = 0; i < 5; i++) {
+            Document doc = createDoc("doc" + i).with("content " + i).with(ENGLISH).build();
+            cache.put(pipeline, doc, "0", singletonList(NamedEntity.create(NamedEntity.Category.PERSON, "John Smith", 0,
+                    doc.getId(), doc.getRootDocument(), Pipeline.Type.CORENLP, ENGLISH)));
+        }
+
+        assertThat(cache.getSize()).isLessThanOrEqualTo(200);
+        assertThat(cache.getStats().evictions).isGreaterThan(0);
+        assertThat(cache.get(pipeline, createDoc("doc4").with("content 4").with(ENGLISH).build(), "0").isPresent()).isTrue();
+        assertThat(cache.get(pipeline, createDoc("doc0").with("content 0").with(ENGLISH).build(), "0").isPresent()).isFalse();
+    }
+
+    @Test
+    public void test_email_pipeline_is_not_cached() {
+        when(pipeline.getType()).thenReturn(Pipeline.Type.EMAIL);
+        Document doc = createDoc("doc").with("foo@bar.com").with(ENGLISH).build();
+        cache.put(pipeline, doc, "0", singletonList(NamedEntity.create(NamedEntity.Category.EMAIL, "foo@bar.com", 0,
+                doc.getId(), doc.getRootDocument(), Pipeline.Type.EMAIL, ENGLISH)));
+
+        assertThat(cache.get(pipeline, doc, "0").isPresent()).isFalse();
+        assertThat(cache.getSize()).isEqualTo(0);
+    }
+
+    @After
+    public void tearDown() {
+        cache.clear();
+        cache.close();
+    }
+}
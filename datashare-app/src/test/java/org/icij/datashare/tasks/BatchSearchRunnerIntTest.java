@@ -1,8 +1,9 @@
 package org.icij.datashare.tasks;
 
+import org.icij.datashare.Entity;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.batch.BatchSearch;
-import org.icij.datashare.batch.BatchSearchRepository;
+import org.icij.datashare.batch.RefreshableBatchSearchRepository;
 import org.icij.datashare.batch.SearchException;
 import org.icij.datashare.test.DatashareTimeRule;
 import org.icij.datashare.test.ElasticsearchRule;
@@ -18,12 +19,15 @@ import org.mockito.Mock;
 
 import java.io.IOException;
 import java.util.Date;
+import java.util.HashMap;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
 import static org.elasticsearch.action.support.WriteRequest.RefreshPolicy.IMMEDIATE;
 import static org.fest.assertions.Assertions.assertThat;
 import static org.icij.datashare.CollectionUtils.asSet;
+import static org.icij.datashare.cli.DatashareCliOptions.BATCH_SEARCH_INDEX_RESULTS;
 import static org.icij.datashare.test.ElasticsearchRule.TEST_INDEX;
 import static org.icij.datashare.text.DocumentBuilder.createDoc;
 import static org.icij.datashare.text.Project.project;
@@ -36,7 +40,7 @@ public class BatchSearchRunnerIntTest {
     @Rule public DatashareTimeRule timeRule = new DatashareTimeRule("2020-05-25T10:11:12Z");
 
     private ElasticsearchIndexer indexer = new ElasticsearchIndexer(es.client, new PropertiesProvider()).withRefresh(IMMEDIATE);
-    @Mock BatchSearchRepository repository;
+    @Mock RefreshableBatchSearchRepository repository;
     @After public void tearDown() throws IOException { es.removeAll();}
 
     @Test
@@ -164,6 +168,24 @@ public class BatchSearchRunnerIntTest {
         assertThat(argument.getValue().toString()).contains("Failed to parse query [AND mydoc]");
     }
 
+    @Test
+    public void test_run_with_index_results_adds_batch_search_to_matched_documents() throws Exception {
+        Document mydoc = createDoc("docId1").with("mydoc").build();
+        Document otherDoc = createDoc("docId2").with("other").build();
+        indexer.add(TEST_INDEX, mydoc);
+        indexer.add(TEST_INDEX, otherDoc);
+        BatchSearch search = new BatchSearch(project(TEST_INDEX), "name", "desc", asSet("mydoc"), User.local());
+        when(repository.getQueued()).thenReturn(singletonList(search));
+
+        new BatchSearchRunner(indexer, repository, new PropertiesProvider(new HashMap<String, String>() {{
+            put(BATCH_SEARCH_INDEX_RESULTS, "true");
+        }}), local()).call();
+        indexer.executeRaw("POST", TEST_INDEX + "/_refresh", null);
+
+        assertThat(indexer.search(TEST_INDEX, Document.class).withFieldValues("batchSearches", search.uuid).
+                execute().map(Entity::getId).collect(toList())).containsExactly("docId1");
+    }
+
     @Test
     public void test_run_with_batchid() throws Exception {
         Document mydoc = createDoc("docId1").with("mydoc").build();
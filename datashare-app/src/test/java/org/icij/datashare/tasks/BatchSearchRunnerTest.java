@@ -1,13 +1,15 @@
 package org.icij.datashare.tasks;
 
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.rest.RestStatus;
 import org.icij.datashare.Entity;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.batch.BatchSearch;
-import org.icij.datashare.batch.BatchSearchRepository;
+import org.icij.datashare.batch.RefreshableBatchSearchRepository;
 import org.icij.datashare.batch.SearchException;
 import org.icij.datashare.test.DatashareTimeRule;
 import org.icij.datashare.text.Document;
-import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.BulkIndexer;
 import org.icij.datashare.user.User;
 import org.junit.Before;
 import org.junit.Rule;
@@ -16,18 +18,31 @@ import org.mockito.Mock;
 import org.mockito.stubbing.OngoingStubbing;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toCollection;
 import static org.fest.assertions.Assertions.assertThat;
 import static org.icij.datashare.CollectionUtils.asSet;
+import static org.icij.datashare.cli.DatashareCliOptions.BATCH_SEARCH_ADAPTIVE_THROTTLE;
+import static org.icij.datashare.cli.DatashareCliOptions.BATCH_SEARCH_INDEX_RESULTS;
 import static org.icij.datashare.cli.DatashareCliOptions.BATCH_SEARCH_MAX_TIME;
 import static org.icij.datashare.cli.DatashareCliOptions.BATCH_SEARCH_THROTTLE;
+import static org.icij.datashare.cli.DatashareCliOptions.BATCH_SEARCH_WATERMARK_MARGIN;
+import static org.icij.datashare.tasks.BatchSearchRunner.DEFAULT_WATERMARK_MARGIN_SECONDS;
 import static org.icij.datashare.tasks.BatchSearchRunner.MAX_BATCH_RESULT_SIZE;
+import static org.icij.datashare.tasks.BatchSearchRunner.MAX_COUNTS_PER_REQUEST;
 import static org.icij.datashare.tasks.BatchSearchRunner.MAX_SCROLL_SIZE;
 import static org.icij.datashare.text.DocumentBuilder.createDoc;
 import static org.icij.datashare.text.Project.project;
@@ -38,8 +53,8 @@ import static org.mockito.MockitoAnnotations.initMocks;
 
 
 public class BatchSearchRunnerTest {
-    @Mock Indexer indexer;
-    @Mock BatchSearchRepository repository;
+    @Mock BulkIndexer indexer;
+    @Mock RefreshableBatchSearchRepository repository;
     @Rule public DatashareTimeRule timeRule = new DatashareTimeRule("2020-05-25T10:11:12Z");
 
     @Test
@@ -83,6 +98,9 @@ public class BatchSearchRunnerTest {
         ));
 
         assertThat(new BatchSearchRunner(indexer, repository, new PropertiesProvider(), local()).call()).isLessThan(60000);
+
+        verify(repository, atLeastOnce()).setWarnings("uuid1", singletonList(
+                "results of query \"query\" have been truncated: the batch search has reached the max of 60000 results"));
     }
 
     @Test
@@ -116,19 +134,238 @@ public class BatchSearchRunnerTest {
         assertThat(timeRule.now().getTime() - beforeBatch.getTime()).isEqualTo(1000);
     }
 
+    @Test
+    public void test_run_batch_search_with_adaptive_throttle_retries_rejected_searches() throws Exception {
+        Document[] documents = {createDoc("doc1").build(), createDoc("doc2").build()};
+        firstSearchWillReturn(1, documents);
+        when(indexer.search("test-datashare", Document.class).scroll()).
+                thenThrow(new ElasticsearchStatusException("rejected", RestStatus.TOO_MANY_REQUESTS)).
+                thenAnswer(a -> Stream.of(documents)).thenAnswer(a -> Stream.empty());
+        when(repository.getQueued()).thenReturn(singletonList(
+            new BatchSearch("uuid1", project("test-datashare"), "name1", "desc1", asSet("query1"), new Date(), BatchSearch.State.RUNNING, User.local())
+        ));
+
+        Date beforeBatch  = timeRule.now;
+
+        assertThat(new BatchSearchRunner(indexer, repository, new PropertiesProvider(new HashMap<String, String>() {{
+            put(BATCH_SEARCH_ADAPTIVE_THROTTLE, "true");
+        }}), local()).call()).isEqualTo(2);
+
+        verify(repository).saveResults("uuid1", "query1", asList(documents));
+        verify(repository).setState("uuid1", BatchSearch.State.SUCCESS);
+        assertThat(timeRule.now().getTime() - beforeBatch.getTime()).isEqualTo(BatchSearchThrottle.THROTTLE_STEP_MS);
+    }
+
+    @Test
+    public void test_run_batch_search_without_adaptive_throttle_fails_on_rejected_searches() throws Exception {
+        firstSearchWillReturn(1, createDoc("doc1").build());
+        when(indexer.search("test-datashare", Document.class).scroll()).
+                thenThrow(new ElasticsearchStatusException("rejected", RestStatus.TOO_MANY_REQUESTS));
+        when(repository.getQueued()).thenReturn(singletonList(
+            new BatchSearch("uuid1", project("test-datashare"), "name1", "desc1", asSet("query1"), new Date(), BatchSearch.State.RUNNING, User.local())
+        ));
+
+        assertThat(new BatchSearchRunner(indexer, repository, new PropertiesProvider(), local()).call()).isEqualTo(0);
+
+        verify(repository).setState(eq("uuid1"), any(SearchException.class));
+    }
+
+    @Test
+    public void test_resume_runs_interrupted_batch_search() throws Exception {
+        Document[] documents = {createDoc("doc1").build()};
+        firstSearchWillReturn(1, documents);
+        when(repository.get("uuid1")).thenReturn(
+            new BatchSearch("uuid1", project("test-datashare"), "name1", "desc1", asSet("query1"), new Date(), BatchSearch.State.RUNNING, User.local()));
+
+        assertThat(new BatchSearchRunner(indexer, repository, new PropertiesProvider(), local()).resume("uuid1")).isEqualTo(1);
+
+        verify(repository).resetResults("uuid1");
+        verify(repository).saveResults("uuid1", "query1", asList(documents));
+        verify(repository).setState("uuid1", BatchSearch.State.SUCCESS);
+    }
+
+    @Test
+    public void test_resume_does_not_run_done_batch_search() throws Exception {
+        firstSearchWillReturn(1, createDoc("doc1").build());
+        when(repository.get("uuid1")).thenReturn(
+            new BatchSearch("uuid1", project("test-datashare"), "name1", "desc1", asSet("query1"), new Date(), BatchSearch.State.SUCCESS, User.local()));
+
+        assertThat(new BatchSearchRunner(indexer, repository, new PropertiesProvider(), local()).resume("uuid1")).isEqualTo(0);
+
+        verify(repository, never()).saveResults(anyString(), any(), anyList());
+        verify(repository, never()).resetResults(anyString());
+    }
+
+    @Test
+    public void test_plan_runs_cheap_queries_first_and_skips_queries_without_results() {
+        BatchSearch batchSearch = new BatchSearch("uuid1", project("test-datashare"), "name1", "desc1", asSet("q1", "q2", "q3", "q4"), new Date(), BatchSearch.State.QUEUED, User.local());
+        Map<String, Long> estimatedResults = new LinkedHashMap<String, Long>() {{
+            put("q1", 300L);
+            put("q2", 0L);
+            put("q3", 10L);
+            put("q4", 2L * MAX_BATCH_RESULT_SIZE);
+        }};
+
+        List<String> warnings = new ArrayList<>();
+
+        assertThat(new BatchSearchRunner(indexer, repository, new PropertiesProvider(), local()).plan(batchSearch, estimatedResults, warnings)).
+                containsExactly("q3", "q1", "q4");
+        assertThat(warnings).containsExactly("query \"q4\" has 120000 results, more than the max of 60000 results");
+    }
+
+    @Test
+    public void test_run_batch_search_does_not_scroll_queries_without_results() throws Exception {
+        firstSearchWillReturn(1, createDoc("doc1").build());
+        when(indexer.count(anyList())).thenReturn(singletonList(0L));
+        when(repository.getQueued()).thenReturn(singletonList(
+            new BatchSearch("uuid1", project("test-datashare"), "name1", "desc1", asSet("query1"), new Date(), BatchSearch.State.RUNNING, User.local())
+        ));
+
+        assertThat(new BatchSearchRunner(indexer, repository, new PropertiesProvider(), local()).call()).isEqualTo(0);
+
+        verify(indexer.search("test-datashare", Document.class), never()).scroll();
+        verify(repository).setState("uuid1", BatchSearch.State.SUCCESS);
+    }
+
+    @Test
+    public void test_run_batch_search_counts_the_queries_by_chunks() throws Exception {
+        firstSearchWillReturn(1, createDoc("doc1").build());
+        when(repository.getQueued()).thenReturn(singletonList(
+            new BatchSearch("uuid1", project("test-datashare"), "name1", "desc1",
+                    IntStream.range(0, 2 * MAX_COUNTS_PER_REQUEST + 1).mapToObj(i -> "query" + i).collect(toCollection(LinkedHashSet::new)), new Date(), BatchSearch.State.RUNNING, User.local())
+        ));
+
+        new BatchSearchRunner(indexer, repository, new PropertiesProvider(), local()).call();
+
+        verify(indexer, times(3)).count(anyList());
+        verify(indexer.search("test-datashare", Document.class), never()).totalHits();
+        verify(repository).setState("uuid1", BatchSearch.State.SUCCESS);
+    }
+
+    @Test
+    public void test_run_batch_search_counts_the_queries_one_by_one_when_the_multi_search_fails() throws Exception {
+        Document[] documents = {createDoc("doc1").build()};
+        firstSearchWillReturn(1, documents);
+        when(indexer.count(anyList())).thenThrow(new IOException("msearch failed"));
+        when(repository.getQueued()).thenReturn(singletonList(
+            new BatchSearch("uuid1", project("test-datashare"), "name1", "desc1", asSet("query1"), new Date(), BatchSearch.State.RUNNING, User.local())
+        ));
+
+        assertThat(new BatchSearchRunner(indexer, repository, new PropertiesProvider(), local()).call()).isEqualTo(1);
+
+        verify(indexer.search("test-datashare", Document.class)).totalHits();
+        verify(repository).saveResults("uuid1", "query1", asList(documents));
+        verify(repository).setState("uuid1", BatchSearch.State.SUCCESS);
+    }
+
+    @Test
+    public void test_run_batch_search_with_index_results() throws Exception {
+        Document[] documents = {createDoc("doc1").build(), createDoc("doc2").build()};
+        firstSearchWillReturn(1, documents);
+        when(repository.getQueued()).thenReturn(singletonList(
+            new BatchSearch("uuid1", project("test-datashare"), "name1", "desc1", asSet("query1"), new Date(), BatchSearch.State.RUNNING, User.local())
+        ));
+
+        new BatchSearchRunner(indexer, repository, new PropertiesProvider(new HashMap<String, String>() {{
+            put(BATCH_SEARCH_INDEX_RESULTS, "true");
+        }}), local()).call();
+
+        verify(indexer).executeRaw(eq("PUT"), eq("test-datashare/_mapping/doc"), contains("\"batchSearches\":{\"type\":\"keyword\"}"));
+        verify(indexer).executeRaw(eq("POST"), eq("test-datashare/_update_by_query?conflicts=proceed"), contains("\"_id\":[\"doc1\",\"doc2\"]"));
+        verify(indexer, times(2)).executeRaw(eq("POST"), eq("test-datashare/_update_by_query?conflicts=proceed"), contains("\"uuid\":\"uuid1\""));
+    }
+
+    @Test
+    public void test_run_batch_search_without_watermark_removes_previous_index_results() throws Exception {
+        firstSearchWillReturn(1, createDoc("doc1").build());
+        when(repository.getQueued()).thenReturn(singletonList(
+            new BatchSearch("uuid1", project("test-datashare"), "name1", "desc1", asSet("query1"), new Date(), BatchSearch.State.RUNNING, User.local())
+        ));
+
+        new BatchSearchRunner(indexer, repository, new PropertiesProvider(new HashMap<String, String>() {{
+            put(BATCH_SEARCH_INDEX_RESULTS, "true");
+        }}), local()).call();
+
+        verify(indexer).executeRaw(eq("POST"), eq("test-datashare/_update_by_query?conflicts=proceed"), contains("\"term\":{\"batchSearches\":\"uuid1\"}"));
+    }
+
+    @Test
+    public void test_run_batch_search_with_index_results_retries_version_conflicts() throws Exception {
+        firstSearchWillReturn(1, createDoc("doc1").build());
+        when(repository.getWatermark("uuid1")).thenReturn(new Date(timeRule.now.getTime() - 3600 * 1000));
+        when(indexer.executeRaw(eq("POST"), eq("test-datashare/_update_by_query?conflicts=proceed"), anyString())).
+                thenReturn("{\"updated\":0,\"version_conflicts\":1}").thenReturn("{\"updated\":1,\"version_conflicts\":0}");
+        when(repository.getQueued()).thenReturn(singletonList(
+            new BatchSearch("uuid1", project("test-datashare"), "name1", "desc1", asSet("query1"), new Date(), BatchSearch.State.RUNNING, User.local())
+        ));
+
+        new BatchSearchRunner(indexer, repository, new PropertiesProvider(new HashMap<String, String>() {{
+            put(BATCH_SEARCH_INDEX_RESULTS, "true");
+        }}), local()).call();
+
+        verify(indexer, times(2)).executeRaw(eq("POST"), eq("test-datashare/_update_by_query?conflicts=proceed"), contains("\"_id\":[\"doc1\"]"));
+        verify(repository).setState("uuid1", BatchSearch.State.SUCCESS);
+    }
+
+    @Test
+    public void test_run_batch_search_sets_watermark_on_success() throws Exception {
+        firstSearchWillReturn(1, createDoc("doc1").build());
+        when(repository.getQueued()).thenReturn(singletonList(
+            new BatchSearch("uuid1", project("test-datashare"), "name1", "desc1", asSet("query1"), new Date(), BatchSearch.State.RUNNING, User.local())
+        ));
+
+        new BatchSearchRunner(indexer, repository, new PropertiesProvider(), local()).call();
+
+        verify(repository).setWatermark("uuid1", new Date(timeRule.now.getTime() - DEFAULT_WATERMARK_MARGIN_SECONDS * 1000L));
+        verify(indexer.search("test-datashare", Document.class), never()).extractedAfter(any());
+    }
+
+    @Test
+    public void test_run_batch_search_sets_watermark_with_margin_option() throws Exception {
+        firstSearchWillReturn(1, createDoc("doc1").build());
+        when(repository.getQueued()).thenReturn(singletonList(
+            new BatchSearch("uuid1", project("test-datashare"), "name1", "desc1", asSet("query1"), new Date(), BatchSearch.State.RUNNING, User.local())
+        ));
+
+        new BatchSearchRunner(indexer, repository, new PropertiesProvider(new HashMap<String, String>() {{
+            put(BATCH_SEARCH_WATERMARK_MARGIN, "60");
+        }}), local()).call();
+
+        verify(repository).setWatermark("uuid1", new Date(timeRule.now.getTime() - 60 * 1000));
+    }
+
+    @Test
+    public void test_run_batch_search_with_watermark_only_searches_newly_extracted_documents() throws Exception {
+        Date watermark = new Date(timeRule.now.getTime() - 3600 * 1000);
+        firstSearchWillReturn(1, createDoc("doc1").build());
+        when(repository.getWatermark("uuid1")).thenReturn(watermark);
+        when(repository.getQueued()).thenReturn(singletonList(
+            new BatchSearch("uuid1", project("test-datashare"), "name1", "desc1", asSet("query1"), new Date(), BatchSearch.State.RUNNING, User.local())
+        ));
+
+        new BatchSearchRunner(indexer, repository, new PropertiesProvider(), local()).call();
+
+        verify(indexer.search("test-datashare", Document.class), atLeastOnce()).extractedAfter(watermark);
+    }
+
     private void firstSearchWillReturn(int nbOfScrolls, Document... documents) throws IOException {
-        Indexer.Searcher searcher = mock(Indexer.Searcher.class);
+        BulkIndexer.FilterSearcher searcher = mock(BulkIndexer.FilterSearcher.class);
         OngoingStubbing<? extends Stream<? extends Entity>> ongoingStubbing = when(searcher.scroll());
         for (int i = 0 ; i<nbOfScrolls; i++) {
             ongoingStubbing = ongoingStubbing.thenAnswer(a -> Stream.of(documents));
         }
         ongoingStubbing.thenAnswer(a -> Stream.empty());
+        when(searcher.extractedAfter(any())).thenReturn(searcher);
         when(searcher.with(any(),anyInt(),anyBoolean())).thenReturn(searcher);
         when(searcher.withoutSource(any())).thenReturn(searcher);
         when(searcher.withFieldValues(anyString())).thenReturn(searcher);
         when(searcher.withPrefixQuery(anyString())).thenReturn(searcher);
+        when(searcher.with(anyString())).thenReturn(searcher);
         when(searcher.limit(anyInt())).thenReturn(searcher);
         when(searcher.totalHits()).thenReturn((long) documents.length).thenReturn(0L);
+        AtomicBoolean firstCount = new AtomicBoolean(true);
+        when(indexer.count(anyList())).thenAnswer(a -> ((List<?>) a.getArguments()[0]).stream().
+                map(searcherToCount -> firstCount.getAndSet(false) ? (long) documents.length : 0L).collect(toList()));
         when(indexer.search("test-datashare", Document.class)).thenReturn(searcher);
     }
 
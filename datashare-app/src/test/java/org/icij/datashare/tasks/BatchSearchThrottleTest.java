@@ -0,0 +1,145 @@
+package org.icij.datashare.tasks;
+
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.rest.RestStatus;
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.test.DatashareTimeRule;
+import org.icij.datashare.text.indexing.Indexer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.cli.DatashareCliOptions.*;
+import static org.icij.datashare.tasks.BatchSearchThrottle.SEARCH_THREAD_POOL_URL;
+import static org.icij.datashare.tasks.BatchSearchThrottle.THREAD_POOL_CHECK_PAGES;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class BatchSearchThrottleTest {
+    @Mock Indexer indexer;
+    @Rule public DatashareTimeRule timeRule = new DatashareTimeRule("2020-05-25T10:11:12Z");
+
+    @Test
+    public void test_not_adaptive_by_default() {
+        BatchSearchThrottle throttle = new BatchSearchThrottle(indexer, new PropertiesProvider(new HashMap<String, String>() {{
+            put(BATCH_SEARCH_THROTTLE, "100");
+        }}), 3500);
+
+        throttle.pageDone(100000);
+
+        assertThat(throttle.isAdaptive()).isFalse();
+        assertThat(throttle.getThrottleMs()).isEqualTo(100);
+        assertThat(throttle.getScrollSize()).isEqualTo(1000);
+        assertThat(throttle.searchRejected(new ElasticsearchStatusException("rejected", RestStatus.TOO_MANY_REQUESTS))).isFalse();
+    }
+
+    @Test
+    public void test_state() {
+        BatchSearchThrottle throttle = adaptiveThrottle();
+
+        throttle.pageDone(2000);
+
+        assertThat(throttle.getState()).isEqualTo(new LinkedHashMap<String, Object>() {{
+            put("adaptive", true);
+            put("throttleMs", 100);
+            put("scrollSize", 500);
+            put("latencyMs", 2000L);
+            put("rate", 1000.0 / 2100);
+        }});
+    }
+
+    @Test
+    public void test_slow_down_when_latency_is_above_target() {
+        BatchSearchThrottle throttle = adaptiveThrottle();
+
+        throttle.pageDone(2000);
+
+        assertThat(throttle.getThrottleMs()).isEqualTo(100);
+        assertThat(throttle.getScrollSize()).isEqualTo(500);
+        throttle.pageDone(2000);
+        assertThat(throttle.getThrottleMs()).isEqualTo(200);
+        assertThat(throttle.getScrollSize()).isEqualTo(250);
+    }
+
+    @Test
+    public void test_speed_up_when_latency_is_below_half_target() {
+        BatchSearchThrottle throttle = adaptiveThrottle();
+        throttle.pageDone(2000);
+
+        throttle.pageDone(100);
+
+        assertThat(throttle.getThrottleMs()).isEqualTo(50);
+        assertThat(throttle.getScrollSize()).isEqualTo(850);
+    }
+
+    @Test
+    public void test_speed_up_is_bounded_by_configuration() {
+        BatchSearchThrottle throttle = adaptiveThrottle();
+
+        for (int i = 0; i < 20; i++) throttle.pageDone(10);
+
+        assertThat(throttle.getThrottleMs()).isEqualTo(50);
+        assertThat(throttle.getScrollSize()).isEqualTo(3500);
+    }
+
+    @Test
+    public void test_slow_down_is_bounded_by_max_throttle() {
+        BatchSearchThrottle throttle = adaptiveThrottle();
+
+        for (int i = 0; i < 20; i++) throttle.pageDone(2000);
+
+        assertThat(throttle.getThrottleMs()).isEqualTo(1000);
+        assertThat(throttle.getScrollSize()).isEqualTo(BatchSearchThrottle.MIN_SCROLL_SIZE);
+    }
+
+    @Test
+    public void test_search_rejected_slows_down() {
+        BatchSearchThrottle throttle = adaptiveThrottle();
+
+        assertThat(throttle.searchRejected(new ElasticsearchStatusException("rejected", RestStatus.TOO_MANY_REQUESTS))).isTrue();
+        assertThat(throttle.getThrottleMs()).isEqualTo(100);
+        assertThat(throttle.searchRejected(new ElasticsearchStatusException(
+                "Elasticsearch exception [type=es_rejected_execution_exception, reason=rejected execution]", RestStatus.INTERNAL_SERVER_ERROR))).isTrue();
+        assertThat(throttle.getThrottleMs()).isEqualTo(200);
+        assertThat(throttle.searchRejected(new ElasticsearchStatusException("bad query", RestStatus.BAD_REQUEST))).isFalse();
+    }
+
+    @Test
+    public void test_slow_down_when_search_thread_pool_queue_is_full() throws Exception {
+        when(indexer.executeRaw("GET", SEARCH_THREAD_POOL_URL, null)).thenReturn("[{\"queue\":\"80\",\"rejected\":\"0\"},{\"queue\":\"30\",\"rejected\":\"0\"}]");
+        BatchSearchThrottle throttle = adaptiveThrottle();
+
+        for (int i = 0; i < THREAD_POOL_CHECK_PAGES - 1; i++) throttle.pageDone(600);
+        assertThat(throttle.getThrottleMs()).isEqualTo(50);
+
+        throttle.pageDone(600);
+        assertThat(throttle.getThrottleMs()).isEqualTo(100);
+    }
+
+    @Test
+    public void test_rate() {
+        BatchSearchThrottle throttle = adaptiveThrottle();
+
+        throttle.pageDone(1500);
+
+        assertThat(throttle.getRate()).isEqualTo(1000.0 / 1600);
+    }
+
+    private BatchSearchThrottle adaptiveThrottle() {
+        return new BatchSearchThrottle(indexer, new PropertiesProvider(new HashMap<String, String>() {{
+            put(BATCH_SEARCH_ADAPTIVE_THROTTLE, "true");
+            put(BATCH_SEARCH_THROTTLE, "50");
+            put(BATCH_SEARCH_MAX_THROTTLE, "1000");
+            put(BATCH_SEARCH_LATENCY_TARGET, "1000");
+            put(BATCH_SEARCH_MAX_SEARCH_QUEUE, "100");
+        }}), 3500);
+    }
+
+    @Before
+    public void setUp() { initMocks(this);}
+}
@@ -1,23 +1,32 @@
 package org.icij.datashare.tasks;
 
 import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.com.BatchPublisher;
+import org.icij.datashare.com.Channel;
+import org.icij.datashare.com.Message;
 import org.icij.datashare.com.Publisher;
 import org.icij.datashare.test.ElasticsearchRule;
+import org.icij.datashare.text.Language;
 import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
 import org.icij.datashare.text.nlp.Pipeline;
 import org.icij.datashare.user.User;
 import org.junit.After;
 import org.junit.ClassRule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 
 import static org.elasticsearch.action.support.WriteRequest.RefreshPolicy.IMMEDIATE;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.MapAssert.entry;
 import static org.icij.datashare.test.ElasticsearchRule.TEST_INDEX;
 import static org.icij.datashare.text.DocumentBuilder.createDoc;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
 public class ResumeNlpTaskTest {
@@ -40,4 +49,41 @@ public class ResumeNlpTaskTest {
         resumeNlpTask.call();
         verify(publisher, times(22)).publish(any(), any());
     }
+
+    @Test
+    public void test_sliced_scrolls_publish_batches_of_messages() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            indexer.add(TEST_INDEX, createDoc("doc" + i).with(Pipeline.Type.CORENLP).build());
+        }
+        BatchPublisher publisher = mock(BatchPublisher.class);
+        ResumeNlpTask resumeNlpTask = new ResumeNlpTask(publisher, indexer,
+                new PropertiesProvider(new HashMap<String, String>() {{
+                    put("defaultProject", "test-datashare");
+                    put("scrollSlices", "2");
+                    put("scrollSize", "5");
+                }}), new User("test"), new HashSet<Pipeline.Type>() {{add(Pipeline.Type.OPENNLP);}});
+
+        assertThat(resumeNlpTask.call()).isEqualTo(20);
+
+        ArgumentCaptor<List> batches = ArgumentCaptor.forClass(List.class);
+        verify(publisher, atLeast(4)).publish(eq(Channel.NLP), batches.capture());
+        assertThat(batches.getAllValues().stream().mapToInt(List::size).sum()).isEqualTo(20);
+        verify(publisher, times(3)).publish(eq(Channel.NLP), any(Message.class)); // 2 INIT_MONITORING + SHUTDOWN
+        assertThat(resumeNlpTask.getProgressRate()).isEqualTo(1.0);
+    }
+
+    @Test
+    public void test_messages_carry_the_document_language() throws Exception {
+        indexer.add(TEST_INDEX, createDoc("doc").with(Language.FRENCH).with(Pipeline.Type.CORENLP).build());
+        Publisher publisher = mock(Publisher.class);
+
+        new ResumeNlpTask(publisher, indexer, new PropertiesProvider(new HashMap<String, String>() {{
+                    put("defaultProject", "test-datashare");
+                }}), new User("test"), new HashSet<Pipeline.Type>() {{add(Pipeline.Type.OPENNLP);}}).call();
+
+        ArgumentCaptor<Message> messages = ArgumentCaptor.forClass(Message.class);
+        verify(publisher, times(3)).publish(eq(Channel.NLP), messages.capture());
+        assertThat(messages.getAllValues().get(1).type).isEqualTo(Message.Type.EXTRACT_NLP);
+        assertThat(messages.getAllValues().get(1).content).includes(entry(Message.Field.VALUE, "FRENCH"));
+    }
 }
@@ -1,16 +1,28 @@
 package org.icij.datashare.tasks;
 
 import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.monitoring.Monitorable;
 import org.icij.datashare.tasks.TaskManager;
+import org.icij.datashare.user.ApiKeyRepository;
+import org.icij.datashare.user.User;
+import org.icij.datashare.user.UserTask;
 import org.junit.After;
 import org.junit.Test;
 
+import java.util.HashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleSupplier;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.Delta.delta;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class TaskManagerTest {
     private TaskManager taskManager= new TaskManager(new PropertiesProvider());
@@ -55,6 +67,180 @@ public class TaskManagerTest {
         assertThat(taskManager.getTask(t1.toString()).get()).isEqualTo("task");
     }
 
+    @Test
+    public void test_queue_tasks_over_class_budget() throws Exception {
+        taskManager = taskManager("1", "0");
+        CountDownLatch running = new CountDownLatch(1);
+        TaskManager.MonitorableFutureTask<String> t1 = taskManager.startTask(new UserCallable("foo", running));
+        TaskManager.MonitorableFutureTask<String> t2 = taskManager.startTask(() -> "task 2");
+
+        assertThat(t1.getQueuePosition()).isEqualTo(0);
+        assertThat(t2.getQueuePosition()).isEqualTo(1);
+        running.countDown();
+        assertThat(t2.get(1, SECONDS)).isEqualTo("task 2");
+        assertThat(t2.getQueuePosition()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_interactive_task_is_not_queued_behind_batch_tasks() throws Exception {
+        taskManager = taskManager("1", "0");
+        CountDownLatch running = new CountDownLatch(1);
+        ScanIndexTask scanIndexTask = mock(ScanIndexTask.class);
+        when(scanIndexTask.call()).thenReturn(12L);
+        taskManager.startTask(new UserCallable("foo", running));
+
+        TaskManager.MonitorableFutureTask<Long> interactiveTask = taskManager.startTask(scanIndexTask);
+
+        assertThat(interactiveTask.getTaskClass()).isEqualTo(TaskClass.INTERACTIVE);
+        assertThat(interactiveTask.get(1, SECONDS)).isEqualTo(12L);
+        running.countDown();
+    }
+
+    @Test
+    public void test_user_quota() throws Exception {
+        taskManager = taskManager("2", "1");
+        CountDownLatch running = new CountDownLatch(1);
+        taskManager.startTask(new UserCallable("foo", running));
+        TaskManager.MonitorableFutureTask<String> fooTask = taskManager.startTask(new UserCallable("foo", new CountDownLatch(0)));
+        TaskManager.MonitorableFutureTask<String> barTask = taskManager.startTask(new UserCallable("bar", new CountDownLatch(0)));
+
+        assertThat(barTask.get(1, SECONDS)).isEqualTo("bar");
+        assertThat(fooTask.getQueuePosition()).isEqualTo(1);
+        running.countDown();
+        assertThat(fooTask.get(1, SECONDS)).isEqualTo("foo");
+    }
+
+    @Test
+    public void test_interactive_tasks_are_not_counted_in_user_quota() throws Exception {
+        taskManager = taskManager("2", "1");
+        CountDownLatch running = new CountDownLatch(1);
+        ApiKeyRepository apiKeyRepository = mock(ApiKeyRepository.class);
+        when(apiKeyRepository.get(any(User.class))).thenAnswer(invocation -> { running.await(); return null; });
+        taskManager.startTask(new GetApiKeyTask(apiKeyRepository, new User("foo")));
+
+        TaskManager.MonitorableFutureTask<String> fooTask = taskManager.startTask(new UserCallable("foo", new CountDownLatch(0)));
+
+        assertThat(fooTask.get(1, SECONDS)).isEqualTo("foo");
+        running.countDown();
+    }
+
+    @Test
+    public void test_user_with_fewest_running_tasks_first() throws Exception {
+        taskManager = taskManager("2", "0");
+        CountDownLatch foo1Running = new CountDownLatch(1);
+        CountDownLatch othersRunning = new CountDownLatch(1);
+        TaskManager.MonitorableFutureTask<String> foo1 = taskManager.startTask(new UserCallable("foo", foo1Running));
+        taskManager.startTask(new UserCallable("foo", othersRunning));
+        TaskManager.MonitorableFutureTask<String> foo3 = taskManager.startTask(new UserCallable("foo", othersRunning));
+        TaskManager.MonitorableFutureTask<String> bar = taskManager.startTask(new UserCallable("bar", othersRunning));
+        assertThat(foo3.getQueuePosition()).isEqualTo(1);
+        assertThat(bar.getQueuePosition()).isEqualTo(2);
+
+        foo1Running.countDown();
+        foo1.get(1, SECONDS);
+        Thread.sleep(100);
+
+        assertThat(bar.getQueuePosition()).isEqualTo(0);
+        assertThat(foo3.getQueuePosition()).isEqualTo(1);
+        othersRunning.countDown();
+    }
+
+    @Test
+    public void test_stop_queued_task() throws Exception {
+        taskManager = taskManager("1", "0");
+        CountDownLatch running = new CountDownLatch(1);
+        taskManager.startTask(new UserCallable("foo", running));
+        TaskManager.MonitorableFutureTask<String> t2 = taskManager.startTask(() -> "task 2");
+        TaskManager.MonitorableFutureTask<String> t3 = taskManager.startTask(() -> "task 3");
+
+        taskManager.stopTask(t2.toString());
+
+        assertThat(t2.isCancelled()).isTrue();
+        assertThat(t2.getQueuePosition()).isEqualTo(0);
+        assertThat(t3.getQueuePosition()).isEqualTo(1);
+        running.countDown();
+        assertThat(t3.get(1, SECONDS)).isEqualTo("task 3");
+    }
+
+    @Test
+    public void test_progress_is_read_once_per_interval() throws Exception {
+        AtomicInteger nbReads = new AtomicInteger();
+        CountDownLatch running = new CountDownLatch(1);
+        TaskManager.MonitorableFutureTask<String> task = taskManager.startTask(new MonitorableCallable(running, () -> {
+            nbReads.incrementAndGet();
+            return 0.5;
+        }));
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(task.getProgressRate()).isEqualTo(0.5);
+        }
+        assertThat(nbReads.get()).isEqualTo(1);
+        running.countDown();
+    }
+
+    @Test
+    public void test_throughput() throws Exception {
+        taskManager.shutdownNow();
+        taskManager = new TaskManager(new PropertiesProvider(new HashMap<String, String>() {{
+            put("taskProgressIntervalMillis", "10");
+        }}));
+        AtomicInteger nbReads = new AtomicInteger();
+        CountDownLatch running = new CountDownLatch(1);
+        TaskManager.MonitorableFutureTask<String> task = taskManager.startTask(new MonitorableCallable(running, () -> nbReads.incrementAndGet() * 0.1));
+
+        assertThat(task.getThroughput()).isEqualTo(0.0);
+        Thread.sleep(100);
+        assertThat(task.getThroughput()).isGreaterThan(0.0);
+        assertThat(task.getProgressRate()).isEqualTo(0.2, delta(0.001));
+        running.countDown();
+    }
+
     @After
     public void tearDown() { taskManager.shutdownNow();}
+
+    private TaskManager taskManager(String parallelism, String userQuota) {
+        taskManager.shutdownNow();
+        return new TaskManager(new PropertiesProvider(new HashMap<String, String>() {{
+            put("parallelism", parallelism);
+            put("taskUserQuota", userQuota);
+        }}));
+    }
+
+    private static class MonitorableCallable implements Callable<String>, Monitorable {
+        private final CountDownLatch running;
+        private final DoubleSupplier progress;
+
+        MonitorableCallable(CountDownLatch running, DoubleSupplier progress) {
+            this.running = running;
+            this.progress = progress;
+        }
+
+        @Override
+        public String call() throws Exception {
+            running.await();
+            return "done";
+        }
+
+        @Override
+        public double getProgressRate() { return progress.getAsDouble();}
+    }
+
+    private static class UserCallable implements Callable<String>, UserTask {
+        private final String userId;
+        private final CountDownLatch running;
+
+        UserCallable(String userId, CountDownLatch running) {
+            this.userId = userId;
+            this.running = running;
+        }
+
+        @Override
+        public String call() throws Exception {
+            running.await();
+            return userId;
+        }
+
+        @Override
+        public User getUser() { return new User(userId);}
+    }
 }
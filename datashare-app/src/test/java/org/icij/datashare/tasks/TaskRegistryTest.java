@@ -0,0 +1,384 @@
+package org.icij.datashare.tasks;
+
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.extension.PipelineRegistry;
+import org.icij.datashare.nlp.EmailPipeline;
+import org.icij.datashare.nlp.NlpApp;
+import org.icij.datashare.text.nlp.Pipeline;
+import org.icij.datashare.user.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.MapAssert.entry;
+import static org.mockito.ArgumentCaptor.forClass;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class TaskRegistryTest {
+    @Mock TaskFactory taskFactory;
+    @Mock TaskRepository repository;
+    @Mock IndexTask indexTask;
+    private final PropertiesProvider propertiesProvider = new PropertiesProvider(new HashMap<String, String>() {{
+        put("nodeId", "node1");
+        put("taskHeartbeatIntervalMillis", "0");
+    }});
+    private final TaskManager taskManager = new TaskManager(new PropertiesProvider());
+    private final PipelineRegistry pipelineRegistry = new PipelineRegistry(new PropertiesProvider());
+
+    @Test
+    public void test_start_index_task_saves_its_definition() {
+        TaskRegistry registry = new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository);
+        Properties properties = new Properties() {{ setProperty("parallelism", "2"); }};
+
+        TaskManager.MonitorableFutureTask<Long> task = registry.startIndexTask(User.local(), "extract:queue", properties);
+
+        ArgumentCaptor<TaskDefinition> definition = forClass(TaskDefinition.class);
+        verify(repository).save(definition.capture());
+        assertThat(definition.getValue().id).isEqualTo(task.toString());
+        assertThat(definition.getValue().type).isEqualTo(TaskDefinition.Type.INDEX);
+        assertThat(definition.getValue().user).isEqualTo(User.local());
+        assertThat(definition.getValue().state).isEqualTo(TaskDefinition.State.RUNNING);
+        assertThat(definition.getValue().nodeId).isEqualTo("node1");
+        assertThat(definition.getValue().properties).includes(entry("parallelism", "2"), entry("queueName", "extract:queue"));
+    }
+
+    @Test
+    public void test_default_node_id_is_the_process() {
+        TaskRegistry registry = new TaskRegistry(new PropertiesProvider(new HashMap<String, String>() {{
+            put("taskHeartbeatIntervalMillis", "0");
+        }}), taskManager, taskFactory, pipelineRegistry, repository);
+
+        assertThat(registry.getNodeId()).isEqualTo(ManagementFactory.getRuntimeMXBean().getName());
+    }
+
+    @Test
+    public void test_index_task_done() {
+        TaskRegistry registry = new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository);
+
+        TaskManager.MonitorableFutureTask<Long> task = registry.startIndexTask(User.local(), "extract:queue", new Properties());
+
+        verify(repository, timeout(1000)).setState(task.toString(), TaskDefinition.State.DONE);
+    }
+
+    @Test
+    public void test_done_task_is_not_resumed_by_a_heartbeat_before_its_state_is_saved() throws Exception {
+        TaskRegistry[] registry = new TaskRegistry[1];
+        List<TaskDefinition> unfinished = new ArrayList<>();
+        CountDownLatch saved = new CountDownLatch(1);
+        when(repository.getUnfinished()).thenAnswer(invocation -> new ArrayList<>(unfinished));
+        when(repository.setState(anyString(), eq(TaskDefinition.State.DONE))).thenAnswer(invocation -> {
+            unfinished.add(new TaskDefinition((String) invocation.getArguments()[0], TaskDefinition.Type.INDEX, User.local(),
+                    new HashMap<String, String>() {{ put("queueName", "extract:queue"); }}, TaskDefinition.State.RUNNING,
+                    null, "node1", new Date(), 0.5));
+            registry[0].heartbeat();
+            saved.countDown();
+            return true;
+        });
+        registry[0] = new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository);
+
+        registry[0].startIndexTask(User.local(), "extract:queue", new Properties());
+
+        assertThat(saved.await(1, SECONDS)).isTrue();
+        verify(taskFactory, times(1)).createIndexTask(any(), any(), any());
+    }
+
+    @Test
+    public void test_index_task_in_error() throws Exception {
+        when(indexTask.call()).thenThrow(new IllegalStateException("boom"));
+        TaskRegistry registry = new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository);
+
+        TaskManager.MonitorableFutureTask<Long> task = registry.startIndexTask(User.local(), "extract:queue", new Properties());
+
+        verify(repository, timeout(1000)).setState(task.toString(), TaskDefinition.State.ERROR);
+    }
+
+    @Test
+    public void test_stop_task_is_cancelled() throws Exception {
+        when(indexTask.call()).thenAnswer(invocation -> { Thread.sleep(10000); return 0L; });
+        TaskRegistry registry = new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository);
+        TaskManager.MonitorableFutureTask<Long> task = registry.startIndexTask(User.local(), "extract:queue", new Properties());
+
+        assertThat(registry.stopTask(task.toString())).isTrue();
+
+        verify(repository).setState(task.toString(), TaskDefinition.State.CANCELLED);
+        verify(repository, never()).setState(task.toString(), TaskDefinition.State.ERROR);
+    }
+
+    @Test
+    public void test_task_interrupted_by_shutdown_stays_running() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        when(indexTask.call()).thenAnswer(invocation -> {
+            started.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                // like the tasks returning when they are interrupted
+            }
+            return 0L;
+        });
+        TaskRegistry registry = new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository);
+        TaskManager.MonitorableFutureTask<Long> task = registry.startIndexTask(User.local(), "extract:queue", new Properties());
+        started.await(1, SECONDS);
+
+        taskManager.shutdownNow();
+
+        assertThat(task.get(1, SECONDS)).isEqualTo(0L);
+        verify(repository, after(200).never()).setState(eq(task.toString()), any(TaskDefinition.State.class));
+    }
+
+    @Test
+    public void test_stop_task_of_another_node() {
+        when(repository.get("remoteTaskId")).thenReturn(new TaskDefinition("remoteTaskId", TaskDefinition.Type.INDEX,
+                User.local(), new HashMap<>(), TaskDefinition.State.RUNNING, null, "node2", null, 0.5));
+        when(repository.setState("remoteTaskId", TaskDefinition.State.CANCELLED)).thenReturn(true);
+        TaskRegistry registry = new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository);
+
+        assertThat(registry.stopTask("remoteTaskId")).isTrue();
+        assertThat(registry.stopTask("unknownTaskId")).isFalse();
+
+        verify(repository).setState("remoteTaskId", TaskDefinition.State.CANCELLED);
+    }
+
+    @Test
+    public void test_remote_tasks_are_the_running_tasks_of_the_other_nodes() {
+        TaskRegistry registry = new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository);
+        TaskManager.MonitorableFutureTask<Long> localTask = registry.startIndexTask(User.local(), "extract:queue", new Properties());
+        TaskDefinition remoteTask = new TaskDefinition("remoteTaskId", TaskDefinition.Type.INDEX, User.local(),
+                new HashMap<>(), TaskDefinition.State.RUNNING, null, "node2", null, 0.5);
+        when(repository.get(User.local())).thenReturn(asList(
+                new TaskDefinition(localTask.toString(), TaskDefinition.Type.INDEX, User.local(), new Properties(), "node1"),
+                remoteTask,
+                new TaskDefinition("doneTaskId", TaskDefinition.Type.NLP, User.local(), new HashMap<>(), TaskDefinition.State.DONE, null)));
+
+        assertThat(registry.getRemoteTasks(User.local())).containsExactly(remoteTask);
+    }
+
+    @Test
+    public void test_clean_finished_tasks_removes_the_definitions_not_running_of_the_user() {
+        TaskRegistry registry = new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository);
+        TaskDefinition remoteTask = new TaskDefinition("remoteTaskId", TaskDefinition.Type.INDEX, User.local(),
+                new HashMap<>(), TaskDefinition.State.RUNNING, null, "node2", null, 0.5);
+        TaskDefinition errorTask = new TaskDefinition("errorTaskId", TaskDefinition.Type.NLP, User.local(), new HashMap<>(), TaskDefinition.State.ERROR, null);
+        TaskDefinition doneTask = new TaskDefinition("doneTaskId", TaskDefinition.Type.INDEX, User.local(), new HashMap<>(), TaskDefinition.State.DONE, null);
+        when(repository.get(User.local())).thenReturn(asList(remoteTask, errorTask, doneTask));
+
+        assertThat(registry.cleanFinishedTasks(User.local())).containsExactly(errorTask, doneTask);
+
+        verify(repository).delete("errorTaskId");
+        verify(repository).delete("doneTaskId");
+        verify(repository, never()).delete("remoteTaskId");
+    }
+
+    @Test
+    public void test_heartbeat_updates_the_progress_of_the_running_tasks() throws Exception {
+        when(indexTask.call()).thenAnswer(invocation -> { Thread.sleep(10000); return 0L; });
+        TaskRegistry registry = new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository);
+        TaskManager.MonitorableFutureTask<Long> task = registry.startIndexTask(User.local(), "extract:queue", new Properties());
+        when(repository.heartbeat(eq(task.toString()), eq("node1"), anyDouble())).thenReturn(true);
+
+        registry.heartbeat();
+
+        verify(repository).heartbeat(eq(task.toString()), eq("node1"), anyDouble());
+        assertThat(task.isCancelled()).isFalse();
+    }
+
+    @Test
+    public void test_heartbeat_stops_the_tasks_stopped_from_another_node() throws Exception {
+        when(indexTask.call()).thenAnswer(invocation -> { Thread.sleep(10000); return 0L; });
+        TaskRegistry registry = new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository);
+        TaskManager.MonitorableFutureTask<Long> task = registry.startIndexTask(User.local(), "extract:queue", new Properties());
+        when(repository.heartbeat(eq(task.toString()), eq("node1"), anyDouble())).thenReturn(false);
+
+        registry.heartbeat();
+
+        assertThat(task.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void test_heartbeat_resumes_the_tasks_of_a_dead_node() {
+        TaskRegistry registry = new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository);
+        when(repository.getUnfinished()).thenReturn(singletonList(new TaskDefinition("orphanTaskId", TaskDefinition.Type.INDEX,
+                User.local(), new HashMap<String, String>() {{ put("queueName", "extract:queue"); }}, TaskDefinition.State.RUNNING,
+                null, "node2", new Date(0), 0.5)));
+        when(repository.claim(eq("orphanTaskId"), eq("node1"), any(Date.class))).thenReturn(true);
+
+        registry.heartbeat();
+
+        verify(taskFactory).createIndexTask(eq(User.local()), eq("extract:queue"), any(Properties.class));
+        verify(repository).delete("orphanTaskId");
+    }
+
+    @Test
+    public void test_task_claimed_by_another_node_is_not_resumed() {
+        when(repository.getUnfinished()).thenReturn(singletonList(new TaskDefinition("orphanTaskId", TaskDefinition.Type.INDEX,
+                User.local(), new HashMap<String, String>() {{ put("queueName", "extract:queue"); }}, TaskDefinition.State.RUNNING,
+                null, "node2", new Date(0), 0.5)));
+        when(repository.claim(eq("orphanTaskId"), eq("node1"), any(Date.class))).thenReturn(false);
+
+        new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository).heartbeat();
+
+        verify(taskFactory, never()).createIndexTask(any(), any(), any());
+        verify(repository, never()).delete(anyString());
+    }
+
+    @Test
+    public void test_unfinished_tasks_are_not_resumed_in_the_constructor() {
+        when(repository.getUnfinished()).thenReturn(singletonList(new TaskDefinition("oldTaskId", TaskDefinition.Type.INDEX,
+                User.local(), new HashMap<String, String>() {{ put("queueName", "extract:queue:foo"); }}, TaskDefinition.State.RUNNING, null)));
+
+        new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository);
+
+        verify(repository, never()).getUnfinished();
+    }
+
+    @Test
+    public void test_unfinished_tasks_are_resumed_at_the_first_heartbeat() {
+        when(repository.getUnfinished()).thenReturn(singletonList(new TaskDefinition("oldTaskId", TaskDefinition.Type.INDEX,
+                User.local(), new HashMap<String, String>() {{ put("queueName", "extract:queue:foo"); }}, TaskDefinition.State.RUNNING, null)));
+
+        new TaskRegistry(new PropertiesProvider(new HashMap<String, String>() {{
+            put("nodeId", "node1");
+            put("taskHeartbeatIntervalMillis", "60000");
+        }}), taskManager, taskFactory, pipelineRegistry, repository);
+
+        verify(taskFactory, timeout(1000)).createIndexTask(eq(User.local()), eq("extract:queue:foo"), any(Properties.class));
+    }
+
+    @Test
+    public void test_unfinished_index_task_is_resumed() {
+        when(repository.getUnfinished()).thenReturn(singletonList(new TaskDefinition("oldTaskId", TaskDefinition.Type.INDEX,
+                User.local(), new HashMap<String, String>() {{
+                    put("queueName", "extract:queue:foo");
+                    put("parallelism", "2");
+                }}, TaskDefinition.State.RUNNING, null)));
+
+        new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository).resumeUnfinishedTasks();
+
+        verify(taskFactory).createIndexTask(User.local(), "extract:queue:foo", new Properties() {{
+            setProperty("queueName", "extract:queue:foo");
+            setProperty("parallelism", "2");
+            setProperty("resume", "true");
+        }});
+        verify(repository).save(any(TaskDefinition.class));
+        verify(repository).delete("oldTaskId");
+    }
+
+    @Test
+    public void test_unfinished_nlp_task_is_resumed() {
+        when(repository.getUnfinished()).thenReturn(singletonList(new TaskDefinition("oldTaskId", TaskDefinition.Type.NLP,
+                User.local(), new HashMap<String, String>() {{ put("nlpPipelines", "EMAIL"); }}, TaskDefinition.State.RUNNING, null)));
+
+        new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository).resumeUnfinishedTasks();
+
+        verify(taskFactory).createNlpTask(eq(User.local()), any(EmailPipeline.class), any(Properties.class), any(Runnable.class));
+        verify(taskFactory, timeout(1000)).createResumeNlpTask(User.local(), singleton(Pipeline.Type.EMAIL));
+        verify(repository, timeout(1000)).delete("oldTaskId");
+    }
+
+    @Test
+    public void test_nlp_task_definition_is_kept_until_the_nlp_app_listens() {
+        CountDownLatch listen = new CountDownLatch(1);
+        when(taskFactory.createNlpTask(any(), any(), any(), any())).thenAnswer(invocation -> {
+            NlpApp nlpApp = mock(NlpApp.class);
+            doAnswer(i -> {
+                listen.await();
+                ((Runnable) invocation.getArguments()[3]).run();
+                return null;
+            }).when(nlpApp).run();
+            return nlpApp;
+        });
+        when(repository.getUnfinished()).thenReturn(singletonList(new TaskDefinition("oldTaskId", TaskDefinition.Type.NLP,
+                User.local(), new HashMap<String, String>() {{ put("nlpPipelines", "EMAIL"); }}, TaskDefinition.State.RUNNING, null)));
+        when(repository.heartbeat(anyString(), eq("node1"), anyDouble())).thenReturn(true);
+        TaskRegistry registry = new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository);
+
+        registry.resumeUnfinishedTasks();
+        registry.heartbeat();
+
+        verify(taskFactory, times(1)).createNlpTask(any(), any(), any(), any());
+        verify(taskFactory, never()).createResumeNlpTask(any(), any());
+        verify(repository, never()).delete("oldTaskId");
+        verify(repository).heartbeat(eq("oldTaskId"), eq("node1"), anyDouble());
+
+        listen.countDown();
+
+        verify(taskFactory, timeout(1000)).createResumeNlpTask(User.local(), singleton(Pipeline.Type.EMAIL));
+        verify(repository, timeout(1000)).delete("oldTaskId");
+    }
+
+    @Test
+    public void test_resume_nlp_task_is_started_when_the_nlp_app_listens() {
+        AtomicBoolean listening = new AtomicBoolean(false);
+        when(taskFactory.createNlpTask(any(), any(), any(), any())).thenAnswer(invocation -> nlpApp(() -> {
+            listening.set(true);
+            ((Runnable) invocation.getArguments()[3]).run();
+        }, 200));
+        AtomicBoolean listeningAtResume = new AtomicBoolean(false);
+        when(taskFactory.createResumeNlpTask(any(), any())).thenAnswer(invocation -> {
+            listeningAtResume.set(listening.get());
+            return mock(ResumeNlpTask.class);
+        });
+        when(repository.getUnfinished()).thenReturn(singletonList(new TaskDefinition("oldTaskId", TaskDefinition.Type.NLP,
+                User.local(), new HashMap<String, String>() {{ put("nlpPipelines", "EMAIL"); }}, TaskDefinition.State.RUNNING, null)));
+
+        new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository).resumeUnfinishedTasks();
+
+        verify(taskFactory, timeout(1000)).createResumeNlpTask(any(), any());
+        assertThat(listeningAtResume.get()).isTrue();
+    }
+
+    @Test
+    public void test_task_that_cannot_be_resumed_is_saved_in_error() {
+        when(repository.getUnfinished()).thenReturn(singletonList(new TaskDefinition("oldTaskId", TaskDefinition.Type.NLP,
+                User.local(), new HashMap<String, String>() {{ put("nlpPipelines", "UNKNOWN"); }}, TaskDefinition.State.RUNNING, null)));
+
+        new TaskRegistry(propertiesProvider, taskManager, taskFactory, pipelineRegistry, repository).resumeUnfinishedTasks();
+
+        verify(repository).setState("oldTaskId", TaskDefinition.State.ERROR);
+        verify(repository, never()).delete(anyString());
+    }
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        pipelineRegistry.register(EmailPipeline.class);
+        when(taskFactory.createIndexTask(any(), any(), any())).thenReturn(indexTask);
+        when(taskFactory.createNlpTask(any(), any(), any(), any())).thenAnswer(invocation -> nlpApp((Runnable) invocation.getArguments()[3], 0));
+        when(taskFactory.createResumeNlpTask(any(), any())).thenReturn(mock(ResumeNlpTask.class));
+        when(repository.claim(anyString(), anyString(), any(Date.class))).thenReturn(true);
+    }
+
+    @After
+    public void tearDown() { taskManager.shutdownNow();}
+
+    private static NlpApp nlpApp(Runnable subscribedCb, long subscriptionMillis) {
+        NlpApp nlpApp = mock(NlpApp.class);
+        doAnswer(invocation -> {
+            Thread.sleep(subscriptionMillis);
+            subscribedCb.run();
+            return null;
+        }).when(nlpApp).run();
+        return nlpApp;
+    }
+}
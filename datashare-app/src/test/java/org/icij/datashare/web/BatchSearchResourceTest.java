@@ -5,10 +5,13 @@ import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.batch.BatchSearch;
 import org.icij.datashare.batch.BatchSearchRecord;
 import org.icij.datashare.batch.BatchSearchRepository;
+import org.icij.datashare.batch.RefreshableBatchSearchRepository;
 import org.icij.datashare.batch.SearchResult;
 import org.icij.datashare.db.JooqBatchSearchRepository;
 import org.icij.datashare.function.Pair;
 import org.icij.datashare.session.LocalUserFilter;
+import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.BatchSearchPercolator;
 import org.icij.datashare.user.User;
 import org.icij.datashare.web.testhelpers.AbstractProdWebServerTest;
 import org.junit.Before;
@@ -16,6 +19,7 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
@@ -30,14 +34,18 @@ import static org.fest.assertions.Assertions.assertThat;
 import static org.icij.datashare.CollectionUtils.asSet;
 import static org.icij.datashare.text.Project.project;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.contains;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 public class BatchSearchResourceTest extends AbstractProdWebServerTest {
-    @Mock BatchSearchRepository batchSearchRepository;
+    @Mock RefreshableBatchSearchRepository batchSearchRepository;
     @Mock BlockingQueue<String> batchSearchQueue;
+    @Mock BatchSearchPercolator percolator;
+    @Mock Indexer indexer;
 
     @Test
     public void test_upload_batch_search_csv_without_name_should_send_bad_request() {
@@ -230,7 +238,7 @@ public class BatchSearchResourceTest extends AbstractProdWebServerTest {
             PropertiesProvider propertiesProvider = new PropertiesProvider(new HashMap<String, String>() {{
                 put("rootHost", "http://foo.com:12345");
             }});
-            routes.add(new BatchSearchResource(batchSearchRepository, batchSearchQueue, propertiesProvider)).
+            routes.add(new BatchSearchResource(batchSearchRepository, batchSearchQueue, percolator, indexer, propertiesProvider)).
                     filter(new LocalUserFilter(propertiesProvider));
         });
         when(batchSearchRepository.get(User.local(), "batchSearchId")).thenReturn(new BatchSearch(project("prj"), "name", "desc", asSet("q"), User.local()));
@@ -270,6 +278,8 @@ public class BatchSearchResourceTest extends AbstractProdWebServerTest {
 
     @Test
     public void test_delete_batch_search_by_id() {
+        when(batchSearchRepository.get("myid")).thenReturn(new BatchSearch(project("prj"), "name", "desc", asSet("q1"), User.local()));
+        when(batchSearchRepository.get("unknownid")).thenThrow(new JooqBatchSearchRepository.BatchNotFoundException("unknownid"));
         when(batchSearchRepository.delete(User.local(), "myid")).thenReturn(true).thenReturn(false);
 
         delete("/api/batch/search/unknownid").should().respond(404);
@@ -277,6 +287,107 @@ public class BatchSearchResourceTest extends AbstractProdWebServerTest {
         delete("/api/batch/search/myid").should().respond(404);
     }
 
+    @Test
+    public void test_refresh_batch_search() throws Exception {
+        when(batchSearchRepository.refresh(User.local(), "myid")).thenReturn(true).thenReturn(false);
+
+        post("/api/batch/search/unknownid/refresh").should().respond(404);
+        post("/api/batch/search/myid/refresh").should().respond(200);
+        post("/api/batch/search/myid/refresh").should().respond(404);
+
+        verify(batchSearchQueue).put("myid");
+        verify(batchSearchQueue, never()).put("unknownid");
+    }
+
+    @Test
+    public void test_register_standing_batch_search() throws Exception {
+        BatchSearch batchSearch = new BatchSearch(project("prj"), "name", "desc", asSet("q1", "q2"), User.local());
+        when(batchSearchRepository.get("myid")).thenReturn(batchSearch);
+        when(batchSearchRepository.get("unknownid")).thenThrow(new JooqBatchSearchRepository.BatchNotFoundException("unknownid"));
+
+        post("/api/batch/search/unknownid/standing").should().respond(404);
+        post("/api/batch/search/myid/standing").should().respond(200);
+
+        verify(percolator).register(batchSearch);
+    }
+
+    @Test
+    public void test_register_standing_batch_search_of_other_user() throws Exception {
+        when(batchSearchRepository.get("myid")).thenReturn(new BatchSearch(project("prj"), "name", "desc", asSet("q1"), new User("foo")));
+
+        post("/api/batch/search/myid/standing").should().respond(404);
+
+        verify(percolator, never()).register(any());
+    }
+
+    @Test
+    public void test_unregister_standing_batch_search() throws Exception {
+        when(batchSearchRepository.get("myid")).thenReturn(new BatchSearch(project("prj"), "name", "desc", asSet("q1"), User.local()));
+        when(percolator.unregister("myid")).thenReturn(true).thenReturn(false);
+
+        delete("/api/batch/search/myid/standing").should().respond(204);
+        delete("/api/batch/search/myid/standing").should().respond(404);
+    }
+
+    @Test
+    public void test_delete_standing_batch_search_unregisters_standing_queries() throws Exception {
+        when(batchSearchRepository.get("myid")).thenReturn(new BatchSearch(project("prj"), "name", "desc", asSet("q1"), User.local()));
+        when(batchSearchRepository.delete(User.local(), "myid")).thenReturn(true);
+        when(percolator.isRegistered("myid")).thenReturn(true);
+
+        delete("/api/batch/search/myid").should().respond(204);
+
+        verify(percolator).unregister("myid");
+    }
+
+    @Test
+    public void test_delete_batch_search_does_not_unregister_if_it_is_not_standing() throws Exception {
+        when(batchSearchRepository.get("myid")).thenReturn(new BatchSearch(project("prj"), "name", "desc", asSet("q1"), User.local()));
+        when(batchSearchRepository.delete(User.local(), "myid")).thenReturn(true);
+
+        delete("/api/batch/search/myid").should().respond(204);
+
+        verify(percolator, never()).unregister("myid");
+    }
+
+    @Test
+    public void test_delete_batch_search_if_standing_queries_cannot_be_removed() throws Exception {
+        when(batchSearchRepository.get("myid")).thenReturn(new BatchSearch(project("prj"), "name", "desc", asSet("q1"), User.local()));
+        when(batchSearchRepository.delete(User.local(), "myid")).thenReturn(true);
+        when(percolator.isRegistered("myid")).thenThrow(new IOException("es is down"));
+
+        delete("/api/batch/search/myid").should().respond(204);
+
+        verify(batchSearchRepository).delete(User.local(), "myid");
+    }
+
+    @Test
+    public void test_delete_batch_search_removes_it_from_the_documents_with_index_results() throws Exception {
+        server.configure(routes -> {
+            PropertiesProvider propertiesProvider = new PropertiesProvider(new HashMap<String, String>() {{
+                put("batchSearchIndexResults", "true");
+            }});
+            routes.add(new BatchSearchResource(batchSearchRepository, batchSearchQueue, percolator, indexer, propertiesProvider)).
+                    filter(new LocalUserFilter(propertiesProvider));
+        });
+        when(batchSearchRepository.get("myid")).thenReturn(new BatchSearch(project("prj"), "name", "desc", asSet("q1"), User.local()));
+        when(batchSearchRepository.delete(User.local(), "myid")).thenReturn(true);
+        when(indexer.executeRaw(eq("POST"), eq("prj/_update_by_query?conflicts=proceed"), any())).thenThrow(new IOException("es is down"));
+
+        delete("/api/batch/search/myid").should().respond(204);
+
+        verify(indexer).executeRaw(eq("POST"), eq("prj/_update_by_query?conflicts=proceed"), contains("\"term\":{\"batchSearches\":\"myid\"}"));
+    }
+
+    @Test
+    public void test_delete_batch_search_of_other_user() throws Exception {
+        when(batchSearchRepository.get("myid")).thenReturn(new BatchSearch(project("prj"), "name", "desc", asSet("q1"), new User("foo")));
+
+        delete("/api/batch/search/myid").should().respond(404);
+
+        verify(percolator, never()).unregister("myid");
+    }
+
     @Test
     public void test_get_queries_json() {
         when(batchSearchRepository.get(User.local(), "batchSearchId")).thenReturn(new BatchSearch(project("prj"), "name", "desc", asSet("q1", "q2"),User.local()));
@@ -286,6 +397,16 @@ public class BatchSearchResourceTest extends AbstractProdWebServerTest {
                 contain("[\"q1\",\"q2\"]");
     }
 
+    @Test
+    public void test_get_warnings() {
+        when(batchSearchRepository.get(User.local(), "batchSearchId")).thenReturn(new BatchSearch(project("prj"), "name", "desc", asSet("q1", "q2"),User.local()));
+        when(batchSearchRepository.getWarnings("batchSearchId")).thenReturn(singletonList("q1 will be truncated"));
+        get("/api/batch/search/batchSearchId/warnings").should().
+                respond(200).
+                haveType("application/json;charset=UTF-8").
+                contain("[\"q1 will be truncated\"]");
+    }
+
     @Test
     public void test_get_queries_csv() {
         when(batchSearchRepository.get(User.local(), "batchSearchId")).thenReturn(new BatchSearch(project("prj"), "name", "desc", asSet("q1", "q2"),User.local()));
@@ -318,7 +439,7 @@ public class BatchSearchResourceTest extends AbstractProdWebServerTest {
     @Before
     public void setUp() {
         initMocks(this);
-        configure(routes -> routes.add(new BatchSearchResource(batchSearchRepository, batchSearchQueue, new PropertiesProvider())).
+        configure(routes -> routes.add(new BatchSearchResource(batchSearchRepository, batchSearchQueue, percolator, indexer, new PropertiesProvider())).
                 filter(new LocalUserFilter(new PropertiesProvider())));
     }
 
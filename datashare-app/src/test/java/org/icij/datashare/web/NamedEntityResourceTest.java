@@ -4,13 +4,14 @@ import net.codestory.http.filters.basic.BasicAuthFilter;
 import org.icij.datashare.session.DatashareUser;
 import org.icij.datashare.session.LocalUserFilter;
 import org.icij.datashare.text.NamedEntity;
-import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.BulkIndexer;
 import org.icij.datashare.web.testhelpers.AbstractProdWebServerTest;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.stream.Stream;
 
 import static java.util.Collections.singletonList;
@@ -23,7 +24,7 @@ import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 public class NamedEntityResourceTest extends AbstractProdWebServerTest {
-    @Mock Indexer indexer;
+    @Mock BulkIndexer indexer;
     @Test
     public void test_get_standalone_named_entity_should_return_not_found() {
         get("/api/index/namedEntity/my_id").should().respond(404);
@@ -50,7 +51,7 @@ public class NamedEntityResourceTest extends AbstractProdWebServerTest {
     public void test_hide_named_entity_when_success() throws IOException {
         NamedEntity toBeHidden = create(PERSON, "to_update", 123, "docId", CORENLP, FRENCH);
         assertThat(toBeHidden.isHidden()).isFalse();
-        Indexer.Searcher searcher = mock(Indexer.Searcher.class);
+        BulkIndexer.FilterSearcher searcher = mock(BulkIndexer.FilterSearcher.class);
         doReturn(Stream.of(toBeHidden)).when(searcher).execute();
         doReturn(searcher).when(searcher).thatMatchesFieldValue(any(), any());
         doReturn(searcher).when(indexer).search("index", NamedEntity.class);
@@ -60,6 +61,13 @@ public class NamedEntityResourceTest extends AbstractProdWebServerTest {
         verify(indexer).bulkUpdate("index", singletonList(toBeHidden));
     }
 
+    @Test
+    public void test_count_mentions_of_a_document() throws IOException {
+        doReturn(new HashMap<NamedEntity.Category, Long>() {{ put(PERSON, 3L); }}).when(indexer).countMentions("index", "docId");
+
+        get("/api/index/namedEntities/count/docId").should().respond(200).haveType("application/json").contain("\"PERSON\":3");
+    }
+
     @Test
     public void test_hide_named_entity_when_failure() throws IOException {
         doThrow(new RuntimeException()).when(indexer).search("index", NamedEntity.class);
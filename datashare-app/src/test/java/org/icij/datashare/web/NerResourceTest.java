@@ -2,6 +2,7 @@ package org.icij.datashare.web;
 
 import net.codestory.http.convert.TypeConvert;
 import net.codestory.rest.Response;
+import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.extension.PipelineRegistry;
 import org.icij.datashare.text.Document;
 import org.icij.datashare.text.DocumentBuilder;
@@ -27,6 +28,7 @@ import static org.icij.datashare.text.Language.ENGLISH;
 import static org.icij.datashare.text.nlp.Pipeline.Type.CORENLP;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -39,7 +41,7 @@ public class NerResourceTest extends AbstractProdWebServerTest {
         initMocks(this);
         doReturn(true).when(pipeline).initialize(any());
         doReturn(pipeline).when(registry).get(any());
-        NerResource nerResource = new NerResource(registry, l -> ENGLISH);
+        NerResource nerResource = new NerResource(registry, l -> ENGLISH, new PropertiesProvider(new HashMap<String, String>() {{ put("nlpParallelism", "2");}}));
         configure(routes -> routes.add(nerResource));
     }
 
@@ -78,4 +80,31 @@ public class NerResourceTest extends AbstractProdWebServerTest {
                 entry("offset", 10)
         );
     }
+
+    @Test
+    public void test_post_ndjson_texts_streams_results() throws Exception {
+        doReturn(asList(NamedEntity.create(NamedEntity.Category.PERSON, "John Doe", 0, "1", CORENLP, ENGLISH))).when(pipeline).process(any());
+
+        Response response = post("/api/ner/findNames/CORENLP/stream",
+                "{\"id\": \"1\", \"text\": \"John Doe is here.\"}\n{\"text\": \"John Doe is there.\", \"language\": \"ENGLISH\"}\n").response();
+
+        assertThat(response.code()).isEqualTo(200);
+        assertThat(response.contentType()).contains("application/x-ndjson");
+        assertThat(response.content().split("\n")).hasSize(2);
+        assertThat(response.content()).contains("\"id\":\"1\"");
+        assertThat(response.content()).contains("\"id\":\"2\"");
+        assertThat(response.content()).contains("\"mention\":\"John Doe\"");
+        verify(pipeline, times(1)).initialize(ENGLISH);
+        verify(pipeline, times(2)).process(any());
+        verify(pipeline, times(1)).terminate(ENGLISH);
+    }
+
+    @Test
+    public void test_post_ndjson_invalid_text_streams_error() throws Exception {
+        Response response = post("/api/ner/findNames/CORENLP/stream", "not json\n").response();
+
+        assertThat(response.code()).isEqualTo(200);
+        assertThat(response.content()).contains("\"id\":\"1\"");
+        assertThat(response.content()).contains("\"error\":");
+    }
 }
@@ -3,6 +3,7 @@ package org.icij.datashare.web;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.Repository;
 import org.icij.datashare.com.DataBus;
+import org.icij.datashare.nlp.NlpCache;
 import org.icij.datashare.tasks.DocumentCollectionFactory;
 import org.icij.datashare.test.DatashareTimeRule;
 import org.icij.datashare.text.indexing.Indexer;
@@ -30,12 +31,14 @@ public class StatusResourceTest extends AbstractProdWebServerTest {
     @Mock DocumentCollectionFactory documentCollectionFactory;
     @Mock Indexer indexer;
     @Mock DocumentQueue queue;
+    @Mock NlpCache nlpCache;
 
     @Before
     public void setUp() {
         initMocks(this);
         when(documentCollectionFactory.createQueue(any(),eq(new PropertiesProvider().get(PropertiesProvider.QUEUE_NAME_OPTION).orElse("extract:queue")))).thenReturn(mock(DocumentQueue.class));
-        configure(routes -> routes.add(new StatusResource(new PropertiesProvider(),repository,indexer,dataBus,documentCollectionFactory)));
+        when(nlpCache.getStats()).thenReturn(new NlpCache.Stats(0, 0, 0));
+        configure(routes -> routes.add(new StatusResource(new PropertiesProvider(),repository,indexer,dataBus,nlpCache,documentCollectionFactory)));
     }
 
     @Test
@@ -73,7 +76,7 @@ public class StatusResourceTest extends AbstractProdWebServerTest {
     public void test_get_status_with_open_metrics_format_with_platform_name() {
         configure(routes -> routes.add(new StatusResource(new PropertiesProvider(new HashMap<String, String>() {{
             put("platform", "platform");
-        }}),repository,indexer,dataBus,documentCollectionFactory)));
+        }}),repository,indexer,dataBus,nlpCache,documentCollectionFactory)));
         when(dataBus.getHealth()).thenReturn(true);
         get("/api/status?format=openmetrics").should().respond(200).haveType("text/plain;version=0.0.4").contain("" +
                 "# HELP datashare The datashare resources status\n" +
@@ -85,6 +88,23 @@ public class StatusResourceTest extends AbstractProdWebServerTest {
                 "datashare{environment=\"platform\",resource=\"document_queue_size\"} 0 1593531060000");
     }
 
+    @Test
+    public void test_get_nlp_models_counts() {
+        get("/api/status").should().respond(200).
+                contain("\"nlp_model_loads\":").
+                contain("\"nlp_model_hits\":").
+                contain("\"nlp_model_evictions\":");
+    }
+
+    @Test
+    public void test_get_nlp_cache_counts() {
+        when(nlpCache.getStats()).thenReturn(new NlpCache.Stats(3, 1, 0));
+        get("/api/status").should().respond(200).
+                contain("\"nlp_cache_hits\":3").
+                contain("\"nlp_cache_misses\":1").
+                contain("\"nlp_cache_evictions\":0");
+    }
+
     @Test
     public void test_get_queue_status() {
         get("/api/status").should().respond(200).
@@ -97,7 +117,7 @@ public class StatusResourceTest extends AbstractProdWebServerTest {
         DocumentQueue mockQueue = mock(DocumentQueue.class);
         when(mockQueue.size()).thenThrow(new RuntimeException("test"));
         when(documentCollectionFactory.createQueue(any(),eq(new PropertiesProvider().get(PropertiesProvider.QUEUE_NAME_OPTION).orElse("extract:queue")))).thenReturn(mockQueue);
-        configure(routes -> routes.add(new StatusResource(new PropertiesProvider(),repository,indexer,dataBus,documentCollectionFactory)));
+        configure(routes -> routes.add(new StatusResource(new PropertiesProvider(),repository,indexer,dataBus,nlpCache,documentCollectionFactory)));
         get("/api/status").should().respond(200).contain("\"document_queue_status\":false");
     }
 }
@@ -1,5 +1,6 @@
 package org.icij.datashare.web;
 
+import net.codestory.http.Context;
 import net.codestory.http.filters.Filter;
 import net.codestory.http.routes.Routes;
 import net.codestory.rest.RestAssert;
@@ -23,12 +24,15 @@ import org.mockito.ArgumentCaptor;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
 
 import static java.lang.String.format;
 import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.toList;
 import static org.fest.assertions.Assertions.assertThat;
@@ -40,6 +44,7 @@ import static org.mockito.Mockito.*;
 public class TaskResourceTest extends AbstractProdWebServerTest {
     private static final TaskFactory taskFactory = mock(TaskFactory.class);
     private static final TaskManager taskManager= new TaskManager(new PropertiesProvider());
+    private static final TaskRepository taskRepository = mock(TaskRepository.class);
 
     @Before
     public void setUp() {
@@ -52,6 +57,7 @@ public class TaskResourceTest extends AbstractProdWebServerTest {
                         bind(Indexer.class).toInstance(mock(Indexer.class));
                         bind(PipelineRegistry.class).toInstance(pipelineRegistry);
                         bind(TaskManager.class).toInstance(taskManager);
+                        bind(TaskRepository.class).toInstance(taskRepository);
                         bind(Filter.class).to(LocalUserFilter.class).asEagerSingleton();
                         bind(PropertiesProvider.class).toInstance(new PropertiesProvider(new HashMap<String, String>() {{
                             put("dataDir", "/default/data/dir");
@@ -61,6 +67,7 @@ public class TaskResourceTest extends AbstractProdWebServerTest {
                     @Override protected Routes addModeConfiguration(Routes routes) {
                         return routes.add(TaskResource.class).filter(LocalUserFilter.class);}
                 }.createWebConfiguration());
+        reset(taskRepository);
         init(taskFactory);
     }
 
@@ -124,6 +131,24 @@ public class TaskResourceTest extends AbstractProdWebServerTest {
         verify(taskFactory).createBatchSearchRunner(local());
     }
 
+    @Test
+    public void test_running_batch_search_task_has_its_throttle() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        BatchSearchRunner batchSearchRunner = mock(BatchSearchRunner.class);
+        BatchSearchThrottle throttle = mock(BatchSearchThrottle.class);
+        when(throttle.getState()).thenReturn(new HashMap<String, Object>() {{ put("rate", 2.0); }});
+        when(batchSearchRunner.getThrottle()).thenReturn(throttle);
+        when(batchSearchRunner.getUser()).thenReturn(local());
+        when(batchSearchRunner.call()).thenAnswer(a -> { started.countDown(); done.await(); return 0; });
+        when(taskFactory.createBatchSearchRunner(any())).thenReturn(batchSearchRunner);
+        post("/api/task/batchSearch", "{}").should().respond(200);
+        started.await(1, SECONDS);
+
+        get("/api/task/all").should().respond(200).contain("\"throttle\":{\"rate\":2.0}");
+        done.countDown();
+    }
+
     @Test
     public void test_index_and_scan_directory_with_options() {
         String path = getClass().getResource("/docs/").getPath();
@@ -239,6 +264,75 @@ public class TaskResourceTest extends AbstractProdWebServerTest {
         assertThat(taskManager.getTasks()).isEmpty();
     }
 
+    @Test
+    public void test_task_updates_are_sent_when_tasks_change() {
+        TaskManager.MonitorableFutureTask<String> dummyTask = taskManager.startTask(() -> {
+            Thread.sleep(10000);
+            return "ok";
+        });
+        PipelineRegistry pipelineRegistry = new PipelineRegistry(new PropertiesProvider());
+        TaskRegistry taskRegistry = new TaskRegistry(new PropertiesProvider(), taskManager, taskFactory, pipelineRegistry, taskRepository);
+        TaskResource.TaskUpdates updates = new TaskResource(taskFactory, taskManager, taskRegistry, new PropertiesProvider(),
+                pipelineRegistry).new TaskUpdates(User.local());
+
+        List<TaskResource.TaskResponse> running = updates.next();
+        taskManager.stopTask(dummyTask.toString());
+        List<TaskResource.TaskResponse> cancelled = updates.next();
+
+        assertThat(running).hasSize(1);
+        assertThat(cancelled).containsOnly(new TaskResource.TaskResponse(dummyTask));
+        assertThat(cancelled).isNotEqualTo(running);
+    }
+
+    @Test
+    public void test_remote_tasks_are_shared_by_the_streams_during_the_progress_interval() throws Exception {
+        TaskManager taskManager = new TaskManager(new PropertiesProvider(new HashMap<String, String>() {{
+            put("taskProgressIntervalMillis", "200");
+        }}));
+        PipelineRegistry pipelineRegistry = new PipelineRegistry(new PropertiesProvider());
+        TaskRegistry taskRegistry = new TaskRegistry(new PropertiesProvider(), taskManager, taskFactory, pipelineRegistry, taskRepository);
+        TaskResource taskResource = new TaskResource(taskFactory, taskManager, taskRegistry, new PropertiesProvider(), pipelineRegistry);
+
+        taskResource.new TaskUpdates(User.local()).next();
+        taskResource.new TaskUpdates(User.local()).next();
+        verify(taskRepository, times(1)).get(User.local());
+
+        Thread.sleep(300);
+        taskResource.new TaskUpdates(User.local()).next();
+        verify(taskRepository, times(2)).get(User.local());
+    }
+
+    @Test
+    public void test_task_updates_end_after_the_stream_duration() throws Exception {
+        PipelineRegistry pipelineRegistry = new PipelineRegistry(new PropertiesProvider());
+        TaskRegistry taskRegistry = new TaskRegistry(new PropertiesProvider(), taskManager, taskFactory, pipelineRegistry, taskRepository);
+        TaskResource.TaskUpdates updates = new TaskResource(taskFactory, taskManager, taskRegistry, new PropertiesProvider(new HashMap<String, String>() {{
+            put("taskProgressStreamDurationMillis", "200");
+        }}), pipelineRegistry).new TaskUpdates(User.local());
+
+        assertThat(updates.hasNext()).isTrue();
+        updates.next();
+        Thread.sleep(300);
+        assertThat(updates.hasNext()).isFalse();
+    }
+
+    @Test
+    public void test_task_progress_streams_are_limited() throws Exception {
+        PipelineRegistry pipelineRegistry = new PipelineRegistry(new PropertiesProvider());
+        TaskRegistry taskRegistry = new TaskRegistry(new PropertiesProvider(), taskManager, taskFactory, pipelineRegistry, taskRepository);
+        TaskResource taskResource = new TaskResource(taskFactory, taskManager, taskRegistry, new PropertiesProvider(new HashMap<String, String>() {{
+            put("taskProgressStreamDurationMillis", "200");
+            put("taskProgressMaxStreams", "1");
+        }}), pipelineRegistry);
+        Context context = mock(Context.class);
+        when(context.currentUser()).thenReturn(local());
+
+        assertThat(taskResource.tasksProgress(context).code()).isEqualTo(200);
+        assertThat(taskResource.tasksProgress(context).code()).isEqualTo(503);
+        Thread.sleep(300);
+        assertThat(taskResource.tasksProgress(context).code()).isEqualTo(200);
+    }
+
     @Test
     public void test_stop_task() {
         TaskManager.MonitorableFutureTask<String> dummyTask = taskManager.startTask(() -> {
@@ -256,6 +350,25 @@ public class TaskResourceTest extends AbstractProdWebServerTest {
         put("/api/task/stop/foobar").should().respond(404);
     }
 
+    @Test
+    public void test_stop_task_of_another_node() {
+        when(taskRepository.get("remoteTask")).thenReturn(remoteTask("remoteTask"));
+        when(taskRepository.setState("remoteTask", TaskDefinition.State.CANCELLED)).thenReturn(true);
+
+        put("/api/task/stop/remoteTask").should().respond(200).contain("true");
+
+        verify(taskRepository).setState("remoteTask", TaskDefinition.State.CANCELLED);
+    }
+
+    @Test
+    public void test_get_tasks_of_other_nodes() {
+        when(taskRepository.get(local())).thenReturn(singletonList(remoteTask("remoteTask")));
+        when(taskRepository.get("remoteTask")).thenReturn(remoteTask("remoteTask"));
+
+        get("/api/task/all").should().respond(200).contain("\"name\":\"remoteTask\"").contain("\"node\":\"node2\"");
+        get("/api/task/remoteTask").should().respond(200).contain("\"node\":\"node2\"");
+    }
+
     @Test
     public void test_stop_all() {
         TaskManager.MonitorableFutureTask<String> t1 = taskManager.startTask(() -> {
@@ -282,6 +395,11 @@ public class TaskResourceTest extends AbstractProdWebServerTest {
         put("/api/task/stopAll").should().respond(200).contain("{}");
     }
 
+    private static TaskDefinition remoteTask(String id) {
+        return new TaskDefinition(id, TaskDefinition.Type.INDEX, local(), new HashMap<>(), TaskDefinition.State.RUNNING,
+                new Date(), "node2", new Date(), 0.5);
+    }
+
     private void init(TaskFactory taskFactory) {
         reset(taskFactory);
         when(taskFactory.createIndexTask(any(), any(), any())).thenReturn(mock(IndexTask.class));
@@ -10,6 +10,7 @@ import org.icij.datashare.mode.CommonMode;
 import org.icij.datashare.session.DatashareUser;
 import org.icij.datashare.tasks.TaskFactory;
 import org.icij.datashare.tasks.TaskManager;
+import org.icij.datashare.tasks.TaskRepository;
 import org.icij.datashare.text.indexing.Indexer;
 import org.icij.datashare.user.User;
 import org.icij.datashare.user.UserTask;
@@ -93,6 +94,7 @@ public class UserTaskResourceTest extends AbstractProdWebServerTest {
                 bind(Filter.class).toInstance(new BasicAuthFilter("/", "ds", DatashareUser.users(userLogins)));
                 bind(TaskManager.class).toInstance(taskManager);
                 bind(TaskFactory.class).toInstance(mock(TaskFactory.class));
+                bind(TaskRepository.class).toInstance(mock(TaskRepository.class));
                 bind(Indexer.class).toInstance(mock(Indexer.class));
             }
             @Override protected Routes addModeConfiguration(Routes routes) { return routes.add(TaskResource.class).filter(Filter.class);}
@@ -45,13 +45,39 @@ public class DatashareCli {
         DatashareCliOptions.elasticsearchDataPath(parser);
         DatashareCliOptions.reportName(parser);
         DatashareCliOptions.parallelism(parser);
+        DatashareCliOptions.taskClassParallelism(parser);
+        DatashareCliOptions.taskUserQuota(parser);
+        DatashareCliOptions.taskProgressInterval(parser);
+        DatashareCliOptions.taskProgressStreamDuration(parser);
+        DatashareCliOptions.taskProgressMaxStreams(parser);
+        DatashareCliOptions.taskHeartbeatInterval(parser);
+        DatashareCliOptions.nodeId(parser);
         DatashareCliOptions.fileParserParallelism(parser);
         DatashareCliOptions.nlpParallelism(parser);
+        DatashareCliOptions.nlpBatchSize(parser);
+        DatashareCliOptions.nlpBatchMaxWait(parser);
+        DatashareCliOptions.nlpStreamPrefetch(parser);
+        DatashareCliOptions.nlpStreamClaimIdle(parser);
+        DatashareCliOptions.nlpModelsMaxMemory(parser);
+        DatashareCliOptions.nlpModelsCacheDir(parser);
+        DatashareCliOptions.nlpChunkSize(parser);
+        DatashareCliOptions.nlpChunkOverlap(parser);
+        DatashareCliOptions.aggregateNamedEntities(parser);
+        DatashareCliOptions.nlpCacheMaxSize(parser);
+        DatashareCliOptions.nlpLanguageRouting(parser);
+        DatashareCliOptions.nlpMaxParallelism(parser);
         DatashareCliOptions.followSymlinks(parser);
         DatashareCliOptions.enableBrowserOpenLink(parser);
         DatashareCliOptions.batchSearchMaxTime(parser);
         DatashareCliOptions.batchSearchThrottle(parser);
+        DatashareCliOptions.batchSearchAdaptiveThrottle(parser);
+        DatashareCliOptions.batchSearchLatencyTarget(parser);
+        DatashareCliOptions.batchSearchMaxThrottle(parser);
+        DatashareCliOptions.batchSearchMaxSearchQueue(parser);
+        DatashareCliOptions.batchSearchIndexResults(parser);
+        DatashareCliOptions.batchSearchWatermarkMargin(parser);
         DatashareCliOptions.batchSearchQueueType(parser);
+        DatashareCliOptions.batchQueueLease(parser);
 
         DatashareCliOptions.clusterName(parser);
         DatashareCliOptions.createIndex(parser);
@@ -16,6 +16,12 @@ public final class DatashareCliOptions {
     public static final char ARG_VALS_SEP = ',';
     private static final Integer DEFAULT_PARSER_PARALLELISM = 1;
     private static final Integer DEFAULT_NLP_PARALLELISM = 1;
+    private static final Integer DEFAULT_NLP_BATCH_SIZE = 1;
+    private static final Integer DEFAULT_NLP_BATCH_MAX_WAIT = 500;
+    private static final Integer DEFAULT_NLP_STREAM_PREFETCH = 100;
+    private static final Integer DEFAULT_NLP_STREAM_CLAIM_IDLE = 300;
+    private static final Integer DEFAULT_NLP_CHUNK_SIZE = 1_000_000;
+    private static final Integer DEFAULT_NLP_CHUNK_OVERLAP = 1_000;
     private static final Integer DEFAULT_PARALLELISM =
             Runtime.getRuntime().availableProcessors() == 1 ? 2 : Runtime.getRuntime().availableProcessors();
     public static final String STAGES_OPT = "stages";
@@ -23,7 +29,14 @@ public final class DatashareCliOptions {
     public static final String NLP_PIPELINES_OPT = "nlpPipelines";
     public static final String BATCH_SEARCH_THROTTLE = "batchSearchThrottleMilliseconds";
     public static final String BATCH_SEARCH_MAX_TIME = "batchSearchMaxTimeSeconds";
+    public static final String BATCH_SEARCH_ADAPTIVE_THROTTLE = "batchSearchAdaptiveThrottle";
+    public static final String BATCH_SEARCH_LATENCY_TARGET = "batchSearchLatencyTargetMilliseconds";
+    public static final String BATCH_SEARCH_MAX_THROTTLE = "batchSearchMaxThrottleMilliseconds";
+    public static final String BATCH_SEARCH_MAX_SEARCH_QUEUE = "batchSearchMaxSearchQueue";
+    public static final String BATCH_SEARCH_INDEX_RESULTS = "batchSearchIndexResults";
+    public static final String BATCH_SEARCH_WATERMARK_MARGIN = "batchSearchWatermarkMarginSeconds";
     public static final String SCROLL_SIZE = "scrollSize";
+    public static final String BATCH_QUEUE_LEASE = "batchQueueLeaseSeconds";
 
     static final String MESSAGE_BUS_OPT = "messageBusAddress";
     static final String ROOT_HOST = "rootHost";
@@ -39,8 +52,27 @@ public final class DatashareCliOptions {
     public static final String EXTENSION_DELETE_OPT = "extensionDelete";
     public static final String DEL_API_KEY_OPT = "deleteApiKey";
     public static final String PARALLELISM = "parallelism";
+    public static final String TASK_CLASS_PARALLELISM_OPT = "taskClassParallelism";
+    public static final String TASK_USER_QUOTA_OPT = "taskUserQuota";
+    public static final String TASK_PROGRESS_INTERVAL_OPT = "taskProgressIntervalMillis";
+    public static final String TASK_HEARTBEAT_INTERVAL_OPT = "taskHeartbeatIntervalMillis";
+    public static final String TASK_PROGRESS_STREAM_DURATION_OPT = "taskProgressStreamDurationMillis";
+    public static final String TASK_PROGRESS_MAX_STREAMS_OPT = "taskProgressMaxStreams";
+    public static final String NODE_ID_OPT = "nodeId";
     public static final String OPEN_LINK = "browserOpenLink";
     public static final String NLP_PARALLELISM_OPT = "nlpParallelism";
+    public static final String NLP_BATCH_SIZE_OPT = "nlpBatchSize";
+    public static final String NLP_BATCH_MAX_WAIT_OPT = "nlpBatchMaxWaitMilliseconds";
+    public static final String NLP_STREAM_PREFETCH_OPT = "nlpStreamPrefetch";
+    public static final String NLP_STREAM_CLAIM_IDLE_OPT = "nlpStreamClaimIdleSeconds";
+    public static final String NLP_MODELS_MAX_MEMORY_OPT = "nlpModelsMaxMemoryMegabytes";
+    public static final String NLP_MODELS_CACHE_DIR_OPT = "nlpModelsCacheDir";
+    public static final String NLP_CHUNK_SIZE_OPT = "nlpChunkSize";
+    public static final String NLP_CHUNK_OVERLAP_OPT = "nlpChunkOverlap";
+    public static final String AGGREGATE_NAMED_ENTITIES_OPT = "aggregateNamedEntities";
+    public static final String NLP_CACHE_MAX_SIZE_OPT = "nlpCacheMaxMegabytes";
+    public static final String NLP_LANGUAGE_ROUTING_OPT = "nlpLanguageRouting";
+    public static final String NLP_MAX_PARALLELISM_OPT = "nlpMaxParallelism";
     public static final String DEFAULT_USER_NAME = "defaultUserName";
 
     static OptionSpec<String> stages(OptionParser parser) {
@@ -217,7 +249,7 @@ public final class DatashareCliOptions {
     public static OptionSpec<String> busType(OptionParser parser) {
         return parser.acceptsAll(
                 singletonList("busType"),
-                "Backend data bus type. Values can be \"memory\" or \"redis\"")
+                "Backend data bus type. Values can be \"memory\", \"redis\" or \"redisStream\" (NLP messages in a redis stream, redis >= 5.0)")
                 .withRequiredArg()
                 .defaultsTo("redis");
     }
@@ -256,6 +288,110 @@ public final class DatashareCliOptions {
                 .defaultsTo(DEFAULT_NLP_PARALLELISM);
     }
 
+    static OptionSpec<Integer> nlpBatchSize(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(NLP_BATCH_SIZE_OPT),
+                "Max number of documents fetched, processed and written together by an NLP extraction thread.")
+                .withRequiredArg()
+                .ofType( Integer.class )
+                .defaultsTo(DEFAULT_NLP_BATCH_SIZE);
+    }
+
+    static OptionSpec<Integer> nlpBatchMaxWait(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(NLP_BATCH_MAX_WAIT_OPT),
+                "Max time in milliseconds an NLP extraction thread waits for a batch of documents to be full before processing it.")
+                .withRequiredArg()
+                .ofType( Integer.class )
+                .defaultsTo(DEFAULT_NLP_BATCH_MAX_WAIT);
+    }
+
+    static OptionSpec<Integer> nlpStreamPrefetch(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(NLP_STREAM_PREFETCH_OPT),
+                "Max number of NLP messages read in advance from the redis stream by an NLP extraction process (with redisStream bus type).")
+                .withRequiredArg()
+                .ofType( Integer.class )
+                .defaultsTo(DEFAULT_NLP_STREAM_PREFETCH);
+    }
+
+    static OptionSpec<Integer> nlpStreamClaimIdle(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(NLP_STREAM_CLAIM_IDLE_OPT),
+                "Time in seconds after which the unacknowledged NLP messages of another process are processed again (with redisStream bus type).")
+                .withRequiredArg()
+                .ofType( Integer.class )
+                .defaultsTo(DEFAULT_NLP_STREAM_CLAIM_IDLE);
+    }
+
+    static OptionSpec<Integer> nlpModelsMaxMemory(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(NLP_MODELS_MAX_MEMORY_OPT),
+                "Max memory in megabytes for the NLP models kept loaded between documents (default to half of the max heap size). The least recently used languages are unloaded first.")
+                .withRequiredArg()
+                .ofType( Integer.class );
+    }
+
+    static OptionSpec<String> nlpModelsCacheDir(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(NLP_MODELS_CACHE_DIR_OPT),
+                "Directory where the NER models are kept decompressed for a faster loading (no cache if not set).")
+                .withRequiredArg()
+                .ofType( String.class );
+    }
+
+    static OptionSpec<Integer> nlpChunkSize(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(NLP_CHUNK_SIZE_OPT),
+                "Documents with more chars are split at sentence boundaries into chunks of this size, processed in parallel by the NLP threads (0 to disable).")
+                .withRequiredArg()
+                .ofType( Integer.class )
+                .defaultsTo(DEFAULT_NLP_CHUNK_SIZE);
+    }
+
+    static OptionSpec<Integer> nlpChunkOverlap(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(NLP_CHUNK_OVERLAP_OPT),
+                "Number of chars of context added on each side of a chunk of document for the NLP.")
+                .withRequiredArg()
+                .ofType( Integer.class )
+                .defaultsTo(DEFAULT_NLP_CHUNK_OVERLAP);
+    }
+
+    static OptionSpec<Boolean> aggregateNamedEntities(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(AGGREGATE_NAMED_ENTITIES_OPT),
+                "Index one named entity per document, normalized mention, category and pipeline, with the offsets and the count of its mentions (instead of one per mention).")
+                .withRequiredArg()
+                .ofType(Boolean.class).defaultsTo(false);
+    }
+
+    static OptionSpec<Integer> nlpCacheMaxSize(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(NLP_CACHE_MAX_SIZE_OPT),
+                "Max size in megabytes of the named entities cached in redis by content, shared by the projects (0 to disable the cache). The least recently used contents are evicted first.")
+                .withRequiredArg()
+                .ofType( Integer.class )
+                .defaultsTo(0);
+    }
+
+    static OptionSpec<Boolean> nlpLanguageRouting(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(NLP_LANGUAGE_ROUTING_OPT),
+                "Route the documents to NLP threads dedicated to their language, the threads being shared between the languages proportionally to their backlog.")
+                .withRequiredArg()
+                .ofType(Boolean.class).defaultsTo(false);
+    }
+
+    static OptionSpec<Integer> nlpMaxParallelism(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(NLP_MAX_PARALLELISM_OPT),
+                "Max number of NLP extraction threads per pipeline. If it is over nlpParallelism, the number of threads grows and shrinks between both, with the queue size, the processing time of the documents and the free heap.")
+                .withRequiredArg()
+                .ofType( Integer.class )
+                .defaultsTo(0);
+    }
+
     public static OptionSpec<Integer> batchSearchMaxTime(OptionParser parser) {
          return parser.acceptsAll(
                          asList(BATCH_SEARCH_MAX_TIME), "Max time for batch search in seconds")
@@ -270,6 +406,48 @@ public final class DatashareCliOptions {
                          .ofType(Integer.class);
     }
 
+    public static OptionSpec<Boolean> batchSearchAdaptiveThrottle(OptionParser parser) {
+         return parser.acceptsAll(
+                         asList(BATCH_SEARCH_ADAPTIVE_THROTTLE), "Adapt batch search throttle and scroll size to elasticsearch load")
+                         .withRequiredArg()
+                         .ofType(Boolean.class).defaultsTo(false);
+    }
+
+    public static OptionSpec<Integer> batchSearchLatencyTarget(OptionParser parser) {
+         return parser.acceptsAll(
+                         asList(BATCH_SEARCH_LATENCY_TARGET), "Target latency of a batch search scroll page in milliseconds (adaptive throttle)")
+                         .withRequiredArg()
+                         .ofType(Integer.class);
+    }
+
+    public static OptionSpec<Integer> batchSearchMaxThrottle(OptionParser parser) {
+         return parser.acceptsAll(
+                         asList(BATCH_SEARCH_MAX_THROTTLE), "Max throttle for batch search in milliseconds (adaptive throttle)")
+                         .withRequiredArg()
+                         .ofType(Integer.class);
+    }
+
+    public static OptionSpec<Integer> batchSearchMaxSearchQueue(OptionParser parser) {
+         return parser.acceptsAll(
+                         asList(BATCH_SEARCH_MAX_SEARCH_QUEUE), "Elasticsearch search thread pool queue size above which batch searches slow down (adaptive throttle)")
+                         .withRequiredArg()
+                         .ofType(Integer.class);
+    }
+
+    public static OptionSpec<Boolean> batchSearchIndexResults(OptionParser parser) {
+         return parser.acceptsAll(
+                         asList(BATCH_SEARCH_INDEX_RESULTS), "Add the batch search id to the batchSearches field of the documents it matched")
+                         .withRequiredArg()
+                         .ofType(Boolean.class).defaultsTo(false);
+    }
+
+    public static OptionSpec<Integer> batchSearchWatermarkMargin(OptionParser parser) {
+         return parser.acceptsAll(
+                         asList(BATCH_SEARCH_WATERMARK_MARGIN), "Margin in seconds subtracted from the batch search watermark so that a refresh also searches the documents indexed after the previous run")
+                         .withRequiredArg()
+                         .ofType(Integer.class);
+    }
+
     public static OptionSpec<Integer> scrollSize(OptionParser parser) {
         return parser.acceptsAll(
                 asList("scrollSize"), "Scroll size used for elasticsearch scrolls (SCANIDX task)")
@@ -279,7 +457,7 @@ public final class DatashareCliOptions {
 
      public static OptionSpec<Integer> scrollSlices(OptionParser parser) {
         return parser.acceptsAll(
-                asList("scrollSlices"), "Scroll slice max number used for elasticsearch scrolls (SCANIDX task)")
+                asList("scrollSlices"), "Scroll slice max number used for elasticsearch scrolls (SCANIDX and resume NLP tasks)")
                 .withRequiredArg()
                 .ofType(Integer.class).defaultsTo(1);
     }
@@ -338,6 +516,69 @@ public final class DatashareCliOptions {
                 .defaultsTo(DEFAULT_PARALLELISM);
     }
 
+    static OptionSpec<String> taskClassParallelism(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(TASK_CLASS_PARALLELISM_OPT),
+                "Number of threads by task class (INTERACTIVE, BATCH, BACKGROUND) like INTERACTIVE:2,BACKGROUND:1. The classes not set have parallelism threads.")
+                .withRequiredArg()
+                .ofType( String.class );
+    }
+
+    static OptionSpec<Integer> taskUserQuota(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(TASK_USER_QUOTA_OPT),
+                "Max number of BATCH and BACKGROUND tasks running at the same time for a user, the next ones are queued (0 for no quota).")
+                .withRequiredArg()
+                .ofType( Integer.class )
+                .defaultsTo(0);
+    }
+
+    static OptionSpec<Integer> taskProgressInterval(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(TASK_PROGRESS_INTERVAL_OPT),
+                "Min time in milliseconds between two reads of the progress of a task, and between two updates of the task progress stream.")
+                .withRequiredArg()
+                .ofType( Integer.class )
+                .defaultsTo(1000);
+    }
+
+    static OptionSpec<Integer> taskProgressStreamDuration(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(TASK_PROGRESS_STREAM_DURATION_OPT),
+                "Max time in milliseconds of a task progress stream. The stream is then closed and the browser opens a new one.")
+                .withRequiredArg()
+                .ofType( Integer.class )
+                .defaultsTo(300000);
+    }
+
+    static OptionSpec<Integer> taskProgressMaxStreams(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(TASK_PROGRESS_MAX_STREAMS_OPT),
+                "Max number of task progress streams open at the same time (each one holds an HTTP thread).")
+                .withRequiredArg()
+                .ofType( Integer.class )
+                .defaultsTo(20);
+    }
+
+    static OptionSpec<Integer> taskHeartbeatInterval(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(TASK_HEARTBEAT_INTERVAL_OPT),
+                "Time in milliseconds between two heartbeats of the tasks of a node in the task registry. " +
+                        "The running tasks of a node without heartbeat for 3 intervals are resumed by another node.")
+                .withRequiredArg()
+                .ofType( Integer.class )
+                .defaultsTo(10000);
+    }
+
+    static OptionSpec<String> nodeId(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(NODE_ID_OPT),
+                "Identifier of the datashare node owning the tasks it starts (defaults to the pid@host of the process). " +
+                        "It must be different for each process, a node resumes its unfinished tasks at startup.")
+                .withRequiredArg()
+                .ofType( String.class );
+    }
+
     static OptionSpec<String> esHost(OptionParser parser) {
         return parser.acceptsAll(
                 asList("elasticsearchAddress"), "Elasticsearch host address")
@@ -436,4 +677,12 @@ public final class DatashareCliOptions {
                         .withRequiredArg()
                         .ofType(String.class);
     }
+
+    public static OptionSpec<Integer> batchQueueLease(OptionParser parser) {
+        return parser.acceptsAll(
+                        asList(BATCH_QUEUE_LEASE), "Lease in seconds of a batch search taken from a reliable batch queue (RedisReliableBlockingQueue). " +
+                        "Batch searches with an expired lease are put back in the queue")
+                        .withRequiredArg()
+                        .ofType(Integer.class);
+    }
 }
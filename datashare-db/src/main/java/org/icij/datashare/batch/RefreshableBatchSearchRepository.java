@@ -0,0 +1,38 @@
+package org.icij.datashare.batch;
+
+import org.icij.datashare.user.User;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Batch search repository that can run again a batch search on the documents
+ * indexed after its last successful run (the watermark).
+ */
+public interface RefreshableBatchSearchRepository extends BatchSearchRepository {
+    /**
+     * @return the date of the beginning of the last successful run of the batch search, or null if it has never been run
+     */
+    Date getWatermark(String batchSearchId);
+    boolean setWatermark(String batchSearchId, Date watermark);
+
+    /**
+     * @return the warnings of the last run of the batch search (i.e. the queries whose results have been capped)
+     */
+    List<String> getWarnings(String batchSearchId);
+    boolean setWarnings(String batchSearchId, List<String> warnings);
+
+    /**
+     * puts back in QUEUED state a batch search of the user that is not queued nor running.
+     * If it has no watermark (it has never succeeded) its previous results are removed, because
+     * it will be run again on all the documents.
+     * @return true if the batch search can be run again
+     */
+    boolean refresh(User user, String batchSearchId);
+
+    /**
+     * removes the results and the watermark of a batch search and sets its result counts to 0,
+     * so that it can be run again from the beginning (i.e. after an interrupted run)
+     */
+    boolean resetResults(String batchSearchId);
+}
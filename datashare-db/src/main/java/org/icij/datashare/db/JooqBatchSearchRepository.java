@@ -2,6 +2,7 @@ package org.icij.datashare.db;
 
 import org.icij.datashare.batch.*;
 import org.icij.datashare.batch.BatchSearchRecord.State;
+import org.icij.datashare.db.tables.records.BatchSearchDocumentRecord;
 import org.icij.datashare.db.tables.records.BatchSearchQueryRecord;
 import org.icij.datashare.db.tables.records.BatchSearchResultRecord;
 import org.icij.datashare.text.Document;
@@ -22,12 +23,13 @@ import static java.util.Comparator.comparing;
 import static java.util.stream.Collectors.*;
 import static org.icij.datashare.batch.BatchSearchRepository.WebQuery.DEFAULT_SORT_FIELD;
 import static org.icij.datashare.db.tables.BatchSearch.BATCH_SEARCH;
+import static org.icij.datashare.db.tables.BatchSearchDocument.BATCH_SEARCH_DOCUMENT;
 import static org.icij.datashare.db.tables.BatchSearchQuery.BATCH_SEARCH_QUERY;
 import static org.icij.datashare.db.tables.BatchSearchResult.BATCH_SEARCH_RESULT;
 import static org.icij.datashare.text.Project.project;
 import static org.jooq.impl.DSL.*;
 
-public class JooqBatchSearchRepository implements BatchSearchRepository {
+public class JooqBatchSearchRepository implements RefreshableBatchSearchRepository {
     private static final String LIST_SEPARATOR = ",";
     private final DataSource dataSource;
     private final SQLDialect dialect;
@@ -59,24 +61,44 @@ public class JooqBatchSearchRepository implements BatchSearchRepository {
     public boolean saveResults(String batchSearchId, String query, List<Document> documents) {
         return DSL.using(dataSource, dialect).transactionResult(configuration -> {
             DSLContext inner = using(configuration);
+            Set<String> savedDocIds = new HashSet<>(inner.select(BATCH_SEARCH_RESULT.DOC_ID).from(BATCH_SEARCH_RESULT).
+                    where(BATCH_SEARCH_RESULT.SEARCH_UUID.eq(batchSearchId).
+                            and(BATCH_SEARCH_RESULT.QUERY.eq(query)).
+                            and(BATCH_SEARCH_RESULT.DOC_ID.in(documents.stream().map(Document::getId).collect(toList())))).
+                    fetch(BATCH_SEARCH_RESULT.DOC_ID));
+            List<Document> newDocuments = documents.stream().filter(doc -> savedDocIds.add(doc.getId())).collect(toList());
+            if (newDocuments.isEmpty()) {
+                return false;
+            }
+            Integer previousResults = inner.select(BATCH_SEARCH_QUERY.QUERY_RESULTS).from(BATCH_SEARCH_QUERY).
+                    where(BATCH_SEARCH_QUERY.SEARCH_UUID.eq(batchSearchId).
+                            and(BATCH_SEARCH_QUERY.QUERY.eq(query))).fetchOne(BATCH_SEARCH_QUERY.QUERY_RESULTS);
+            int firstDocNb = previousResults == null ? 0 : previousResults;
             inner.update(BATCH_SEARCH_QUERY).set(BATCH_SEARCH_QUERY.QUERY_RESULTS,
-                    BATCH_SEARCH_QUERY.QUERY_RESULTS.plus(documents.size())).
+                    BATCH_SEARCH_QUERY.QUERY_RESULTS.plus(newDocuments.size())).
                     where(BATCH_SEARCH_QUERY.SEARCH_UUID.eq(batchSearchId).
                             and(BATCH_SEARCH_QUERY.QUERY.eq(query))).execute();
 
             inner.update(BATCH_SEARCH).set(BATCH_SEARCH.BATCH_RESULTS,
-                    BATCH_SEARCH.BATCH_RESULTS.plus(documents.size())).
+                    BATCH_SEARCH.BATCH_RESULTS.plus(newDocuments.size())).
                     where(BATCH_SEARCH.UUID.eq(batchSearchId)).execute();
 
-            InsertValuesStep9<BatchSearchResultRecord, String, String, Integer, String, String, String, Timestamp, String, Long> insertQuery =
-                    inner.insertInto(BATCH_SEARCH_RESULT, BATCH_SEARCH_RESULT.SEARCH_UUID, BATCH_SEARCH_RESULT.QUERY, BATCH_SEARCH_RESULT.DOC_NB,
-                    BATCH_SEARCH_RESULT.DOC_ID, BATCH_SEARCH_RESULT.ROOT_ID, BATCH_SEARCH_RESULT.DOC_NAME, BATCH_SEARCH_RESULT.CREATION_DATE,
-                    BATCH_SEARCH_RESULT.CONTENT_TYPE, BATCH_SEARCH_RESULT.CONTENT_LENGTH);
-            IntStream.range(0, documents.size()).forEach(i -> insertQuery.values(batchSearchId, query, i,
-                                documents.get(i).getId(), documents.get(i).getRootDocument(), documents.get(i).getPath().getFileName().toString(),
-                                documents.get(i).getCreationDate() == null ? (Timestamp) null:
-                                        new Timestamp(documents.get(i).getCreationDate().getTime()),
-                                documents.get(i).getContentType(), documents.get(i).getContentLength()));
+            String projectId = inner.select(BATCH_SEARCH.PRJ_ID).from(BATCH_SEARCH).
+                    where(BATCH_SEARCH.UUID.eq(batchSearchId)).fetchOne(BATCH_SEARCH.PRJ_ID);
+            InsertValuesStep7<BatchSearchDocumentRecord, String, String, String, String, Timestamp, String, Long> insertDocuments =
+                    inner.insertInto(BATCH_SEARCH_DOCUMENT, BATCH_SEARCH_DOCUMENT.PRJ_ID, BATCH_SEARCH_DOCUMENT.DOC_ID,
+                    BATCH_SEARCH_DOCUMENT.ROOT_ID, BATCH_SEARCH_DOCUMENT.DOC_NAME, BATCH_SEARCH_DOCUMENT.CREATION_DATE,
+                    BATCH_SEARCH_DOCUMENT.CONTENT_TYPE, BATCH_SEARCH_DOCUMENT.CONTENT_LENGTH);
+            newDocuments.forEach(doc -> insertDocuments.values(projectId,
+                                doc.getId(), doc.getRootDocument(), doc.getPath().getFileName().toString(),
+                                doc.getCreationDate() == null ? (Timestamp) null: new Timestamp(doc.getCreationDate().getTime()),
+                                doc.getContentType(), doc.getContentLength()));
+            insertDocuments.onConflictDoNothing().execute();
+
+            InsertValuesStep4<BatchSearchResultRecord, String, String, Integer, String> insertQuery =
+                    inner.insertInto(BATCH_SEARCH_RESULT, BATCH_SEARCH_RESULT.SEARCH_UUID, BATCH_SEARCH_RESULT.QUERY,
+                            BATCH_SEARCH_RESULT.DOC_NB, BATCH_SEARCH_RESULT.DOC_ID);
+            IntStream.range(0, newDocuments.size()).forEach(i -> insertQuery.values(batchSearchId, query, firstDocNb + i, newDocuments.get(i).getId()));
             return insertQuery.execute() > 0;
         });
     }
@@ -96,17 +118,86 @@ public class JooqBatchSearchRepository implements BatchSearchRepository {
                 where(BATCH_SEARCH.UUID.eq(batchSearchId)).execute() > 0;
     }
 
+    @Override
+    public Date getWatermark(String batchSearchId) {
+        Timestamp watermark = DSL.using(dataSource, dialect).select(BATCH_SEARCH.WATERMARK).from(BATCH_SEARCH).
+                where(BATCH_SEARCH.UUID.eq(batchSearchId)).fetchOne(BATCH_SEARCH.WATERMARK);
+        return watermark == null ? null : new Date(watermark.getTime());
+    }
+
+    @Override
+    public boolean setWatermark(String batchSearchId, Date watermark) {
+        return DSL.using(dataSource, dialect).update(BATCH_SEARCH).
+                set(BATCH_SEARCH.WATERMARK, new Timestamp(watermark.getTime())).
+                where(BATCH_SEARCH.UUID.eq(batchSearchId)).execute() > 0;
+    }
+
+    @Override
+    public List<String> getWarnings(String batchSearchId) {
+        String warnings = DSL.using(dataSource, dialect).select(BATCH_SEARCH.WARNING_MESSAGE).from(BATCH_SEARCH).
+                where(BATCH_SEARCH.UUID.eq(batchSearchId)).fetchOne(BATCH_SEARCH.WARNING_MESSAGE);
+        return warnings == null || warnings.isEmpty() ? new ArrayList<>() : asList(warnings.split("\n"));
+    }
+
+    @Override
+    public boolean setWarnings(String batchSearchId, List<String> warnings) {
+        return DSL.using(dataSource, dialect).update(BATCH_SEARCH).
+                set(BATCH_SEARCH.WARNING_MESSAGE, warnings.isEmpty() ? null : join("\n", warnings)).
+                where(BATCH_SEARCH.UUID.eq(batchSearchId)).execute() > 0;
+    }
+
+    @Override
+    public boolean refresh(User user, String batchSearchId) {
+        return DSL.using(dataSource, dialect).transactionResult(configuration -> {
+            DSLContext inner = using(configuration);
+            boolean refreshed = inner.update(BATCH_SEARCH).
+                    set(BATCH_SEARCH.STATE, State.QUEUED.name()).
+                    set(BATCH_SEARCH.ERROR_MESSAGE, (String) null).
+                    where(BATCH_SEARCH.UUID.eq(batchSearchId).
+                            and(BATCH_SEARCH.USER_ID.eq(user.id)).
+                            and(BATCH_SEARCH.STATE.notIn(State.QUEUED.name(), State.RUNNING.name()))).execute() > 0;
+            // without watermark (failed batch) the batch is run again on all the documents
+            if (refreshed && inner.select(BATCH_SEARCH.WATERMARK).from(BATCH_SEARCH).
+                    where(BATCH_SEARCH.UUID.eq(batchSearchId)).fetchOne(BATCH_SEARCH.WATERMARK) == null) {
+                resetResults(inner, batchSearchId);
+            }
+            return refreshed;
+        });
+    }
+
+    @Override
+    public boolean resetResults(String batchSearchId) {
+        return DSL.using(dataSource, dialect).transactionResult(configuration -> resetResults(using(configuration), batchSearchId));
+    }
+
+    private boolean resetResults(DSLContext inner, String batchSearchId) {
+        List<String> projectIds = inner.select(BATCH_SEARCH.PRJ_ID).from(BATCH_SEARCH).
+                where(BATCH_SEARCH.UUID.eq(batchSearchId)).fetch(BATCH_SEARCH.PRJ_ID);
+        inner.deleteFrom(BATCH_SEARCH_RESULT).where(BATCH_SEARCH_RESULT.SEARCH_UUID.eq(batchSearchId)).execute();
+        inner.update(BATCH_SEARCH_QUERY).set(BATCH_SEARCH_QUERY.QUERY_RESULTS, 0).
+                where(BATCH_SEARCH_QUERY.SEARCH_UUID.eq(batchSearchId)).execute();
+        deleteUnreferencedDocuments(inner, projectIds);
+        return inner.update(BATCH_SEARCH).
+                set(BATCH_SEARCH.BATCH_RESULTS, 0).
+                set(BATCH_SEARCH.WATERMARK, (Timestamp) null).
+                where(BATCH_SEARCH.UUID.eq(batchSearchId)).execute() > 0;
+    }
+
     @Override
     public boolean deleteAll(User user) {
         return DSL.using(dataSource, dialect).transactionResult(configuration -> {
             DSLContext inner = using(configuration);
+            List<String> projectIds = inner.selectDistinct(BATCH_SEARCH.PRJ_ID).from(BATCH_SEARCH).
+                    where(BATCH_SEARCH.USER_ID.eq(user.id)).fetch(BATCH_SEARCH.PRJ_ID);
             inner.deleteFrom(BATCH_SEARCH_QUERY).where(BATCH_SEARCH_QUERY.SEARCH_UUID.
                     in(select(BATCH_SEARCH.UUID).from(BATCH_SEARCH).where(BATCH_SEARCH.USER_ID.eq(user.id)))).
                     execute();
             inner.deleteFrom(BATCH_SEARCH_RESULT).where(BATCH_SEARCH_RESULT.SEARCH_UUID.
                     in(select(BATCH_SEARCH.UUID).from(BATCH_SEARCH).where(BATCH_SEARCH.USER_ID.eq(user.id)))).
                     execute();
-            return inner.deleteFrom(BATCH_SEARCH).where(BATCH_SEARCH.USER_ID.eq(user.id)).execute() > 0;
+            boolean deleted = inner.deleteFrom(BATCH_SEARCH).where(BATCH_SEARCH.USER_ID.eq(user.id)).execute() > 0;
+            deleteUnreferencedDocuments(inner, projectIds);
+            return deleted;
         });
     }
 
@@ -116,13 +207,31 @@ public class JooqBatchSearchRepository implements BatchSearchRepository {
             DSLContext inner = using(configuration);
             SelectConditionStep<Record1<String>> batch_uuid = select(BATCH_SEARCH.UUID).from(BATCH_SEARCH).
                     where(BATCH_SEARCH.USER_ID.eq(user.id)).and(BATCH_SEARCH.UUID.eq(batchId));
+            List<String> projectIds = inner.select(BATCH_SEARCH.PRJ_ID).from(BATCH_SEARCH).
+                    where(BATCH_SEARCH.USER_ID.eq(user.id)).and(BATCH_SEARCH.UUID.eq(batchId)).fetch(BATCH_SEARCH.PRJ_ID);
             inner.deleteFrom(BATCH_SEARCH_QUERY).where(BATCH_SEARCH_QUERY.SEARCH_UUID.in(batch_uuid)).execute();
             inner.deleteFrom(BATCH_SEARCH_RESULT).where(BATCH_SEARCH_RESULT.SEARCH_UUID.in(batch_uuid)).execute();
-            return inner.deleteFrom(BATCH_SEARCH).where(BATCH_SEARCH.USER_ID.eq(user.id)).
+            boolean deleted = inner.deleteFrom(BATCH_SEARCH).where(BATCH_SEARCH.USER_ID.eq(user.id)).
                     and(BATCH_SEARCH.UUID.eq(batchId)).execute() > 0;
+            deleteUnreferencedDocuments(inner, projectIds);
+            return deleted;
         });
     }
 
+    /**
+     * removes the documents of the projects that are not in the results of a batch search anymore
+     */
+    private static void deleteUnreferencedDocuments(DSLContext inner, List<String> projectIds) {
+        if (projectIds.isEmpty()) {
+            return;
+        }
+        inner.deleteFrom(BATCH_SEARCH_DOCUMENT).where(BATCH_SEARCH_DOCUMENT.PRJ_ID.in(projectIds)).
+                andNotExists(selectOne().from(BATCH_SEARCH_RESULT).
+                        join(BATCH_SEARCH).on(BATCH_SEARCH.UUID.eq(BATCH_SEARCH_RESULT.SEARCH_UUID)).
+                        where(BATCH_SEARCH.PRJ_ID.eq(BATCH_SEARCH_DOCUMENT.PRJ_ID)).
+                        and(BATCH_SEARCH_RESULT.DOC_ID.eq(BATCH_SEARCH_DOCUMENT.DOC_ID))).execute();
+    }
+
     @Override
     public BatchSearch get(String id) {
         Optional<BatchSearch> batchSearches = mergeBatchSearches(
@@ -186,10 +295,12 @@ public class JooqBatchSearchRepository implements BatchSearchRepository {
         DSLContext create = DSL.using(dataSource, dialect);
         SelectConditionStep<Record> query = create.select().from(BATCH_SEARCH_RESULT).
                 join(BATCH_SEARCH).on(BATCH_SEARCH.UUID.equal(BATCH_SEARCH_RESULT.SEARCH_UUID)).
+                join(BATCH_SEARCH_DOCUMENT).on(BATCH_SEARCH_DOCUMENT.PRJ_ID.equal(BATCH_SEARCH.PRJ_ID).
+                        and(BATCH_SEARCH_DOCUMENT.DOC_ID.equal(BATCH_SEARCH_RESULT.DOC_ID))).
                 where(BATCH_SEARCH_RESULT.SEARCH_UUID.eq(batchSearchId));
         if (webQuery.hasFilteredQueries()) query.and(BATCH_SEARCH_RESULT.QUERY.in(webQuery.queries));
         if (webQuery.isSorted()) {
-            query.orderBy(field(webQuery.sort + " " + webQuery.order));
+            query.orderBy(field(resultSortField(webQuery.sort) + " " + webQuery.order));
         } else {
             query.orderBy(field("query " + webQuery.order), field(DEFAULT_SORT_FIELD + " " + webQuery.order));
         }
@@ -207,6 +318,11 @@ public class JooqBatchSearchRepository implements BatchSearchRepository {
                         and(BATCH_SEARCH.USER_ID.eq(user.id))).execute() > 0;
     }
 
+    private String resultSortField(String sort) {
+        Table<?> table = BATCH_SEARCH_RESULT.field(sort) == null ? BATCH_SEARCH_DOCUMENT : BATCH_SEARCH_RESULT;
+        return table.getName() + "." + sort;
+    }
+
     private List<BatchSearch> mergeBatchSearches(final List<BatchSearch> flatBatchSearches) {
         Map<String, List<BatchSearch>> collect = flatBatchSearches.stream().collect(groupingBy(bs -> bs.uuid));
         return collect.values().stream().map(batchSearches ->
@@ -307,14 +423,14 @@ public class JooqBatchSearchRepository implements BatchSearchRepository {
         boolean published = record.get(BATCH_SEARCH.PUBLISHED)>0;
         if (!actualUser.id.equals(owner) && !published)
             throw new UnauthorizedUserException(record.get(BATCH_SEARCH.UUID), owner, actualUser.id);
-        Timestamp creationDate = record.get(BATCH_SEARCH_RESULT.CREATION_DATE);
+        Timestamp creationDate = record.get(BATCH_SEARCH_DOCUMENT.CREATION_DATE);
         return new SearchResult(record.get(BATCH_SEARCH_RESULT.QUERY),
                 record.get(BATCH_SEARCH_RESULT.DOC_ID),
-                record.getValue(BATCH_SEARCH_RESULT.ROOT_ID),
-                record.getValue(BATCH_SEARCH_RESULT.DOC_NAME),
+                record.getValue(BATCH_SEARCH_DOCUMENT.ROOT_ID),
+                record.getValue(BATCH_SEARCH_DOCUMENT.DOC_NAME),
                 creationDate == null ? null: new Date(creationDate.getTime()),
-                record.getValue(BATCH_SEARCH_RESULT.CONTENT_TYPE),
-                record.getValue(BATCH_SEARCH_RESULT.CONTENT_LENGTH),
+                record.getValue(BATCH_SEARCH_DOCUMENT.CONTENT_TYPE),
+                record.getValue(BATCH_SEARCH_DOCUMENT.CONTENT_LENGTH),
                 record.get(BATCH_SEARCH_RESULT.DOC_NB));
     }
 
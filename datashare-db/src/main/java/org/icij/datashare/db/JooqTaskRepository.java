@@ -0,0 +1,123 @@
+package org.icij.datashare.db;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.icij.datashare.db.tables.records.TaskRecord;
+import org.icij.datashare.tasks.TaskDefinition;
+import org.icij.datashare.tasks.TaskRepository;
+import org.icij.datashare.time.DatashareTime;
+import org.icij.datashare.user.User;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.stream.Collectors.toList;
+import static org.icij.datashare.db.tables.Task.TASK;
+import static org.icij.datashare.json.JsonObjectMapper.MAPPER;
+
+public class JooqTaskRepository implements TaskRepository {
+    private final DataSource connectionProvider;
+    private final SQLDialect dialect;
+
+    JooqTaskRepository(final DataSource connectionProvider, final SQLDialect dialect) {
+        this.connectionProvider = connectionProvider;
+        this.dialect = dialect;
+    }
+
+    @Override
+    public boolean save(TaskDefinition task) {
+        try {
+            return DSL.using(connectionProvider, dialect).insertInto(TASK, TASK.ID, TASK.TYPE, TASK.USER_ID, TASK.PROPERTIES,
+                    TASK.STATE, TASK.CREATION_DATE, TASK.NODE_ID, TASK.HEARTBEAT, TASK.PROGRESS).
+                    values(task.id, task.type.name(), task.user == null ? null : task.user.id,
+                            MAPPER.writeValueAsString(task.properties), task.state.name(), new Timestamp(task.creationDate.getTime()),
+                            task.nodeId, task.heartbeat == null ? null : new Timestamp(task.heartbeat.getTime()), task.progress).
+                    onConflict(TASK.ID).doUpdate().
+                        set(TASK.PROPERTIES, MAPPER.writeValueAsString(task.properties)).
+                        set(TASK.STATE, task.state.name()).
+                        set(TASK.NODE_ID, task.nodeId).
+                        where(TASK.ID.eq(task.id)).execute() > 0;
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean setState(String taskId, TaskDefinition.State state) {
+        return DSL.using(connectionProvider, dialect).update(TASK).
+                set(TASK.STATE, state.name()).
+                where(TASK.ID.eq(taskId)).execute() > 0;
+    }
+
+    @Override
+    public boolean delete(String taskId) {
+        return DSL.using(connectionProvider, dialect).deleteFrom(TASK).where(TASK.ID.eq(taskId)).execute() > 0;
+    }
+
+    @Override
+    public TaskDefinition get(String taskId) {
+        return createTaskDefinition(DSL.using(connectionProvider, dialect).
+                selectFrom(TASK).where(TASK.ID.eq(taskId)).fetchOne());
+    }
+
+    @Override
+    public List<TaskDefinition> get(User user) {
+        return DSL.using(connectionProvider, dialect).selectFrom(TASK).
+                where(TASK.USER_ID.eq(user.id)).
+                orderBy(TASK.CREATION_DATE).fetch().stream().map(this::createTaskDefinition).collect(toList());
+    }
+
+    @Override
+    public List<TaskDefinition> getUnfinished() {
+        return DSL.using(connectionProvider, dialect).selectFrom(TASK).
+                where(TASK.STATE.eq(TaskDefinition.State.RUNNING.name())).
+                orderBy(TASK.CREATION_DATE).fetch().stream().map(this::createTaskDefinition).collect(toList());
+    }
+
+    @Override
+    public boolean heartbeat(String taskId, String nodeId, double progress) {
+        return DSL.using(connectionProvider, dialect).update(TASK).
+                set(TASK.HEARTBEAT, new Timestamp(DatashareTime.getInstance().currentTimeMillis())).
+                set(TASK.PROGRESS, progress).
+                where(TASK.ID.eq(taskId)).
+                and(TASK.NODE_ID.eq(nodeId)).
+                and(TASK.STATE.eq(TaskDefinition.State.RUNNING.name())).execute() > 0;
+    }
+
+    @Override
+    public boolean claim(String taskId, String nodeId, Date staleBefore) {
+        return DSL.using(connectionProvider, dialect).update(TASK).
+                set(TASK.NODE_ID, nodeId).
+                set(TASK.HEARTBEAT, new Timestamp(DatashareTime.getInstance().currentTimeMillis())).
+                where(TASK.ID.eq(taskId)).
+                and(TASK.STATE.eq(TaskDefinition.State.RUNNING.name())).
+                and(TASK.NODE_ID.eq(nodeId).
+                        or(TASK.NODE_ID.isNull()).
+                        or(TASK.HEARTBEAT.isNull()).
+                        or(TASK.HEARTBEAT.lt(new Timestamp(staleBefore.getTime())))).execute() > 0;
+    }
+
+    // ----------------
+    private TaskDefinition createTaskDefinition(TaskRecord taskRecord) {
+        if (taskRecord == null) {
+            return null;
+        }
+        Map<String, String> properties;
+        try {
+            properties = taskRecord.getProperties() == null ? new HashMap<>() : MAPPER.readValue(taskRecord.getProperties(), HashMap.class);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new TaskDefinition(taskRecord.getId(), TaskDefinition.Type.valueOf(taskRecord.getType()),
+                taskRecord.getUserId() == null ? null : new User(taskRecord.getUserId()), properties,
+                TaskDefinition.State.valueOf(taskRecord.getState()), new Date(taskRecord.getCreationDate().getTime()),
+                taskRecord.getNodeId(), taskRecord.getHeartbeat() == null ? null : new Date(taskRecord.getHeartbeat().getTime()),
+                taskRecord.getProgress());
+    }
+}
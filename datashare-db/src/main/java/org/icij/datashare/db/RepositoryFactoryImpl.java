@@ -41,6 +41,10 @@ public class RepositoryFactoryImpl implements RepositoryFactory {
         return createRepository(JooqBatchSearchRepository::new);
     }
 
+    public JooqTaskRepository createTaskRepository() {
+        return createRepository(JooqTaskRepository::new);
+    }
+
     void initDatabase(final DataSource dataSource) {
         try (Connection connection = dataSource.getConnection()){
             Liquibase liquibase = new liquibase.Liquibase("liquibase/changelog/db.changelog.yml", new ClassLoaderResourceAccessor(),
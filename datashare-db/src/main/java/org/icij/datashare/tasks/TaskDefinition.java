@@ -0,0 +1,86 @@
+package org.icij.datashare.tasks;
+
+import org.icij.datashare.time.DatashareTime;
+import org.icij.datashare.user.User;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Task saved in the database with the properties it has been created with, so that
+ * it can be created again (in resume mode) if datashare is stopped before its end.
+ *
+ * The task belongs to the node that runs it, which updates its heartbeat and progress
+ * while it is running. The other nodes use them to list it and to find out if it is orphaned.
+ */
+public class TaskDefinition {
+    public enum Type {INDEX, NLP}
+    public enum State {RUNNING, DONE, ERROR, CANCELLED}
+
+    public final String id;
+    public final Type type;
+    public final User user;
+    public final Map<String, String> properties;
+    public final State state;
+    public final Date creationDate;
+    public final String nodeId;
+    public final Date heartbeat;
+    public final double progress;
+
+    public TaskDefinition(String id, Type type, User user, Properties properties) {
+        this(id, type, user, properties, null);
+    }
+
+    public TaskDefinition(String id, Type type, User user, Properties properties, String nodeId) {
+        this(id, type, user, toMap(properties), State.RUNNING, DatashareTime.getInstance().now(),
+                nodeId, DatashareTime.getInstance().now(), 0);
+    }
+
+    public TaskDefinition(String id, Type type, User user, Map<String, String> properties, State state, Date creationDate) {
+        this(id, type, user, properties, state, creationDate, null, null, 0);
+    }
+
+    public TaskDefinition(String id, Type type, User user, Map<String, String> properties, State state, Date creationDate,
+                          String nodeId, Date heartbeat, double progress) {
+        this.id = id;
+        this.type = type;
+        this.user = user;
+        this.properties = unmodifiableMap(new HashMap<>(properties));
+        this.state = state;
+        this.creationDate = creationDate;
+        this.nodeId = nodeId;
+        this.heartbeat = heartbeat;
+        this.progress = progress;
+    }
+
+    public Properties getProperties() {
+        Properties props = new Properties();
+        props.putAll(properties);
+        return props;
+    }
+
+    private static Map<String, String> toMap(Properties properties) {
+        Map<String, String> map = new HashMap<>();
+        properties.stringPropertyNames().forEach(name -> map.put(name, properties.getProperty(name)));
+        return map;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TaskDefinition that = (TaskDefinition) o;
+        return Objects.equals(id, that.id);
+    }
+
+    @Override
+    public int hashCode() { return Objects.hash(id);}
+
+    @Override
+    public String toString() { return type + " task " + id + " (" + state + (nodeId == null ? "" : " on " + nodeId) + ")";}
+}
@@ -0,0 +1,42 @@
+package org.icij.datashare.tasks;
+
+import org.icij.datashare.user.User;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Repository of the task definitions and states, shared by the datashare nodes.
+ * It is read at startup to reschedule the tasks that were running when datashare has been stopped,
+ * and by the nodes to list and stop the tasks of the other nodes.
+ */
+public interface TaskRepository {
+    boolean save(TaskDefinition task);
+    boolean setState(String taskId, TaskDefinition.State state);
+    boolean delete(String taskId);
+    TaskDefinition get(String taskId);
+
+    /**
+     * @return the tasks of the user on all the nodes, from the oldest to the newest
+     */
+    List<TaskDefinition> get(User user);
+
+    /**
+     * @return the tasks in RUNNING state, from the oldest to the newest
+     */
+    List<TaskDefinition> getUnfinished();
+
+    /**
+     * updates the heartbeat and the progress of a RUNNING task of the node
+     * @return false if the task is not RUNNING anymore (it has been stopped from another node)
+     * or if it belongs to another node
+     */
+    boolean heartbeat(String taskId, String nodeId, double progress);
+
+    /**
+     * gives to the node a RUNNING task that belongs to it, to no node, or whose heartbeat is older than staleBefore.
+     * Only one of the nodes claiming a task at the same time gets it.
+     * @return true if the task now belongs to the node
+     */
+    boolean claim(String taskId, String nodeId, Date staleBefore);
+}
@@ -5,6 +5,7 @@ import org.icij.datashare.batch.BatchSearchRepository;
 import org.icij.datashare.text.Document;
 import org.icij.datashare.user.User;
 import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
 import org.junit.Rule;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -14,6 +15,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+import static java.util.Arrays.asList;
 import static org.icij.datashare.CollectionUtils.asSet;
 import static org.icij.datashare.text.DocumentBuilder.createDoc;
 import static org.icij.datashare.text.Project.project;
@@ -46,6 +48,10 @@ public class BenchBatchSearch {
         }
         long endTime = System.currentTimeMillis();
         logger.info("done in {}ms", endTime - beginTime);
+        for (String table: asList("batch_search_result", "batch_search_document")) {
+            logger.info("{} size is {}", table, DSL.using(dbRule.dataSource, SQLDialect.POSTGRES).
+                    fetchValue("select pg_size_pretty(pg_total_relation_size('" + table + "'))"));
+        }
 
         logger.info("reading batch searches");
         beginTime = System.currentTimeMillis();
@@ -4,7 +4,7 @@ import com.ninja_squad.dbsetup.DbSetup;
 import com.ninja_squad.dbsetup.destination.DataSourceDestination;
 import com.ninja_squad.dbsetup.operation.Operation;
 import org.icij.datashare.PropertiesProvider;
-import org.icij.datashare.batch.BatchSearchRepository;
+import org.icij.datashare.batch.RefreshableBatchSearchRepository;
 import org.junit.rules.ExternalResource;
 
 import javax.sql.DataSource;
@@ -19,7 +19,7 @@ public class DbSetupRule extends ExternalResource {
     private final String dataSourceUrl;
     private static final Operation DELETE_ALL = deleteAllFrom(
             "document", "named_entity", "document_user_star", "document_tag", "batch_search", "user_inventory",
-            "batch_search_query", "batch_search_result", "project", "note", "document_user_recommendation","api_key");
+            "batch_search_query", "batch_search_result", "batch_search_document", "project", "note", "document_user_recommendation","api_key", "task");
 
     DbSetupRule(String dataSourceUrl) {
         this.dataSource = createDatasource(dataSourceUrl);
@@ -34,7 +34,7 @@ public class DbSetupRule extends ExternalResource {
         dbSetup.launch();
     }
 
-    BatchSearchRepository createBatchSearchRepository() {
+    RefreshableBatchSearchRepository createBatchSearchRepository() {
         return new JooqBatchSearchRepository(dataSource, RepositoryFactoryImpl.guessSqlDialectFrom(dataSourceUrl));
     }
 
@@ -46,6 +46,10 @@ public class DbSetupRule extends ExternalResource {
         return new JooqApiKeyRepository(dataSource, RepositoryFactoryImpl.guessSqlDialectFrom(dataSourceUrl));
     }
 
+    JooqTaskRepository createTaskRepository() {
+        return new JooqTaskRepository(dataSource, RepositoryFactoryImpl.guessSqlDialectFrom(dataSourceUrl));
+    }
+
     private static DataSource createDatasource(final String jdbcUrl) {
         return new RepositoryFactoryImpl(new PropertiesProvider(new HashMap<String, String>() {{
             put("dataSourceUrl", ofNullable(jdbcUrl).orElse("jdbc:sqlite:file:memorydb.db?mode=memory&cache=shared"));
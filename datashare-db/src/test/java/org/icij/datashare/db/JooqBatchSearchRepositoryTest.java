@@ -7,11 +7,13 @@ import org.icij.datashare.text.Document;
 import org.icij.datashare.text.Project;
 import org.icij.datashare.time.DatashareTime;
 import org.icij.datashare.user.User;
+import org.jooq.impl.DSL;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
@@ -25,13 +27,14 @@ import static org.fest.assertions.Assertions.assertThat;
 import static org.fest.assertions.MapAssert.entry;
 import static org.icij.datashare.CollectionUtils.asSet;
 import static org.icij.datashare.text.DocumentBuilder.createDoc;
+import static org.jooq.impl.DSL.table;
 
 @RunWith(Parameterized.class)
 public class JooqBatchSearchRepositoryTest {
     @Rule public DatashareTimeRule timeRule = new DatashareTimeRule("2020-08-04T10:20:30Z");
     @Rule
     public DbSetupRule dbRule;
-    private BatchSearchRepository repository;
+    private RefreshableBatchSearchRepository repository;
 
     @Parameterized.Parameters
     public static Collection<Object[]> dataSources() {
@@ -245,6 +248,125 @@ public class JooqBatchSearchRepositoryTest {
         assertThat(repository.get(User.local(), batchSearch.uuid).queries).includes(entry("my query", 4), entry("my other query", 0));
     }
 
+    @Test
+    public void test_save_results_multiple_times_numbers_documents_consistently() {
+        BatchSearch batchSearch = new BatchSearch(Project.project("prj"), "name", "description", asSet("my query"), User.local());
+        repository.save(batchSearch);
+
+        repository.saveResults(batchSearch.uuid, "my query", asList(createDoc("doc1").build(), createDoc("doc2").build()));
+        repository.saveResults(batchSearch.uuid, "my query", asList(createDoc("doc3").build()));
+
+        assertThat(repository.getResults(User.local(), batchSearch.uuid).stream().map(r -> r.documentNumber).collect(toList())).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    public void test_save_results_ignores_documents_already_saved_for_the_query() {
+        BatchSearch batchSearch = new BatchSearch(Project.project("prj"), "name", "description", asSet("my query"), User.local());
+        repository.save(batchSearch);
+
+        repository.saveResults(batchSearch.uuid, "my query", asList(createDoc("doc1").build(), createDoc("doc2").build()));
+        assertThat(repository.saveResults(batchSearch.uuid, "my query", asList(createDoc("doc2").build(), createDoc("doc3").build(), createDoc("doc3").build()))).isTrue();
+        assertThat(repository.saveResults(batchSearch.uuid, "my query", asList(createDoc("doc1").build()))).isFalse();
+
+        assertThat(repository.get(User.local(), batchSearch.uuid).nbResults).isEqualTo(3);
+        assertThat(repository.getResults(User.local(), batchSearch.uuid).stream().map(r -> r.documentNumber).collect(toList())).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    public void test_get_and_set_watermark() {
+        BatchSearch batchSearch = new BatchSearch(Project.project("prj"), "name", "description", asSet("q1"), User.local());
+        repository.save(batchSearch);
+        assertThat(repository.getWatermark(batchSearch.uuid)).isNull();
+
+        assertThat(repository.setWatermark(batchSearch.uuid, DatashareTime.getInstance().now())).isTrue();
+
+        assertThat(repository.getWatermark(batchSearch.uuid)).isEqualTo(DatashareTime.getInstance().now());
+    }
+
+    @Test
+    public void test_reset_results() {
+        BatchSearch batchSearch = new BatchSearch(Project.project("prj"), "name", "description", asSet("q1"), User.local());
+        repository.save(batchSearch);
+        repository.saveResults(batchSearch.uuid, "q1", asList(createDoc("doc1").build(), createDoc("doc2").build()));
+        repository.setWatermark(batchSearch.uuid, DatashareTime.getInstance().now());
+
+        assertThat(repository.resetResults(batchSearch.uuid)).isTrue();
+
+        assertThat(repository.getResults(User.local(), batchSearch.uuid)).isEmpty();
+        assertThat(repository.get(batchSearch.uuid).nbResults).isEqualTo(0);
+        assertThat(repository.get(batchSearch.uuid).queries).includes(entry("q1", 0));
+        assertThat(repository.getWatermark(batchSearch.uuid)).isNull();
+        assertThat(DSL.using(dbRule.dataSource).fetchCount(table("batch_search_document"))).isEqualTo(0);
+
+        repository.saveResults(batchSearch.uuid, "q1", asList(createDoc("doc1").build()));
+        assertThat(repository.getResults(User.local(), batchSearch.uuid).stream().map(r -> r.documentNumber).collect(toList())).containsExactly(0);
+    }
+
+    @Test
+    public void test_get_and_set_warnings() {
+        BatchSearch batchSearch = new BatchSearch(Project.project("prj"), "name", "description", asSet("q1"), User.local());
+        repository.save(batchSearch);
+        assertThat(repository.getWarnings(batchSearch.uuid)).isEmpty();
+
+        assertThat(repository.setWarnings(batchSearch.uuid, asList("q1 capped", "q2 capped"))).isTrue();
+        assertThat(repository.getWarnings(batchSearch.uuid)).containsExactly("q1 capped", "q2 capped");
+
+        repository.setWarnings(batchSearch.uuid, new ArrayList<>());
+        assertThat(repository.getWarnings(batchSearch.uuid)).isEmpty();
+    }
+
+    @Test
+    public void test_refresh_puts_batch_search_back_in_queue() {
+        BatchSearch batchSearch = new BatchSearch(Project.project("prj"), "name", "description", asSet("q1"), User.local());
+        repository.save(batchSearch);
+        repository.setState(batchSearch.uuid, new SearchException("q1", new RuntimeException("error")));
+
+        assertThat(repository.refresh(User.local(), batchSearch.uuid)).isTrue();
+
+        assertThat(repository.get(batchSearch.uuid).state).isEqualTo(State.QUEUED);
+        assertThat(repository.get(batchSearch.uuid).errorMessage).isNull();
+    }
+
+    @Test
+    public void test_refresh_failed_batch_search_removes_its_partial_results() {
+        BatchSearch batchSearch = new BatchSearch(Project.project("prj"), "name", "description", asSet("q1"), User.local());
+        repository.save(batchSearch);
+        repository.saveResults(batchSearch.uuid, "q1", asList(createDoc("doc1").build(), createDoc("doc2").build()));
+        repository.setState(batchSearch.uuid, new SearchException("q1", new RuntimeException("error")));
+
+        assertThat(repository.refresh(User.local(), batchSearch.uuid)).isTrue();
+
+        assertThat(repository.getResults(User.local(), batchSearch.uuid)).isEmpty();
+        assertThat(repository.get(batchSearch.uuid).nbResults).isEqualTo(0);
+    }
+
+    @Test
+    public void test_refresh_batch_search_with_watermark_keeps_its_results() {
+        BatchSearch batchSearch = new BatchSearch(Project.project("prj"), "name", "description", asSet("q1"), User.local());
+        repository.save(batchSearch);
+        repository.saveResults(batchSearch.uuid, "q1", asList(createDoc("doc1").build(), createDoc("doc2").build()));
+        repository.setWatermark(batchSearch.uuid, DatashareTime.getInstance().now());
+        repository.setState(batchSearch.uuid, State.SUCCESS);
+
+        assertThat(repository.refresh(User.local(), batchSearch.uuid)).isTrue();
+
+        assertThat(repository.getResults(User.local(), batchSearch.uuid)).hasSize(2);
+    }
+
+    @Test
+    public void test_refresh_running_or_other_user_batch_search() {
+        BatchSearch batchSearch = new BatchSearch(Project.project("prj"), "name", "description", asSet("q1"), User.local());
+        repository.save(batchSearch);
+        assertThat(repository.refresh(User.local(), batchSearch.uuid)).isFalse();
+
+        repository.setState(batchSearch.uuid, State.RUNNING);
+        assertThat(repository.refresh(User.local(), batchSearch.uuid)).isFalse();
+
+        repository.setState(batchSearch.uuid, State.SUCCESS);
+        assertThat(repository.refresh(new User("other"), batchSearch.uuid)).isFalse();
+        assertThat(repository.refresh(User.local(), batchSearch.uuid)).isTrue();
+    }
+
     @Test
     public void test_results_by_query_are_isolated() {
         BatchSearch batchSearch1 = new BatchSearch(Project.project("prj"), "name1", "description1", asSet("my query", "my other query"), User.local());
@@ -256,6 +378,29 @@ public class JooqBatchSearchRepositoryTest {
         assertThat(repository.get(User.local(), batchSearch2.uuid).queries).includes(entry("my query", 0), entry("3rd query", 0));
     }
 
+    @Test
+    public void test_save_results_stores_documents_once_per_project() {
+        BatchSearch batchSearch = new BatchSearch(Project.project("prj"), "name", "description", asSet("q1", "q2"), User.local());
+        repository.save(batchSearch);
+        repository.saveResults(batchSearch.uuid, "q1", asList(createDoc("doc1").build(), createDoc("doc2").build()));
+        repository.saveResults(batchSearch.uuid, "q2", asList(createDoc("doc2").build(), createDoc("doc3").build()));
+
+        assertThat(DSL.using(dbRule.dataSource).fetchCount(table("batch_search_document"))).isEqualTo(3);
+        assertThat(repository.getResults(User.local(), batchSearch.uuid)).containsExactly(
+                resultFrom(createDoc("doc1").build(), 1, "q1"), resultFrom(createDoc("doc2").build(), 2, "q1"),
+                resultFrom(createDoc("doc2").build(), 1, "q2"), resultFrom(createDoc("doc3").build(), 2, "q2"));
+    }
+
+    @Test
+    public void test_get_results_order_by_doc_id() {
+        BatchSearch batchSearch = new BatchSearch(Project.project("prj"), "name", "description", asSet("q1"), User.local());
+        repository.save(batchSearch);
+        repository.saveResults(batchSearch.uuid, "q1", asList(createDoc("b").build(), createDoc("a").build()));
+
+        assertThat(repository.getResults(User.local(), batchSearch.uuid, new BatchSearchRepository.WebQuery(0, 0, "doc_id", "asc", null))).
+                containsExactly(resultFrom(createDoc("a").build(), 2, "q1"), resultFrom(createDoc("b").build(), 1, "q1"));
+    }
+
     @Test
     public void test_get_results_paginated() {
         BatchSearch batchSearch = new BatchSearch(Project.project("prj"), "name", "description", asSet("query"), User.local());
@@ -365,6 +510,23 @@ public class JooqBatchSearchRepositoryTest {
         assertThat(repository.getResults(User.local(), batchSearch1.uuid)).hasSize(0);
     }
 
+    @Test
+    public void test_delete_batch_search_removes_documents_not_in_other_results() {
+        BatchSearch batchSearch1 = new BatchSearch(Project.project("prj"), "name1", "description1", asSet("q1"), User.local());
+        BatchSearch batchSearch2 = new BatchSearch(Project.project("prj"), "name2", "description2", asSet("q2"), User.local());
+        repository.save(batchSearch1);
+        repository.save(batchSearch2);
+        repository.saveResults(batchSearch1.uuid, "q1", asList(createDoc("doc1").build(), createDoc("doc2").build()));
+        repository.saveResults(batchSearch2.uuid, "q2", asList(createDoc("doc2").build(), createDoc("doc3").build()));
+
+        repository.delete(User.local(), batchSearch1.uuid);
+        assertThat(DSL.using(dbRule.dataSource).fetchCount(table("batch_search_document"))).isEqualTo(2);
+        assertThat(repository.getResults(User.local(), batchSearch2.uuid)).hasSize(2);
+
+        repository.deleteAll(User.local());
+        assertThat(DSL.using(dbRule.dataSource).fetchCount(table("batch_search_document"))).isEqualTo(0);
+    }
+
     @Test
     public void test_delete_batch_search_by_another_user() {
         BatchSearch batchSearch = new BatchSearch(Project.project("prj"), "foo search", "description1", asSet("q3", "q4"), new User("foo"));
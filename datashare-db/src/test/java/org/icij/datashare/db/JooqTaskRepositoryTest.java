@@ -0,0 +1,144 @@
+package org.icij.datashare.db;
+
+import org.icij.datashare.tasks.TaskDefinition;
+import org.icij.datashare.test.DatashareTimeRule;
+import org.icij.datashare.time.DatashareTime;
+import org.icij.datashare.user.User;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Properties;
+
+import static java.util.Arrays.asList;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.MapAssert.entry;
+
+@RunWith(Parameterized.class)
+public class JooqTaskRepositoryTest {
+    @Rule public DbSetupRule dbRule;
+    @Rule public DatashareTimeRule time = new DatashareTimeRule("2021-06-30T12:13:14Z");
+    private final JooqTaskRepository repository;
+
+    @Test
+    public void test_save_and_get_task() {
+        assertThat(repository.save(new TaskDefinition("taskId", TaskDefinition.Type.INDEX, User.local(), new Properties() {{
+            setProperty("queueName", "extract:queue");
+            setProperty("parallelism", "2");
+        }}))).isTrue();
+
+        TaskDefinition task = repository.get("taskId");
+        assertThat(task.type).isEqualTo(TaskDefinition.Type.INDEX);
+        assertThat(task.user).isEqualTo(User.local());
+        assertThat(task.state).isEqualTo(TaskDefinition.State.RUNNING);
+        assertThat(task.creationDate).isEqualTo(time.now());
+        assertThat(task.properties).includes(entry("queueName", "extract:queue"), entry("parallelism", "2"));
+    }
+
+    @Test
+    public void test_get_unknown_task() {
+        assertThat(repository.get("unknown")).isNull();
+    }
+
+    @Test
+    public void test_set_state() {
+        repository.save(new TaskDefinition("taskId", TaskDefinition.Type.NLP, User.local(), new Properties()));
+
+        assertThat(repository.setState("taskId", TaskDefinition.State.DONE)).isTrue();
+        assertThat(repository.setState("unknown", TaskDefinition.State.DONE)).isFalse();
+
+        assertThat(repository.get("taskId").state).isEqualTo(TaskDefinition.State.DONE);
+    }
+
+    @Test
+    public void test_get_unfinished_tasks_from_the_oldest() {
+        repository.save(new TaskDefinition("task1", TaskDefinition.Type.INDEX, User.local(), new Properties()));
+        DatashareTime.getInstance().addMilliseconds(1000);
+        repository.save(new TaskDefinition("task2", TaskDefinition.Type.NLP, User.local(), new Properties()));
+        DatashareTime.getInstance().addMilliseconds(1000);
+        repository.save(new TaskDefinition("task3", TaskDefinition.Type.INDEX, new User("foo"), new HashMap<>(),
+                TaskDefinition.State.ERROR, DatashareTime.getInstance().now()));
+
+        assertThat(repository.getUnfinished()).containsExactly(repository.get("task1"), repository.get("task2"));
+    }
+
+    @Test
+    public void test_delete_task() {
+        repository.save(new TaskDefinition("taskId", TaskDefinition.Type.INDEX, User.local(), new Properties()));
+
+        assertThat(repository.delete("taskId")).isTrue();
+        assertThat(repository.get("taskId")).isNull();
+        assertThat(repository.delete("taskId")).isFalse();
+    }
+
+    @Test
+    public void test_get_tasks_of_user() {
+        repository.save(new TaskDefinition("task1", TaskDefinition.Type.INDEX, User.local(), new Properties(), "node1"));
+        repository.save(new TaskDefinition("task2", TaskDefinition.Type.NLP, new User("foo"), new Properties(), "node2"));
+
+        assertThat(repository.get(User.local())).containsExactly(repository.get("task1"));
+        assertThat(repository.get(User.local()).get(0).nodeId).isEqualTo("node1");
+    }
+
+    @Test
+    public void test_heartbeat() {
+        repository.save(new TaskDefinition("taskId", TaskDefinition.Type.INDEX, User.local(), new Properties(), "node1"));
+        DatashareTime.getInstance().addMilliseconds(5000);
+
+        assertThat(repository.heartbeat("taskId", "node1", 0.5)).isTrue();
+
+        TaskDefinition task = repository.get("taskId");
+        assertThat(task.heartbeat).isEqualTo(time.now());
+        assertThat(task.progress).isEqualTo(0.5);
+    }
+
+    @Test
+    public void test_heartbeat_of_another_node_or_of_a_stopped_task() {
+        repository.save(new TaskDefinition("taskId", TaskDefinition.Type.INDEX, User.local(), new Properties(), "node1"));
+
+        assertThat(repository.heartbeat("taskId", "node2", 0.5)).isFalse();
+        repository.setState("taskId", TaskDefinition.State.CANCELLED);
+        assertThat(repository.heartbeat("taskId", "node1", 0.5)).isFalse();
+    }
+
+    @Test
+    public void test_claim_task_with_stale_heartbeat() {
+        repository.save(new TaskDefinition("taskId", TaskDefinition.Type.INDEX, User.local(), new Properties(), "node1"));
+        Date staleBefore = time.now();
+        DatashareTime.getInstance().addMilliseconds(30000);
+
+        assertThat(repository.claim("taskId", "node2", staleBefore)).isFalse();
+        assertThat(repository.claim("taskId", "node2", DatashareTime.getInstance().now())).isTrue();
+        assertThat(repository.claim("taskId", "node3", DatashareTime.getInstance().now())).isFalse();
+
+        assertThat(repository.get("taskId").nodeId).isEqualTo("node2");
+        assertThat(repository.get("taskId").heartbeat).isEqualTo(time.now());
+    }
+
+    @Test
+    public void test_claim_own_task_or_task_without_node() {
+        repository.save(new TaskDefinition("task1", TaskDefinition.Type.INDEX, User.local(), new Properties(), "node1"));
+        repository.save(new TaskDefinition("task2", TaskDefinition.Type.INDEX, User.local(), new Properties()));
+
+        assertThat(repository.claim("task1", "node1", new Date(0))).isTrue();
+        assertThat(repository.claim("task2", "node1", new Date(0))).isTrue();
+        assertThat(repository.get("task2").nodeId).isEqualTo("node1");
+    }
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> dataSources() {
+        return asList(new Object[][]{
+                {new DbSetupRule("jdbc:sqlite:file:memorydb.db?mode=memory&cache=shared")},
+                {new DbSetupRule("jdbc:postgresql://postgres/test?user=test&password=test")}
+        });
+    }
+
+    public JooqTaskRepositoryTest(DbSetupRule rule) {
+        dbRule = rule;
+        repository = rule.createTaskRepository();
+    }
+}
@@ -0,0 +1,66 @@
+package org.icij.datashare.text.indexing;
+
+import org.icij.datashare.Entity;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
+import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.nlp.Pipeline;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexer that reads and writes several documents with one request,
+ * used by the NLP consumers to process documents by batches.
+ */
+public interface BulkIndexer extends Indexer {
+    /**
+     * gets the documents with one multi get request
+     * @param routings the root document of each id
+     * @param sourceFields the fields to retrieve (all the fields if empty)
+     * @return the documents found, in the order of the ids
+     */
+    List<Document> get(String indexName, List<String> ids, List<String> routings, String... sourceFields) throws IOException;
+
+    /**
+     * adds the named entities of several documents and marks the documents
+     * as processed by the pipeline, with one bulk request
+     */
+    boolean bulkAdd(String indexName, Pipeline.Type nerType, Map<Document, List<NamedEntity>> namedEntities) throws IOException;
+
+    /**
+     * counts the results of several searchers with one multi search request, without fetching any document
+     * @return the total hits of each searcher, in the order of the searchers
+     */
+    List<Long> count(List<? extends Searcher> searchers) throws IOException;
+
+    /**
+     * @return the languages of the documents of the index, the most frequent first
+     */
+    List<Language> getLanguages(String indexName) throws IOException;
+
+    /**
+     * counts the visible mentions of named entities by category. Aggregated named entities
+     * count for their mentionCount, the others (indexed one per mention) for one.
+     *
+     * @param documentId the document of the named entities, or null for the whole index
+     * @return the number of mentions for each category found
+     */
+    Map<NamedEntity.Category, Long> countMentions(String indexName, String documentId) throws IOException;
+
+    @Override
+    FilterSearcher search(String indexName, Class<? extends Entity> entityClass);
+
+    /**
+     * Searcher with clauses added to the filter context of the query :
+     * they are not scored and elasticsearch can cache them.
+     */
+    interface FilterSearcher extends Searcher {
+        /**
+         * keeps the documents extracted after the given date
+         */
+        FilterSearcher extractedAfter(Date date);
+    }
+}
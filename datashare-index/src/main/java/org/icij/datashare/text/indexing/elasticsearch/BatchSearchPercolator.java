@@ -0,0 +1,336 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.elasticsearch.action.admin.indices.get.GetIndexRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.percolator.PercolateQueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.icij.datashare.Entity;
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.batch.BatchSearch;
+import org.icij.datashare.batch.BatchSearchRepository;
+import org.icij.datashare.json.JsonObjectMapper;
+import org.icij.datashare.text.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.lang.Math.min;
+import static java.lang.System.currentTimeMillis;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.elasticsearch.index.query.QueryBuilders.*;
+import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.ES_CONTENT_FIELD;
+import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.ES_DOCUMENT_TYPE;
+import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer.queryString;
+
+/**
+ * Standing batch searches.
+ *
+ * A registered batch search has its queries stored as percolator documents in the
+ * "[project]-percolator" index. Documents written by the {@link ElasticsearchSpewer}
+ * are buffered and matched in bulk against all the standing queries of their project
+ * with one percolate request. Matches are appended to the batch search results, so
+ * that new documents are found without scanning the whole corpus again.
+ *
+ * Buffered documents are percolated at the latest percolateMaxWaitMillis after they have been
+ * indexed, and the results of a batch search are capped like the ones of a batch search run.
+ */
+@Singleton
+public class BatchSearchPercolator {
+    public static final int MAX_BATCH_RESULT_SIZE = 60000;
+    static final String PERCOLATE_MAX_WAIT_PROP = "percolateMaxWaitMillis";
+    static final long DEFAULT_PERCOLATE_MAX_WAIT_MILLIS = 5000;
+    static final String PERCOLATOR_INDEX_SUFFIX = "-percolator";
+    static final String QUERY_FIELD = "query";
+    static final String UUID_FIELD = "batchSearchUuid";
+    static final String BATCH_QUERY_FIELD = "batchSearchQuery";
+    static final String DOCUMENT_SLOT_FIELD = "_percolator_document_slot";
+    static final int PERCOLATE_BATCH_SIZE = 100;
+    static final long PERCOLATE_BATCH_MAX_CONTENT_LENGTH = 10 * 1024 * 1024;
+    static final int MAX_MATCHING_QUERIES = 10000;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final RestHighLevelClient client;
+    private final BatchSearchRepository repository;
+    private final ElasticsearchConfiguration esCfg;
+    private final Map<String, PendingDocuments> pendingDocuments = new HashMap<>();
+    private final long maxWaitMillis;
+    private final ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "percolator-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Inject
+    public BatchSearchPercolator(final RestHighLevelClient client, final BatchSearchRepository repository,
+                                 final PropertiesProvider propertiesProvider) {
+        this.client = client;
+        this.repository = repository;
+        this.esCfg = new ElasticsearchConfiguration(propertiesProvider);
+        this.maxWaitMillis = propertiesProvider.get(PERCOLATE_MAX_WAIT_PROP).map(Long::parseLong).orElse(DEFAULT_PERCOLATE_MAX_WAIT_MILLIS);
+        flushScheduler.scheduleWithFixedDelay(this::flushExpired, maxWaitMillis, maxWaitMillis, MILLISECONDS);
+    }
+
+    /**
+     * stores the queries of the batch search as standing queries of its project
+     * @return the number of registered queries
+     */
+    public int register(BatchSearch batchSearch) throws IOException {
+        String percolatorIndex = percolatorIndex(batchSearch.project.getId());
+        ElasticsearchConfiguration.createPercolatorIndex(client, percolatorIndex, esCfg.indexType);
+
+        BulkRequest bulkRequest = new BulkRequest().setRefreshPolicy(esCfg.refreshPolicy);
+        for (String query : batchSearch.queries.keySet()) {
+            bulkRequest.add(new IndexRequest(percolatorIndex, esCfg.indexType, standingQueryId(batchSearch.uuid, query)).source(jsonBuilder()
+                    .startObject()
+                    .field(QUERY_FIELD, standingQuery(batchSearch, query))
+                    .field(UUID_FIELD, batchSearch.uuid)
+                    .field(BATCH_QUERY_FIELD, query)
+                    .endObject()));
+        }
+        BulkResponse bulkResponse = client.bulk(bulkRequest, RequestOptions.DEFAULT);
+        if (bulkResponse.hasFailures()) {
+            throw new IOException("cannot register batch search " + batchSearch.uuid + ": " + bulkResponse.buildFailureMessage());
+        }
+        logger.info("registered {} standing queries for batch search {}", bulkRequest.numberOfActions(), batchSearch.uuid);
+        return bulkRequest.numberOfActions();
+    }
+
+    /**
+     * @return true if the batch search has standing queries in one of the projects
+     */
+    public boolean isRegistered(String batchSearchUuid) throws IOException {
+        SearchRequest searchRequest = new SearchRequest("*" + PERCOLATOR_INDEX_SUFFIX).indicesOptions(IndicesOptions.lenientExpandOpen());
+        searchRequest.source(new SearchSourceBuilder().query(termQuery(UUID_FIELD, batchSearchUuid)).size(0));
+        return client.search(searchRequest, RequestOptions.DEFAULT).getHits().getTotalHits() > 0;
+    }
+
+    /**
+     * removes the standing queries of the batch search from all the projects
+     * @return true if queries have been removed
+     */
+    public boolean unregister(String batchSearchUuid) throws IOException {
+        DeleteByQueryRequest deleteByQuery = new DeleteByQueryRequest("*" + PERCOLATOR_INDEX_SUFFIX);
+        deleteByQuery.setQuery(termQuery(UUID_FIELD, batchSearchUuid));
+        deleteByQuery.setConflicts("proceed");
+        deleteByQuery.setRefresh(esCfg.refreshPolicy.getValue().equals("true"));
+        BulkByScrollResponse response = client.deleteByQuery(deleteByQuery, RequestOptions.DEFAULT);
+        return response.getDeleted() > 0;
+    }
+
+    /**
+     * buffers a document that has just been indexed. When the buffer of its index is full
+     * (in number of documents or in content length), all the buffered documents are percolated.
+     * A document indexed again before being percolated replaces the buffered one.
+     */
+    void add(String indexName, String id, Map<String, Object> source) throws IOException {
+        if (!ES_DOCUMENT_TYPE.equals(source.get(esCfg.docTypeField))) {
+            return;
+        }
+        List<Map<String, Object>> documents;
+        synchronized (pendingDocuments) {
+            PendingDocuments pending = pendingDocuments.computeIfAbsent(indexName, k -> new PendingDocuments());
+            pending.add(id, withId(id, source));
+            if (pending.size() < PERCOLATE_BATCH_SIZE && pending.contentLength < PERCOLATE_BATCH_MAX_CONTENT_LENGTH) {
+                return;
+            }
+            documents = pendingDocuments.remove(indexName).documents();
+        }
+        percolate(indexName, documents);
+    }
+
+    /**
+     * percolates the documents that are still buffered
+     * @return the number of documents percolated
+     */
+    public int flush() throws IOException {
+        Map<String, PendingDocuments> documentsByIndex;
+        synchronized (pendingDocuments) {
+            documentsByIndex = new HashMap<>(pendingDocuments);
+            pendingDocuments.clear();
+        }
+        int nbDocuments = 0;
+        for (Map.Entry<String, PendingDocuments> entry : documentsByIndex.entrySet()) {
+            nbDocuments += percolate(entry.getKey(), entry.getValue().documents());
+        }
+        return nbDocuments;
+    }
+
+    /**
+     * percolates the buffers whose first document has been waiting for more than maxWaitMillis,
+     * so that the results of standing batch searches are not delayed until the end of the indexing
+     */
+    void flushExpired() {
+        Map<String, PendingDocuments> documentsByIndex = new HashMap<>();
+        synchronized (pendingDocuments) {
+            long now = currentTimeMillis();
+            pendingDocuments.entrySet().removeIf(entry -> {
+                if (now - entry.getValue().firstAddMillis < maxWaitMillis) {
+                    return false;
+                }
+                documentsByIndex.put(entry.getKey(), entry.getValue());
+                return true;
+            });
+        }
+        for (Map.Entry<String, PendingDocuments> entry : documentsByIndex.entrySet()) {
+            try {
+                percolate(entry.getKey(), entry.getValue().documents());
+            } catch (IOException | RuntimeException ex) {
+                logger.error("cannot percolate standing batch searches for {}", entry.getKey(), ex);
+            }
+        }
+    }
+
+    int percolate(String indexName, List<Map<String, Object>> documents) throws IOException {
+        String percolatorIndex = percolatorIndex(indexName);
+        if (documents.isEmpty() || !client.indices().exists(new GetIndexRequest().indices(percolatorIndex), RequestOptions.DEFAULT)) {
+            return 0;
+        }
+        List<BytesReference> sources = new ArrayList<>();
+        for (Map<String, Object> document : documents) {
+            sources.add(BytesReference.bytes(jsonBuilder().map(withoutId(document))));
+        }
+        SearchRequest searchRequest = new SearchRequest(percolatorIndex).indicesOptions(IndicesOptions.lenientExpandOpen());
+        searchRequest.source(new SearchSourceBuilder()
+                .query(new PercolateQueryBuilder(QUERY_FIELD, sources, XContentType.JSON))
+                .fetchSource(new String[] {UUID_FIELD, BATCH_QUERY_FIELD}, null)
+                .size(MAX_MATCHING_QUERIES));
+        long before = System.currentTimeMillis();
+        SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
+
+        int nbMatches = 0;
+        Map<String, Integer> remainingResults = new HashMap<>();
+        for (SearchHit hit : response.getHits()) {
+            DocumentField slots = hit.field(DOCUMENT_SLOT_FIELD);
+            if (slots == null) {
+                continue;
+            }
+            List<Document> matchingDocuments = slots.getValues().stream()
+                    .map(slot -> toDocument(documents.get(((Number) slot).intValue())))
+                    .collect(toList());
+            String uuid = (String) hit.getSourceAsMap().get(UUID_FIELD);
+            String query = (String) hit.getSourceAsMap().get(BATCH_QUERY_FIELD);
+            try {
+                int remaining = remainingResults.computeIfAbsent(uuid, this::remainingResults);
+                if (remaining <= 0) {
+                    logger.debug("standing batch search {} has reached the max of {} results", uuid, MAX_BATCH_RESULT_SIZE);
+                    continue;
+                }
+                List<Document> results = matchingDocuments.subList(0, min(remaining, matchingDocuments.size()));
+                repository.saveResults(uuid, query, results);
+                remainingResults.put(uuid, remaining - results.size());
+                nbMatches += results.size();
+                if (results.size() < matchingDocuments.size()) {
+                    logger.warn("results of standing batch search {} have been truncated: max of {} results reached", uuid, MAX_BATCH_RESULT_SIZE);
+                }
+            } catch (RuntimeException ex) {
+                logger.warn("cannot save results of standing batch search {} for query {}", uuid, query, ex);
+            }
+        }
+        logger.info("percolated {} documents of {} in {}ms: {} new batch search result(s)",
+                documents.size(), indexName, System.currentTimeMillis() - before, nbMatches);
+        return documents.size();
+    }
+
+    public BatchSearchPercolator withRefresh(WriteRequest.RefreshPolicy refreshPolicy) {
+        esCfg.withRefresh(refreshPolicy);
+        return this;
+    }
+
+    private int remainingResults(String batchSearchUuid) {
+        BatchSearch batchSearch = repository.get(batchSearchUuid);
+        return batchSearch == null ? 0 : MAX_BATCH_RESULT_SIZE - batchSearch.nbResults;
+    }
+
+    static String percolatorIndex(String indexName) {
+        return indexName + PERCOLATOR_INDEX_SUFFIX;
+    }
+
+    static String standingQueryId(String batchSearchUuid, String query) {
+        return Entity.HASHER.hash(batchSearchUuid + query);
+    }
+
+    /**
+     * same query as the one built by the batch search runner except for the named entities
+     * has_child clause, that cannot be percolated.
+     */
+    static QueryBuilder standingQuery(BatchSearch batchSearch, String query) {
+        BoolQueryBuilder boolQuery = boolQuery().must(queryStringQuery(queryString(query, batchSearch.fuzziness, batchSearch.phraseMatches)).defaultField("*"));
+        if (!batchSearch.fileTypes.isEmpty()) {
+            boolQuery.must(termsQuery("contentType", batchSearch.fileTypes.toArray(new String[0])));
+        }
+        if (!batchSearch.paths.isEmpty()) {
+            BoolQueryBuilder pathsQuery = boolQuery();
+            batchSearch.paths.forEach(path -> pathsQuery.should(prefixQuery("dirname", path)));
+            boolQuery.must(pathsQuery);
+        }
+        return boolQuery;
+    }
+
+    private Document toDocument(Map<String, Object> document) {
+        return JsonObjectMapper.getObject((String) document.get("_id"), withoutId(document), Document.class);
+    }
+
+    private static Map<String, Object> withId(String id, Map<String, Object> source) {
+        Map<String, Object> document = new LinkedHashMap<>(source);
+        document.put("_id", id);
+        return document;
+    }
+
+    private static Map<String, Object> withoutId(Map<String, Object> document) {
+        Map<String, Object> source = new LinkedHashMap<>(document);
+        source.remove("_id");
+        return source;
+    }
+
+    private static class PendingDocuments {
+        private final Map<String, Map<String, Object>> documentsById = new LinkedHashMap<>();
+        private final long firstAddMillis = currentTimeMillis();
+        private long contentLength;
+
+        void add(String id, Map<String, Object> document) {
+            Map<String, Object> previous = documentsById.put(id, document);
+            contentLength += contentLength(document) - (previous == null ? 0 : contentLength(previous));
+        }
+
+        int size() {
+            return documentsById.size();
+        }
+
+        List<Map<String, Object>> documents() {
+            return new ArrayList<>(documentsById.values());
+        }
+
+        private static long contentLength(Map<String, Object> document) {
+            Object content = document.get(ES_CONTENT_FIELD);
+            return content instanceof String ? ((String) content).length() : 0;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.icij.datashare.text.indexing.elasticsearch;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.admin.indices.get.GetIndexRequest;
 import org.elasticsearch.action.support.WriteRequest;
@@ -11,10 +12,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Map;
 
 import static com.google.common.io.ByteStreams.toByteArray;
+import static java.util.Collections.singletonMap;
 import static org.apache.http.HttpHost.create;
 import static org.elasticsearch.common.xcontent.XContentType.JSON;
+import static org.icij.datashare.json.JsonObjectMapper.MAPPER;
 
 public class ElasticsearchConfiguration {
     static final String MAPPING_RESOURCE_NAME = "datashare_index_mappings.json";
@@ -33,6 +37,7 @@ public class ElasticsearchConfiguration {
     public static final String INDEX_JOIN_FIELD_NAME_PROP = "indexJoinFieldName";
     public static final String INDEX_TYPE_FIELD_NAME_PROP = "indexTypeFieldName";
     public static final String CLUSTER_PROP = "clusterName";
+    public static final String AGGREGATE_NAMED_ENTITIES_PROP = "aggregateNamedEntities";
 
     public static final String DEFAULT_ADDRESS = "http://localhost:9200";
     public static final String ES_CLUSTER_NAME = "datashare";
@@ -49,6 +54,7 @@ public class ElasticsearchConfiguration {
     final String indexType;
     final String indexJoinField;
     final String docTypeField;
+    final boolean aggregateNamedEntities;
     WriteRequest.RefreshPolicy refreshPolicy = WriteRequest.RefreshPolicy.NONE;
 
     final int shards = 1;
@@ -58,6 +64,7 @@ public class ElasticsearchConfiguration {
         indexType = propertiesProvider.get(INDEX_TYPE_PROP).orElse(DEFAULT_INDEX_TYPE);
         indexJoinField = propertiesProvider.get(INDEX_JOIN_FIELD_NAME_PROP).orElse(DEFAULT_INDEX_JOIN_FIELD);
         docTypeField = propertiesProvider.get(INDEX_TYPE_FIELD_NAME_PROP).orElse(DEFAULT_DOC_TYPE_FIELD);
+        aggregateNamedEntities = propertiesProvider.get(AGGREGATE_NAMED_ENTITIES_PROP).map(Boolean::parseBoolean).orElse(false);
     }
 
     public static RestHighLevelClient createESClient(final PropertiesProvider propertiesProvider) {
@@ -96,6 +103,36 @@ public class ElasticsearchConfiguration {
         return false;
     }
 
+    /**
+     * creates an index for standing queries. Percolated documents are parsed with the
+     * mapping of the percolator index, so it has the same mapping as the documents index
+     * with the percolator field and the batch search fields.
+     */
+    static boolean createPercolatorIndex(RestHighLevelClient client, String indexName, String indexType) {
+        GetIndexRequest request = new GetIndexRequest();
+        request.indices(indexName);
+        try {
+            if (!client.indices().exists(request)) {
+                LOGGER.info("percolator index {} does not exist, creating one", indexName);
+                Map<String, Object> mapping = MAPPER.readValue(getResourceContent(MAPPING_RESOURCE_NAME), new TypeReference<Map<String, Object>>() {});
+                @SuppressWarnings("unchecked")
+                Map<String, Object> properties = (Map<String, Object>) ((Map<String, Object>) mapping.get(DEFAULT_INDEX_TYPE)).get("properties");
+                properties.put(BatchSearchPercolator.QUERY_FIELD, singletonMap("type", "percolator"));
+                properties.put(BatchSearchPercolator.UUID_FIELD, singletonMap("type", "keyword"));
+                properties.put(BatchSearchPercolator.BATCH_QUERY_FIELD, singletonMap("type", "keyword"));
+
+                CreateIndexRequest createReq = new CreateIndexRequest(indexName);
+                createReq.settings(getResourceContent(SETTINGS_RESOURCE_NAME), JSON);
+                createReq.mapping(indexType, MAPPER.writeValueAsString(mapping.get(DEFAULT_INDEX_TYPE)), JSON);
+                client.indices().create(createReq);
+                return true;
+            }
+        } catch (IOException e) {
+            throw new ConfigurationException(e);
+        }
+        return false;
+    }
+
     ElasticsearchConfiguration withRefresh(WriteRequest.RefreshPolicy refreshPolicy) {
         this.refreshPolicy = refreshPolicy;
         return this;
@@ -107,6 +144,7 @@ public class ElasticsearchConfiguration {
                 "indexType='" + indexType + '\'' +
                 ", indexJoinField='" + indexJoinField + '\'' +
                 ", docTypeField='" + docTypeField + '\'' +
+                ", aggregateNamedEntities=" + aggregateNamedEntities +
                 ", shards=" + shards +
                 ", replicas=" + replicas +
                 '}';
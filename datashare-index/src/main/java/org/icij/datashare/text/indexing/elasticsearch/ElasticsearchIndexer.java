@@ -12,14 +12,19 @@ import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.join.ScoreMode;
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.DocWriteResponse;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchScrollRequest;
@@ -39,21 +44,30 @@ import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.script.Script;
 import org.elasticsearch.script.ScriptType;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.sum.Sum;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.elasticsearch.search.slice.SliceBuilder;
 import org.icij.datashare.Entity;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.json.JsonObjectMapper;
 import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
 import org.icij.datashare.text.NamedEntity;
 import org.icij.datashare.text.Project;
 import org.icij.datashare.text.Tag;
-import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.BulkIndexer;
 import org.icij.datashare.text.nlp.Pipeline;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -69,9 +83,10 @@ import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 import static org.elasticsearch.index.query.QueryBuilders.*;
 import static org.icij.datashare.json.JsonObjectMapper.*;
 import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.DEFAULT_SEARCH_SIZE;
+import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.ES_DOCUMENT_TYPE;
 
 
-public class ElasticsearchIndexer implements Indexer {
+public class ElasticsearchIndexer implements BulkIndexer {
     public final RestHighLevelClient client;
     private final ElasticsearchConfiguration esCfg;
 
@@ -92,7 +107,83 @@ public class ElasticsearchIndexer implements Indexer {
     @Override
     public boolean bulkAdd(final String indexName, Pipeline.Type nerType, List<NamedEntity> namedEntities, Document parent) throws IOException {
         BulkRequest bulkRequest = new BulkRequest();
+        addNamedEntities(bulkRequest, indexName, nerType, namedEntities, parent);
+        return executeBulkAdd(bulkRequest);
+    }
+
+    @Override
+    public boolean bulkAdd(String indexName, Pipeline.Type nerType, Map<Document, List<NamedEntity>> namedEntities) throws IOException {
+        BulkRequest bulkRequest = new BulkRequest();
+        for (Map.Entry<Document, List<NamedEntity>> entry : namedEntities.entrySet()) {
+            addNamedEntities(bulkRequest, indexName, nerType, entry.getValue(), entry.getKey());
+        }
+        return bulkRequest.numberOfActions() == 0 || executeBulkAdd(bulkRequest);
+    }
+
+    @Override
+    public List<Document> get(String indexName, List<String> ids, List<String> routings, String... sourceFields) throws IOException {
+        MultiGetRequest multiGetRequest = new MultiGetRequest();
+        FetchSourceContext fetchSource = sourceFields.length == 0 ? FetchSourceContext.FETCH_SOURCE : new FetchSourceContext(true, sourceFields, null);
+        for (int i = 0; i < ids.size(); i++) {
+            multiGetRequest.add(new MultiGetRequest.Item(indexName, esCfg.indexType, ids.get(i))
+                    .routing(routings.get(i)).fetchSourceContext(fetchSource));
+        }
+        List<Document> documents = new ArrayList<>();
+        for (MultiGetItemResponse item : client.mget(multiGetRequest, RequestOptions.DEFAULT)) {
+            if (item.isFailed()) {
+                LOGGER.error("Failed to get document {} in index {}: {}", item.getId(), indexName, item.getFailure().getMessage());
+            } else if (item.getResponse().isExists()) {
+                documents.add(JsonObjectMapper.getObject(item.getId(), item.getResponse().getSourceAsMap(), Document.class));
+            }
+        }
+        return documents;
+    }
 
+    @Override
+    public List<Long> count(List<? extends Searcher> searchers) throws IOException {
+        MultiSearchRequest multiSearchRequest = new MultiSearchRequest();
+        searchers.forEach(searcher -> multiSearchRequest.add(((ElasticsearchSearcher) searcher).countRequest()));
+        List<Long> counts = new ArrayList<>();
+        for (MultiSearchResponse.Item item : client.msearch(multiSearchRequest, RequestOptions.DEFAULT).getResponses()) {
+            if (item.isFailure()) {
+                if (item.getFailure() instanceof ElasticsearchException) {
+                    throw (ElasticsearchException) item.getFailure();
+                }
+                throw new IOException(item.getFailure());
+            }
+            counts.add(item.getResponse().getHits().totalHits);
+        }
+        return counts;
+    }
+
+    @Override
+    public List<Language> getLanguages(String indexName) throws IOException {
+        SearchRequest searchRequest = new SearchRequest(indexName).source(new SearchSourceBuilder().size(0)
+                .query(termQuery(esCfg.docTypeField, ES_DOCUMENT_TYPE))
+                .aggregation(AggregationBuilders.terms("languages").field("language")));
+        Terms languages = client.search(searchRequest, RequestOptions.DEFAULT).getAggregations().get("languages");
+        return languages.getBuckets().stream().map(bucket -> Language.parse(bucket.getKeyAsString())).collect(toList());
+    }
+
+    @Override
+    public Map<NamedEntity.Category, Long> countMentions(String indexName, String documentId) throws IOException {
+        BoolQueryBuilder query = boolQuery().filter(termQuery(esCfg.docTypeField, "NamedEntity")).mustNot(termQuery("isHidden", true));
+        if (documentId != null) {
+            query.filter(termQuery("documentId", documentId));
+        }
+        SearchRequest searchRequest = new SearchRequest(indexName).source(new SearchSourceBuilder().size(0).query(query)
+                .aggregation(AggregationBuilders.terms("categories").field("category")
+                        .subAggregation(AggregationBuilders.sum("mentions").field("mentionCount").missing(1))));
+        Terms categories = client.search(searchRequest, RequestOptions.DEFAULT).getAggregations().get("categories");
+        Map<NamedEntity.Category, Long> mentions = new LinkedHashMap<>();
+        for (Terms.Bucket bucket : categories.getBuckets()) {
+            Sum sum = bucket.getAggregations().get("mentions");
+            mentions.put(NamedEntity.Category.parse(bucket.getKeyAsString()), (long) sum.getValue());
+        }
+        return mentions;
+    }
+
+    private void addNamedEntities(BulkRequest bulkRequest, String indexName, Pipeline.Type nerType, List<NamedEntity> namedEntities, Document parent) throws IOException {
         String routing = ofNullable(parent.getRootDocument()).orElse(parent.getId());
         bulkRequest.add(new UpdateRequest(indexName, esCfg.indexType, parent.getId()).doc(
                 jsonBuilder().startObject()
@@ -103,10 +194,35 @@ public class ElasticsearchIndexer implements Indexer {
                         "if (!ctx._source.nerTags.contains(params.nerTag)) ctx._source.nerTags.add(params.nerTag);",
                         new HashMap<String, Object>() {{put("nerTag", nerType.toString());}})).routing(routing));
 
-        for (Entity child : namedEntities) {
-            bulkRequest.add(createIndexRequest(indexName, JsonObjectMapper.getType(child), child.getId(),
-                    getJson(child), parent.getId(), routing));
+        if (esCfg.aggregateNamedEntities) {
+            for (List<NamedEntity> mentions : aggregate(namedEntities)) {
+                NamedEntity first = mentions.get(0);
+                Map<String, Object> json = getJson(first);
+                json.put("offsets", mentions.stream().map(NamedEntity::getOffset).collect(toList()));
+                json.put("mentionCount", mentions.size());
+                bulkRequest.add(createIndexRequest(indexName, JsonObjectMapper.getType(first), first.getId(),
+                        json, parent.getId(), routing));
+            }
+        } else {
+            for (Entity child : namedEntities) {
+                bulkRequest.add(createIndexRequest(indexName, JsonObjectMapper.getType(child), child.getId(),
+                        getJson(child), parent.getId(), routing));
+            }
         }
+    }
+
+    /**
+     * groups the named entities of a document by normalized mention, category and extractor.
+     * Each group is indexed as one child with the id of its first named entity (that is computed back
+     * from its fields when it is read), the offsets of all the mentions and their count.
+     */
+    static Collection<List<NamedEntity>> aggregate(List<NamedEntity> namedEntities) {
+        return namedEntities.stream().collect(Collectors.groupingBy(
+                ne -> Arrays.asList(NamedEntity.normalize(ne.getMention()), ne.getCategory(), ne.getExtractor()),
+                LinkedHashMap::new, toList())).values();
+    }
+
+    private boolean executeBulkAdd(BulkRequest bulkRequest) throws IOException {
         bulkRequest.setRefreshPolicy(esCfg.refreshPolicy);
 
         BulkResponse bulkResponse = client.bulk(bulkRequest);
@@ -291,7 +407,7 @@ public class ElasticsearchIndexer implements Indexer {
     }
 
     @Override
-    public Searcher search(final String indexName, Class<? extends Entity> entityClass) {
+    public FilterSearcher search(final String indexName, Class<? extends Entity> entityClass) {
         return new ElasticsearchSearcher(client, esCfg, indexName, entityClass);
     }
 
@@ -324,6 +440,24 @@ public class ElasticsearchIndexer implements Indexer {
         return this;
     }
 
+    static String queryString(String query, int fuzziness, boolean phraseMatches) {
+        String queryString = query;
+        try {
+            if (!hasLuceneOperators(query)) {
+                if (phraseMatches) {
+                    queryString = "\"" + query + "\"" + (fuzziness == 0 ? "": "~" + fuzziness);
+                } else if (fuzziness > 0) {
+                    queryString = Stream.of(query.split(" ")).map(s -> s + "~" + fuzziness).collect(Collectors.joining(" "));
+                }
+            } else if (fuzziness != 0 || phraseMatches) {
+                LOGGER.info("detected lucene operators in \"{}\", fuzziness and phrase match won't be applied", query);
+            }
+        } catch (org.apache.lucene.queryparser.classic.ParseException e) {
+            LOGGER.warn("cannot parse query. Sending query as string query", e);
+        }
+        return queryString;
+    }
+
     static boolean hasLuceneOperators(String query) throws ParseException {
         String sanitizedQueryForLucene = query.replaceAll("\\^(?!\\d)", "\\^1");
         org.apache.lucene.queryparser.classic.QueryParser parser =
@@ -353,7 +487,7 @@ public class ElasticsearchIndexer implements Indexer {
         }
     }
 
-    static class ElasticsearchSearcher implements Searcher {
+    static class ElasticsearchSearcher implements FilterSearcher {
         static final TimeValue KEEP_ALIVE = new TimeValue(60000);
         private final BoolQueryBuilder boolQuery;
         private final RestHighLevelClient client;
@@ -373,6 +507,12 @@ public class ElasticsearchIndexer implements Indexer {
             this.boolQuery = boolQuery().must(matchQuery("type", JsonObjectMapper.getType(cls)));
         }
 
+        @Override
+        public FilterSearcher extractedAfter(Date date) {
+            this.boolQuery.filter(rangeQuery("extractionDate").gt(date.getTime()).format("epoch_millis"));
+            return this;
+        }
+
         @Override
         public Searcher ofStatus(Document.Status status) {
             this.boolQuery.must(matchQuery("status", status.toString()));
@@ -385,9 +525,14 @@ public class ElasticsearchIndexer implements Indexer {
             SearchRequest searchRequest = new SearchRequest(new String[]{indexName}, sourceBuilder);
             searchRequest.types(config.indexType);
             SearchResponse search = client.search(searchRequest);
+            totalHits = search.getHits().totalHits;
             return resultStream(this.cls, () -> search.getHits().iterator());
         }
 
+        SearchRequest countRequest() {
+            return new SearchRequest(new String[]{indexName}, new SearchSourceBuilder().size(0).query(boolQuery)).types(config.indexType);
+        }
+
         @Override
         public Stream<? extends Entity> scroll() throws IOException {
             return scroll(0, 0);
@@ -458,20 +603,7 @@ public class ElasticsearchIndexer implements Indexer {
 
         @Override
         public Searcher with(String query, int fuzziness, boolean phraseMatches) {
-            String queryString = query;
-            try {
-                if (!hasLuceneOperators(query)) {
-                    if (phraseMatches) {
-                        queryString = "\"" + query + "\"" + (fuzziness == 0 ? "": "~" + fuzziness);
-                    } else if (fuzziness > 0) {
-                        queryString = Stream.of(query.split(" ")).map(s -> s + "~" + fuzziness).collect(Collectors.joining(" "));
-                    }
-                } else if (fuzziness != 0 || phraseMatches) {
-                    LOGGER.info("detected lucene operators in \"{}\", fuzziness and phrase match won't be applied", query);
-                }
-            } catch (org.apache.lucene.queryparser.classic.ParseException e) {
-                LOGGER.warn("cannot parse query. Sending query as string query", e);
-            }
+            String queryString = queryString(query, fuzziness, phraseMatches);
             this.boolQuery.must(new MatchAllQueryBuilder());
             this.boolQuery.must(new QueryStringQueryBuilder(queryString).defaultField("*"));
             this.boolQuery.should(new HasChildQueryBuilder("NamedEntity", new QueryStringQueryBuilder(queryString).defaultField("mentionNorm"), ScoreMode.None));
@@ -45,22 +45,30 @@ public class ElasticsearchSpewer extends Spewer implements Serializable {
     private final ElasticsearchConfiguration esCfg;
     private final Publisher publisher;
     private final LanguageGuesser languageGuesser;
+    private final BatchSearchPercolator percolator;
     private String indexName;
 
-    @Inject
     public ElasticsearchSpewer(final RestHighLevelClient client, LanguageGuesser languageGuesser, final FieldNames fields,
                                Publisher publisher, final PropertiesProvider propertiesProvider) {
+        this(client, languageGuesser, fields, publisher, null, propertiesProvider);
+    }
+
+    @Inject
+    public ElasticsearchSpewer(final RestHighLevelClient client, LanguageGuesser languageGuesser, final FieldNames fields,
+                               Publisher publisher, BatchSearchPercolator percolator, final PropertiesProvider propertiesProvider) {
         super(fields);
         this.client = client;
         this.languageGuesser = languageGuesser;
         this.publisher = publisher;
+        this.percolator = percolator;
         this.esCfg = new ElasticsearchConfiguration(propertiesProvider);
         logger.info("spewer defined with {}", esCfg);
     }
 
     @Override
     protected void writeDocument(TikaDocument doc, TikaDocument parent, TikaDocument root, int level) throws IOException {
-        final IndexRequest req = prepareRequest(doc, parent, root, level);
+        Map<String, Object> jsonDocument = getDocumentMap(doc);
+        final IndexRequest req = prepareRequest(doc, parent, root, level, jsonDocument);
         long before = currentTimeMillis();
         IndexResponse indexResponse = client.index(req);
         logger.info("{} {} added to elasticsearch in {}ms: {}", parent == null ? "Document" : "Child",
@@ -69,7 +77,24 @@ public class ElasticsearchSpewer extends Spewer implements Serializable {
             publisher.publish(NLP, new Message(EXTRACT_NLP)
                     .add(Message.Field.INDEX_NAME, indexName)
                     .add(Message.Field.DOC_ID, indexResponse.getId())
-                    .add(Message.Field.R_ID, parent == null ? doc.getId() : root.getId()));
+                    .add(Message.Field.R_ID, parent == null ? doc.getId() : root.getId())
+                    .add(Message.Field.VALUE, String.valueOf(jsonDocument.get("language"))));
+        }
+        if (percolator != null) {
+            try {
+                percolator.add(indexName, indexResponse.getId(), req.sourceAsMap());
+            } catch (IOException | RuntimeException ex) {
+                logger.error("cannot percolate standing batch searches for {}", indexResponse.getId(), ex);
+            }
+        }
+    }
+
+    /**
+     * matches the documents that have not been percolated yet against the standing batch searches
+     */
+    public void percolatePending() throws IOException {
+        if (percolator != null) {
+            percolator.flush();
         }
     }
 
@@ -82,9 +107,9 @@ public class ElasticsearchSpewer extends Spewer implements Serializable {
         ElasticsearchConfiguration.createIndex(client, indexName, DEFAULT_INDEX_TYPE);
     }
 
-    private IndexRequest prepareRequest(final TikaDocument document, final TikaDocument parent, TikaDocument root, final int level) throws IOException {
+    private IndexRequest prepareRequest(final TikaDocument document, final TikaDocument parent, TikaDocument root, final int level,
+                                        Map<String, Object> jsonDocument) throws IOException {
         IndexRequest req = new IndexRequest(indexName, esCfg.indexType, document.getId());
-        Map<String, Object> jsonDocument = getDocumentMap(document);
 
         if (parent == null && isDuplicate(document.getId())) {
             IndexRequest indexRequest = new IndexRequest(indexName, esCfg.indexType, Entity.HASHER.hash(document.getPath()));
@@ -7,6 +7,7 @@ import org.elasticsearch.join.ParentJoinPlugin;
 import org.elasticsearch.node.InternalSettingsPreparer;
 import org.elasticsearch.node.Node;
 import org.elasticsearch.painless.PainlessPlugin;
+import org.elasticsearch.percolator.PercolatorPlugin;
 import org.elasticsearch.plugins.Plugin;
 import org.elasticsearch.transport.Netty4Plugin;
 
@@ -35,7 +36,8 @@ public class EsEmbeddedServer {
                 ParentJoinPlugin.class,
                 CommonAnalysisPlugin.class,
                 PainlessPlugin.class,
-                ReindexPlugin.class
+                ReindexPlugin.class,
+                PercolatorPlugin.class
         ));
     }
 
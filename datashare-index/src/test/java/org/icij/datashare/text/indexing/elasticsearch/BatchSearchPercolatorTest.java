@@ -0,0 +1,173 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.apache.tika.parser.ParsingReader;
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.batch.BatchSearch;
+import org.icij.datashare.batch.BatchSearchRepository;
+import org.icij.datashare.com.Publisher;
+import org.icij.datashare.test.ElasticsearchRule;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
+import org.icij.datashare.user.User;
+import org.icij.extract.document.DocumentFactory;
+import org.icij.extract.document.PathIdentifier;
+import org.icij.extract.document.TikaDocument;
+import org.icij.spewer.FieldNames;
+import org.junit.After;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+
+import static java.nio.file.Paths.get;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.elasticsearch.action.support.WriteRequest.RefreshPolicy.IMMEDIATE;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.CollectionUtils.asSet;
+import static org.icij.datashare.test.ElasticsearchRule.TEST_INDEX;
+import static org.icij.datashare.text.Project.project;
+import static org.icij.datashare.text.indexing.elasticsearch.BatchSearchPercolator.percolatorIndex;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class BatchSearchPercolatorTest {
+    @ClassRule
+    public static ElasticsearchRule es = new ElasticsearchRule();
+    private final BatchSearchRepository repository = mock(BatchSearchRepository.class);
+    private final BatchSearchPercolator percolator = new BatchSearchPercolator(es.client, repository, new PropertiesProvider()).withRefresh(IMMEDIATE);
+    private final ElasticsearchSpewer spewer = new ElasticsearchSpewer(es.client, text -> Language.ENGLISH, new FieldNames(),
+            mock(Publisher.class), percolator, new PropertiesProvider()).withRefresh(IMMEDIATE).withIndex(TEST_INDEX);
+
+    @After
+    public void tearDown() throws IOException {
+        es.removeAll();
+        es.delete(percolatorIndex(TEST_INDEX));
+    }
+
+    @Test
+    public void test_register_batch_search() throws Exception {
+        assertThat(percolator.register(new BatchSearch(project(TEST_INDEX), "name", "desc", asSet("foo", "bar"), User.local()))).isEqualTo(2);
+    }
+
+    @Test
+    public void test_is_registered() throws Exception {
+        BatchSearch batchSearch = new BatchSearch(project(TEST_INDEX), "name", "desc", asSet("foo"), User.local());
+        assertThat(percolator.isRegistered(batchSearch.uuid)).isFalse();
+
+        percolator.register(batchSearch);
+
+        assertThat(percolator.isRegistered(batchSearch.uuid)).isTrue();
+    }
+
+    @Test
+    public void test_new_documents_are_matched_against_standing_batch_search() throws Exception {
+        BatchSearch batchSearch = new BatchSearch(project(TEST_INDEX), "name", "desc", asSet("foo", "baz"), User.local());
+        when(repository.get(batchSearch.uuid)).thenReturn(batchSearch);
+        percolator.register(batchSearch);
+
+        TikaDocument doc1 = write("doc1.txt", "content with foo");
+        write("doc2.txt", "content with bar");
+        spewer.percolatePending();
+
+        ArgumentCaptor<List<Document>> documents = ArgumentCaptor.forClass(List.class);
+        verify(repository).saveResults(eq(batchSearch.uuid), eq("foo"), documents.capture());
+        verify(repository, never()).saveResults(eq(batchSearch.uuid), eq("baz"), anyList());
+        assertThat(documents.getValue()).hasSize(1);
+        assertThat(documents.getValue().get(0).getId()).isEqualTo(doc1.getId());
+    }
+
+    @Test
+    public void test_document_indexed_twice_is_percolated_once() throws Exception {
+        BatchSearch batchSearch = new BatchSearch(project(TEST_INDEX), "name", "desc", asSet("foo"), User.local());
+        when(repository.get(batchSearch.uuid)).thenReturn(batchSearch);
+        percolator.register(batchSearch);
+
+        write("doc.txt", "content with foo");
+        write("doc.txt", "content with foo");
+
+        assertThat(percolator.flush()).isEqualTo(1);
+        ArgumentCaptor<List<Document>> documents = ArgumentCaptor.forClass(List.class);
+        verify(repository).saveResults(eq(batchSearch.uuid), eq("foo"), documents.capture());
+        assertThat(documents.getValue()).hasSize(1);
+    }
+
+    @Test
+    public void test_buffered_documents_are_percolated_after_max_wait() throws Exception {
+        BatchSearchPercolator percolator = new BatchSearchPercolator(es.client, repository, new PropertiesProvider(new HashMap<String, String>() {{
+            put("percolateMaxWaitMillis", "100");
+        }})).withRefresh(IMMEDIATE);
+        ElasticsearchSpewer spewer = new ElasticsearchSpewer(es.client, text -> Language.ENGLISH, new FieldNames(),
+                mock(Publisher.class), percolator, new PropertiesProvider()).withRefresh(IMMEDIATE).withIndex(TEST_INDEX);
+        BatchSearch batchSearch = new BatchSearch(project(TEST_INDEX), "name", "desc", asSet("foo"), User.local());
+        when(repository.get(batchSearch.uuid)).thenReturn(batchSearch);
+        percolator.register(batchSearch);
+
+        write(spewer, "doc.txt", "content with foo");
+
+        verify(repository, timeout(5000)).saveResults(eq(batchSearch.uuid), eq("foo"), anyList());
+    }
+
+    @Test
+    public void test_standing_batch_search_results_are_capped() throws Exception {
+        BatchSearch batchSearch = new BatchSearch(project(TEST_INDEX), "name", "desc", asSet("foo"), User.local());
+        when(repository.get(batchSearch.uuid)).thenReturn(new BatchSearch(batchSearch.uuid, batchSearch.project, batchSearch.name,
+                batchSearch.description, batchSearch.queries, batchSearch.getDate(), batchSearch.state, batchSearch.user,
+                BatchSearchPercolator.MAX_BATCH_RESULT_SIZE, batchSearch.published, batchSearch.fileTypes, batchSearch.paths,
+                batchSearch.fuzziness, batchSearch.phraseMatches, null));
+        percolator.register(batchSearch);
+
+        write("doc.txt", "content with foo");
+        spewer.percolatePending();
+
+        verify(repository, never()).saveResults(anyString(), anyString(), anyList());
+    }
+
+    @Test
+    public void test_standing_batch_search_with_file_types() throws Exception {
+        BatchSearch batchSearch = new BatchSearch(project(TEST_INDEX), "name", "desc", asSet("foo"), User.local(), false,
+                singletonList("application/pdf"), asList(), 0);
+        percolator.register(batchSearch);
+
+        write("doc.txt", "content with foo");
+        spewer.percolatePending();
+
+        verify(repository, never()).saveResults(anyString(), anyString(), anyList());
+    }
+
+    @Test
+    public void test_unregistered_batch_search_is_not_matched() throws Exception {
+        BatchSearch batchSearch = new BatchSearch(project(TEST_INDEX), "name", "desc", asSet("foo"), User.local());
+        percolator.register(batchSearch);
+
+        assertThat(percolator.unregister(batchSearch.uuid)).isTrue();
+        write("doc.txt", "content with foo");
+        spewer.percolatePending();
+
+        verify(repository, never()).saveResults(anyString(), anyString(), anyList());
+    }
+
+    @Test
+    public void test_no_percolation_without_standing_batch_search() throws Exception {
+        write("doc.txt", "content with foo");
+
+        assertThat(percolator.flush()).isEqualTo(0);
+    }
+
+    private TikaDocument write(String path, String content) throws IOException {
+        return write(spewer, path, content);
+    }
+
+    private TikaDocument write(ElasticsearchSpewer spewer, String path, String content) throws IOException {
+        TikaDocument document = new DocumentFactory().withIdentifier(new PathIdentifier()).create(get(path));
+        document.setReader(new ParsingReader(new ByteArrayInputStream(content.getBytes())));
+        spewer.write(document);
+        return document;
+    }
+}
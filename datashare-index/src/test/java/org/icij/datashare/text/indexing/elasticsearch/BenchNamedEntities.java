@@ -0,0 +1,70 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.test.ElasticsearchRule;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
+import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.nlp.Pipeline;
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.icij.datashare.json.JsonObjectMapper.MAPPER;
+import static org.icij.datashare.text.Project.project;
+
+/**
+ * compares the write time and the index size of the named entities indexed one per mention
+ * and aggregated by normalized mention, category and extractor.
+ */
+public class BenchNamedEntities {
+    static Logger logger = LoggerFactory.getLogger(BenchNamedEntities.class);
+    @Rule
+    public ElasticsearchRule mentionsIndex = new ElasticsearchRule("bench-mentions");
+    @Rule
+    public ElasticsearchRule aggregatedIndex = new ElasticsearchRule("bench-aggregated");
+
+    @Test
+    public void testWritesAndIndexSize() throws IOException {
+        bench(new ElasticsearchIndexer(mentionsIndex.client, new PropertiesProvider()), "bench-mentions");
+        bench(new ElasticsearchIndexer(aggregatedIndex.client, new PropertiesProvider(new HashMap<String, String>() {{
+            put("aggregateNamedEntities", "true");
+        }})), "bench-aggregated");
+    }
+
+    private void bench(ElasticsearchIndexer indexer, String indexName) throws IOException {
+        int nbDocs = 100;
+        int nbMentions = 2000;
+        Random random = new Random(42);
+        long writeTime = 0;
+        for (int docIdx = 0; docIdx < nbDocs; docIdx++) {
+            Document document = new Document(project("prj"), Paths.get("/foo/bar_" + docIdx + ".txt"),
+                    "This is a mailbox mentioning John Smith " + docIdx, Language.ENGLISH, Charset.defaultCharset(),
+                    "message/rfc822", new HashMap<>(), Document.Status.INDEXED, 345L);
+            indexer.add(indexName, document);
+
+            List<NamedEntity> neList = new ArrayList<>();
+            for (int neIdx = 0; neIdx < nbMentions; neIdx++) {
+                // a few people are mentioned a lot in a mailbox
+                int person = (int) Math.abs(random.nextGaussian() * 10);
+                neList.add(NamedEntity.create(NamedEntity.Category.PERSON, "John Smith" + person, neIdx * 50,
+                        document.getId(), Pipeline.Type.CORENLP, Language.ENGLISH));
+            }
+            long beginTime = System.currentTimeMillis();
+            indexer.bulkAdd(indexName, Pipeline.Type.CORENLP, neList, document);
+            writeTime += System.currentTimeMillis() - beginTime;
+        }
+        indexer.executeRaw("POST", indexName + "/_refresh", null);
+        indexer.executeRaw("POST", indexName + "/_forcemerge?max_num_segments=1", null);
+        Map stats = MAPPER.readValue(indexer.executeRaw("GET", indexName + "/_stats/docs,store", null), Map.class);
+        Map primaries = (Map) ((Map) stats.get("_all")).get("primaries");
+        logger.info("{}: {} docs with {} mentions written in {}ms, {} ES documents, {} bytes", indexName, nbDocs, nbMentions,
+                writeTime, ((Map) primaries.get("docs")).get("count"), ((Map) primaries.get("store")).get("size_in_bytes"));
+    }
+}
@@ -112,6 +112,154 @@ public class ElasticsearchIndexerTest {
         assertThat(actual.getRootDocument()).isEqualTo(doc.getRootDocument());
     }
 
+    @Test
+    public void test_bulk_add_for_several_documents() throws IOException {
+        Document doc1 = new org.icij.datashare.text.Document("id1", project("prj"), Paths.get("doc1.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 4324L);
+        Document doc2 = new org.icij.datashare.text.Document("id2", project("prj"), Paths.get("doc2.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 4324L);
+        indexer.add(TEST_INDEX, doc1);
+        indexer.add(TEST_INDEX, doc2);
+        NamedEntity ne1 = create(PERSON, "John Doe", 12, doc1.getId(), CORENLP, Language.FRENCH);
+        NamedEntity ne2 = create(ORGANIZATION, "AAA", 123, doc2.getId(), CORENLP, Language.FRENCH);
+
+        assertThat(indexer.bulkAdd(TEST_INDEX, CORENLP, new LinkedHashMap<Document, List<NamedEntity>>() {{
+            put(doc1, singletonList(ne1));
+            put(doc2, singletonList(ne2));
+        }})).isTrue();
+
+        assertThat(((Document) indexer.get(TEST_INDEX, doc1.getId())).getStatus()).isEqualTo(Document.Status.DONE);
+        assertThat(((Document) indexer.get(TEST_INDEX, doc2.getId())).getNerTags()).containsOnly(CORENLP);
+        assertThat((NamedEntity) indexer.get(TEST_INDEX, ne1.getId(), doc1.getId())).isNotNull();
+        assertThat((NamedEntity) indexer.get(TEST_INDEX, ne2.getId(), doc2.getId())).isNotNull();
+    }
+
+    @Test
+    public void test_bulk_add_aggregated_named_entities() throws IOException {
+        ElasticsearchIndexer aggregatingIndexer = new ElasticsearchIndexer(es.client, new PropertiesProvider(new HashMap<String, String>() {{
+            put("aggregateNamedEntities", "true");
+        }})).withRefresh(IMMEDIATE);
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 4324L);
+        aggregatingIndexer.add(TEST_INDEX, doc);
+        NamedEntity john = create(PERSON, "John Doe", 12, doc.getId(), CORENLP, Language.FRENCH);
+
+        assertThat(aggregatingIndexer.bulkAdd(TEST_INDEX, CORENLP, asList(john,
+                create(ORGANIZATION, "AAA", 123, doc.getId(), CORENLP, Language.FRENCH),
+                create(PERSON, "john doe", 140, doc.getId(), CORENLP, Language.FRENCH),
+                create(PERSON, "John Doe", 160, doc.getId(), CORENLP, Language.FRENCH)), doc)).isTrue();
+
+        assertThat(aggregatingIndexer.search(TEST_INDEX, NamedEntity.class).execute().collect(toList())).hasSize(2);
+        GetResponse resp = es.client.get(new GetRequest(TEST_INDEX, "doc", john.getId()).routing(doc.getId()));
+        assertThat((List<Integer>) resp.getSourceAsMap().get("offsets")).containsExactly(12, 140, 160);
+        assertThat(resp.getSourceAsMap().get("mentionCount")).isEqualTo(3);
+        assertThat((NamedEntity) aggregatingIndexer.get(TEST_INDEX, john.getId(), doc.getId())).isEqualTo(john);
+    }
+
+    @Test
+    public void test_count_mentions_with_aggregated_and_not_aggregated_named_entities() throws IOException {
+        ElasticsearchIndexer aggregatingIndexer = new ElasticsearchIndexer(es.client, new PropertiesProvider(new HashMap<String, String>() {{
+            put("aggregateNamedEntities", "true");
+        }})).withRefresh(IMMEDIATE);
+        Document doc1 = new org.icij.datashare.text.Document("id1", project("prj"), Paths.get("doc1.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 4324L);
+        Document doc2 = new org.icij.datashare.text.Document("id2", project("prj"), Paths.get("doc2.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 4324L);
+        indexer.add(TEST_INDEX, doc1);
+        indexer.add(TEST_INDEX, doc2);
+        aggregatingIndexer.bulkAdd(TEST_INDEX, CORENLP, asList(
+                create(PERSON, "John Doe", 12, doc1.getId(), CORENLP, Language.FRENCH),
+                create(PERSON, "John Doe", 140, doc1.getId(), CORENLP, Language.FRENCH),
+                create(ORGANIZATION, "AAA", 123, doc1.getId(), CORENLP, Language.FRENCH)), doc1);
+        indexer.bulkAdd(TEST_INDEX, CORENLP, asList(
+                create(PERSON, "Jane Doe", 12, doc2.getId(), CORENLP, Language.FRENCH),
+                create(PERSON, "Jane Doe", 42, doc2.getId(), CORENLP, Language.FRENCH)), doc2);
+
+        assertThat(indexer.countMentions(TEST_INDEX, doc1.getId())).isEqualTo(new HashMap<NamedEntity.Category, Long>() {{
+            put(PERSON, 2L); put(ORGANIZATION, 1L);
+        }});
+        assertThat(indexer.countMentions(TEST_INDEX, doc2.getId())).isEqualTo(new HashMap<NamedEntity.Category, Long>() {{
+            put(PERSON, 2L);
+        }});
+        assertThat(indexer.countMentions(TEST_INDEX, null).get(PERSON)).isEqualTo(4L);
+    }
+
+    @Test
+    public void test_count_mentions_ignores_hidden_named_entities() throws IOException {
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 4324L);
+        indexer.add(TEST_INDEX, doc);
+        NamedEntity john = create(PERSON, "John Doe", 12, doc.getId(), CORENLP, Language.FRENCH);
+        indexer.bulkAdd(TEST_INDEX, CORENLP, asList(john, create(PERSON, "Jane Doe", 42, doc.getId(), CORENLP, Language.FRENCH)), doc);
+        indexer.bulkUpdate(TEST_INDEX, singletonList(john.hide()));
+
+        assertThat(indexer.countMentions(TEST_INDEX, doc.getId()).get(PERSON)).isEqualTo(1L);
+    }
+
+    @Test
+    public void test_hide_aggregated_named_entities_keeps_offsets() throws IOException {
+        ElasticsearchIndexer aggregatingIndexer = new ElasticsearchIndexer(es.client, new PropertiesProvider(new HashMap<String, String>() {{
+            put("aggregateNamedEntities", "true");
+        }})).withRefresh(IMMEDIATE);
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 4324L);
+        aggregatingIndexer.add(TEST_INDEX, doc);
+        NamedEntity john = create(PERSON, "John Doe", 12, doc.getId(), CORENLP, Language.FRENCH);
+        aggregatingIndexer.bulkAdd(TEST_INDEX, CORENLP, asList(john, create(PERSON, "John Doe", 42, doc.getId(), CORENLP, Language.FRENCH)), doc);
+
+        List<? extends Entity> hidden = aggregatingIndexer.search(TEST_INDEX, NamedEntity.class).thatMatchesFieldValue("mentionNorm", "john doe")
+                .execute().map(ne -> ((NamedEntity) ne).hide()).collect(toList());
+        aggregatingIndexer.bulkUpdate(TEST_INDEX, hidden);
+
+        GetResponse resp = es.client.get(new GetRequest(TEST_INDEX, "doc", john.getId()).routing(doc.getId()));
+        assertThat(resp.getSourceAsMap().get("isHidden")).isEqualTo(true);
+        assertThat((List<Integer>) resp.getSourceAsMap().get("offsets")).containsExactly(12, 42);
+    }
+
+    @Test
+    public void test_multi_get_with_source_filtering() throws IOException {
+        Document doc1 = new org.icij.datashare.text.Document("id1", project("prj"), Paths.get("doc1.txt"), "content1",
+                Language.FRENCH, Charset.defaultCharset(), "application/pdf", new HashMap<String, Object>() {{put("key", "value");}}, INDEXED, new HashSet<>(), 4324L);
+        Document doc2 = new org.icij.datashare.text.Document("id2", project("prj"), Paths.get("doc2.txt"), "content2",
+                Language.ENGLISH, Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(), 4324L);
+        indexer.add(TEST_INDEX, doc1);
+        indexer.add(TEST_INDEX, doc2);
+
+        List<Document> documents = indexer.get(TEST_INDEX, asList("id2", "unknown", "id1"), asList("id2", "unknown", "id1"), "content", "language");
+
+        assertThat(documents).hasSize(2);
+        assertThat(documents.get(0).getId()).isEqualTo("id2");
+        assertThat(documents.get(0).getContent()).isEqualTo("content2");
+        assertThat(documents.get(0).getLanguage()).isEqualTo(Language.ENGLISH);
+        assertThat(documents.get(1).getId()).isEqualTo("id1");
+        assertThat(documents.get(1).getContent()).isEqualTo("content1");
+    }
+
+    @Test
+    public void test_get_languages_most_frequent_first() throws IOException {
+        indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id1", project("prj"), Paths.get("doc1.txt"), "content1",
+                Language.ENGLISH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 12L));
+        indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id2", project("prj"), Paths.get("doc2.txt"), "content2",
+                Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 12L));
+        indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id3", project("prj"), Paths.get("doc3.txt"), "content3",
+                Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 12L));
+
+        assertThat(indexer.getLanguages(TEST_INDEX)).containsExactly(Language.FRENCH, Language.ENGLISH);
+    }
+
+    @Test
+    public void test_count_several_searchers_with_one_request() throws IOException {
+        indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id1", project("prj"), Paths.get("doc1.txt"), "foo bar",
+                Language.ENGLISH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 12L));
+        indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id2", project("prj"), Paths.get("doc2.txt"), "foo",
+                Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 12L));
+
+        assertThat(indexer.count(asList(
+                indexer.search(TEST_INDEX, Document.class).with("foo"),
+                indexer.search(TEST_INDEX, Document.class).with("bar"),
+                indexer.search(TEST_INDEX, Document.class).with("baz")))).containsExactly(2L, 1L, 0L);
+    }
+
     @Test
     public void test_update_named_entity() throws IOException {
         Document parent = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content Madeline",
@@ -144,6 +292,29 @@ public class ElasticsearchIndexerTest {
         assertThat(indexer.search(TEST_INDEX,Document.class).ofStatus(DONE).execute().collect(toList()).size()).isEqualTo(0);
     }
 
+    @Test
+    public void test_search_total_hits_without_fetching_documents() throws IOException {
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content", Language.FRENCH,
+                Charset.defaultCharset(), "application/pdf", new HashMap<>(), INDEXED, new HashSet<>(),123L);
+        indexer.add(TEST_INDEX, doc);
+
+        Indexer.Searcher searcher = indexer.search(TEST_INDEX, Document.class).ofStatus(INDEXED).limit(0);
+        assertThat(searcher.execute().collect(toList())).isEmpty();
+        assertThat(searcher.totalHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_search_extracted_after() throws IOException {
+        indexer.add(TEST_INDEX, new Document(project("prj"), "old", Paths.get("old.txt"), "content", Language.FRENCH,
+                Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), new Date(1000), null, null, (short) 0, 123L));
+        indexer.add(TEST_INDEX, new Document(project("prj"), "new", Paths.get("new.txt"), "content", Language.FRENCH,
+                Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), new Date(3000), null, null, (short) 0, 123L));
+
+        List<? extends Entity> lst = indexer.search(TEST_INDEX, Document.class).extractedAfter(new Date(2000)).execute().collect(toList());
+
+        assertThat(lst.stream().map(Entity::getId).collect(toList())).containsExactly("new");
+    }
+
     @Test
     public void test_tag_document() throws IOException {
         Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content", Language.FRENCH,
@@ -78,6 +78,7 @@ public class ElasticsearchSpewerTest {
         ArgumentCaptor<Message> argument = ArgumentCaptor.forClass(Message.class);
         verify(publisher).publish(eq(Channel.NLP), argument.capture());
         assertThat(argument.getValue().content).includes(entry(Field.DOC_ID, document.getId()));
+        assertThat(argument.getValue().content).includes(entry(Field.VALUE, "ENGLISH"));
     }
 
     @Test
@@ -0,0 +1,116 @@
+package org.icij.datashare.text.nlp.corenlp;
+
+import org.icij.datashare.text.Language;
+import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.nlp.Pipeline;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import static org.icij.datashare.function.ThrowingFunctions.removeNewLines;
+
+/**
+ * NER annotations of a document stored in growable primitive arrays (begin and end offsets,
+ * category ordinals), instead of one {@link org.icij.datashare.text.nlp.NlpTag} object per
+ * span like {@link org.icij.datashare.text.nlp.Annotations}. The other stages (TOKEN, POS...)
+ * are not kept because only the named entities are returned by the pipeline.
+ *
+ * The named entities are only created when the list returned by {@link #namedEntities(String)}
+ * is read (i.e. when they are written in the index), with the same values as
+ * {@link NamedEntity#allFrom(String, org.icij.datashare.text.nlp.Annotations)}.
+ */
+final class CoreNlpAnnotations {
+    private static final NamedEntity.Category[] CATEGORIES = NamedEntity.Category.values();
+    private final String documentId;
+    private final Pipeline.Type pipelineType;
+    private final Language language;
+    private final Spans ner = new Spans();
+
+    CoreNlpAnnotations(String documentId, Pipeline.Type pipelineType, Language language) {
+        this.documentId = documentId;
+        this.pipelineType = pipelineType;
+        this.language = language;
+    }
+
+    void add(int begin, int end, NamedEntity.Category category) {
+        ner.add(begin, end, category);
+    }
+
+    int size() {
+        return ner.size;
+    }
+
+    /**
+     * @return a read only view of the NER spans (without the UNKNOWN ones) creating a named entity at each get.
+     * It doesn't reference these annotations, only the spans and the content.
+     */
+    List<NamedEntity> namedEntities(String content) {
+        int[] known = ner.indexesOfCategoriesOtherThan(NamedEntity.Category.UNKNOWN);
+        return new NamedEntities(content, ner, known, documentId, pipelineType, language);
+    }
+
+    private static final class NamedEntities extends AbstractList<NamedEntity> implements RandomAccess {
+        private final String content;
+        private final Spans ner;
+        private final int[] indexes;
+        private final String documentId;
+        private final Pipeline.Type pipelineType;
+        private final Language language;
+
+        private NamedEntities(String content, Spans ner, int[] indexes, String documentId, Pipeline.Type pipelineType, Language language) {
+            this.content = content;
+            this.ner = ner;
+            this.indexes = indexes;
+            this.documentId = documentId;
+            this.pipelineType = pipelineType;
+            this.language = language;
+        }
+
+        @Override
+        public NamedEntity get(int index) {
+            int span = indexes[index];
+            return NamedEntity.create(CATEGORIES[ner.categories[span]],
+                    removeNewLines.apply(content.substring(ner.begins[span], ner.ends[span])),
+                    (long) ner.begins[span], documentId, pipelineType, language);
+        }
+
+        @Override
+        public int size() {
+            return indexes.length;
+        }
+    }
+
+    static final class Spans {
+        private static final int INITIAL_CAPACITY = 64;
+        int[] begins = new int[INITIAL_CAPACITY];
+        int[] ends = new int[INITIAL_CAPACITY];
+        byte[] categories = new byte[INITIAL_CAPACITY];
+        int size = 0;
+
+        void add(int begin, int end, NamedEntity.Category category) {
+            if (size == begins.length) {
+                int capacity = size + (size >> 1);
+                begins = Arrays.copyOf(begins, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                categories = Arrays.copyOf(categories, capacity);
+            }
+            begins[size] = begin;
+            ends[size] = end;
+            categories[size] = (byte) category.ordinal();
+            size++;
+        }
+
+        int[] indexesOfCategoriesOtherThan(NamedEntity.Category category) {
+            int[] indexes = new int[size];
+            int nb = 0;
+            for (int i = 0; i < size; i++) {
+                if (categories[i] != category.ordinal()) {
+                    indexes[nb++] = i;
+                }
+            }
+            return nb == size ? indexes : Arrays.copyOf(indexes, nb);
+        }
+    }
+}
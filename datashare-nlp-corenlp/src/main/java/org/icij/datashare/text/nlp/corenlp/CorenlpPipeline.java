@@ -5,7 +5,6 @@ import edu.stanford.nlp.ie.AbstractSequenceClassifier;
 import edu.stanford.nlp.ling.CoreAnnotations.*;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.ling.HasWord;
-import edu.stanford.nlp.ling.TaggedWord;
 import edu.stanford.nlp.tagger.maxent.MaxentTagger;
 import edu.stanford.nlp.util.CoreMap;
 import edu.stanford.nlp.util.Triple;
@@ -13,23 +12,26 @@ import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.text.Document;
 import org.icij.datashare.text.Language;
 import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.nlp.AbstractModels;
 import org.icij.datashare.text.nlp.AbstractPipeline;
-import org.icij.datashare.text.nlp.Annotations;
 import org.icij.datashare.text.nlp.NlpStage;
 import org.icij.datashare.text.nlp.Pipeline;
 import org.icij.datashare.text.nlp.corenlp.models.CoreNlpAnnotator;
+import org.icij.datashare.text.nlp.corenlp.models.CoreNlpModelCache;
+import org.icij.datashare.text.nlp.corenlp.models.CoreNlpModelPool;
 import org.icij.datashare.text.nlp.corenlp.models.CoreNlpNerModels;
 import org.icij.datashare.text.nlp.corenlp.models.CoreNlpPipelineModels;
 import org.icij.datashare.text.nlp.corenlp.models.CoreNlpPosModels;
 
 import java.io.StringReader;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
 import static java.util.Collections.singletonList;
-import static org.icij.datashare.text.NamedEntity.allFrom;
+import static java.util.stream.Collectors.toList;
 import static org.icij.datashare.text.nlp.NlpStage.*;
 
 
@@ -48,15 +50,25 @@ import static org.icij.datashare.text.nlp.NlpStage.*;
  * Created by julien on 3/24/16.
  */
 public final class CorenlpPipeline extends AbstractPipeline {
+    public static final String MODELS_MAX_MEMORY_OPT = "nlpModelsMaxMemoryMegabytes";
+    public static final String MODELS_CACHE_DIR_OPT = "nlpModelsCacheDir";
+    private final CoreNlpModelPool modelPool;
+
     @Inject
     public CorenlpPipeline(final PropertiesProvider propertiesProvider) {
         super(propertiesProvider.getProperties());
-
-        // TOKEN <-- SENTENCE <-- POS <-- LEMMA <-- NER
+        // models of all the languages are kept with caching, else by default they can use half of the heap
+        long maxMemory = caching ? Long.MAX_VALUE : propertiesProvider.get(MODELS_MAX_MEMORY_OPT).map(Long::parseLong).map(mb -> mb * 1024 * 1024)
+                .orElse(Runtime.getRuntime().maxMemory() / 2);
+        this.modelPool = CoreNlpModelPool.getInstance().withMaxMemory(maxMemory);
+        propertiesProvider.get(MODELS_CACHE_DIR_OPT).ifPresent(dir -> CoreNlpNerModels.getInstance().withCache(new CoreNlpModelCache(Paths.get(dir))));
+
+        // TOKEN <-- SENTENCE <-- POS <-- LEMMA
+        //                 <-- NER (the CRF models don't use POS tags nor lemmas)
         stageDependencies.get(SENTENCE).add(TOKEN);
         stageDependencies.get(POS)     .add(SENTENCE);
         stageDependencies.get(LEMMA)   .add(POS);
-        stageDependencies.get(NER)     .add(LEMMA);
+        stageDependencies.get(NER)     .add(SENTENCE);
     }
 
     /**
@@ -75,27 +87,33 @@ public final class CorenlpPipeline extends AbstractPipeline {
         if( ! super.initialize(language) )
             return false;
 
-        if (singletonList(NER).equals(targetStages))
-            return initializeNerAnnotator(language);
-
-        if (singletonList(POS).equals(targetStages))
-            return initializePosAnnotator(language);
+        if (models() == CoreNlpPipelineModels.getInstance())
+            CoreNlpPipelineModels.getInstance().withStages(stages);
+        modelPool.acquire(models(), language);
+        return true;
+    }
 
-        return initializePipelineAnnotator(language);
+    /**
+     * loads the models of the languages (most used first) as long as they fit in memory,
+     * so that the first documents don't wait for them
+     * @return the number of languages loaded
+     */
+    public int warmUp(List<Language> languages) throws InterruptedException {
+        return modelPool.warmUp(models(), languages.stream().filter(l -> supportedStages().containsKey(l)).collect(toList()));
     }
 
     @Override
     public List<NamedEntity> process(Document doc) throws InterruptedException {
         // Is NER the unique target stage?
         if (singletonList(NER).equals(targetStages))
-            return allFrom(doc.getContent(), processNerClassifier(doc.getContent(), doc.getId(), doc.getLanguage()));
+            return processNerClassifier(doc.getContent(), doc.getId(), doc.getLanguage()).namedEntities(doc.getContent());
 
         // Is POS the unique target stage?
         if (singletonList(POS).equals(targetStages))
-            return allFrom(doc.getContent(), processPosClassifier(doc.getContent(), doc.getId(), doc.getLanguage()));
+            return processPosClassifier(doc.getContent(), doc.getId(), doc.getLanguage()).namedEntities(doc.getContent());
 
         // Otherwise
-        return allFrom(doc.getContent(), processPipeline(doc.getContent(), doc.getId(), doc.getLanguage()));
+        return processPipeline(doc.getContent(), doc.getId(), doc.getLanguage()).namedEntities(doc.getContent());
     }
 
     /**
@@ -104,18 +122,16 @@ public final class CorenlpPipeline extends AbstractPipeline {
     @Override
     public void terminate(Language language) throws InterruptedException {
         super.terminate(language);
-        // (Don't) keep pipelines and models
-        if ( ! caching) {
-            CoreNlpPipelineModels.getInstance().unload(language);
-            CoreNlpNerModels.getInstance().unload(language);
-            CoreNlpPosModels.getInstance().unload(language);
-        }
+        // models are kept loaded while they fit in memory
+        modelPool.release(models(), language);
     }
 
-
-    private boolean initializePipelineAnnotator(Language language) throws InterruptedException {
-        CoreNlpPipelineModels.getInstance().get(language);
-        return true;
+    private AbstractModels<?> models() {
+        if (singletonList(NER).equals(targetStages))
+            return CoreNlpNerModels.getInstance();
+        if (singletonList(POS).equals(targetStages))
+            return CoreNlpPosModels.getInstance();
+        return CoreNlpPipelineModels.getInstance();
     }
 
     /**
@@ -126,37 +142,26 @@ public final class CorenlpPipeline extends AbstractPipeline {
      * @param language the input language
      * @return
      */
-    private Annotations processPipeline(String input, String hash, Language language) throws InterruptedException {
-        Annotations annotations = new Annotations(hash, getType(), language);
+    private CoreNlpAnnotations processPipeline(String input, String hash, Language language) throws InterruptedException {
+        CoreNlpAnnotations annotations = new CoreNlpAnnotations(hash, getType(), language);
 
         // CoreNLP annotations data-structure
         edu.stanford.nlp.pipeline.Annotation coreNlpAnnotation = new edu.stanford.nlp.pipeline.Annotation(input);
 
-        LOGGER.info("sentencing ~ tokenizing ~ POS-tagging ~ name-finding for " + language.toString());
+        LOGGER.info(stages + " for " + language.toString());
 
-        // Sentencize input
-        // Tokenize
-        // Pos-tag
-        // NER
+        // Runs the annotators of the stages only (i.e. without POS-tagging for NER)
         CoreNlpPipelineModels.getInstance().get(language).annotate(coreNlpAnnotation);
         // Feed annotations
         List<CoreMap> sentences = coreNlpAnnotation.get(SentencesAnnotation.class);
         for (CoreMap sentence : sentences) {
-            int sentenceBegin = sentence.get(CharacterOffsetBeginAnnotation.class);
-            int sentenceEnd = sentence.get(CharacterOffsetEndAnnotation.class);
-            annotations.add(SENTENCE, sentenceBegin, sentenceEnd);
-
             int nerBegin = 0;
             NamedEntity.Category prevCat = NamedEntity.Category.NONE;
 
+            // only the NER spans are kept : the sentences, tokens and POS tags are not returned
             List<CoreLabel> tokens = sentence.get(TokensAnnotation.class);
             for (CoreLabel token : tokens) {
                 int tokenBegin = token.get(CharacterOffsetBeginAnnotation.class);
-                int tokenEnd = token.get(CharacterOffsetEndAnnotation.class);
-                String pos = token.get(PartOfSpeechAnnotation.class); // for now we don't use POS tagging
-                annotations.add(TOKEN, tokenBegin, tokenEnd);
-                annotations.add(POS, tokenBegin, tokenEnd);
-
                 String cat = token.get(NamedEntityTagAnnotation.class);
                 NamedEntity.Category currCat = NamedEntity.Category.parse(cat);
                 if (currCat != NamedEntity.Category.NONE) {
@@ -165,7 +170,7 @@ public final class CorenlpPipeline extends AbstractPipeline {
                     }
                 } else {
                     if (prevCat != currCat) {
-                        annotations.add(NER, nerBegin, tokenBegin, prevCat);
+                        annotations.add(nerBegin, tokenBegin, prevCat);
                     }
                 }
                 prevCat = currCat;
@@ -175,11 +180,6 @@ public final class CorenlpPipeline extends AbstractPipeline {
     }
 
 
-    private boolean initializeNerAnnotator(Language language) throws InterruptedException {
-        CoreNlpNerModels.getInstance().get(language);
-        return true;
-    }
-
     /**
      * Named Entity Classifier (Conditional Random Fields) only
      *
@@ -187,8 +187,8 @@ public final class CorenlpPipeline extends AbstractPipeline {
      * @param hash     the input hash code
      * @param language the input language
      */
-    private Annotations processNerClassifier(String input, String hash, Language language) throws InterruptedException {
-        Annotations annotations = new Annotations(hash, getType(), language);
+    private CoreNlpAnnotations processNerClassifier(String input, String hash, Language language) throws InterruptedException {
+        CoreNlpAnnotations annotations = new CoreNlpAnnotations(hash, getType(), language);
 
         LOGGER.info("name-finding for " + language.toString());
         // Recognize named entities from input
@@ -201,22 +201,13 @@ public final class CorenlpPipeline extends AbstractPipeline {
             NamedEntity.Category category = NamedEntity.Category.parse(item.first());
             int begin = item.second();
             int end = item.third();
-            annotations.add(NER, begin, end, category);
+            annotations.add(begin, end, category);
         }
 
         return annotations;
     }
 
 
-    private boolean initializePosAnnotator(Language language) {
-        try {
-            CoreNlpPosModels.getInstance().get(language);
-        } catch (InterruptedException e) {
-            return false;
-        }
-        return true;
-    }
-
     /**
      * Part-of-Speech Classification (Maximum entropy) only
      *
@@ -224,8 +215,8 @@ public final class CorenlpPipeline extends AbstractPipeline {
      * @param hash     the input hash code
      * @param language the input language
      */
-    private Annotations processPosClassifier(String input, String hash, Language language) throws InterruptedException {
-        Annotations annotations = new Annotations(hash, getType(), language);
+    private CoreNlpAnnotations processPosClassifier(String input, String hash, Language language) throws InterruptedException {
+        CoreNlpAnnotations annotations = new CoreNlpAnnotations(hash, getType(), language);
         LOGGER.info("POS-tagging for " + language.toString());
 
         // Split input into sentences
@@ -233,15 +224,8 @@ public final class CorenlpPipeline extends AbstractPipeline {
         nlpAnnotator = CoreNlpPosModels.getInstance().get(language);
         List<List<HasWord>> sentences = MaxentTagger.tokenizeText(new StringReader(input));
         for (List<HasWord> sentence : sentences) {
-            // NlpTag with parts-of-speech
-            List<TaggedWord> taggedSentence = nlpAnnotator.annotator.tagSentence(sentence);
-            // Feed annotatopn
-            for (TaggedWord word : taggedSentence) {
-                int begin = word.beginPosition();
-                int end = word.endPosition();
-                String pos = word.tag(); // like line 157 we don't use POS tagging
-                annotations.add(POS, begin, end);
-            }
+            // the parts-of-speech are not named entities, they are not kept (like in processPipeline)
+            nlpAnnotator.annotator.tagSentence(sentence);
         }
         return annotations;
     }
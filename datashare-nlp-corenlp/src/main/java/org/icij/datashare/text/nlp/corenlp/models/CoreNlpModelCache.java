@@ -0,0 +1,206 @@
+package org.icij.datashare.text.nlp.corenlp.models;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Local directory where the serialized models read in the models jars are kept decompressed,
+ * so that they are loaded from a memory mapped file instead of being inflated twice (jar and gzip).
+ *
+ * The models are stored in a directory by version, with a metadata file holding the name, size and
+ * modification date of the jar they come from, and the SHA-256, size and modification date of the
+ * decompressed model. The models are hundreds of MB, so their checksum is verified once per process:
+ * when the model is written, or the first time it is read from the cache. After that, only their size and
+ * modification date are checked. A cached model is written again if its metadata doesn't match the jar
+ * or the model file.
+ */
+public class CoreNlpModelCache {
+    private static final String METADATA_SUFFIX = ".properties";
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Path cacheDir;
+    private final Set<Path> verifiedModels = new HashSet<>();
+
+    public CoreNlpModelCache(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * @return the path of the decompressed model, written from the jar resource if it is not in the cache or invalid
+     */
+    public synchronized Path get(String version, Path modelsJar, String inJarPath, ClassLoader loader) throws IOException {
+        Path modelPath = cacheDir.resolve(version).resolve(inJarPath.endsWith(".gz") ? inJarPath.substring(0, inJarPath.length() - 3) : inJarPath);
+        Properties expected = metadata(version, modelsJar);
+        if (isValid(modelPath, expected)) {
+            return modelPath;
+        }
+        logger.info("writing {} from {} in model cache {}", inJarPath, modelsJar.getFileName(), cacheDir);
+        Files.createDirectories(modelPath.getParent());
+        Path tmpPath = Files.createTempFile(modelPath.getParent(), modelPath.getFileName().toString(), ".tmp");
+        try (InputStream resource = open(inJarPath, loader);
+             DigestOutputStream output = new DigestOutputStream(Files.newOutputStream(tmpPath), sha256())) {
+            copy(resource, output);
+            expected.setProperty("sha256", hex(output.getMessageDigest().digest()));
+        } catch (IOException e) {
+            Files.deleteIfExists(tmpPath);
+            throw e;
+        }
+        if (!expected.getProperty("sha256").equals(sha256(tmpPath))) {
+            Files.deleteIfExists(tmpPath);
+            throw new IOException("bad checksum for " + inJarPath + " written in model cache " + cacheDir);
+        }
+        Files.move(tmpPath, modelPath, REPLACE_EXISTING, ATOMIC_MOVE);
+        expected.setProperty("size", String.valueOf(Files.size(modelPath)));
+        expected.setProperty("lastModified", String.valueOf(Files.getLastModifiedTime(modelPath).toMillis()));
+        try (Writer writer = Files.newBufferedWriter(metadataPath(modelPath), UTF_8)) {
+            expected.store(writer, "datashare CoreNLP model cache");
+        }
+        verifiedModels.add(modelPath);
+        return modelPath;
+    }
+
+    /**
+     * @return a stream on the memory mapped model
+     */
+    public InputStream read(Path modelPath) throws IOException {
+        return new ByteBufferInputStream(map(modelPath));
+    }
+
+    boolean isValid(Path modelPath, Properties expected) throws IOException {
+        Path metadataPath = metadataPath(modelPath);
+        if (!Files.exists(modelPath) || !Files.exists(metadataPath)) {
+            return false;
+        }
+        Properties actual = new Properties();
+        try (Reader reader = Files.newBufferedReader(metadataPath, UTF_8)) {
+            actual.load(reader);
+        }
+        for (String key : expected.stringPropertyNames()) {
+            if (!expected.getProperty(key).equals(actual.getProperty(key))) {
+                logger.info("model cache {} is outdated ({} changed)", modelPath, key);
+                return false;
+            }
+        }
+        if (!String.valueOf(Files.size(modelPath)).equals(actual.getProperty("size")) ||
+                !String.valueOf(Files.getLastModifiedTime(modelPath).toMillis()).equals(actual.getProperty("lastModified"))) {
+            logger.warn("model cache {} has been modified since it was written", modelPath);
+            return false;
+        }
+        if (!verifiedModels.contains(modelPath)) {
+            if (!sha256(modelPath).equals(actual.getProperty("sha256"))) {
+                logger.warn("model cache {} is corrupted (bad checksum)", modelPath);
+                return false;
+            }
+            verifiedModels.add(modelPath);
+        }
+        return true;
+    }
+
+    private static Properties metadata(String version, Path modelsJar) throws IOException {
+        Properties metadata = new Properties();
+        metadata.setProperty("version", version);
+        metadata.setProperty("jar", modelsJar.getFileName().toString());
+        metadata.setProperty("jarSize", String.valueOf(Files.exists(modelsJar) ? Files.size(modelsJar) : -1));
+        metadata.setProperty("jarLastModified", String.valueOf(Files.exists(modelsJar) ? Files.getLastModifiedTime(modelsJar).toMillis() : -1));
+        return metadata;
+    }
+
+    private static InputStream open(String inJarPath, ClassLoader loader) throws IOException {
+        InputStream resource = loader.getResourceAsStream(inJarPath);
+        if (resource == null) {
+            throw new FileNotFoundException("cannot find " + inJarPath + " in classpath");
+        }
+        return inJarPath.endsWith(".gz") ? new GZIPInputStream(resource, 1 << 16) : resource;
+    }
+
+    private static MappedByteBuffer map(Path modelPath) throws IOException {
+        try (FileChannel channel = FileChannel.open(modelPath, READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static void copy(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        int nbRead;
+        while ((nbRead = input.read(buffer)) != -1) {
+            output.write(buffer, 0, nbRead);
+        }
+    }
+
+    private static Path metadataPath(Path modelPath) {
+        return modelPath.resolveSibling(modelPath.getFileName() + METADATA_SUFFIX);
+    }
+
+    private static String sha256(Path path) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(map(path));
+        return hex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int nbRead = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, nbRead);
+            return nbRead;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package org.icij.datashare.text.nlp.corenlp.models;
+
+import org.icij.datashare.text.Language;
+import org.icij.datashare.text.nlp.AbstractModels;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * Keeps the CoreNLP models of the recently used languages loaded, within a memory budget.
+ *
+ * The pipeline acquires the models of a language before processing a document and releases
+ * them after. When the loaded models exceed the budget, the models of the least recently used
+ * languages that are not in use are unloaded. The memory used by the models of a language is
+ * estimated with the size of its models jar.
+ */
+public class CoreNlpModelPool {
+    static final long DEFAULT_MODELS_SIZE = 512L * 1024 * 1024;
+    private static volatile CoreNlpModelPool instance;
+    private static final Object mutex = new Object();
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<PoolKey, PooledModels> pool = new LinkedHashMap<>(16, 0.75f, true);
+    private final ToLongFunction<Language> modelsSize;
+    private volatile long maxMemory = Long.MAX_VALUE;
+    private final AtomicLong loads = new AtomicLong(0);
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+
+    public static CoreNlpModelPool getInstance() {
+        CoreNlpModelPool local_instance = instance;
+        if (local_instance == null) {
+            synchronized (mutex) {
+                local_instance = instance;
+                if (local_instance == null) {
+                    instance = new CoreNlpModelPool(CoreNlpModelPool::jarSize);
+                }
+            }
+        }
+        return instance;
+    }
+
+    CoreNlpModelPool(ToLongFunction<Language> modelsSize) {
+        this.modelsSize = modelsSize;
+    }
+
+    public CoreNlpModelPool withMaxMemory(long maxMemoryBytes) {
+        this.maxMemory = maxMemoryBytes;
+        return this;
+    }
+
+    /**
+     * gets the models of the language, loading them if necessary. They cannot be
+     * unloaded until they are released.
+     */
+    public <T> T acquire(AbstractModels<T> models, Language language) throws InterruptedException {
+        PoolKey key = new PoolKey(models, language);
+        PooledModels pooled;
+        boolean hit;
+        synchronized (this) {
+            pooled = pool.computeIfAbsent(key, k -> new PooledModels());
+            hit = pooled.size > 0 && models.isLoaded(language);
+            pooled.inUse++;
+        }
+        T model;
+        try {
+            model = models.get(language);
+        } catch (InterruptedException | RuntimeException e) {
+            synchronized (this) {
+                pooled.inUse--;
+                if (pooled.size == 0 && pooled.inUse == 0) {
+                    pool.remove(key);
+                }
+            }
+            throw e;
+        }
+        if (hit) {
+            hits.incrementAndGet();
+        } else {
+            loads.incrementAndGet();
+            synchronized (this) {
+                pooled.size = modelsSize.applyAsLong(language);
+            }
+            logger.info("loaded {} models for {} ({} MB)", models.getClass().getSimpleName(), language, pooled.size / (1024 * 1024));
+            evictOverMaxMemory();
+        }
+        return model;
+    }
+
+    /**
+     * releases the models of the language: they will be unloaded if needed
+     */
+    public void release(AbstractModels<?> models, Language language) throws InterruptedException {
+        synchronized (this) {
+            PooledModels pooled = pool.get(new PoolKey(models, language));
+            if (pooled != null && pooled.inUse > 0) {
+                pooled.inUse--;
+            }
+        }
+        evictOverMaxMemory();
+    }
+
+    /**
+     * loads the models of the languages in the given order until the max memory is reached
+     * @return the number of languages loaded
+     */
+    public int warmUp(AbstractModels<?> models, List<Language> languages) throws InterruptedException {
+        int nbLanguages = 0;
+        for (Language language : languages) {
+            if (getLoadedSize() + modelsSize.applyAsLong(language) > maxMemory) {
+                break;
+            }
+            acquire(models, language);
+            release(models, language);
+            nbLanguages++;
+        }
+        return nbLanguages;
+    }
+
+    public long getLoads() { return loads.get();}
+    public long getHits() { return hits.get();}
+    public long getEvictions() { return evictions.get();}
+
+    public synchronized long getLoadedSize() {
+        return pool.values().stream().mapToLong(p -> p.size).sum();
+    }
+
+    private synchronized void evictOverMaxMemory() throws InterruptedException {
+        long loadedSize = getLoadedSize();
+        Iterator<Map.Entry<PoolKey, PooledModels>> lruIterator = pool.entrySet().iterator();
+        while (loadedSize > maxMemory && lruIterator.hasNext()) {
+            Map.Entry<PoolKey, PooledModels> entry = lruIterator.next();
+            if (entry.getValue().inUse == 0) {
+                lruIterator.remove();
+                entry.getKey().models.unload(entry.getKey().language);
+                loadedSize -= entry.getValue().size;
+                evictions.incrementAndGet();
+                logger.info("unloaded {} models for {}", entry.getKey().models.getClass().getSimpleName(), entry.getKey().language);
+            }
+        }
+    }
+
+    private static long jarSize(Language language) {
+        CoreNlpNerModels nerModels = CoreNlpNerModels.getInstance();
+        Path jarPath = nerModels.getModelsBasePath(language).resolve(nerModels.getJarFileName(language));
+        try {
+            return Files.size(jarPath);
+        } catch (IOException e) {
+            return DEFAULT_MODELS_SIZE;
+        }
+    }
+
+    private static class PooledModels {
+        private long size = 0;
+        private int inUse = 0;
+    }
+
+    private static class PoolKey {
+        private final AbstractModels<?> models;
+        private final Language language;
+
+        PoolKey(AbstractModels<?> models, Language language) {
+            this.models = models;
+            this.language = language;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PoolKey poolKey = (PoolKey) o;
+            return models == poolKey.models && language == poolKey.language;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(models), language);
+        }
+    }
+}
@@ -29,6 +29,13 @@ public abstract class CoreNlpModels<T> extends AbstractModels<CoreNlpAnnotator<T
         return IN_JAR_BASE_PATH.resolve(modelNames.get(language)).toString();
     }
 
+    /**
+     * @return the path of the model given to the CoreNLP pipeline
+     */
+    String getModelPath(Language language) {
+        return getInJarModelPath(language);
+    }
+
     @Override
     protected String getVersion() { return VERSION;}
     abstract String getPropertyName();
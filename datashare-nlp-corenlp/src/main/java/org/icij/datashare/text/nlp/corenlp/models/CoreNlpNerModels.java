@@ -6,6 +6,7 @@ import edu.stanford.nlp.ling.CoreLabel;
 import org.icij.datashare.text.Language;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
@@ -39,6 +40,7 @@ import static org.icij.datashare.text.nlp.NlpStage.NER;
 public class CoreNlpNerModels extends CoreNlpModels<AbstractSequenceClassifier<CoreLabel>> {
     private static volatile CoreNlpNerModels instance;
     private static final Object mutex = new Object();
+    private volatile CoreNlpModelCache cache;
 
     public static final Map<Language, String> POS_TAGSET = new HashMap<Language, String>() {{
         put(ENGLISH, "PENN TREEBANK");
@@ -71,13 +73,53 @@ public class CoreNlpNerModels extends CoreNlpModels<AbstractSequenceClassifier<C
             }
         }
         super.addResourceToContextClassLoader(modelFilePath);
+        long start = System.currentTimeMillis();
         try {
-            return new CoreNlpAnnotator<>(CRFClassifier.getClassifier(getInJarModelPath(language)));
+            CoreNlpAnnotator<AbstractSequenceClassifier<CoreLabel>> annotator = new CoreNlpAnnotator<>(loadClassifier(language, modelFilePath));
+            LOGGER.info("loaded NER model for {} in {}ms ({})", language, System.currentTimeMillis() - start, cache == null ? "from jar" : "from cache");
+            return annotator;
         } catch (ClassNotFoundException e) {
             throw new IllegalStateException("cannot find CRFClassifier class", e);
         }
     }
 
+    private AbstractSequenceClassifier<CoreLabel> loadClassifier(Language language, Path modelFilePath) throws IOException, ClassNotFoundException {
+        CoreNlpModelCache modelCache = cache;
+        if (modelCache != null) {
+            try {
+                Path cachedModel = modelCache.get(VERSION, modelFilePath, getInJarModelPath(language), getClass().getClassLoader());
+                try (InputStream model = modelCache.read(cachedModel)) {
+                    return CRFClassifier.getClassifier(model);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("cannot load NER model for {} from cache, loading it from jar", language, e);
+            }
+        }
+        return CRFClassifier.getClassifier(getInJarModelPath(language));
+    }
+
+    @Override
+    String getModelPath(Language language) {
+        CoreNlpModelCache modelCache = cache;
+        if (modelCache != null) {
+            try {
+                return modelCache.get(VERSION, getModelsBasePath(language).resolve(getJarFileName(language)),
+                        getInJarModelPath(language), getClass().getClassLoader()).toString();
+            } catch (IOException e) {
+                LOGGER.warn("cannot get NER model for {} from cache, using the one in jar", language, e);
+            }
+        }
+        return getInJarModelPath(language);
+    }
+
+    /**
+     * loads the models from the given cache (the ones already loaded are kept)
+     */
+    public CoreNlpNerModels withCache(CoreNlpModelCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
     private CoreNlpNerModels() {
         super(NER);
         modelNames.put(ENGLISH, "ner/english.all.3class.caseless.distsim.crf.ser.gz");
@@ -7,9 +7,9 @@ import org.icij.datashare.text.nlp.NlpStage;
 import org.icij.datashare.text.nlp.Pipeline;
 
 import java.util.*;
+import java.util.stream.Stream;
 
 import static java.util.Arrays.asList;
-import static java.util.Arrays.stream;
 import static java.util.stream.Collectors.toList;
 import static org.icij.datashare.text.Language.*;
 import static org.icij.datashare.text.nlp.NlpStage.*;
@@ -35,19 +35,37 @@ public class CoreNlpPipelineModels extends AbstractModels<StanfordCoreNLP> {
                 put(NER, "ner");
             }};
 
+    private volatile List<NlpStage> stages = asList(TOKEN, SENTENCE, POS, LEMMA, NER);
+
     @Override
     protected StanfordCoreNLP loadModelFile(Language language) {
-        LOGGER.info("loading pipeline Annotator for " + language);
+        List<NlpStage> pipelineStages = stages;
+        LOGGER.info("loading pipeline Annotator for " + language + " with stages " + pipelineStages);
         Properties properties = new Properties();
-        properties.setProperty("annotators", String.join(", ", getCoreNlpStages()));
+        properties.setProperty("annotators", String.join(", ", getCoreNlpStages(pipelineStages)));
         properties.setProperty("ner.useSUTime", "false");
         properties.setProperty("ner.applyNumericClassifiers", "false");
         properties.setProperty("tokenize.language", language.iso6391Code());
 
-        stream(NlpStage.values()).map(this::getModels).filter(Optional::isPresent).map(Optional::get).
-                forEach(m -> properties.setProperty(m.getPropertyName(), m.getInJarModelPath(language)));
+        pipelineStages.stream().map(this::getModels).filter(Optional::isPresent).map(Optional::get).
+                forEach(m -> properties.setProperty(m.getPropertyName(), m.getModelPath(language)));
+
+        boolean nerOnly = pipelineStages.contains(NER) && !pipelineStages.contains(POS);
+        if (nerOnly) {
+            // the CRF models only use the tokens: fine grained NER and mentions would need POS and lemmas
+            properties.setProperty("ner.applyFineGrained", "false");
+            properties.setProperty("ner.buildEntityMentions", "false");
+        }
+        return new StanfordCoreNLP(properties, !nerOnly);
+    }
 
-        return new StanfordCoreNLP(properties, true);
+    /**
+     * sets the stages of the pipelines loaded after this call: only the annotators
+     * of these stages are added to the CoreNLP pipeline
+     */
+    public CoreNlpPipelineModels withStages(List<NlpStage> stages) {
+        this.stages = stages;
+        return this;
     }
 
     public static CoreNlpPipelineModels getInstance() {
@@ -78,9 +96,8 @@ public class CoreNlpPipelineModels extends AbstractModels<StanfordCoreNLP> {
         super(Pipeline.Type.CORENLP, null);
     }
 
-    private List<String> getCoreNlpStages() {
-        return stream(NlpStage.values()).map(this::getModels).filter(Optional::isPresent).
-                map(m -> CORENLP_STAGE_NAMES.get(m.get().stage)).collect(toList());
+    static List<String> getCoreNlpStages(List<NlpStage> stages) {
+        return Stream.of(TOKEN, SENTENCE, POS, LEMMA, NER).filter(stages::contains).map(CORENLP_STAGE_NAMES::get).collect(toList());
     }
 
     @Override
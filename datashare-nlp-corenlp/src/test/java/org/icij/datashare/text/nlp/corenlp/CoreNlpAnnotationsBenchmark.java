@@ -0,0 +1,61 @@
+package org.icij.datashare.text.nlp.corenlp;
+
+import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.nlp.Annotations;
+
+import static org.icij.datashare.text.Language.ENGLISH;
+import static org.icij.datashare.text.nlp.NlpStage.*;
+import static org.icij.datashare.text.nlp.Pipeline.Type.CORENLP;
+
+/**
+ * Heap used by the annotations of a large document (TOKEN, POS and one NER span every 20 tokens)
+ * stored as {@link Annotations} (one object per span) and as {@link CoreNlpAnnotations} (primitive arrays,
+ * only for the NER spans).
+ *
+ * It doesn't need the CoreNLP models but it is not run with the tests:
+ *
+ * mvn -pl datashare-nlp-corenlp test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=org.icij.datashare.text.nlp.corenlp.CoreNlpAnnotationsBenchmark \
+ *   -Dexec.args="10000000"
+ *
+ * where the argument is the number of tokens of the document.
+ */
+public class CoreNlpAnnotationsBenchmark {
+    public static void main(String[] args) {
+        int nbTokens = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        System.out.printf("document with %d tokens and %d named entities%n", nbTokens, nbTokens / 20);
+
+        long before = usedHeap();
+        Annotations annotations = new Annotations("docId", CORENLP, ENGLISH);
+        for (int i = 0; i < nbTokens; i++) {
+            annotations.add(TOKEN, i * 6, i * 6 + 5);
+            annotations.add(POS, i * 6, i * 6 + 5);
+            if (i % 20 == 0) {
+                annotations.add(NER, i * 6, i * 6 + 11, NamedEntity.Category.PERSON);
+            }
+        }
+        long annotationsHeap = usedHeap() - before;
+        System.out.printf("  %-20s %8d MB (%d spans)%n", "Annotations", annotationsHeap / (1024 * 1024),
+                annotations.get(TOKEN).size() + annotations.get(POS).size() + annotations.get(NER).size());
+        annotations = null;
+
+        before = usedHeap();
+        CoreNlpAnnotations coreNlpAnnotations = new CoreNlpAnnotations("docId", CORENLP, ENGLISH);
+        for (int i = 0; i < nbTokens; i++) {
+            if (i % 20 == 0) {
+                coreNlpAnnotations.add(i * 6, i * 6 + 11, NamedEntity.Category.PERSON);
+            }
+        }
+        long coreNlpAnnotationsHeap = usedHeap() - before;
+        System.out.printf("  %-20s %8d MB (%d spans)%n", "CoreNlpAnnotations", coreNlpAnnotationsHeap / (1024 * 1024),
+                coreNlpAnnotations.size());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
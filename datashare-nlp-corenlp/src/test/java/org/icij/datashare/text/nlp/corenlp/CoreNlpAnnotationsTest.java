@@ -0,0 +1,65 @@
+package org.icij.datashare.text.nlp.corenlp;
+
+import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.nlp.Annotations;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.text.Language.ENGLISH;
+import static org.icij.datashare.text.NamedEntity.Category.*;
+import static org.icij.datashare.text.nlp.NlpStage.NER;
+import static org.icij.datashare.text.nlp.Pipeline.Type.CORENLP;
+
+public class CoreNlpAnnotationsTest {
+    private static final String CONTENT = "Jane Doe lives in\nNew York with ACME";
+
+    @Test
+    public void test_named_entities_are_the_same_as_with_annotations() {
+        CoreNlpAnnotations coreNlpAnnotations = new CoreNlpAnnotations("docId", CORENLP, ENGLISH);
+        Annotations annotations = new Annotations("docId", CORENLP, ENGLISH);
+        for (Object[] span : new Object[][] {{0, 8, PERSON}, {18, 26, LOCATION}, {32, 36, ORGANIZATION}}) {
+            coreNlpAnnotations.add((int) span[0], (int) span[1], (NamedEntity.Category) span[2]);
+            annotations.add(NER, (int) span[0], (int) span[1], (NamedEntity.Category) span[2]);
+        }
+
+        List<NamedEntity> namedEntities = coreNlpAnnotations.namedEntities(CONTENT);
+
+        assertThat(namedEntities).isEqualTo(NamedEntity.allFrom(CONTENT, annotations));
+        assertThat(namedEntities.get(1).getOffset()).isEqualTo(18);
+        assertThat(namedEntities.get(1).getDocumentId()).isEqualTo("docId");
+    }
+
+    @Test
+    public void test_named_entities_without_unknown_category() {
+        CoreNlpAnnotations annotations = new CoreNlpAnnotations("docId", CORENLP, ENGLISH);
+        annotations.add(0, 8, PERSON);
+        annotations.add(9, 14, UNKNOWN);
+        annotations.add(32, 36, ORGANIZATION);
+
+        List<NamedEntity> namedEntities = annotations.namedEntities(CONTENT);
+
+        assertThat(namedEntities).hasSize(2);
+        assertThat(namedEntities.get(0).getMention()).isEqualTo("Jane Doe");
+        assertThat(namedEntities.get(1).getMention()).isEqualTo("ACME");
+    }
+
+    @Test
+    public void test_named_entities_without_ner_spans() {
+        CoreNlpAnnotations annotations = new CoreNlpAnnotations("docId", CORENLP, ENGLISH);
+
+        assertThat(annotations.namedEntities(CONTENT)).isEmpty();
+    }
+
+    @Test
+    public void test_spans_grow_over_initial_capacity() {
+        CoreNlpAnnotations annotations = new CoreNlpAnnotations("docId", CORENLP, ENGLISH);
+        for (int i = 0; i < 1000; i++) {
+            annotations.add(i, i + 1, PERSON);
+        }
+
+        assertThat(annotations.size()).isEqualTo(1000);
+        assertThat(annotations.namedEntities(CONTENT + new String(new char[1000])).get(999).getOffset()).isEqualTo(999);
+    }
+}
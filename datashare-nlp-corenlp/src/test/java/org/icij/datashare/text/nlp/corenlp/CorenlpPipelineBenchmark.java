@@ -0,0 +1,73 @@
+package org.icij.datashare.text.nlp.corenlp;
+
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
+import org.icij.datashare.text.nlp.corenlp.models.CoreNlpPipelineModels;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.icij.datashare.text.DocumentBuilder.createDoc;
+
+/**
+ * Throughput of the CoreNLP pipeline with all the annotators (TOKEN,SENTENCE,POS,LEMMA,NER)
+ * compared to the NER only chain (TOKEN,SENTENCE,NER) and to the CRF classifier alone (NER).
+ *
+ * It needs the CoreNLP models of the languages, so it is not run with the tests:
+ *
+ * mvn -pl datashare-nlp-corenlp test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=org.icij.datashare.text.nlp.corenlp.CorenlpPipelineBenchmark \
+ *   -Dexec.args="/path/to/english/corpus ENGLISH /path/to/french/corpus FRENCH"
+ *
+ * where corpora are directories of text files.
+ */
+public class CorenlpPipelineBenchmark {
+    private static final String[] STAGES = {"TOKEN,SENTENCE,POS,LEMMA,NER", "SENTENCE,NER", "NER"};
+
+    public static void main(String[] args) throws Exception {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            Language language = Language.parse(args[i + 1]);
+            List<Document> corpus = readCorpus(Paths.get(args[i]), language);
+            long nbChars = corpus.stream().mapToLong(d -> d.getContent().length()).sum();
+            System.out.printf("%s corpus: %d documents, %d chars%n", language, corpus.size(), nbChars);
+
+            for (String stages : STAGES) {
+                CorenlpPipeline pipeline = new CorenlpPipeline(new PropertiesProvider(new HashMap<String, String>() {{
+                    put("nlpStages", stages);
+                }}));
+                pipeline.initialize(language); // loads the models before measuring
+                int nbEntities = 0;
+                long start = System.currentTimeMillis();
+                for (Document document : corpus) {
+                    nbEntities += pipeline.process(document).size();
+                }
+                long durationMs = Math.max(1, System.currentTimeMillis() - start);
+                pipeline.terminate(language);
+                CoreNlpPipelineModels.getInstance().unload(language); // the next stages need another chain
+
+                System.out.printf("  %-30s %8.1f docs/s %12.0f chars/s %8d entities%n", stages,
+                        corpus.size() * 1000.0 / durationMs, nbChars * 1000.0 / durationMs, nbEntities);
+            }
+        }
+    }
+
+    private static List<Document> readCorpus(Path corpusDir, Language language) throws IOException {
+        try (Stream<Path> files = Files.walk(corpusDir)) {
+            return files.filter(Files::isRegularFile).map(path -> {
+                try {
+                    return createDoc(path.getFileName().toString()).with(new String(Files.readAllBytes(path), UTF_8)).with(language).build();
+                } catch (IOException e) {
+                    throw new IllegalStateException("cannot read " + path, e);
+                }
+            }).collect(toList());
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.icij.datashare.text.nlp.corenlp.models;
+
+import org.icij.datashare.text.Language;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Loading time of the NER models by language: from the models jar, then with an empty model
+ * cache (the model is also written in the cache) and with the cache already filled.
+ *
+ * It needs the CoreNLP models of the languages, so it is not run with the tests:
+ *
+ * mvn -pl datashare-nlp-corenlp test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=org.icij.datashare.text.nlp.corenlp.models.CoreNlpModelCacheBenchmark \
+ *   -Dexec.args="ENGLISH FRENCH SPANISH GERMAN"
+ *
+ * The english models are loaded first with every language, so ENGLISH should be the first argument.
+ */
+public class CoreNlpModelCacheBenchmark {
+    public static void main(String[] args) throws Exception {
+        Path cacheDir = Files.createTempDirectory("corenlp-models");
+        CoreNlpNerModels models = CoreNlpNerModels.getInstance();
+        System.out.printf("%-10s %12s %12s %12s%n", "language", "jar", "cold cache", "warm cache");
+        for (String arg : args) {
+            Language language = Language.parse(arg);
+            long fromJar = loadingMillis(models.withCache(null), language);
+            long coldCache = loadingMillis(models.withCache(new CoreNlpModelCache(cacheDir)), language);
+            long warmCache = loadingMillis(models.withCache(new CoreNlpModelCache(cacheDir)), language);
+            System.out.printf("%-10s %10dms %10dms %10dms%n", language, fromJar, coldCache, warmCache);
+        }
+    }
+
+    private static long loadingMillis(CoreNlpNerModels models, Language language) throws InterruptedException {
+        models.unload(language);
+        System.gc();
+        long start = System.currentTimeMillis();
+        models.get(language);
+        return System.currentTimeMillis() - start;
+    }
+}
@@ -0,0 +1,152 @@
+package org.icij.datashare.text.nlp.corenlp.models;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CoreNlpModelCacheTest {
+    private static final String MODEL_PATH = "edu/stanford/nlp/models/ner/test.crf.ser.gz";
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+    private final ClassLoader emptyLoader = new URLClassLoader(new URL[0], null);
+    private CoreNlpModelCache cache;
+    private Path modelsJar;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new CoreNlpModelCache(folder.newFolder("cache").toPath());
+        modelsJar = folder.getRoot().toPath().resolve("models.jar");
+        writeModelsJar("serialized model");
+    }
+
+    @Test
+    public void test_get_writes_decompressed_model() throws Exception {
+        Path model = getFromJar("4.0.0");
+
+        assertThat(model.toString()).endsWith("4.0.0/edu/stanford/nlp/models/ner/test.crf.ser");
+        assertThat(new String(Files.readAllBytes(model), UTF_8)).isEqualTo("serialized model");
+        assertThat(Files.exists(model.resolveSibling("test.crf.ser.properties"))).isTrue();
+    }
+
+    @Test
+    public void test_get_valid_model_without_reading_jar() throws Exception {
+        Path model = getFromJar("4.0.0");
+
+        assertThat(cache.get("4.0.0", modelsJar, MODEL_PATH, emptyLoader)).isEqualTo(model);
+    }
+
+    @Test
+    public void test_get_writes_again_truncated_model() throws Exception {
+        Path model = getFromJar("4.0.0");
+        Files.write(model, "serialized".getBytes(UTF_8));
+
+        getFromJar("4.0.0");
+
+        assertThat(new String(Files.readAllBytes(model), UTF_8)).isEqualTo("serialized model");
+    }
+
+    @Test
+    public void test_get_writes_again_modified_model() throws Exception {
+        Path model = getFromJar("4.0.0");
+        Files.write(model, "serialized modex".getBytes(UTF_8));
+        Files.setLastModifiedTime(model, FileTime.fromMillis(0));
+
+        getFromJar("4.0.0");
+
+        assertThat(new String(Files.readAllBytes(model), UTF_8)).isEqualTo("serialized model");
+    }
+
+    @Test
+    public void test_get_writes_again_corrupted_model_at_first_read_of_the_process() throws Exception {
+        Path model = getFromJar("4.0.0");
+        FileTime lastModified = Files.getLastModifiedTime(model);
+        Files.write(model, "serialized modex".getBytes(UTF_8));
+        Files.setLastModifiedTime(model, lastModified);
+        cache = new CoreNlpModelCache(folder.getRoot().toPath().resolve("cache"));
+
+        getFromJar("4.0.0");
+
+        assertThat(new String(Files.readAllBytes(model), UTF_8)).isEqualTo("serialized model");
+    }
+
+    @Test
+    public void test_metadata_of_written_model() throws Exception {
+        Path model = getFromJar("4.0.0");
+
+        Properties metadata = new Properties();
+        try (InputStream input = Files.newInputStream(model.resolveSibling("test.crf.ser.properties"))) {
+            metadata.load(input);
+        }
+        assertThat(metadata.getProperty("sha256")).hasSize(64);
+        assertThat(metadata.getProperty("size")).isEqualTo("16");
+        assertThat(metadata.getProperty("lastModified")).isEqualTo(String.valueOf(Files.getLastModifiedTime(model).toMillis()));
+    }
+
+    @Test
+    public void test_get_writes_again_model_of_modified_jar() throws Exception {
+        Path model = getFromJar("4.0.0");
+        writeModelsJar("new serialized model");
+
+        getFromJar("4.0.0");
+
+        assertThat(new String(Files.readAllBytes(model), UTF_8)).isEqualTo("new serialized model");
+    }
+
+    @Test
+    public void test_get_model_by_version() throws Exception {
+        Path model = getFromJar("4.0.0");
+
+        assertThat(getFromJar("4.2.0")).isNotEqualTo(model);
+    }
+
+    @Test(expected = IOException.class)
+    public void test_get_model_not_in_classpath() throws Exception {
+        cache.get("4.0.0", modelsJar, MODEL_PATH, emptyLoader);
+    }
+
+    @Test
+    public void test_read_model() throws Exception {
+        Path model = getFromJar("4.0.0");
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream input = cache.read(model)) {
+            int b;
+            while ((b = input.read()) != -1) {
+                content.write(b);
+            }
+        }
+        assertThat(new String(content.toByteArray(), UTF_8)).isEqualTo("serialized model");
+    }
+
+    private Path getFromJar(String version) throws IOException {
+        try (URLClassLoader jarLoader = new URLClassLoader(new URL[] {modelsJar.toUri().toURL()}, null)) {
+            return cache.get(version, modelsJar, MODEL_PATH, jarLoader);
+        }
+    }
+
+    private void writeModelsJar(String model) throws IOException {
+        try (ZipOutputStream jar = new ZipOutputStream(Files.newOutputStream(modelsJar))) {
+            jar.putNextEntry(new ZipEntry(MODEL_PATH));
+            GZIPOutputStream gzip = new GZIPOutputStream(jar);
+            gzip.write(model.getBytes(UTF_8));
+            gzip.finish();
+            jar.closeEntry();
+        }
+    }
+}
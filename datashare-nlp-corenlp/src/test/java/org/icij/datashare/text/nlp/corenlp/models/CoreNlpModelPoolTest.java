@@ -0,0 +1,83 @@
+package org.icij.datashare.text.nlp.corenlp.models;
+
+import org.icij.datashare.text.Language;
+import org.icij.datashare.text.nlp.AbstractModels;
+import org.icij.datashare.text.nlp.Pipeline;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.text.Language.*;
+import static org.icij.datashare.text.nlp.NlpStage.NER;
+
+public class CoreNlpModelPoolTest {
+    private final AbstractModels<String> models = new AbstractModels<String>(Pipeline.Type.CORENLP, NER) {
+        @Override
+        protected String loadModelFile(Language language) { return language.name();}
+
+        @Override
+        protected String getVersion() { return "test";}
+    };
+    private final CoreNlpModelPool pool = new CoreNlpModelPool(language -> 100).withMaxMemory(200);
+
+    @BeforeClass
+    public static void setUpClass() {
+        AbstractModels.syncModels(false);
+    }
+
+    @Test
+    public void test_acquire_loads_models_once() throws Exception {
+        assertThat(pool.acquire(models, FRENCH)).isEqualTo("FRENCH");
+        pool.release(models, FRENCH);
+        assertThat(pool.acquire(models, FRENCH)).isEqualTo("FRENCH");
+        pool.release(models, FRENCH);
+
+        assertThat(pool.getLoads()).isEqualTo(1);
+        assertThat(pool.getHits()).isEqualTo(1);
+        assertThat(models.isLoaded(FRENCH)).isTrue();
+    }
+
+    @Test
+    public void test_least_recently_used_models_are_unloaded_over_max_memory() throws Exception {
+        use(ENGLISH);
+        use(FRENCH);
+        use(ENGLISH);
+        use(GERMAN);
+
+        assertThat(models.isLoaded(FRENCH)).isFalse();
+        assertThat(models.isLoaded(ENGLISH)).isTrue();
+        assertThat(models.isLoaded(GERMAN)).isTrue();
+        assertThat(pool.getEvictions()).isEqualTo(1);
+        assertThat(pool.getLoadedSize()).isEqualTo(200);
+    }
+
+    @Test
+    public void test_models_in_use_are_not_unloaded() throws Exception {
+        pool.withMaxMemory(100);
+        pool.acquire(models, ENGLISH);
+        pool.acquire(models, FRENCH);
+
+        assertThat(models.isLoaded(ENGLISH)).isTrue();
+        assertThat(models.isLoaded(FRENCH)).isTrue();
+
+        pool.release(models, FRENCH);
+        assertThat(models.isLoaded(FRENCH)).isFalse();
+        assertThat(models.isLoaded(ENGLISH)).isTrue();
+    }
+
+    @Test
+    public void test_warm_up_loads_languages_that_fit_in_memory() throws Exception {
+        assertThat(pool.warmUp(models, asList(ENGLISH, FRENCH, GERMAN))).isEqualTo(2);
+
+        assertThat(models.isLoaded(ENGLISH)).isTrue();
+        assertThat(models.isLoaded(FRENCH)).isTrue();
+        assertThat(models.isLoaded(GERMAN)).isFalse();
+        assertThat(pool.getEvictions()).isEqualTo(0);
+    }
+
+    private void use(Language language) throws InterruptedException {
+        pool.acquire(models, language);
+        pool.release(models, language);
+    }
+}
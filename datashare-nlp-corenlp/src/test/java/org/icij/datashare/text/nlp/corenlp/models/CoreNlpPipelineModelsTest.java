@@ -0,0 +1,21 @@
+package org.icij.datashare.text.nlp.corenlp.models;
+
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.text.nlp.NlpStage.*;
+
+public class CoreNlpPipelineModelsTest {
+    @Test
+    public void test_annotators_for_all_stages() {
+        assertThat(CoreNlpPipelineModels.getCoreNlpStages(asList(NER, LEMMA, POS, SENTENCE, TOKEN)))
+                .containsExactly("tokenize", "ssplit", "pos", "lemma", "ner");
+    }
+
+    @Test
+    public void test_annotators_for_ner_do_not_include_pos_and_lemma() {
+        assertThat(CoreNlpPipelineModels.getCoreNlpStages(asList(TOKEN, SENTENCE, NER)))
+                .containsExactly("tokenize", "ssplit", "ner");
+    }
+}